@@ -20,6 +20,10 @@
 
 package org.apache.metron.profiler.client;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Result;
@@ -28,18 +32,33 @@ import org.apache.metron.profiler.ProfilePeriod;
 import org.apache.metron.profiler.hbase.ColumnBuilder;
 import org.apache.metron.profiler.hbase.RowKeyBuilder;
 import org.apache.metron.common.utils.SerDeUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.function.Supplier;
 
 /**
  * The default implementation of a ProfilerClient that fetches profile data persisted in HBase.
+ *
+ * The values of profile periods that have already ended can no longer change, so the client can
+ * optionally cache those values.  A large fetch can also optionally be split into batches
+ * that are submitted to HBase in parallel, and the rollups written by the Profiler can be read in place
+ * of the profile periods within them.
  */
-public class HBaseProfilerClient implements ProfilerClient {
+public class HBaseProfilerClient implements ProfilerClient, Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(HBaseProfilerClient.class);
 
   /**
    * Used to access the profile data stored in HBase.
@@ -56,12 +75,94 @@ public class HBaseProfilerClient implements ProfilerClient {
    */
   private ColumnBuilder columnBuilder;
 
+  /**
+   * The serialized values of profile periods that have ended, keyed by row key.  The
+   * values are cached in serialized form so that each fetch returns its own copy of a value,
+   * which the caller is free to change.  Null if values are not cached.
+   *
+   * A value that is rewritten after it was cached, for example by a replay or batch run of
+   * the Profiler, is not seen until its cache entry expires.
+   */
+  private Cache<ByteBuffer, byte[]> cache;
+
+  /**
+   * The maximum number of Gets submitted to HBase in a single request.
+   */
+  private int batchSize = Integer.MAX_VALUE;
+
+  /**
+   * Submits batches of Gets to HBase in parallel.  Null if batches are submitted one after another.
+   */
+  private ExecutorService executor;
+
+  /**
+   * Creates the table used by each thread of the executor, as an HTableInterface is not thread-safe.
+   */
+  private Supplier<HTableInterface> tableFactory;
+
+  /**
+   * The table used by each thread of the executor.
+   */
+  private ThreadLocal<HTableInterface> executorTable;
+
+  /**
+   * All of the tables created for the threads of the executor.
+   */
+  private final List<HTableInterface> executorTables = Collections.synchronizedList(new ArrayList<>());
+
+  /**
+   * Plans which rollups can be read in place of profile periods.  Null if rollups are not read.
+   */
+  private RollupPlanner rollupPlanner;
+
   public HBaseProfilerClient(HTableInterface table, RowKeyBuilder rowKeyBuilder, ColumnBuilder columnBuilder) {
     setTable(table);
     setRowKeyBuilder(rowKeyBuilder);
     setColumnBuilder(columnBuilder);
   }
 
+  /**
+   * Cache the values of profile periods that have ended.
+   *
+   * Only values that exist are cached, as a value may still be written for a period that ended recently.
+   * A value that is rewritten after it was cached is not seen until it expires from the cache.
+   *
+   * @param maxBytes The maximum number of bytes of serialized values to cache.
+   * @param expiry How long a value is cached after it was read.
+   * @param units The units of the expiry.
+   */
+  public HBaseProfilerClient withCache(long maxBytes, long expiry, TimeUnit units) {
+    this.cache = CacheBuilder.newBuilder()
+            .maximumWeight(maxBytes)
+            .expireAfterWrite(expiry, units)
+            .weigher((ByteBuffer key, byte[] value) -> key.remaining() + value.length)
+            .build();
+    return this;
+  }
+
+  /**
+   * Split large fetches into batches of Gets that are submitted to HBase in parallel.
+   *
+   * @param batchSize The maximum number of Gets submitted to HBase in a single request.
+   * @param threads The number of threads used to submit batches, in addition to the calling thread.
+   * @param tableFactory Creates the table used by each of the threads.
+   */
+  public HBaseProfilerClient withParallelGets(int batchSize, int threads, Supplier<HTableInterface> tableFactory) {
+    if(batchSize < 1) {
+      throw new IllegalArgumentException(String.format("batch size must be positive; got %d", batchSize));
+    }
+    this.batchSize = batchSize;
+    if(threads > 0) {
+      this.tableFactory = tableFactory;
+      this.executorTable = ThreadLocal.withInitial(this::createExecutorTable);
+      this.executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+              .setNameFormat("profiler-client-%d")
+              .setDaemon(true)
+              .build());
+    }
+    return this;
+  }
+
   /**
    * Fetches all of the data values associated with a Profile.
    *
@@ -95,20 +196,10 @@ public class HBaseProfilerClient implements ProfilerClient {
    */
   @Override
   public <T> List<T> fetch(Class<T> clazz, String profile, String entity, List<Object> groups, long start, long end) {
-    byte[] columnFamily = Bytes.toBytes(columnBuilder.getColumnFamily());
-    byte[] columnQualifier = columnBuilder.getColumnQualifier("value");
 
-    // find all the row keys that satisfy this fetch
+    // find all the row keys that satisfy this fetch; the periods are not known, so none can be cached
     List<byte[]> keysToFetch = rowKeyBuilder.rowKeys(profile, entity, groups, start, end);
-
-    // create a Get for each of the row keys
-    List<Get> gets = keysToFetch
-            .stream()
-            .map(k -> new Get(k).addColumn(columnFamily, columnQualifier))
-            .collect(Collectors.toList());
-
-    // get the 'gets'
-    return get(gets, columnQualifier, columnFamily, clazz);
+    return deserialize(getValues(keysToFetch, null), clazz);
   }
 
   /**
@@ -123,58 +214,225 @@ public class HBaseProfilerClient implements ProfilerClient {
    */
   @Override
   public <T> List<T> fetch(Class<T> clazz, String profile, String entity, List<Object> groups, Iterable<ProfilePeriod> periods) {
-    byte[] columnFamily = Bytes.toBytes(columnBuilder.getColumnFamily());
-    byte[] columnQualifier = columnBuilder.getColumnQualifier("value");
+    if(rollupPlanner != null) {
+      return fetchWithRollups(clazz, profile, entity, groups, periods);
+    }
 
     // find all the row keys that satisfy this fetch
+    long now = System.currentTimeMillis();
     List<byte[]> keysToFetch = rowKeyBuilder.rowKeys(profile, entity, groups, periods);
+    return deserialize(getValues(keysToFetch, hasEnded(periods, now)), clazz);
+  }
+
+  /**
+   * Fetch the values stored in a profile, reading rollups in place of the profile periods within them
+   * wherever possible.  Where a rollup has not been written, the profile periods within it are read instead.
+   *
+   * @param clazz      The type of values stored by the profile.
+   * @param profile    The name of the profile.
+   * @param entity     The name of the entity.
+   * @param groups     The groups used to sort the profile data.
+   * @param periods    The set of profile measurement periods
+   * @return A list of values, in order of time.
+   */
+  private <T> List<T> fetchWithRollups(Class<T> clazz, String profile, String entity, List<Object> groups, Iterable<ProfilePeriod> periods) {
+    long now = System.currentTimeMillis();
+    List<ProfilePeriod> plan = rollupPlanner.plan(periods, now);
+    byte[][] values = getValues(rowKeyBuilder.rowKeys(profile, entity, groups, plan), hasEnded(plan, now));
 
-    // create a Get for each of the row keys
-    List<Get> gets = keysToFetch
-            .stream()
-            .map(k -> new Get(k).addColumn(columnFamily, columnQualifier))
-            .collect(Collectors.toList());
+    // read the profile periods within any rollup that was not written
+    List<ProfilePeriod> fallback = new ArrayList<>();
+    for(int i=0; i<plan.size(); i++) {
+      if(values[i] == null && rollupPlanner.isRollup(plan.get(i))) {
+        fallback.addAll(rollupPlanner.expand(plan.get(i)));
+      }
+    }
+    byte[][] fallbackValues = fallback.isEmpty()
+            ? new byte[0][]
+            : getValues(rowKeyBuilder.rowKeys(profile, entity, groups, fallback), hasEnded(fallback, now));
 
-    // get the 'gets'
-    return get(gets, columnQualifier, columnFamily, clazz);
+    List<byte[]> ordered = new ArrayList<>();
+    int next = 0;
+    for(int i=0; i<plan.size(); i++) {
+      if(values[i] != null) {
+        ordered.add(values[i]);
+
+      } else if(rollupPlanner.isRollup(plan.get(i))) {
+        long end = plan.get(i).getEndTimeMillis();
+        while(next < fallback.size() && fallback.get(next).getStartTimeMillis() < end) {
+          ordered.add(fallbackValues[next++]);
+        }
+      }
+    }
+    return deserialize(ordered.toArray(new byte[ordered.size()][]), clazz);
+  }
+
+  /**
+   * Whether each period has ended, and so whether its value may be cached.
+   * @param periods The periods.
+   * @param now The current time in epoch milliseconds.
+   */
+  private static List<Boolean> hasEnded(Iterable<ProfilePeriod> periods, long now) {
+    List<Boolean> ended = new ArrayList<>();
+    periods.forEach(period -> ended.add(period.getEndTimeMillis() <= now));
+    return ended;
+  }
+
+  /**
+   * Deserializes the values that exist.
+   * @param values The serialized values, which are null where there is no value.
+   * @param clazz  The type expected in return.
+   * @param <T>    The type expected in return.
+   */
+  private static <T> List<T> deserialize(byte[][] values, Class<T> clazz) {
+    List<T> deserialized = new ArrayList<>();
+    for(byte[] value : values) {
+      if(value != null) {
+        deserialized.add(SerDeUtils.fromBytes(value, clazz));
+      }
+    }
+    return deserialized;
   }
 
   /**
-   * Submits multiple Gets to HBase and deserialize the results.
+   * Fetches the values of multiple row keys, from the cache where possible.
    *
-   * @param gets            The gets to submit to HBase.
-   * @param columnQualifier The column qualifier.
-   * @param columnFamily    The column family.
-   * @param clazz           The type expected in return.
-   * @param <T>             The type expected in return.
-   * @return
+   * @param rowKeys   The row keys to fetch.
+   * @param cacheable Whether the value of each row key may be cached.  Null if none may be cached.
+   * @return The serialized value of each row key, which is null where there is no value.
    */
-  private <T> List<T> get(List<Get> gets, byte[] columnQualifier, byte[] columnFamily, Class<T> clazz) {
-    List<T> values = new ArrayList<>();
+  private byte[][] getValues(List<byte[]> rowKeys, List<Boolean> cacheable) {
+    byte[] columnFamily = Bytes.toBytes(columnBuilder.getColumnFamily());
+    byte[] columnQualifier = columnBuilder.getColumnQualifier("value");
+
+    // find the values that are already cached and create a Get for each of the others
+    byte[][] values = new byte[rowKeys.size()][];
+    List<Integer> toFetch = new ArrayList<>();
+    List<Get> gets = new ArrayList<>();
+    for(int i=0; i<rowKeys.size(); i++) {
+      if(isCacheable(cacheable, i)) {
+        values[i] = cache.getIfPresent(ByteBuffer.wrap(rowKeys.get(i)));
+      }
+      if(values[i] == null) {
+        toFetch.add(i);
+        gets.add(new Get(rowKeys.get(i)).addColumn(columnFamily, columnQualifier));
+      }
+    }
+
+    // get the 'gets'
+    Result[] results = get(gets);
+    for(int j=0; j<results.length; j++) {
+      Result result = results[j];
+      if(result != null && result.containsColumn(columnFamily, columnQualifier)) {
+        int i = toFetch.get(j);
+        values[i] = result.getValue(columnFamily, columnQualifier);
+        if(isCacheable(cacheable, i)) {
+          cache.put(ByteBuffer.wrap(rowKeys.get(i)), values[i]);
+        }
+      }
+    }
+    return values;
+  }
 
+  private boolean isCacheable(List<Boolean> cacheable, int index) {
+    return cache != null && cacheable != null && cacheable.get(index);
+  }
+
+  /**
+   * Submits multiple Gets to HBase.  If there are more Gets than fit in a single batch, the batches
+   * are submitted in parallel; the first on the calling thread and the rest on the executor.
+   *
+   * @param gets The gets to submit to HBase.
+   * @return The results, in the order of the Gets.
+   */
+  private Result[] get(List<Get> gets) {
     try {
-      Result[] results = table.get(gets);
-      Arrays.stream(results)
-              .filter(r -> r.containsColumn(columnFamily, columnQualifier))
-              .map(r -> r.getValue(columnFamily, columnQualifier))
-              .forEach(val -> values.add(SerDeUtils.fromBytes(val, clazz)));
+      if(gets.size() <= batchSize || executor == null) {
+        return table.get(gets);
+      }
+
+      List<List<Get>> batches = Lists.partition(gets, batchSize);
+      List<Future<Result[]>> futures = new ArrayList<>(batches.size() - 1);
+      for(List<Get> batch : batches.subList(1, batches.size())) {
+        futures.add(executor.submit(() -> executorTable.get().get(batch)));
+      }
+
+      Result[] results = new Result[gets.size()];
+      Result[] first = table.get(batches.get(0));
+      System.arraycopy(first, 0, results, 0, first.length);
+      int offset = first.length;
+      for(Future<Result[]> future : futures) {
+        Result[] batch = future.get();
+        System.arraycopy(batch, 0, results, offset, batch.length);
+        offset += batch.length;
+      }
+      return results;
 
     } catch(IOException e) {
       throw new RuntimeException(e);
+
+    } catch(ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
     }
+  }
 
-    return values;
+  private HTableInterface createExecutorTable() {
+    HTableInterface table = tableFactory.get();
+    executorTables.add(table);
+    return table;
+  }
+
+  /**
+   * Stops the threads used to submit batches and closes their tables.  The table passed to the
+   * constructor remains open.
+   */
+  @Override
+  public void close() {
+    if(executor != null) {
+      executor.shutdownNow();
+    }
+    synchronized (executorTables) {
+      for(HTableInterface t : executorTables) {
+        try {
+          t.close();
+        } catch (IOException e) {
+          LOG.warn("Unable to close table", e);
+        }
+      }
+      executorTables.clear();
+    }
   }
 
   public void setTable(HTableInterface table) {
     this.table = table;
+    invalidateCache();
   }
 
   public void setRowKeyBuilder(RowKeyBuilder rowKeyBuilder) {
     this.rowKeyBuilder = rowKeyBuilder;
+    invalidateCache();
   }
 
   public void setColumnBuilder(ColumnBuilder columnBuilder) {
     this.columnBuilder = columnBuilder;
+    invalidateCache();
+  }
+
+  /**
+   * Read rollups in place of profile periods wherever possible.
+   * @param rollupPlanner Plans which rollups to read, or null to only read profile periods.
+   */
+  public void setRollupPlanner(RollupPlanner rollupPlanner) {
+    this.rollupPlanner = rollupPlanner;
+  }
+
+  private void invalidateCache() {
+    if(cache != null) {
+      cache.invalidateAll();
+    }
   }
 }
@@ -0,0 +1,133 @@
+/*
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.apache.metron.profiler.client;
+
+import org.apache.metron.profiler.ProfilePeriod;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+
+/**
+ * Plans which periods to read, so that a request for many profile periods can be served by the
+ * far fewer rollups written by the Profiler.
+ *
+ * A rollup is read in place of the profile periods within it, only when all of those profile periods
+ * were requested and the rollup period has ended.  The coarsest rollup that fits is preferred.
+ */
+public class RollupPlanner {
+
+  /**
+   * The duration of each profile period in milliseconds.
+   */
+  private final long periodDurationMillis;
+
+  /**
+   * The duration of each rollup period, as a multiple of the profile period, coarsest first.
+   */
+  private final List<Integer> multiples;
+
+  /**
+   * @param periodDurationMillis The duration of each profile period in milliseconds.
+   * @param multiples The duration of each rollup period, as a multiple of the profile period.
+   */
+  public RollupPlanner(long periodDurationMillis, List<Integer> multiples) {
+    for(int multiple : multiples) {
+      if(multiple < 2) {
+        throw new IllegalArgumentException(format("rollup must span at least 2 periods; got %d", multiple));
+      }
+    }
+    this.periodDurationMillis = periodDurationMillis;
+    this.multiples = new ArrayList<>(multiples);
+    this.multiples.sort(Comparator.reverseOrder());
+  }
+
+  /**
+   * Plans the periods to read.
+   * @param periods The requested profile periods.
+   * @param nowMillis The current time in epoch milliseconds.
+   * @return The rollup and profile periods to read, in order of time.
+   */
+  public List<ProfilePeriod> plan(Iterable<ProfilePeriod> periods, long nowMillis) {
+    List<ProfilePeriod> plan = new ArrayList<>();
+
+    // only profile periods can be rolled up
+    TreeSet<Long> remaining = new TreeSet<>();
+    for(ProfilePeriod period : periods) {
+      if(period.getDurationMillis() == periodDurationMillis) {
+        remaining.add(period.getPeriod());
+      } else {
+        plan.add(period);
+      }
+    }
+
+    for(int multiple : multiples) {
+      long rollupDurationMillis = multiple * periodDurationMillis;
+
+      // group the remaining profile periods by the rollup period that contains them
+      Map<Long, List<Long>> byRollup = new TreeMap<>();
+      for(long period : remaining) {
+        byRollup.computeIfAbsent(period * periodDurationMillis / rollupDurationMillis, k -> new ArrayList<>()).add(period);
+      }
+
+      for(Map.Entry<Long, List<Long>> entry : byRollup.entrySet()) {
+        ProfilePeriod rollup = new ProfilePeriod(entry.getKey() * rollupDurationMillis, rollupDurationMillis, TimeUnit.MILLISECONDS);
+        if(entry.getValue().size() == multiple && rollup.getEndTimeMillis() <= nowMillis) {
+          plan.add(rollup);
+          remaining.removeAll(entry.getValue());
+        }
+      }
+    }
+
+    for(long period : remaining) {
+      plan.add(new ProfilePeriod(period * periodDurationMillis, periodDurationMillis, TimeUnit.MILLISECONDS));
+    }
+
+    plan.sort(Comparator.comparingLong(ProfilePeriod::getStartTimeMillis));
+    return plan;
+  }
+
+  /**
+   * Is a period a rollup?
+   * @param period The period.
+   */
+  public boolean isRollup(ProfilePeriod period) {
+    return period.getDurationMillis() != periodDurationMillis;
+  }
+
+  /**
+   * Returns the profile periods within a rollup.
+   * @param rollup The rollup period.
+   */
+  public List<ProfilePeriod> expand(ProfilePeriod rollup) {
+    List<ProfilePeriod> periods = new ArrayList<>();
+    for(long start = rollup.getStartTimeMillis(); start < rollup.getEndTimeMillis(); start += periodDurationMillis) {
+      periods.add(new ProfilePeriod(start, periodDurationMillis, TimeUnit.MILLISECONDS));
+    }
+    return periods;
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.apache.metron.profiler.client.benchmark;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.metron.profiler.benchmark.Benchmark;
+import org.apache.metron.profiler.client.window.Window;
+import org.apache.metron.profiler.client.window.WindowProcessor;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+
+/**
+ * Measures the time taken to calculate the intervals of a window selector statement, as PROFILE_WINDOW
+ * does, both when each call passes a new timestamp and when calls repeat the same timestamp.
+ *
+ * To compare implementations of the Window, run the benchmark against each.
+ */
+public class WindowBenchmark {
+
+  public static int DEFAULT_WARMUP = 1000;
+  public static int DEFAULT_NUM_TIMES = 10000;
+  public static List<String> DEFAULT_WINDOWS = Arrays.asList(
+          "1 day window every 1 day from 30 days ago excluding weekends",
+          "1 hour window every 1 day from 30 days ago excluding weekends",
+          "1 hour window every 1 day from 56 days ago including this day of the week",
+          "30 minute window every 1 hour from 14 days ago excluding weekends, holidays:us"
+  );
+
+  private static final Benchmark BENCHMARK = new Benchmark("WindowBenchmark")
+          .withOption("w", "warmup", "NUM", "Number of calls for warmup. Default: " + DEFAULT_WARMUP)
+          .withOption("n", "num_times", "NUM", "Number of calls to measure (after warmup). Default: " + DEFAULT_NUM_TIMES)
+          .withOption("s", "selector", "SELECTOR", "The window selector statement to measure. Default: several selectors with day of the week and holiday specifiers");
+
+  public static void main(String... argv) {
+    CommandLine cli = BENCHMARK.parse(argv);
+    int warmup = Benchmark.getInt(cli, "w", DEFAULT_WARMUP);
+    int numTimes = Benchmark.getInt(cli, "n", DEFAULT_NUM_TIMES);
+    List<String> selectors = cli.hasOption("s")
+            ? Arrays.asList(cli.getOptionValue("s"))
+            : DEFAULT_WINDOWS;
+
+    long now = System.currentTimeMillis();
+    long step = TimeUnit.SECONDS.toMillis(1);
+    for(String selector : selectors) {
+      Window window = WindowProcessor.process(selector);
+      System.out.println(format("'%s', a new timestamp for each call:", selector));
+      System.out.println(Benchmark.describe("call", Benchmark.run(warmup, numTimes, i -> window.toIntervals(now + i * step).size())));
+
+      System.out.println(format("'%s', the same timestamp for each call:", selector));
+      System.out.println(Benchmark.describe("call", Benchmark.run(warmup, numTimes, i -> window.toIntervals(now).size())));
+    }
+  }
+}
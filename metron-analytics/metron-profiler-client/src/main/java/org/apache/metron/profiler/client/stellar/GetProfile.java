@@ -30,7 +30,7 @@ import org.apache.metron.hbase.HTableProvider;
 import org.apache.metron.hbase.TableProvider;
 import org.apache.metron.profiler.ProfilePeriod;
 import org.apache.metron.profiler.client.HBaseProfilerClient;
-import org.apache.metron.profiler.client.ProfilerClient;
+import org.apache.metron.profiler.client.RollupPlanner;
 import org.apache.metron.profiler.hbase.ColumnBuilder;
 import org.apache.metron.profiler.hbase.RowKeyBuilder;
 import org.apache.metron.profiler.hbase.SaltyRowKeyBuilder;
@@ -95,10 +95,26 @@ public class GetProfile implements StellarFunction {
 
 
 
+  /**
+   * The settings that define the connection to HBase.  The client is only recreated when one of these changes.
+   */
+  private static final List<ProfilerConfig> CONNECTION_SETTINGS = Arrays.asList(
+          PROFILER_HBASE_TABLE,
+          PROFILER_HBASE_TABLE_PROVIDER,
+          PROFILER_CACHE_MAX_BYTES,
+          PROFILER_CACHE_EXPIRY_SECONDS,
+          PROFILER_HBASE_BATCH_SIZE,
+          PROFILER_HBASE_THREADS);
+
   /**
    * Cached client that can retrieve profile values.
    */
-  private ProfilerClient client;
+  private HBaseProfilerClient client;
+
+  /**
+   * The table used by the cached client.
+   */
+  private HTableInterface table;
 
   /**
    * Cached value of config map actually used to construct the previously cached client.
@@ -162,8 +178,17 @@ public class GetProfile implements StellarFunction {
     if (client == null || !cachedConfigMap.equals(effectiveConfig)) {
       RowKeyBuilder rowKeyBuilder = getRowKeyBuilder(effectiveConfig);
       ColumnBuilder columnBuilder = getColumnBuilder(effectiveConfig);
-      HTableInterface table = getTable(effectiveConfig);
-      client = new HBaseProfilerClient(table, rowKeyBuilder, columnBuilder);
+      if (client == null || isConnectionChanged(cachedConfigMap, effectiveConfig)) {
+        closeClient();
+        table = getTable(effectiveConfig);
+        client = createClient(table, rowKeyBuilder, columnBuilder, effectiveConfig);
+      }
+      else {
+        // the connection to HBase can be reused
+        client.setRowKeyBuilder(rowKeyBuilder);
+        client.setColumnBuilder(columnBuilder);
+      }
+      client.setRollupPlanner(getRollupPlanner(effectiveConfig));
       cachedConfigMap = effectiveConfig;
     }
 
@@ -172,6 +197,60 @@ public class GetProfile implements StellarFunction {
 
 
 
+  /**
+   * Has a setting that defines the connection to HBase changed?
+   * @param previous The previous configuration.
+   * @param current The current configuration.
+   */
+  private boolean isConnectionChanged(Map<String, Object> previous, Map<String, Object> current) {
+    for(ProfilerConfig setting : CONNECTION_SETTINGS) {
+      if(!Objects.equals(setting.get(previous), setting.get(current))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Creates the client used to retrieve profile values.
+   * @param table The table containing the profile values.
+   * @param rowKeyBuilder The RowKeyBuilder.
+   * @param columnBuilder The ColumnBuilder.
+   * @param global The global configuration.
+   */
+  private HBaseProfilerClient createClient(HTableInterface table, RowKeyBuilder rowKeyBuilder,
+                                           ColumnBuilder columnBuilder, Map<String, Object> global) {
+    HBaseProfilerClient client = new HBaseProfilerClient(table, rowKeyBuilder, columnBuilder);
+
+    long cacheMaxBytes = PROFILER_CACHE_MAX_BYTES.get(global, Long.class);
+    long cacheExpirySeconds = PROFILER_CACHE_EXPIRY_SECONDS.get(global, Long.class);
+    LOG.debug("profiler client: {}={}, {}={}", PROFILER_CACHE_MAX_BYTES, cacheMaxBytes, PROFILER_CACHE_EXPIRY_SECONDS, cacheExpirySeconds);
+    if(cacheMaxBytes > 0) {
+      client.withCache(cacheMaxBytes, cacheExpirySeconds, TimeUnit.SECONDS);
+    }
+
+    int batchSize = PROFILER_HBASE_BATCH_SIZE.get(global, Integer.class);
+    int threads = PROFILER_HBASE_THREADS.get(global, Integer.class);
+    LOG.debug("profiler client: {}={}, {}={}", PROFILER_HBASE_BATCH_SIZE, batchSize, PROFILER_HBASE_THREADS, threads);
+    client.withParallelGets(batchSize, threads, () -> getTable(global));
+
+    return client;
+  }
+
+  /**
+   * Closes the cached client and its table.
+   */
+  private void closeClient() {
+    if(client != null) {
+      client.close();
+      try {
+        table.close();
+      } catch (IOException e) {
+        LOG.warn("Unable to close table", e);
+      }
+    }
+  }
+
   /**
    * Get the groups defined by the user.
    *
@@ -233,6 +312,35 @@ public class GetProfile implements StellarFunction {
     return new SaltyRowKeyBuilder(saltDivisor, duration, units);
   }
 
+  /**
+   * Creates the RollupPlanner used to read rollups in place of profile periods.
+   * @param global The global configuration.
+   * @return The RollupPlanner or null, if rollups are not read.
+   */
+  private RollupPlanner getRollupPlanner(Map<String, Object> global) {
+    Object configured = PROFILER_ROLLUP_PERIODS.get(global);
+    LOG.debug("profiler client: {}={}", PROFILER_ROLLUP_PERIODS, configured);
+
+    List<Integer> multiples = new ArrayList<>();
+    Iterable<?> values = configured instanceof Iterable
+            ? (Iterable<?>) configured
+            : Arrays.asList(String.valueOf(configured).split(","));
+    for(Object value : values) {
+      if(value instanceof Number) {
+        multiples.add(((Number) value).intValue());
+      } else if(!String.valueOf(value).trim().isEmpty()) {
+        multiples.add(Integer.parseInt(String.valueOf(value).trim()));
+      }
+    }
+    if(multiples.isEmpty()) {
+      return null;
+    }
+
+    long duration = PROFILER_PERIOD.get(global, Long.class);
+    TimeUnit units = TimeUnit.valueOf(PROFILER_PERIOD_UNITS.get(global, String.class));
+    return new RollupPlanner(units.toMillis(duration), multiples);
+  }
+
   /**
    * Create an HBase table used when accessing HBase.
    * @param global The global configuration.
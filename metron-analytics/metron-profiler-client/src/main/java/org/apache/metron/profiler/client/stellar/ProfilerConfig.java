@@ -56,7 +56,36 @@ public enum ProfilerConfig {
   /**
    * A global property that defines the salt divisor used to store profile data.
    */
-  PROFILER_SALT_DIVISOR("profiler.client.salt.divisor", 1000L, Long.class);
+  PROFILER_SALT_DIVISOR("profiler.client.salt.divisor", 1000L, Long.class),
+
+  /**
+   * A global property that defines the maximum number of bytes of profile values to cache.  Only
+   * the values of profile periods that have ended are cached.  A value of 0 disables the cache.
+   */
+  PROFILER_CACHE_MAX_BYTES("profiler.client.cache.max.bytes", 0L, Long.class),
+
+  /**
+   * A global property that defines the number of seconds that a profile value is cached.  A value
+   * rewritten in HBase after it was cached is not seen until it expires.
+   */
+  PROFILER_CACHE_EXPIRY_SECONDS("profiler.client.cache.expiry.seconds", 300L, Long.class),
+
+  /**
+   * A global property that defines the maximum number of profile periods fetched from HBase in a single request.
+   */
+  PROFILER_HBASE_BATCH_SIZE("profiler.client.hbase.batch.size", 500, Integer.class),
+
+  /**
+   * A global property that defines the number of threads used to fetch batches of profile periods in parallel.
+   * A value of 0 fetches one batch after another.
+   */
+  PROFILER_HBASE_THREADS("profiler.client.hbase.threads", 4, Integer.class),
+
+  /**
+   * A global property that defines the duration of each rollup period written by the Profiler, as a
+   * multiple of the profile period; either a comma separated string or a list.  If empty, rollups are not read.
+   */
+  PROFILER_ROLLUP_PERIODS("profiler.client.rollup.periods", "", Object.class);
 
   String key;
   Object defaultValue;
@@ -23,6 +23,7 @@ import com.google.common.collect.Iterables;
 import org.apache.commons.lang3.Range;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.function.Function;
@@ -33,6 +34,9 @@ import java.util.stream.Stream;
  * A window is intended to compute the set of window intervals across time based on a reference time.
  * The intervals are specified using a Window selector statement, which is a quasi-natural language grammar.
  * Windows are intended to compute the set of intervals relative to a timestamp.
+ *
+ * A window is compiled once from its selector statement and may be shared across threads.  The intervals last
+ * computed are remembered, so asking again for the same timestamp does not compute them again.
  */
 public class Window {
   private Function<Long, Long> startMillis ;
@@ -41,6 +45,20 @@ public class Window {
   private List<Function<Long, Predicate<Long>>> excludes = new ArrayList<>();
   private Optional<Long> binWidth = Optional.empty();
   private Optional<Long> skipDistance = Optional.empty();
+  private volatile Intervals last;
+
+  /**
+   * The intervals computed relative to a timestamp.
+   */
+  private static class Intervals {
+    private final long now;
+    private final List<Range<Long>> intervals;
+
+    Intervals(long now, List<Range<Long>> intervals) {
+      this.now = now;
+      this.intervals = Collections.unmodifiableList(intervals);
+    }
+  }
 
   /**
    * Return the start of the interval relative to the timestamp passed.
@@ -53,6 +71,7 @@ public class Window {
 
   void setStartMillis(Function<Long, Long> startMillis) {
     this.startMillis = startMillis;
+    this.last = null;
   }
 
   /**
@@ -66,6 +85,7 @@ public class Window {
 
   void setEndMillis(Function<Long, Long> endMillis) {
     this.endMillis = endMillis;
+    this.last = null;
   }
 
   /**
@@ -80,6 +100,7 @@ public class Window {
 
   void setIncludes(List<Function<Long, Predicate<Long>>> includes) {
     this.includes = includes;
+    this.last = null;
   }
 
   /**
@@ -94,6 +115,7 @@ public class Window {
 
   void setExcludes(List<Function<Long, Predicate<Long>>> excludes) {
     this.excludes = excludes;
+    this.last = null;
   }
 
   /**
@@ -106,6 +128,7 @@ public class Window {
 
   void setBinWidth(long binWidth) {
     this.binWidth = Optional.of(binWidth);
+    this.last = null;
   }
 
   /**
@@ -118,6 +141,7 @@ public class Window {
 
   void setSkipDistance(long skipDistance) {
     this.skipDistance = Optional.of(skipDistance);
+    this.last = null;
   }
 
   /**
@@ -125,14 +149,24 @@ public class Window {
    * given inclusion and exclusion predicates.
    *
    * @param now
-   * @return
+   * @return An unmodifiable list of the intervals.
    */
   public List<Range<Long>> toIntervals(long now) {
+    Intervals memo = last;
+    if(memo != null && memo.now == now) {
+      return memo.intervals;
+    }
+    memo = new Intervals(now, computeIntervals(now));
+    last = memo;
+    return memo.intervals;
+  }
+
+  private List<Range<Long>> computeIntervals(long now) {
     List<Range<Long>> intervals = new ArrayList<>();
     long startMillis = getStartMillis(now);
     long endMillis = getEndMillis(now);
-    Iterable<Predicate<Long>> includes = getIncludes(now);
-    Iterable<Predicate<Long>> excludes = getExcludes(now);
+    List<Predicate<Long>> includes = resolve(this.includes, now);
+    List<Predicate<Long>> excludes = resolve(this.excludes, now);
     //if we don't have a skip distance, then we just skip past everything to make the window dense
     long skipDistance = getSkipDistance().orElse(Long.MAX_VALUE);
     //if we don't have a window width, then we want the window to be completely dense.
@@ -140,20 +174,36 @@ public class Window {
     long binWidth = binWidthOpt.isPresent()?binWidthOpt.get():endMillis-startMillis;
 
     for(long left = startMillis;left >= 0 && left + binWidth <= endMillis;left += skipDistance) {
-      Range<Long> interval = Range.between(left, left + binWidth);
-      boolean include = includes.iterator().hasNext()?false:true;
-      for(Predicate<Long> inclusionPredicate : includes) {
-        include |= inclusionPredicate.test(left);
-      }
-      if(include) {
-        for(Predicate<Long> exclusionPredicate : excludes) {
-          include &= !exclusionPredicate.test(left);
-        }
-      }
-      if(include) {
-        intervals.add(interval);
+      if(anyMatch(includes, left, true) && !anyMatch(excludes, left, false)) {
+        intervals.add(Range.between(left, left + binWidth));
       }
     }
     return intervals;
   }
+
+  /**
+   * Resolve the predicates relative to the timestamp passed, once for all of the window intervals.
+   */
+  private static List<Predicate<Long>> resolve(List<Function<Long, Predicate<Long>>> predicates, long now) {
+    List<Predicate<Long>> ret = new ArrayList<>(predicates.size());
+    for(Function<Long, Predicate<Long>> predicate : predicates) {
+      ret.add(predicate.apply(now));
+    }
+    return ret;
+  }
+
+  /**
+   * @return True if any of the predicates is true for the timestamp, or ifEmpty when there are no predicates.
+   */
+  private static boolean anyMatch(List<Predicate<Long>> predicates, long ts, boolean ifEmpty) {
+    if(predicates.isEmpty()) {
+      return ifEmpty;
+    }
+    for(int i = 0; i < predicates.size(); i++) {
+      if(predicates.get(i).test(ts)) {
+        return true;
+      }
+    }
+    return false;
+  }
 }
@@ -19,8 +19,6 @@
  */
 package org.apache.metron.profiler.client.window.predicates;
 
-import org.apache.commons.lang3.time.DateUtils;
-
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -77,6 +75,6 @@ public class DateSpecifierPredicate implements Predicate<Long> {
    */
   @Override
   public boolean test(Long ts) {
-    return DateUtils.isSameDay(new Date(ts), date);
+    return DayPredicates.getLocalEpochDay(ts) == DayPredicates.getLocalEpochDay(date.getTime());
   }
 }
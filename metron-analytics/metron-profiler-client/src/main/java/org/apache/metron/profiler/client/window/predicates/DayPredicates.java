@@ -20,8 +20,9 @@
 package org.apache.metron.profiler.client.window.predicates;
 
 import java.util.Calendar;
-import java.util.Date;
 import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
@@ -62,15 +63,15 @@ public enum DayPredicates {
    * True if the day is a weekday, false otherwise.
    */
   WEEKDAY( x -> (ts -> {
-    int dow = toCalendar(ts).get(Calendar.DAY_OF_WEEK);
-    return dow > 1 && dow < 7;
+    int dow = getDayOfWeek(ts);
+    return dow > Calendar.SUNDAY && dow < Calendar.SATURDAY;
   })),
   /**
    * True if the day is a weekend, false otherwise.
    */
   WEEKEND( x -> (ts -> {
-    int dow = toCalendar(ts).get(Calendar.DAY_OF_WEEK);
-    return dow == 1 || dow == 7;
+    int dow = getDayOfWeek(ts);
+    return dow == Calendar.SUNDAY || dow == Calendar.SATURDAY;
   })),
   /**
    * True if the day is a holiday, false otherwise.
@@ -86,14 +87,26 @@ public enum DayPredicates {
     this.predicateCreator = predicate;
   }
 
-  private static Calendar toCalendar(Long ts) {
-    Calendar c = Calendar.getInstance();
-    c.setTime(new Date(ts));
-    return c;
+  private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+  /**
+   * The number of days since the epoch of the local date of a timestamp in the default time zone.  Each of the
+   * predicates depends only on the local date, so this is calculated rather than looked up with a Calendar.
+   * @param ts The timestamp.
+   * @return The local epoch day.
+   */
+  public static long getLocalEpochDay(long ts) {
+    return Math.floorDiv(ts + TimeZone.getDefault().getOffset(ts), DAY_MILLIS);
   }
 
+  /**
+   * The day of the week of a timestamp in the default time zone, as a Calendar.DAY_OF_WEEK.
+   * @param ts The timestamp.
+   * @return The day of the week, from Calendar.SUNDAY to Calendar.SATURDAY.
+   */
   public static int getDayOfWeek(Long ts) {
-    return toCalendar(ts).get(Calendar.DAY_OF_WEEK);
+    // the epoch was a thursday
+    return (int) Math.floorMod(getLocalEpochDay(ts) + Calendar.THURSDAY - 1, 7L) + 1;
   }
 
   public static Predicate<Long> dayOfWeekPredicate(int dayOfWeek) {
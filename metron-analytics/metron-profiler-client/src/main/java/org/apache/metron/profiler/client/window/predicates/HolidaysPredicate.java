@@ -19,6 +19,8 @@
  */
 package org.apache.metron.profiler.client.window.predicates;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import de.jollyday.HolidayCalendar;
 import de.jollyday.HolidayManager;
 import de.jollyday.ManagerParameters;
@@ -31,11 +33,18 @@ import java.util.function.Predicate;
 
 /**
  * A inclusion/exclusion selector predicate that returns true if a timestamp falls on a holiday and
- * false otherwise.
+ * false otherwise.  Whether each day is a holiday is remembered, as the holiday manager is costly to query.
  */
 public class HolidaysPredicate implements Predicate<Long> {
+  /**
+   * The number of days for which the answer is remembered; a little over 27 years.
+   */
+  private static final int MAX_DAYS = 10000;
   HolidayManager manager;
   String[] args;
+  private Cache<Long, Boolean> holidays = CacheBuilder.newBuilder()
+                                                      .maximumSize(MAX_DAYS)
+                                                      .build();
 
   /**
    * Create a holidays predicate.  The arguments are the hierarchical specifier for the holidays
@@ -80,8 +89,14 @@ public class HolidaysPredicate implements Predicate<Long> {
    */
   @Override
   public boolean test(Long ts) {
-    Calendar c = Calendar.getInstance();
-    c.setTime(new Date(ts));
-    return manager.isHoliday(c, args);
+    Long day = DayPredicates.getLocalEpochDay(ts);
+    Boolean holiday = holidays.getIfPresent(day);
+    if(holiday == null) {
+      Calendar c = Calendar.getInstance();
+      c.setTime(new Date(ts));
+      holiday = manager.isHoliday(c, args);
+      holidays.put(day, holiday);
+    }
+    return holiday;
   }
 }
@@ -49,6 +49,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static org.apache.metron.profiler.client.stellar.ProfilerConfig.*;
 
@@ -75,10 +78,13 @@ public class GetProfileTest {
    */
   public static class MockTableProvider implements TableProvider, Serializable {
 
+    static AtomicInteger tablesCreated = new AtomicInteger();
+
     MockHTable.Provider provider = new MockHTable.Provider();
 
     @Override
     public HTableInterface getTable(Configuration config, String tableName) throws IOException {
+      tablesCreated.incrementAndGet();
       return provider.getTable(config, tableName);
     }
   }
@@ -433,4 +439,159 @@ public class GetProfileTest {
     Assert.assertEquals(0, result.size());
   }
 
+  /**
+   * Values should not be cached by default, so a value that is rewritten is read again.
+   */
+  @Test
+  public void testDoesNotCacheByDefault() {
+    final int periodsPerHour = 4;
+    final int hours = 2;
+    final long startTime = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2 * hours);
+    final List<Object> group = Collections.emptyList();
+
+    // setup - write some measurements for periods that have ended
+    final int count = hours * periodsPerHour;
+    ProfileMeasurement m = new ProfileMeasurement()
+            .withProfileName("profile1")
+            .withEntity("entity1")
+            .withPeriod(startTime, periodDuration, periodUnits);
+    profileWriter.write(m, count, group, val -> 2302);
+
+    String expr = "PROFILE_GET('profile1', 'entity1', PROFILE_FIXED(4, 'HOURS'))";
+    @SuppressWarnings("unchecked")
+    List<Integer> result = run(expr, List.class);
+    Assert.assertEquals(Collections.nCopies(count, 2302), result);
+
+    // rewrite the measurements, as a replay or batch run of the Profiler would
+    profileWriter.write(m, count, group, val -> 0);
+
+    // validate - the rewritten values should be read
+    result = run(expr, List.class);
+    Assert.assertEquals(Collections.nCopies(count, 0), result);
+  }
+
+  /**
+   * When the cache is enabled, the values of periods that have ended should be read from the
+   * cache until they expire, even if they are rewritten in the meantime.
+   */
+  @Test
+  public void testCachesValuesOfPeriodsThatEndedWhenEnabled() {
+    final int periodsPerHour = 4;
+    final int hours = 2;
+    final long startTime = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2 * hours);
+    final List<Object> group = Collections.emptyList();
+
+    // setup - write some measurements for periods that have ended
+    final int count = hours * periodsPerHour;
+    ProfileMeasurement m = new ProfileMeasurement()
+            .withProfileName("profile1")
+            .withEntity("entity1")
+            .withPeriod(startTime, periodDuration, periodUnits);
+    profileWriter.write(m, count, group, val -> 2302);
+
+    String overrides = "{'profiler.client.cache.max.bytes' : 1048576, 'profiler.client.cache.expiry.seconds' : 300}";
+    String expr = "PROFILE_GET('profile1', 'entity1', PROFILE_FIXED(4, 'HOURS'), [], " + overrides + ")";
+    @SuppressWarnings("unchecked")
+    List<Integer> result = run(expr, List.class);
+    Assert.assertEquals(count, result.size());
+
+    // rewrite the measurements
+    profileWriter.write(m, count, group, val -> 0);
+
+    // validate - the cached values are read, as the cache entries have not yet expired
+    result = run(expr, List.class);
+    Assert.assertEquals(Collections.nCopies(count, 2302), result);
+
+    // validate - once the cache is disabled, the rewritten values are read
+    expr = "PROFILE_GET('profile1', 'entity1', PROFILE_FIXED(4, 'HOURS'))";
+    result = run(expr, List.class);
+    Assert.assertEquals(Collections.nCopies(count, 0), result);
+  }
+
+  /**
+   * Values fetched in parallel batches should be returned in order.
+   */
+  @Test
+  public void testWithParallelGets() {
+    final int periodsPerHour = 4;
+    final int hours = 24;
+    final long startTime = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(hours + 1);
+    final List<Object> group = Collections.emptyList();
+
+    // setup - write a sequence of measurements to be read later
+    final int count = hours * periodsPerHour;
+    ProfileMeasurement m = new ProfileMeasurement()
+            .withProfileName("profile1")
+            .withEntity("entity1")
+            .withPeriod(startTime, periodDuration, periodUnits)
+            .withProfileValue(0);
+    profileWriter.write(m, count, group, val -> (Integer) val + 1);
+
+    // execute - read the profile values in batches of 7 on 3 threads
+    String overrides = "{'profiler.client.hbase.batch.size' : 7, 'profiler.client.hbase.threads' : 3}";
+    String expr = "PROFILE_GET('profile1', 'entity1', PROFILE_FIXED(2, 'DAYS'), [], " + overrides + ")";
+    @SuppressWarnings("unchecked")
+    List<Integer> result = run(expr, List.class);
+
+    // validate
+    List<Integer> expected = IntStream.rangeClosed(1, count).boxed().collect(Collectors.toList());
+    Assert.assertEquals(expected, result);
+  }
+
+  /**
+   * The connection to HBase should be reused when the settings that define it do not change.
+   */
+  @Test
+  public void testReusesTableWhenConnectionUnchanged() {
+    String expr = "PROFILE_GET('profile1', 'entity1', PROFILE_FIXED(4, 'HOURS'))";
+    run(expr, List.class);
+    int tablesCreated = MockTableProvider.tablesCreated.get();
+
+    // a change to how row keys are built does not need a new table
+    expr = "PROFILE_GET('profile1', 'entity1', PROFILE_FIXED(4, 'HOURS'), [], {'profiler.client.salt.divisor' : 10})";
+    run(expr, List.class);
+    Assert.assertEquals(tablesCreated, MockTableProvider.tablesCreated.get());
+
+    // a change to the table does
+    MockHTable.Provider.addToCache("other", columnFamily);
+    expr = "PROFILE_GET('profile1', 'entity1', PROFILE_FIXED(4, 'HOURS'), [], {'profiler.client.hbase.table' : 'other'})";
+    run(expr, List.class);
+    Assert.assertEquals(tablesCreated + 1, MockTableProvider.tablesCreated.get());
+  }
+
+  /**
+   * Rollups should be read in place of the profile periods within them, when configured.
+   */
+  @Test
+  public void testWithRollups() {
+    final long hourMillis = TimeUnit.HOURS.toMillis(1);
+    final long hourStart = (System.currentTimeMillis() / hourMillis - 3) * hourMillis;
+    final List<Object> group = Collections.emptyList();
+
+    // setup - write two hours of measurements
+    ProfileMeasurement m = new ProfileMeasurement()
+            .withProfileName("profile1")
+            .withEntity("entity1")
+            .withPeriod(hourStart - 1, periodDuration, periodUnits);
+    profileWriter.write(m, 8, group, val -> 1);
+
+    // a rollup of the first hour has been written, but not of the second
+    profileWriter.write(new ProfileMeasurement()
+            .withProfileName("profile1")
+            .withEntity("entity1")
+            .withGroups(group)
+            .withPeriod(hourStart, 1, TimeUnit.HOURS)
+            .withProfileValue(4));
+
+    // execute - without rollups
+    String expr = "PROFILE_GET('profile1', 'entity1', PROFILE_FIXED(4, 'HOURS'))";
+    @SuppressWarnings("unchecked")
+    List<Integer> result = run(expr, List.class);
+    Assert.assertEquals(Collections.nCopies(8, 1), result);
+
+    // execute - with hourly rollups; the second hour is read from its profile periods
+    expr = "PROFILE_GET('profile1', 'entity1', PROFILE_FIXED(4, 'HOURS'), [], {'profiler.client.rollup.periods' : '4'})";
+    result = run(expr, List.class);
+    Assert.assertEquals(Arrays.asList(4, 1, 1, 1, 1), result);
+  }
 }
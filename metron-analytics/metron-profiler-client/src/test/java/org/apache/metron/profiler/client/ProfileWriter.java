@@ -90,7 +90,7 @@ public class ProfileWriter {
    * Write a ProfileMeasurement.
    * @param m The ProfileMeasurement to write.
    */
-  private void write(ProfileMeasurement m) {
+  public void write(ProfileMeasurement m) {
 
     byte[] rowKey = rowKeyBuilder.rowKey(m);
     ColumnList cols = columnBuilder.columns(m);
@@ -0,0 +1,117 @@
+/*
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.apache.metron.profiler.client;
+
+import org.apache.metron.profiler.ProfilePeriod;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the RollupPlanner.
+ */
+public class RollupPlannerTest {
+
+  private static final long periodMillis = TimeUnit.MINUTES.toMillis(15);
+  private static final long hourMillis = TimeUnit.HOURS.toMillis(1);
+  private static final long dayMillis = TimeUnit.DAYS.toMillis(1);
+
+  /**
+   * The start of a day.
+   */
+  private static final long day = dayMillis * 17000;
+
+  private RollupPlanner planner;
+
+  @Before
+  public void setup() {
+    planner = new RollupPlanner(periodMillis, Arrays.asList(4, 96));
+  }
+
+  private List<ProfilePeriod> periods(long start, long end) {
+    return ProfilePeriod.visitPeriods(start, end - 1, periodMillis, TimeUnit.MILLISECONDS, Optional.empty(), p -> p);
+  }
+
+  /**
+   * The coarsest rollup that fits should be read in place of the profile periods within it.
+   */
+  @Test
+  public void testCoarsestRollupThatFits() {
+    // from 22:30 on the first day until 01:30 on the third
+    long start = day - 90 * TimeUnit.MINUTES.toMillis(1);
+    long end = day + dayMillis + hourMillis + TimeUnit.MINUTES.toMillis(30);
+
+    List<ProfilePeriod> plan = planner.plan(periods(start, end), end + dayMillis);
+
+    // 22:30 and 22:45, the hour from 23:00, the day, the hour from 00:00 and 01:00 and 01:15
+    assertEquals(7, plan.size());
+    assertEquals(new ProfilePeriod(start, periodMillis, TimeUnit.MILLISECONDS), plan.get(0));
+    assertEquals(new ProfilePeriod(day - hourMillis, hourMillis, TimeUnit.MILLISECONDS), plan.get(2));
+    assertEquals(new ProfilePeriod(day, dayMillis, TimeUnit.MILLISECONDS), plan.get(3));
+    assertEquals(new ProfilePeriod(day + dayMillis, hourMillis, TimeUnit.MILLISECONDS), plan.get(4));
+    assertEquals(new ProfilePeriod(day + dayMillis + hourMillis, periodMillis, TimeUnit.MILLISECONDS), plan.get(5));
+  }
+
+  /**
+   * A rollup should not be read for a period that has not ended, as it has not been written.
+   */
+  @Test
+  public void testNoRollupOfPeriodInProgress() {
+    List<ProfilePeriod> requested = periods(day, day + 2 * hourMillis);
+
+    // the second hour is still in progress
+    List<ProfilePeriod> plan = planner.plan(requested, day + 2 * hourMillis - 1);
+    assertEquals(5, plan.size());
+    assertTrue(planner.isRollup(plan.get(0)));
+    assertFalse(planner.isRollup(plan.get(1)));
+  }
+
+  /**
+   * A rollup should not be read unless every profile period within it was requested.
+   */
+  @Test
+  public void testNoRollupOfPartialPeriod() {
+    List<ProfilePeriod> requested = periods(day, day + 2 * hourMillis);
+    requested.remove(5);
+
+    List<ProfilePeriod> plan = planner.plan(requested, day + dayMillis);
+    assertEquals(4, plan.size());
+    assertEquals(hourMillis, plan.get(0).getDurationMillis());
+    assertEquals(periodMillis, plan.get(1).getDurationMillis());
+  }
+
+  /**
+   * The profile periods within a rollup are read when the rollup was not written.
+   */
+  @Test
+  public void testExpand() {
+    ProfilePeriod hour = new ProfilePeriod(day, hourMillis, TimeUnit.MILLISECONDS);
+    assertEquals(periods(day, day + hourMillis), planner.expand(hour));
+  }
+}
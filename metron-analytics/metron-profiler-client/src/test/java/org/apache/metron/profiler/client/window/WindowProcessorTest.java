@@ -20,13 +20,16 @@
 package org.apache.metron.profiler.client.window;
 
 import org.apache.commons.lang3.Range;
+import org.apache.metron.profiler.client.window.predicates.DayPredicates;
 import org.junit.Assert;
 import org.junit.Test;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
+import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -293,6 +296,38 @@ public class WindowProcessorTest {
     }
   }
 
+  @Test
+  public void testIntervalsAreRemembered() {
+    Window w = WindowProcessor.process("1 hour window every 24 hours from 30 days ago excluding weekends");
+    long now = System.currentTimeMillis();
+    List<Range<Long>> intervals = w.toIntervals(now);
+    Assert.assertSame(intervals, w.toIntervals(now));
+
+    List<Range<Long>> later = w.toIntervals(now + 1);
+    Assert.assertNotSame(intervals, later);
+    Assert.assertEquals(intervals.size(), later.size());
+    Assert.assertEquals(intervals.get(0).getMinimum() + 1, (long) later.get(0).getMinimum());
+  }
+
+  @Test
+  public void testDayOfWeekMatchesCalendar() {
+    TimeZone defaultTimeZone = TimeZone.getDefault();
+    try {
+      for(String tz : new String[] { "UTC", "America/New_York", "Australia/Lord_Howe", "Pacific/Kiritimati" }) {
+        TimeZone.setDefault(TimeZone.getTimeZone(tz));
+        long start = new Date(117, 0, 1).getTime();
+        for(long ts = start; ts < start + TimeUnit.DAYS.toMillis(2 * 366); ts += TimeUnit.MINUTES.toMillis(15)) {
+          Calendar c = Calendar.getInstance();
+          c.setTimeInMillis(ts);
+          Assert.assertEquals(tz + " at " + ts, c.get(Calendar.DAY_OF_WEEK), DayPredicates.getDayOfWeek(ts));
+        }
+      }
+    }
+    finally {
+      TimeZone.setDefault(defaultTimeZone);
+    }
+  }
+
   @Test(expected=org.apache.metron.common.dsl.ParseException.class)
   public void testWithInvalidDaySpecifier() throws ParseException {
     WindowProcessor.process("30 minute window every 24 hours from 14 days ago excluding hoolidays:us");
@@ -0,0 +1,312 @@
+/*
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.apache.metron.profiler;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.commons.collections4.ListUtils;
+import org.apache.commons.collections4.MapUtils;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.metron.common.configuration.profiler.ProfileConfig;
+import org.apache.metron.common.dsl.Context;
+import org.apache.metron.common.dsl.ParseException;
+import org.apache.metron.common.dsl.StellarFunctions;
+import org.apache.metron.profiler.stellar.DefaultStellarExecutor;
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static java.lang.String.format;
+
+/**
+ * Executes a Profile definition against the state of any number of entities.
+ *
+ * There is one instance for each Profile definition, which holds the Stellar execution environment
+ * that is shared by every entity.  The state of each entity is held separately in a {@link ProfileState}
+ * and is loaded into the execution environment while a message is applied or the profile is flushed.
+ */
+public class CompiledProfile implements Serializable {
+
+  protected static final Logger LOG = LoggerFactory.getLogger(CompiledProfile.class);
+
+  /**
+   * The definition of the Profile.
+   */
+  private ProfileConfig definition;
+
+  /**
+   * The name of the profile.
+   */
+  private String profileName;
+
+  /**
+   * The names of the variables that the profile assigns; those of the 'init' and 'update' expressions.
+   */
+  private String[] variables;
+
+  /**
+   * Executes Stellar code against the state of one entity at a time.
+   */
+  private DefaultStellarExecutor executor;
+
+  /**
+   * The state of the execution environment, into which the state of an entity is loaded.
+   */
+  private Map<String, Object> variableState;
+
+  /**
+   * The global configuration that the profile was compiled with.
+   */
+  private Map<String, Object> globalConfig;
+
+  /**
+   * @param definition The profile definition.
+   * @param client The zookeeper client.
+   * @param global The global configuration.
+   */
+  public CompiledProfile(ProfileConfig definition, CuratorFramework client, Map<String, Object> global) {
+    this.definition = definition;
+    this.profileName = definition.getProfile();
+    this.globalConfig = global;
+
+    Set<String> names = new LinkedHashSet<>();
+    names.addAll(MapUtils.emptyIfNull(definition.getInit()).keySet());
+    names.addAll(MapUtils.emptyIfNull(definition.getUpdate()).keySet());
+    this.variables = names.toArray(new String[names.size()]);
+
+    this.variableState = new HashMap<>();
+    this.executor = new DefaultStellarExecutor();
+    this.executor.setState(variableState);
+    Context context = new Context.Builder()
+            .with(Context.Capabilities.ZOOKEEPER_CLIENT, () -> client)
+            .with(Context.Capabilities.GLOBAL_CONFIG, () -> global)
+            .with(Context.Capabilities.STELLAR_CONFIG, () -> global)
+            .build();
+    StellarFunctions.initialize(context);
+    this.executor.setContext(context);
+  }
+
+  /**
+   * Creates the state of a new entity.
+   */
+  public ProfileState newState() {
+    return new ProfileState(variables.length);
+  }
+
+  /**
+   * @return The number of variables that the profile assigns.
+   */
+  public int getVariableCount() {
+    return variables.length;
+  }
+
+  /**
+   * Apply a message to the profile of an entity.
+   * @param entity The name of the entity.
+   * @param state The state of the entity, which is updated.
+   * @param message The message to apply.
+   */
+  @SuppressWarnings("unchecked")
+  public void apply(String entity, ProfileState state, JSONObject message) {
+    load(state);
+    try {
+      if(!state.isInitialized()) {
+        assign(definition.getInit(), message, "init", entity);
+        state.setInitialized(true);
+      }
+
+      assign(definition.getUpdate(), message, "update", entity);
+
+    } finally {
+      save(state);
+    }
+  }
+
+  /**
+   * Flush the profile of an entity.
+   *
+   * Completes the ProfileMeasurement and marks the state of the entity as uninitialized in
+   * preparation for the next period.
+   *
+   * @param entity The name of the entity.
+   * @param state The state of the entity.
+   * @param period The period that the measurement was taken over.
+   * @return Returns the completed profile measurement.
+   */
+  public ProfileMeasurement flush(String entity, ProfileState state, ProfilePeriod period) {
+    LOG.debug("Flushing profile: profile={}, entity={}, period={}", profileName, entity, period.getPeriod());
+    load(state);
+
+    // execute the 'profile' expression(s)
+    @SuppressWarnings("unchecked")
+    Object profileValue = execute(definition.getResult().getProfileExpressions().getExpression(), "result/profile", entity);
+
+    // execute the 'triage' expression(s)
+    Map<String, Object> triageValues = definition.getResult().getTriageExpressions().getExpressions()
+            .entrySet()
+            .stream()
+            .collect(Collectors.toMap(
+                    e -> e.getKey(),
+                    e -> execute(e.getValue(), "result/triage", entity)));
+
+    // execute the 'groupBy' expression(s) - can refer to value of 'result' expression
+    List<Object> groups = execute(definition.getGroupBy(), ImmutableMap.of("result", profileValue), "groupBy", entity);
+
+    state.setInitialized(false);
+    return new ProfileMeasurement()
+            .withProfileName(profileName)
+            .withEntity(entity)
+            .withGroups(groups)
+            .withPeriod(period)
+            .withProfileValue(profileValue)
+            .withTriageValues(triageValues)
+            .withDefinition(definition);
+  }
+
+  /**
+   * Returns the current value of a variable of an entity.
+   * @param state The state of the entity.
+   * @param variable The name of the variable.
+   */
+  public Object valueOf(ProfileState state, String variable) {
+    for(int i = 0; i < variables.length; i++) {
+      if(variables[i].equals(variable)) {
+        return state.getValues()[i];
+      }
+    }
+    return null;
+  }
+
+  public ProfileConfig getDefinition() {
+    return definition;
+  }
+
+  public Map<String, Object> getGlobalConfig() {
+    return globalConfig;
+  }
+
+  /**
+   * Loads the state of an entity into the execution environment.
+   */
+  private void load(ProfileState state) {
+    variableState.clear();
+    Object[] values = state.getValues();
+    for(int i = 0; i < variables.length; i++) {
+      if(values[i] != null) {
+        variableState.put(variables[i], values[i]);
+      }
+    }
+  }
+
+  /**
+   * Saves the state of the execution environment to the state of an entity.
+   */
+  private void save(ProfileState state) {
+    Object[] values = state.getValues();
+    for(int i = 0; i < variables.length; i++) {
+      values[i] = variableState.get(variables[i]);
+    }
+  }
+
+  /**
+   * Executes an expression contained within the profile definition.
+   * @param expression The expression to execute.
+   * @param transientState Additional transient state provided to the expression.
+   * @param expressionType The type of expression; init, update, result.  Provides additional context if expression execution fails.
+   * @param entity The name of the entity.
+   * @return The result of executing the expression.
+   */
+  private Object execute(String expression, Map<String, Object> transientState, String expressionType, String entity) {
+    Object result = null;
+
+    List<Object> allResults = execute(Collections.singletonList(expression), transientState, expressionType, entity);
+    if(allResults.size() > 0) {
+      result = allResults.get(0);
+    }
+
+    return result;
+  }
+
+  /**
+   * Executes an expression contained within the profile definition.
+   * @param expression The expression to execute.
+   * @param expressionType The type of expression; init, update, result.  Provides additional context if expression execution fails.
+   * @param entity The name of the entity.
+   * @return The result of executing the expression.
+   */
+  private Object execute(String expression, String expressionType, String entity) {
+    return execute(expression, Collections.emptyMap(), expressionType, entity);
+  }
+
+  /**
+   * Executes a set of expressions whose results need to be assigned to a variable.
+   * @param expressions Maps the name of a variable to the expression whose result should be assigned to it.
+   * @param transientState Additional transient state provided to the expression.
+   * @param expressionType The type of expression; init, update, result.  Provides additional context if expression execution fails.
+   * @param entity The name of the entity.
+   */
+  private void assign(Map<String, String> expressions, Map<String, Object> transientState, String expressionType, String entity) {
+    try {
+
+      // execute each of the 'update' expressions
+      MapUtils.emptyIfNull(expressions)
+              .forEach((var, expr) -> executor.assign(var, expr, transientState));
+
+    } catch(ParseException e) {
+
+      // make it brilliantly clear that one of the 'update' expressions is bad
+      String msg = format("Bad '%s' expression: %s, profile=%s, entity=%s", expressionType, e.getMessage(), profileName, entity);
+      throw new ParseException(msg, e);
+    }
+  }
+
+  /**
+   * Executes the expressions contained within the profile definition.
+   * @param expressions A list of expressions to execute.
+   * @param transientState Additional transient state provided to the expressions.
+   * @param expressionType The type of expression; init, update, result.  Provides additional context if expression execution fails.
+   * @param entity The name of the entity.
+   * @return The result of executing each expression.
+   */
+  private List<Object> execute(List<String> expressions, Map<String, Object> transientState, String expressionType, String entity) {
+    List<Object> results = new ArrayList<>();
+
+    try {
+      ListUtils.emptyIfNull(expressions)
+              .forEach((expr) -> results.add(executor.execute(expr, transientState, Object.class)));
+
+    } catch (Throwable e) {
+      String msg = format("Bad '%s' expression: %s, profile=%s, entity=%s", expressionType, e.getMessage(), profileName, entity);
+      throw new ParseException(msg, e);
+    }
+
+    return results;
+  }
+}
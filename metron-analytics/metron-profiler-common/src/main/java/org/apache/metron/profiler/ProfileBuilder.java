@@ -20,32 +20,16 @@
 
 package org.apache.metron.profiler;
 
-import com.google.common.collect.ImmutableMap;
-import org.apache.commons.collections4.ListUtils;
-import org.apache.commons.collections4.MapUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.metron.common.configuration.profiler.ProfileConfig;
-import org.apache.metron.common.configuration.profiler.ProfileResult;
-import org.apache.metron.common.dsl.Context;
-import org.apache.metron.common.dsl.ParseException;
-import org.apache.metron.common.dsl.StellarFunctions;
 import org.apache.metron.profiler.clock.Clock;
 import org.apache.metron.profiler.clock.WallClock;
-import org.apache.metron.profiler.stellar.DefaultStellarExecutor;
-import org.apache.metron.profiler.stellar.StellarExecutor;
 import org.json.simple.JSONObject;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
 
 import static java.lang.String.format;
 
@@ -61,32 +45,20 @@ import static java.lang.String.format;
  */
 public class ProfileBuilder implements Serializable {
 
-  protected static final Logger LOG = LoggerFactory.getLogger(ProfileBuilder.class);
-
-  /**
-   * The name of the profile.
-   */
-  private String profileName;
-
   /**
    * The name of the entity.
    */
   private String entity;
 
   /**
-   * The definition of the Profile that the bolt is building.
+   * Executes the Profile definition.
    */
-  private ProfileConfig definition;
+  private CompiledProfile profile;
 
   /**
-   * Executes Stellar code and maintains state across multiple invocations.
+   * The state of the profile for the entity.
    */
-  private StellarExecutor executor;
-
-  /**
-   * Has the profile been initialized?
-   */
-  private boolean isInitialized;
+  private ProfileState state;
 
   /**
    * The duration of each period in milliseconds.
@@ -108,35 +80,19 @@ public class ProfileBuilder implements Serializable {
                          CuratorFramework client,
                          Map<String, Object> global) {
 
-    this.isInitialized = false;
-    this.definition = definition;
-    this.profileName = definition.getProfile();
     this.entity = entity;
     this.clock = clock;
     this.periodDurationMillis = periodDurationMillis;
-    this.executor = new DefaultStellarExecutor();
-    Context context = new Context.Builder()
-            .with(Context.Capabilities.ZOOKEEPER_CLIENT, () -> client)
-            .with(Context.Capabilities.GLOBAL_CONFIG, () -> global)
-            .with(Context.Capabilities.STELLAR_CONFIG, () -> global)
-            .build();
-    StellarFunctions.initialize(context);
-    this.executor.setContext(context);
+    this.profile = new CompiledProfile(definition, client, global);
+    this.state = profile.newState();
   }
 
   /**
    * Apply a message to the profile.
    * @param message The message to apply.
    */
-  @SuppressWarnings("unchecked")
   public void apply(JSONObject message) {
-
-    if(!isInitialized()) {
-      assign(definition.getInit(), message, "init");
-      isInitialized = true;
-    }
-
-    assign(definition.getUpdate(), message, "update");
+    profile.apply(entity, state, message);
   }
 
   /**
@@ -148,104 +104,20 @@ public class ProfileBuilder implements Serializable {
    * @return Returns the completed profile measurement.
    */
   public ProfileMeasurement flush() {
-    LOG.debug("Flushing profile: profile={}, entity={}", profileName, entity);
-
-    // execute the 'profile' expression(s)
-    @SuppressWarnings("unchecked")
-    Object profileValue = execute(definition.getResult().getProfileExpressions().getExpression(), "result/profile");
-
-    // execute the 'triage' expression(s)
-    Map<String, Object> triageValues = definition.getResult().getTriageExpressions().getExpressions()
-            .entrySet()
-            .stream()
-            .collect(Collectors.toMap(
-                    e -> e.getKey(),
-                    e -> execute(e.getValue(), "result/triage")));
-
-    // execute the 'groupBy' expression(s) - can refer to value of 'result' expression
-    List<Object> groups = execute(definition.getGroupBy(), ImmutableMap.of("result", profileValue), "groupBy");
-
-    isInitialized = false;
-    return new ProfileMeasurement()
-            .withProfileName(profileName)
-            .withEntity(entity)
-            .withGroups(groups)
-            .withPeriod(clock.currentTimeMillis(), periodDurationMillis, TimeUnit.MILLISECONDS)
-            .withProfileValue(profileValue)
-            .withTriageValues(triageValues)
-            .withDefinition(definition);
-  }
-
-  /**
-   * Executes an expression contained within the profile definition.
-   * @param expression The expression to execute.
-   * @param transientState Additional transient state provided to the expression.
-   * @param expressionType The type of expression; init, update, result.  Provides additional context if expression execution fails.
-   * @return The result of executing the expression.
-   */
-  private Object execute(String expression, Map<String, Object> transientState, String expressionType) {
-    Object result = null;
-
-    List<Object> allResults = execute(Collections.singletonList(expression), transientState, expressionType);
-    if(allResults.size() > 0) {
-      result = allResults.get(0);
-    }
-
-    return result;
+    return flush(new ProfilePeriod(clock.currentTimeMillis(), periodDurationMillis, TimeUnit.MILLISECONDS));
   }
 
   /**
-   * Executes an expression contained within the profile definition.
-   * @param expression The expression to execute.
-   * @param expressionType The type of expression; init, update, result.  Provides additional context if expression execution fails.
-   * @return The result of executing the expression.
-   */
-  private Object execute(String expression, String expressionType) {
-    return execute(expression, Collections.emptyMap(), expressionType);
-  }
-
-
-  /**
-   * Executes a set of expressions whose results need to be assigned to a variable.
-   * @param expressions Maps the name of a variable to the expression whose result should be assigned to it.
-   * @param transientState Additional transient state provided to the expression.
-   * @param expressionType The type of expression; init, update, result.  Provides additional context if expression execution fails.
-   */
-  private void assign(Map<String, String> expressions, Map<String, Object> transientState, String expressionType) {
-    try {
-
-      // execute each of the 'update' expressions
-      MapUtils.emptyIfNull(expressions)
-              .forEach((var, expr) -> executor.assign(var, expr, transientState));
-
-    } catch(ParseException e) {
-
-      // make it brilliantly clear that one of the 'update' expressions is bad
-      String msg = format("Bad '%s' expression: %s, profile=%s, entity=%s", expressionType, e.getMessage(), profileName, entity);
-      throw new ParseException(msg, e);
-    }
-  }
-
-  /**
-   * Executes the expressions contained within the profile definition.
-   * @param expressions A list of expressions to execute.
-   * @param transientState Additional transient state provided to the expressions.
-   * @param expressionType The type of expression; init, update, result.  Provides additional context if expression execution fails.
-   * @return The result of executing each expression.
+   * Flush the Profile for a given period.
+   *
+   * This is used when messages are assigned to periods by their own timestamps, in which case the
+   * period being flushed is not the one the clock is in.
+   *
+   * @param period The period that the measurement was taken over.
+   * @return Returns the completed profile measurement.
    */
-  private List<Object> execute(List<String> expressions, Map<String, Object> transientState, String expressionType) {
-    List<Object> results = new ArrayList<>();
-
-    try {
-      ListUtils.emptyIfNull(expressions)
-              .forEach((expr) -> results.add(executor.execute(expr, transientState, Object.class)));
-
-    } catch (Throwable e) {
-      String msg = format("Bad '%s' expression: %s, profile=%s, entity=%s", expressionType, e.getMessage(), profileName, entity);
-      throw new ParseException(msg, e);
-    }
-
-    return results;
+  public ProfileMeasurement flush(ProfilePeriod period) {
+    return profile.flush(entity, state, period);
   }
 
   /**
@@ -253,15 +125,15 @@ public class ProfileBuilder implements Serializable {
    * @param variable The name of the variable.
    */
   public Object valueOf(String variable) {
-    return executor.getState().get(variable);
+    return profile.valueOf(state, variable);
   }
 
   public boolean isInitialized() {
-    return isInitialized;
+    return state.isInitialized();
   }
 
   public ProfileConfig getDefinition() {
-    return definition;
+    return profile.getDefinition();
   }
 
   /**
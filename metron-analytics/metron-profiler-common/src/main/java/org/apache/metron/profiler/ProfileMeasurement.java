@@ -98,6 +98,11 @@ public class ProfileMeasurement {
     return this;
   }
 
+  public ProfileMeasurement withPeriod(ProfilePeriod period) {
+    this.period = period;
+    return this;
+  }
+
   public ProfileMeasurement withDefinition(ProfileConfig definition) {
     this.definition = definition;
     return this;
@@ -0,0 +1,75 @@
+/*
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.apache.metron.profiler;
+
+import java.io.Serializable;
+
+/**
+ * The state of a profile for a single entity; the values of the profile's variables and whether
+ * the profile has been initialized in the current period.
+ *
+ * The values are held by the position of each variable within the {@link CompiledProfile}
+ * so that no variable names, nor a map, are kept per entity.
+ */
+public class ProfileState implements Serializable {
+
+  /**
+   * The value of each variable, by position.  A variable that has not been assigned is null.
+   */
+  private Object[] values;
+
+  /**
+   * Has the profile been initialized in the current period?
+   */
+  private boolean initialized;
+
+  /**
+   * When a message was last applied to the entity.
+   */
+  private long lastAccessMillis;
+
+  /**
+   * @param variableCount The number of variables of the profile.
+   */
+  public ProfileState(int variableCount) {
+    this.values = new Object[variableCount];
+  }
+
+  Object[] getValues() {
+    return values;
+  }
+
+  public boolean isInitialized() {
+    return initialized;
+  }
+
+  void setInitialized(boolean initialized) {
+    this.initialized = initialized;
+  }
+
+  public long getLastAccessMillis() {
+    return lastAccessMillis;
+  }
+
+  void setLastAccessMillis(long lastAccessMillis) {
+    this.lastAccessMillis = lastAccessMillis;
+  }
+}
@@ -0,0 +1,320 @@
+/*
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.apache.metron.profiler;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.metron.common.configuration.profiler.ProfileConfig;
+import org.apache.metron.profiler.clock.Clock;
+import org.apache.metron.profiler.clock.WallClock;
+import org.apache.metron.profiler.state.InMemoryProfileStateBackend;
+import org.apache.metron.profiler.state.ProfileStateBackend;
+import org.apache.metron.profiler.state.ProfileStateBackend.Action;
+import org.json.simple.JSONObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Maintains the state of every [profile, entity] pair that is being built.
+ *
+ * Each distinct profile definition is compiled once into a {@link CompiledProfile}, whose
+ * execution environment is shared by all of its entities.  The profile is compiled again when
+ * the global configuration changes.  Only the values of the profile's
+ * variables are kept for each entity, by a {@link ProfileStateBackend}.  By default the state
+ * is kept on the heap.
+ *
+ * If a message has not been applied to the profile of an entity within the time to live, the
+ * state of that entity is forgotten when `expire` is called.
+ */
+public class ProfileStateStore implements Closeable {
+
+  /**
+   * The compiled profiles, keyed by the name of the profile.  A profile has more than one compiled
+   * definition while the state of entities built with an earlier definition is still kept.
+   */
+  private Map<String, List<CompiledProfile>> profiles;
+
+  /**
+   * Keeps the state of each entity.
+   */
+  private ProfileStateBackend backend;
+
+  /**
+   * The duration of each period in milliseconds.
+   */
+  private long periodDurationMillis;
+
+  /**
+   * How long the state of an entity is kept after a message was last applied to it.
+   */
+  private long timeToLiveMillis;
+
+  /**
+   * Tells the time at which messages are applied and profiles are flushed.
+   */
+  private Clock clock;
+
+  private CuratorFramework client;
+
+  /**
+   * Provides the current global configuration.
+   */
+  private Supplier<Map<String, Object>> global;
+
+  /**
+   * Use the ProfileStateStore.Builder to create a new ProfileStateStore.
+   */
+  private ProfileStateStore(ProfileStateBackend backend,
+                            long periodDurationMillis,
+                            long timeToLiveMillis,
+                            Clock clock,
+                            CuratorFramework client,
+                            Supplier<Map<String, Object>> global) {
+    this.profiles = new HashMap<>();
+    this.backend = backend;
+    this.periodDurationMillis = periodDurationMillis;
+    this.timeToLiveMillis = timeToLiveMillis;
+    this.clock = clock;
+    this.client = client;
+    this.global = global;
+  }
+
+  /**
+   * Apply a message to the profile of an entity.
+   * @param definition The profile definition.
+   * @param entity The name of the entity.
+   * @param message The message to apply.
+   */
+  public void apply(ProfileConfig definition, String entity, JSONObject message) {
+    CompiledProfile profile = compile(definition);
+    ProfileState state = backend.get(definition, entity);
+    if(state == null) {
+      state = profile.newState();
+    }
+
+    state.setLastAccessMillis(clock.currentTimeMillis());
+    try {
+      profile.apply(entity, state, message);
+
+    } finally {
+      backend.put(definition, entity, state);
+    }
+  }
+
+  /**
+   * Flush the profile of each entity that has been initialized in the current period.
+   * @return The completed profile measurements.
+   */
+  public List<ProfileMeasurement> flush() {
+    return flush(new ProfilePeriod(clock.currentTimeMillis(), periodDurationMillis, TimeUnit.MILLISECONDS));
+  }
+
+  /**
+   * Flush the profile of each entity that has been initialized, for a given period.
+   * @param period The period that the measurements were taken over.
+   * @return The completed profile measurements.
+   */
+  public List<ProfileMeasurement> flush(ProfilePeriod period) {
+    List<ProfileMeasurement> measurements = new ArrayList<>();
+    backend.forEach((definition, entity, state) -> {
+      if(state.isInitialized()) {
+        measurements.add(compile(definition).flush(entity, state, period));
+        return Action.UPDATE;
+      }
+      return Action.KEEP;
+    });
+
+    return measurements;
+  }
+
+  /**
+   * Forgets the state of each entity that no message has been applied to within the time to
+   * live, along with any compiled profile that no longer has entities.
+   */
+  public void expire() {
+    long now = clock.currentTimeMillis();
+    Set<ProfileConfig> live = new HashSet<>();
+    backend.forEach((definition, entity, state) -> {
+      if(now - state.getLastAccessMillis() >= timeToLiveMillis) {
+        return Action.REMOVE;
+      }
+      live.add(definition);
+      return Action.KEEP;
+    });
+    for(List<CompiledProfile> compiled : profiles.values()) {
+      compiled.removeIf(profile -> !live.contains(profile.getDefinition()));
+    }
+    profiles.values().removeIf(List::isEmpty);
+  }
+
+  /**
+   * Persists the state of every entity, if the backend supports it, so that it can be recovered
+   * after a restart.
+   */
+  public void checkpoint() throws IOException {
+    backend.checkpoint();
+  }
+
+  /**
+   * Closes the store and removes any state that its backend has persisted.
+   */
+  public void destroy() throws IOException {
+    backend.destroy();
+  }
+
+  @Override
+  public void close() throws IOException {
+    backend.close();
+  }
+
+  /**
+   * Returns the current value of a variable of the profile of an entity.
+   * @param definition The profile definition.
+   * @param entity The name of the entity.
+   * @param variable The name of the variable.
+   * @return The value of the variable or null, if the entity is not known.
+   */
+  public Object valueOf(ProfileConfig definition, String entity, String variable) {
+    ProfileState state = backend.get(definition, entity);
+    return state == null ? null : compile(definition).valueOf(state, variable);
+  }
+
+  /**
+   * Has the profile of an entity been initialized in the current period?
+   * @param definition The profile definition.
+   * @param entity The name of the entity.
+   */
+  public boolean isInitialized(ProfileConfig definition, String entity) {
+    ProfileState state = backend.get(definition, entity);
+    return state != null && state.isInitialized();
+  }
+
+  /**
+   * @return The number of [profile, entity] pairs whose state is kept.
+   */
+  public long size() {
+    return backend.size();
+  }
+
+  /**
+   * Returns the compiled profile of a definition, compiling it if necessary.  A profile is compiled
+   * again if the global configuration has changed since it was compiled.
+   *
+   * The profiles are looked up by name, so that the definition, which is compared to that of the
+   * compiled profile, is not hashed.  The global configuration is compared by value, as it may be read
+   * into a new map each time.
+   * @param definition The profile definition.
+   */
+  CompiledProfile compile(ProfileConfig definition) {
+    Map<String, Object> globalConfig = global.get();
+    List<CompiledProfile> compiled = profiles.computeIfAbsent(definition.getProfile(), name -> new ArrayList<>(1));
+    for(int i = 0; i < compiled.size(); i++) {
+      CompiledProfile profile = compiled.get(i);
+      if(profile.getDefinition().equals(definition)) {
+        // the global configuration may be a new, but equal, map each time it is read
+        if(!Objects.equals(profile.getGlobalConfig(), globalConfig)) {
+          profile = new CompiledProfile(profile.getDefinition(), client, globalConfig);
+          compiled.set(i, profile);
+        }
+        return profile;
+      }
+    }
+    CompiledProfile profile = new CompiledProfile(definition, client, globalConfig);
+    compiled.add(profile);
+    return profile;
+  }
+
+  /**
+   * A builder used to construct a new ProfileStateStore.
+   */
+  public static class Builder {
+
+    private ProfileStateBackend backend = new InMemoryProfileStateBackend();
+    private long periodDurationMillis;
+    private long timeToLiveMillis = Long.MAX_VALUE;
+    private Clock clock = new WallClock();
+    private CuratorFramework zookeeperClient;
+    private Supplier<Map<String, Object>> global = Collections::emptyMap;
+
+    /**
+     * @param backend Keeps the state of each entity.
+     */
+    public Builder withBackend(ProfileStateBackend backend) {
+      this.backend = backend;
+      return this;
+    }
+
+    public Builder withClock(Clock clock) {
+      this.clock = clock;
+      return this;
+    }
+
+    /**
+     * @param millis The duration of each profile period in milliseconds.
+     */
+    public Builder withPeriodDurationMillis(long millis) {
+      this.periodDurationMillis = millis;
+      return this;
+    }
+
+    /**
+     * @param millis How long the state of an entity is kept after a message was last applied to it.
+     */
+    public Builder withTimeToLiveMillis(long millis) {
+      this.timeToLiveMillis = millis;
+      return this;
+    }
+
+    /**
+     * @param zookeeperClient The zookeeper client.
+     */
+    public Builder withZookeeperClient(CuratorFramework zookeeperClient) {
+      this.zookeeperClient = zookeeperClient;
+      return this;
+    }
+
+    /**
+     * @param global Provides the current global configuration.  A profile is compiled again once this
+     *               provides another map than the one it was compiled with.
+     */
+    public Builder withGlobalConfiguration(Supplier<Map<String, Object>> global) {
+      this.global = global;
+      return this;
+    }
+
+    /**
+     * Construct a ProfileStateStore.
+     */
+    public ProfileStateStore build() {
+      return new ProfileStateStore(backend, periodDurationMillis, timeToLiveMillis, clock, zookeeperClient, global);
+    }
+  }
+}
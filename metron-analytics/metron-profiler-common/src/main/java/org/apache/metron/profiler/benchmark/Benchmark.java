@@ -0,0 +1,134 @@
+/*
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.apache.metron.profiler.benchmark;
+
+import com.google.common.base.Joiner;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.PosixParser;
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+
+import java.util.function.LongUnaryOperator;
+
+import static java.lang.String.format;
+
+/**
+ * The command line handling and timing shared by the profiler benchmarks.
+ */
+public class Benchmark {
+
+  public static final Double[] PERCENTILES = new Double[] {
+    50d, 75d, 95d, 99d
+  };
+
+  private final String name;
+  private final Options options;
+
+  /**
+   * @param name The name of the benchmark, as shown in its help screen.
+   */
+  public Benchmark(String name) {
+    this.name = name;
+    this.options = new Options();
+    this.options.addOption(new Option("h", "help", false, "Generate Help screen"));
+  }
+
+  /**
+   * Adds an option that takes an argument.
+   */
+  public Benchmark withOption(String shortCode, String longName, String argName, String description) {
+    Option o = new Option(shortCode, longName, true, description);
+    o.setArgName(argName);
+    o.setRequired(false);
+    options.addOption(o);
+    return this;
+  }
+
+  /**
+   * Parses the command line, exiting after printing the help screen if asked for or if the
+   * command line cannot be parsed.
+   */
+  public CommandLine parse(String... args) {
+    try {
+      CommandLine cli = new PosixParser().parse(options, args);
+      if(cli.hasOption("h")) {
+        printHelp();
+        System.exit(0);
+      }
+      return cli;
+    } catch (org.apache.commons.cli.ParseException e) {
+      System.err.println("Unable to parse args: " + Joiner.on(' ').join(args));
+      e.printStackTrace(System.err);
+      printHelp();
+      System.exit(-1);
+      return null;
+    }
+  }
+
+  public void printHelp() {
+    HelpFormatter formatter = new HelpFormatter();
+    formatter.printHelp(name, options);
+  }
+
+  public static int getInt(CommandLine cli, String shortCode, int defaultValue) {
+    return cli.hasOption(shortCode) ? Integer.parseInt(cli.getOptionValue(shortCode).trim()) : defaultValue;
+  }
+
+  /**
+   * Runs a task many times.
+   * @param task Runs the task for the i-th time and returns a count of its results, which is
+   *             summed so that the work cannot be optimized away.
+   * @return The time taken by each measured run, after warmup, in microseconds.
+   */
+  public static DescriptiveStatistics run(int warmup, int numTimes, LongUnaryOperator task) {
+    DescriptiveStatistics stats = new DescriptiveStatistics();
+    long count = 0;
+    for(int i = 0; i < warmup + numTimes; i++) {
+      long start = System.nanoTime();
+      count += task.applyAsLong(i);
+      if(i >= warmup) {
+        stats.addValue((System.nanoTime() - start) / 1000d);
+      }
+    }
+    if(count < 0) {
+      throw new IllegalStateException("no results were counted");
+    }
+    return stats;
+  }
+
+  /**
+   * Describes the time taken by each run.
+   * @param unit What was measured by each run; e.g. "call".
+   */
+  public static String describe(String unit, DescriptiveStatistics stats) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(format("%s: mean of %.1fus [+-%.1f], measured %d %ss;\n",
+            unit, stats.getMean(), stats.getStandardDeviation(), stats.getN(), unit));
+    sb.append(format("\tMin - %.1f\n", stats.getMin()));
+    for(double pctile : PERCENTILES) {
+      sb.append(format("\t%s - %.1f\n", pctile, stats.getPercentile(pctile)));
+    }
+    sb.append(format("\tMax - %.1f", stats.getMax()));
+    return sb.toString();
+  }
+}
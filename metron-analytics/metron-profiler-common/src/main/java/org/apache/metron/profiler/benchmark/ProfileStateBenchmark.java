@@ -0,0 +1,143 @@
+/*
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.apache.metron.profiler.benchmark;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.io.Files;
+import org.apache.commons.cli.CommandLine;
+import org.apache.metron.common.configuration.profiler.ProfileConfig;
+import org.apache.metron.common.utils.JSONUtils;
+import org.apache.metron.profiler.ProfileBuilder;
+import org.apache.metron.profiler.ProfileStateStore;
+import org.json.simple.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+
+/**
+ * Measures the heap used to hold the state of a profile for many entities, both with a cache of
+ * ProfileBuilders, one per [profile, entity] pair, and with a ProfileStateStore.
+ */
+public class ProfileStateBenchmark {
+
+  public static int DEFAULT_ENTITIES = 1000000;
+  public static String DEFAULT_PROFILE = "{ \"profile\": \"benchmark\", \"foreach\": \"ip_src_addr\""
+          + ", \"init\": { \"count\": \"0\" }, \"update\": { \"count\": \"count + 1\" }, \"result\": \"count\" }";
+
+  private static final Benchmark BENCHMARK = new Benchmark("ProfileStateBenchmark")
+          .withOption("n", "entities", "NUM", "Number of entities to apply a message to. Default: " + DEFAULT_ENTITIES)
+          .withOption("p", "profile", "FILE", "File containing the profile definition. Default: a profile that counts messages");
+
+  public static void main(String... argv) throws Exception {
+    CommandLine cli = BENCHMARK.parse(argv);
+    int entities = Benchmark.getInt(cli, "n", DEFAULT_ENTITIES);
+    String profile = DEFAULT_PROFILE;
+    if(cli.hasOption("p")) {
+      profile = Files.toString(new File(cli.getOptionValue("p").trim()), Charset.defaultCharset());
+    }
+    ProfileConfig definition = JSONUtils.INSTANCE.load(profile, ProfileConfig.class);
+
+    System.out.println(format("Entities: %d", entities));
+    System.out.println(format("Cache of ProfileBuilders: %s", describe(measureCache(definition, entities), entities)));
+    System.out.println(format("ProfileStateStore: %s", describe(measureStore(definition, entities), entities)));
+  }
+
+  /**
+   * Measures the heap used by a cache of ProfileBuilders, keyed as the ProfileBuilderBolt once did.
+   * @return The bytes of heap used.
+   */
+  private static long measureCache(ProfileConfig definition, int entities) throws Exception {
+    long before = usedHeap();
+    Cache<String, ProfileBuilder> cache = CacheBuilder.newBuilder()
+            .expireAfterAccess(30, TimeUnit.MINUTES)
+            .build();
+    for(int i = 0; i < entities; i++) {
+      String entity = entity(i);
+      String key = format("%s:%s", definition, entity);
+      // not Cache.get(key, loader), which never grows the table of the Guava 11 on this classpath
+      ProfileBuilder builder = cache.getIfPresent(key);
+      if(builder == null) {
+        builder = new ProfileBuilder.Builder()
+                .withDefinition(definition)
+                .withEntity(entity)
+                .withPeriodDuration(15, TimeUnit.MINUTES)
+                .build();
+        cache.put(key, builder);
+      }
+      builder.apply(message(entity));
+    }
+    long used = usedHeap() - before;
+    if(cache.size() != entities) {
+      throw new IllegalStateException(format("expected %d profiles, got %d", entities, cache.size()));
+    }
+    return used;
+  }
+
+  /**
+   * Measures the heap used by a ProfileStateStore.
+   * @return The bytes of heap used.
+   */
+  private static long measureStore(ProfileConfig definition, int entities) throws Exception {
+    long before = usedHeap();
+    ProfileStateStore store = new ProfileStateStore.Builder()
+            .withPeriodDurationMillis(TimeUnit.MINUTES.toMillis(15))
+            .withTimeToLiveMillis(TimeUnit.MINUTES.toMillis(30))
+            .build();
+    for(int i = 0; i < entities; i++) {
+      String entity = entity(i);
+      store.apply(definition, entity, message(entity));
+    }
+    long used = usedHeap() - before;
+    if(store.size() != entities) {
+      throw new IllegalStateException(format("expected %d profiles, got %d", entities, store.size()));
+    }
+    return used;
+  }
+
+  private static String entity(int i) {
+    return format("10.%d.%d.%d", (i >> 16) & 0xff, (i >> 8) & 0xff, i & 0xff);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static JSONObject message(String entity) {
+    JSONObject message = new JSONObject();
+    message.put("ip_src_addr", entity);
+    return message;
+  }
+
+  private static long usedHeap() throws InterruptedException {
+    Runtime runtime = Runtime.getRuntime();
+    for(int i = 0; i < 3; i++) {
+      System.gc();
+      Thread.sleep(100);
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private static String describe(long bytes, int entities) {
+    return format("%,d bytes of heap, %,d bytes per entity", bytes, bytes / Math.max(entities, 1));
+  }
+}
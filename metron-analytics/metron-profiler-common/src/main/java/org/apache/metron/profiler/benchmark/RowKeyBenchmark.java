@@ -0,0 +1,75 @@
+/*
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.apache.metron.profiler.benchmark;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.metron.profiler.hbase.SaltyRowKeyBuilder;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+
+/**
+ * Measures the time taken to build the row keys that are read for a window of profile periods, as
+ * PROFILE_GET does, both with the bulk API and one period at a time.
+ *
+ * To compare implementations of the SaltyRowKeyBuilder, run the benchmark against each.
+ */
+public class RowKeyBenchmark {
+
+  public static int DEFAULT_WARMUP = 1000;
+  public static int DEFAULT_NUM_TIMES = 10000;
+  public static int DEFAULT_PERIODS = 672;
+
+  private static final Benchmark BENCHMARK = new Benchmark("RowKeyBenchmark")
+          .withOption("w", "warmup", "NUM", "Number of windows for warmup. Default: " + DEFAULT_WARMUP)
+          .withOption("n", "num_times", "NUM", "Number of windows to measure (after warmup). Default: " + DEFAULT_NUM_TIMES)
+          .withOption("p", "periods", "NUM", "Number of 15 minute periods in each window. Default: " + DEFAULT_PERIODS);
+
+  public static void main(String... argv) {
+    CommandLine cli = BENCHMARK.parse(argv);
+    int warmup = Benchmark.getInt(cli, "w", DEFAULT_WARMUP);
+    int numTimes = Benchmark.getInt(cli, "n", DEFAULT_NUM_TIMES);
+    int periods = Benchmark.getInt(cli, "p", DEFAULT_PERIODS);
+
+    long periodDurationMillis = TimeUnit.MINUTES.toMillis(15);
+    SaltyRowKeyBuilder builder = new SaltyRowKeyBuilder(1000, periodDurationMillis, TimeUnit.MILLISECONDS);
+    List<Object> groups = Arrays.asList("weekdays");
+    long end = System.currentTimeMillis();
+    long start = end - (periods - 1) * periodDurationMillis;
+
+    System.out.println(format("Window of %d periods, bulk:", periods));
+    System.out.println(Benchmark.describe("window", Benchmark.run(warmup, numTimes,
+            i -> builder.rowKeys("profile", "10.0.0.1", groups, start, end).size())));
+
+    System.out.println(format("Window of %d periods, one period at a time:", periods));
+    long firstPeriod = start / periodDurationMillis;
+    System.out.println(Benchmark.describe("window", Benchmark.run(warmup, numTimes, i -> {
+      long keys = 0;
+      for(long period = firstPeriod; period * periodDurationMillis <= end; period++) {
+        keys += builder.rowKey("profile", "10.0.0.1", period, groups).length;
+      }
+      return keys;
+    })));
+  }
+}
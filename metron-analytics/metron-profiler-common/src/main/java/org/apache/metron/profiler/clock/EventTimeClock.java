@@ -0,0 +1,109 @@
+/*
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.apache.metron.profiler.clock;
+
+import java.io.Serializable;
+
+/**
+ * A clock that tells time by the timestamps of the messages that it has seen, rather than by the wall clock.
+ *
+ * The current time is a watermark; the latest timestamp seen less the time by which messages are allowed
+ * to arrive late.  A profile period has ended once the watermark passes its end.  Until a message has been
+ * seen, the watermark is before any time.
+ *
+ * While no messages arrive, the clock can be advanced by the wall clock time that passes, so that the
+ * last periods end even if no later messages are received.
+ */
+public class EventTimeClock implements Clock, Serializable {
+
+  /**
+   * How late, in milliseconds, a message may arrive relative to the latest message seen.
+   */
+  private long maxLatenessMillis;
+
+  /**
+   * The latest timestamp seen.
+   */
+  private long latestTimestamp = Long.MIN_VALUE;
+
+  /**
+   * Tells the wall clock time, by which the clock advances while no messages arrive.
+   */
+  private Clock wallClock;
+
+  /**
+   * The wall clock time at which the clock last advanced.
+   */
+  private long lastAdvancedMillis;
+
+  /**
+   * @param maxLatenessMillis How late, in milliseconds, a message may arrive relative to the latest message seen.
+   */
+  public EventTimeClock(long maxLatenessMillis) {
+    this(maxLatenessMillis, new WallClock());
+  }
+
+  /**
+   * @param maxLatenessMillis How late, in milliseconds, a message may arrive relative to the latest message seen.
+   * @param wallClock Tells the wall clock time, by which the clock advances while no messages arrive.
+   */
+  public EventTimeClock(long maxLatenessMillis, Clock wallClock) {
+    if(maxLatenessMillis < 0) {
+      throw new IllegalArgumentException("the maximum lateness must not be negative; got " + maxLatenessMillis);
+    }
+    this.maxLatenessMillis = maxLatenessMillis;
+    this.wallClock = wallClock;
+  }
+
+  /**
+   * Advances the clock, if need be, to account for a message.
+   * @param timestamp The timestamp of the message in epoch milliseconds.
+   */
+  public void advance(long timestamp) {
+    latestTimestamp = Math.max(latestTimestamp, timestamp);
+    lastAdvancedMillis = wallClock.currentTimeMillis();
+  }
+
+  /**
+   * Advances the clock by the wall clock time that has passed since it last advanced, as if a message
+   * that much later had been seen.  This is intended to be called periodically, so that the last periods
+   * end while no messages arrive.  While messages keep arriving, it barely moves the clock.
+   */
+  public void advanceIdle() {
+    if(latestTimestamp == Long.MIN_VALUE) {
+      return;
+    }
+    long now = wallClock.currentTimeMillis();
+    latestTimestamp += Math.max(0, now - lastAdvancedMillis);
+    lastAdvancedMillis = now;
+  }
+
+  /**
+   * The watermark in epoch milliseconds.
+   */
+  @Override
+  public long currentTimeMillis() {
+    if(latestTimestamp == Long.MIN_VALUE) {
+      return Long.MIN_VALUE;
+    }
+    return latestTimestamp - maxLatenessMillis;
+  }
+}
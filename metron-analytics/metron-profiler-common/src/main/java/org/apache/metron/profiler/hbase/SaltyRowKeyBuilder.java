@@ -25,11 +25,16 @@ import org.apache.metron.profiler.ProfileMeasurement;
 import org.apache.metron.profiler.ProfilePeriod;
 
 import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -44,9 +49,31 @@ import java.util.concurrent.TimeUnit;
  * <li>group(s) - The group(s) used to sort the data in HBase. For example, a group may distinguish between weekends and weekdays.
  * <li>period - The period in which the measurement was taken. The first period starts at the epoch and increases monotonically.
  * </ul>
+ *
+ * A rollup, whose period is longer than the profile period, also has the duration of its period in milliseconds
+ * between the group(s) and the period.  This keeps rollups apart from the measurements of the profile period.
+ *
+ * Each row key is encoded directly into a single array of the exact size.  The MD5 digest and the buffer into
+ * which the profile, entity and group(s) are encoded are confined to, and reused by, each thread.  When the row keys
+ * of many periods are built at once, the profile, entity and group(s) are encoded only once.
  */
 public class SaltyRowKeyBuilder implements RowKeyBuilder {
 
+  /**
+   * The size of the salt in bytes.
+   */
+  private static final int SALT_SIZE = Bytes.SIZEOF_INT;
+
+  /**
+   * The size of the period in bytes.
+   */
+  private static final int PERIOD_SIZE = Bytes.SIZEOF_LONG;
+
+  /**
+   * Encodes row keys.  Each thread has its own encoder.
+   */
+  private static final ThreadLocal<Encoder> ENCODER = ThreadLocal.withInitial(Encoder::new);
+
   /**
    * A salt can be prepended to the row key to help prevent hot-spotting.  The salt
    * divisor is used to generate the salt.  The salt divisor should be roughly equal
@@ -87,14 +114,13 @@ public class SaltyRowKeyBuilder implements RowKeyBuilder {
     start = Math.min(start, end);
 
     // find the starting period and advance until the end time is reached
-    return ProfilePeriod.visitPeriods( start
-                                        , end
-                                        , periodDurationMillis
-                                        , TimeUnit.MILLISECONDS
-                                        , Optional.empty()
-                                        , period -> rowKey(profile, entity, period, groups)
-                                        );
-
+    Encoder encoder = ENCODER.get();
+    int prefixLength = encoder.encodePrefix(profile, entity, groups);
+    List<byte[]> ret = new ArrayList<>();
+    for(long period = start / periodDurationMillis; period * periodDurationMillis <= end; period++) {
+      ret.add(encoder.rowKey(prefixLength, period, saltDivisor));
+    }
+    return ret;
   }
 
   /**
@@ -111,9 +137,11 @@ public class SaltyRowKeyBuilder implements RowKeyBuilder {
    */
   @Override
   public List<byte[]> rowKeys(String profile, String entity, List<Object> groups, Iterable<ProfilePeriod> periods) {
+    Encoder encoder = ENCODER.get();
+    int prefixLength = encoder.encodePrefix(profile, entity, groups);
     List<byte[]> ret = new ArrayList<>();
     for(ProfilePeriod period : periods) {
-      ret.add(rowKey(profile, entity, period, groups));
+      ret.add(encoder.rowKey(prefixLength, rollupDuration(period), period.getPeriod(), saltDivisor));
     }
     return ret;
   }
@@ -137,7 +165,9 @@ public class SaltyRowKeyBuilder implements RowKeyBuilder {
    * @return The HBase row key.
    */
   public byte[] rowKey(String profile, String entity, ProfilePeriod period, List<Object> groups) {
-    return rowKey(profile, entity, period.getPeriod(), groups);
+    Encoder encoder = ENCODER.get();
+    int prefixLength = encoder.encodePrefix(profile, entity, groups);
+    return encoder.rowKey(prefixLength, rollupDuration(period), period.getPeriod(), saltDivisor);
   }
 
   /**
@@ -151,59 +181,17 @@ public class SaltyRowKeyBuilder implements RowKeyBuilder {
   public byte[] rowKey(String profile, String entity, long period, List<Object> groups) {
 
     // row key = salt + prefix + group(s) + time
-    byte[] salt = getSalt(period, saltDivisor);
-    byte[] prefixKey = prefixKey(profile, entity);
-    byte[] groupKey = groupKey(groups);
-    byte[] timeKey = timeKey(period);
-
-    int capacity = salt.length + prefixKey.length + groupKey.length + timeKey.length;
-    return ByteBuffer
-            .allocate(capacity)
-            .put(salt)
-            .put(prefixKey)
-            .put(groupKey)
-            .put(timeKey)
-            .array();
-  }
-
-  /**
-   * Builds the 'prefix' component of the row key.
-   * @param profile The name of the profile.
-   * @param entity The name of the entity.
-   */
-  private static byte[] prefixKey(String profile, String entity) {
-    byte[] profileBytes = Bytes.toBytes(profile);
-    byte[] entityBytes = Bytes.toBytes(entity);
-    return ByteBuffer
-            .allocate(profileBytes.length + entityBytes.length)
-            .put(profileBytes)
-            .put(entityBytes)
-            .array();
-  }
-
-  /**
-   * Builds the 'group' component of the row key.
-   * @param groups The groups to include in the row key.
-   */
-  private static byte[] groupKey(List<Object> groups) {
-    StringBuilder builder = new StringBuilder();
-    groups.forEach(g -> builder.append(g));
-    return Bytes.toBytes(builder.toString());
-  }
-  /**
-   * Builds the 'time' portion of the row key
-   * @param period The ProfilePeriod in which the ProfileMeasurement was taken.
-   */
-  private static byte[] timeKey(ProfilePeriod period) {
-    return timeKey(period.getPeriod());
+    Encoder encoder = ENCODER.get();
+    int prefixLength = encoder.encodePrefix(profile, entity, groups);
+    return encoder.rowKey(prefixLength, period, saltDivisor);
   }
 
   /**
-   * Builds the 'time' portion of the row key
-   * @param period the period
+   * Returns the duration of a period in milliseconds if it is a rollup, otherwise 0.
+   * @param period The period.
    */
-  private static byte[] timeKey(long period) {
-    return Bytes.toBytes(period);
+  private long rollupDuration(ProfilePeriod period) {
+    return period.getDurationMillis() == periodDurationMillis ? 0 : period.getDurationMillis();
   }
 
   /**
@@ -228,15 +216,125 @@ public class SaltyRowKeyBuilder implements RowKeyBuilder {
    * @param saltDivisor The salt divisor
    */
   public static byte[] getSalt(long period, int saltDivisor) {
-    try {
-      // an MD5 is 16 bytes aka 128 bits
-      MessageDigest digest = MessageDigest.getInstance("MD5");
-      byte[] hash = digest.digest(timeKey(period));
-      int salt = Bytes.toShort(hash) % saltDivisor;
-      return Bytes.toBytes(salt);
-
-    } catch(NoSuchAlgorithmException e) {
-      throw new RuntimeException(e);
+    return Bytes.toBytes(ENCODER.get().salt(period, saltDivisor));
+  }
+
+  /**
+   * Encodes row keys.  An encoder must only be used by one thread.
+   */
+  private static class Encoder {
+
+    /**
+     * An MD5 is 16 bytes aka 128 bits.
+     */
+    private static final int MD5_SIZE = 16;
+
+    private final MessageDigest md5;
+    private final byte[] periodBytes = new byte[PERIOD_SIZE];
+    private final byte[] hash = new byte[MD5_SIZE];
+    private final StringBuilder groupBuilder = new StringBuilder();
+
+    /**
+     * Encodes strings as Bytes.toBytes(String) does, replacing anything that cannot be encoded.
+     */
+    private final CharsetEncoder utf8 = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /**
+     * The profile, entity and group(s) of the last row key(s) encoded.
+     */
+    private ByteBuffer prefix = ByteBuffer.allocate(256);
+
+    Encoder() {
+      try {
+        md5 = MessageDigest.getInstance("MD5");
+
+      } catch(NoSuchAlgorithmException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    /**
+     * Encodes the profile, entity and group(s) that follow the salt in a row key.
+     * @return The number of bytes encoded.
+     */
+    int encodePrefix(String profile, String entity, List<Object> groups) {
+      prefix.clear();
+      encode(profile);
+      encode(entity);
+
+      groupBuilder.setLength(0);
+      groups.forEach(g -> groupBuilder.append(g));
+      encode(groupBuilder);
+      return prefix.position();
+    }
+
+    /**
+     * Builds a row key from the last prefix encoded.
+     * @param prefixLength The number of bytes of the prefix.
+     * @param period The period.
+     * @param saltDivisor The salt divisor.
+     */
+    byte[] rowKey(int prefixLength, long period, int saltDivisor) {
+      return rowKey(prefixLength, 0, period, saltDivisor);
+    }
+
+    /**
+     * Builds a row key from the last prefix encoded.
+     * @param prefixLength The number of bytes of the prefix.
+     * @param rollupDuration The duration of the period in milliseconds if it is a rollup, otherwise 0.
+     * @param period The period.
+     * @param saltDivisor The salt divisor.
+     */
+    byte[] rowKey(int prefixLength, long rollupDuration, long period, int saltDivisor) {
+      int durationSize = rollupDuration == 0 ? 0 : PERIOD_SIZE;
+      byte[] rowKey = new byte[SALT_SIZE + prefixLength + durationSize + PERIOD_SIZE];
+      Bytes.putInt(rowKey, 0, salt(period, saltDivisor));
+      System.arraycopy(prefix.array(), 0, rowKey, SALT_SIZE, prefixLength);
+      if(rollupDuration != 0) {
+        Bytes.putLong(rowKey, SALT_SIZE + prefixLength, rollupDuration);
+      }
+      Bytes.putLong(rowKey, SALT_SIZE + prefixLength + durationSize, period);
+      return rowKey;
+    }
+
+    /**
+     * Calculates the salt as 'md5(period) % N'.
+     */
+    int salt(long period, int saltDivisor) {
+      Bytes.putLong(periodBytes, 0, period);
+      md5.update(periodBytes);
+      try {
+        md5.digest(hash, 0, MD5_SIZE);
+
+      } catch(DigestException e) {
+        throw new RuntimeException(e);
+      }
+      return Bytes.toShort(hash) % saltDivisor;
+    }
+
+    /**
+     * Appends UTF-8 to the prefix, growing it as necessary.
+     */
+    private void encode(CharSequence chars) {
+      CharBuffer in = CharBuffer.wrap(chars);
+      utf8.reset();
+      CoderResult result = utf8.encode(in, prefix, true);
+      while(result.isOverflow()) {
+        grow();
+        result = utf8.encode(in, prefix, true);
+      }
+      while(utf8.flush(prefix).isOverflow()) {
+        grow();
+      }
+    }
+
+    private void grow() {
+      ByteBuffer bigger = ByteBuffer.allocate(prefix.capacity() * 2);
+      prefix.flip();
+      bigger.put(prefix);
+      prefix = bigger;
     }
   }
 
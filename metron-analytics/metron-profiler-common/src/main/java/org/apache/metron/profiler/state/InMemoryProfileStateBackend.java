@@ -0,0 +1,89 @@
+/*
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.apache.metron.profiler.state;
+
+import org.apache.metron.common.configuration.profiler.ProfileConfig;
+import org.apache.metron.profiler.ProfileState;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Holds the state of every entity on the heap.  The state does not survive a restart.
+ *
+ * This is the default backend.
+ */
+public class InMemoryProfileStateBackend implements ProfileStateBackend {
+
+  /**
+   * The state of each entity, keyed by the profile definition and then the name of the entity.
+   */
+  private Map<ProfileConfig, Map<String, ProfileState>> profiles = new HashMap<>();
+
+  @Override
+  public ProfileState get(ProfileConfig definition, String entity) {
+    Map<String, ProfileState> entities = profiles.get(definition);
+    return entities == null ? null : entities.get(entity);
+  }
+
+  @Override
+  public void put(ProfileConfig definition, String entity, ProfileState state) {
+    profiles.computeIfAbsent(definition, d -> new HashMap<>()).put(entity, state);
+  }
+
+  @Override
+  public void forEach(Visitor visitor) {
+    Iterator<Map.Entry<ProfileConfig, Map<String, ProfileState>>> profileIter = profiles.entrySet().iterator();
+    while(profileIter.hasNext()) {
+      Map.Entry<ProfileConfig, Map<String, ProfileState>> profile = profileIter.next();
+      profile.getValue().entrySet().removeIf(entry ->
+              visitor.visit(profile.getKey(), entry.getKey(), entry.getValue()) == Action.REMOVE);
+      if(profile.getValue().isEmpty()) {
+        profileIter.remove();
+      }
+    }
+  }
+
+  @Override
+  public long size() {
+    long size = 0;
+    for(Map<String, ProfileState> entities : profiles.values()) {
+      size += entities.size();
+    }
+    return size;
+  }
+
+  @Override
+  public void checkpoint() {
+    // nothing to do
+  }
+
+  @Override
+  public void destroy() {
+    profiles.clear();
+  }
+
+  @Override
+  public void close() {
+    // nothing to do
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.apache.metron.profiler.state;
+
+import org.apache.metron.common.configuration.profiler.ProfileConfig;
+import org.apache.metron.profiler.ProfileState;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Holds the state of each [profile, entity] pair on behalf of a {@link org.apache.metron.profiler.ProfileStateStore}.
+ *
+ * A ProfileState that is retrieved with `get` and then changed must be handed back with `put`, as a
+ * backend may hold only a copy of it.
+ */
+public interface ProfileStateBackend extends Closeable {
+
+  /**
+   * What to do with the state of an entity once it has been visited.
+   */
+  enum Action {
+
+    /**
+     * The state was not changed.
+     */
+    KEEP,
+
+    /**
+     * The state was changed and must be kept.
+     */
+    UPDATE,
+
+    /**
+     * The state must be forgotten.
+     */
+    REMOVE
+  }
+
+  /**
+   * Visits the state of each entity.
+   */
+  interface Visitor {
+
+    /**
+     * @param definition The profile definition.
+     * @param entity The name of the entity.
+     * @param state The state of the entity.
+     * @return What to do with the state of the entity.
+     */
+    Action visit(ProfileConfig definition, String entity, ProfileState state);
+  }
+
+  /**
+   * Retrieves the state of an entity.
+   * @param definition The profile definition.
+   * @param entity The name of the entity.
+   * @return The state of the entity or null, if the entity is not known.
+   */
+  ProfileState get(ProfileConfig definition, String entity);
+
+  /**
+   * Keeps the state of an entity.
+   * @param definition The profile definition.
+   * @param entity The name of the entity.
+   * @param state The state of the entity.
+   */
+  void put(ProfileConfig definition, String entity, ProfileState state);
+
+  /**
+   * Visits the state of every entity, which may be changed or removed by the visitor.
+   * @param visitor The visitor.
+   */
+  void forEach(Visitor visitor);
+
+  /**
+   * @return The number of [profile, entity] pairs whose state is kept.
+   */
+  long size();
+
+  /**
+   * Persists the state of every entity so that it can be recovered, if the backend supports it.
+   */
+  void checkpoint() throws IOException;
+
+  /**
+   * Closes the backend and removes any state that it has persisted.
+   */
+  void destroy() throws IOException;
+}
@@ -0,0 +1,427 @@
+/*
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.apache.metron.profiler.state;
+
+import com.google.common.io.CountingOutputStream;
+import org.apache.metron.common.configuration.profiler.ProfileConfig;
+import org.apache.metron.common.utils.JSONUtils;
+import org.apache.metron.common.utils.SerDeUtils;
+import org.apache.metron.profiler.ProfileState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.lang.String.format;
+
+/**
+ * Holds the state of the most recently used entities on the heap and spills the state of the
+ * rest to local disk, so that the number of entities is not bounded by the size of the heap.
+ * The state of every entity can be checkpointed to disk and is recovered from the last
+ * checkpoint when the backend is next opened on the same directory.
+ *
+ * The state of each entity is serialized with {@link SerDeUtils}.  A directory holds two files.
+ *
+ * The checkpoint file begins with the profile definitions, as JSON, each of which is then referred to by
+ * its position, followed by a record for each entity.  It is written in full to a temporary file
+ * which then replaces the last checkpoint, so a checkpoint is either complete or not there at all.
+ *
+ * The spill file holds the records of the entities that were spilled since the last checkpoint.
+ * It is emptied on each checkpoint, which also leaves behind the records of entities that have
+ * since been read back onto the heap or removed.
+ *
+ * A record is [profile][entity][length][state].  Only the location of the record of each spilled
+ * entity is kept on the heap.
+ */
+public class SpillingProfileStateBackend implements ProfileStateBackend {
+
+  protected static final Logger LOG = LoggerFactory.getLogger(SpillingProfileStateBackend.class);
+
+  public static final String CHECKPOINT_FILE = "checkpoint";
+  public static final String SPILL_FILE = "spill";
+
+  /**
+   * Identifies the state of an entity.
+   */
+  private static class Key {
+
+    private final int profile;
+    private final String entity;
+
+    Key(int profile, String entity) {
+      this.profile = profile;
+      this.entity = entity;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      Key key = (Key) o;
+      return profile == key.profile && entity.equals(key.entity);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * profile + entity.hashCode();
+    }
+  }
+
+  private File directory;
+
+  /**
+   * The maximum number of entities whose state is held on the heap.
+   */
+  private int maxEntitiesInMemory;
+
+  /**
+   * The profile definitions, by position.
+   */
+  private List<ProfileConfig> definitions;
+
+  /**
+   * The position of each profile definition.
+   */
+  private Map<ProfileConfig, Integer> positions;
+
+  /**
+   * The state of the entities that are on the heap, least recently used first.
+   */
+  private LinkedHashMap<Key, ProfileState> inMemory;
+
+  /**
+   * The offset of the record of each entity whose state is in the checkpoint file.
+   */
+  private Map<Key, Long> inCheckpoint;
+
+  /**
+   * The offset of the record of each entity whose state is in the spill file.
+   */
+  private Map<Key, Long> inSpill;
+
+  private RandomAccessFile checkpointFile;
+  private RandomAccessFile spillFile;
+
+  /**
+   * @param directory The directory in which state is spilled and checkpointed.
+   * @param maxEntitiesInMemory The maximum number of entities whose state is held on the heap.
+   */
+  public SpillingProfileStateBackend(File directory, int maxEntitiesInMemory) throws IOException {
+    if(maxEntitiesInMemory < 1) {
+      throw new IllegalArgumentException(format("expected at least 1 entity in memory; got %d", maxEntitiesInMemory));
+    }
+    if(!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException(format("unable to create directory '%s'", directory));
+    }
+
+    this.directory = directory;
+    this.maxEntitiesInMemory = maxEntitiesInMemory;
+    this.definitions = new ArrayList<>();
+    this.positions = new HashMap<>();
+    this.inMemory = new LinkedHashMap<>(16, 0.75f, true);
+    this.inCheckpoint = new HashMap<>();
+    this.inSpill = new HashMap<>();
+
+    // anything spilled since the last checkpoint is discarded; the checkpoint is the state to recover
+    Files.deleteIfExists(new File(directory, CHECKPOINT_FILE + ".tmp").toPath());
+    this.spillFile = new RandomAccessFile(new File(directory, SPILL_FILE), "rw");
+    this.spillFile.setLength(0);
+    recover();
+  }
+
+  @Override
+  public ProfileState get(ProfileConfig definition, String entity) {
+    Integer position = positions.get(definition);
+    if(position == null) {
+      return null;
+    }
+
+    Key key = new Key(position, entity);
+    ProfileState state = inMemory.get(key);
+    if(state == null) {
+      state = read(key);
+      if(state != null) {
+        inMemory.put(key, state);
+        evict();
+      }
+    }
+
+    return state;
+  }
+
+  @Override
+  public void put(ProfileConfig definition, String entity, ProfileState state) {
+    Key key = new Key(positions.computeIfAbsent(definition, this::addDefinition), entity);
+    inCheckpoint.remove(key);
+    inSpill.remove(key);
+    inMemory.put(key, state);
+    evict();
+  }
+
+  @Override
+  public void forEach(Visitor visitor) {
+    inMemory.entrySet().removeIf(entry ->
+            visitor.visit(definitions.get(entry.getKey().profile), entry.getKey().entity, entry.getValue()) == Action.REMOVE);
+
+    try {
+      Map<Key, Long> updated = new HashMap<>();
+      visit(visitor, checkpointFile, inCheckpoint, updated);
+      visit(visitor, spillFile, inSpill, updated);
+      inSpill.putAll(updated);
+
+    } catch(IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public long size() {
+    return inMemory.size() + inCheckpoint.size() + inSpill.size();
+  }
+
+  @Override
+  public void checkpoint() throws IOException {
+    File tmp = new File(directory, CHECKPOINT_FILE + ".tmp");
+    Map<Key, Long> checkpointed = new HashMap<>();
+    try(FileOutputStream fileOut = new FileOutputStream(tmp)) {
+      CountingOutputStream counted = new CountingOutputStream(new BufferedOutputStream(fileOut));
+      DataOutputStream out = new DataOutputStream(counted);
+
+      out.writeInt(definitions.size());
+      for(ProfileConfig definition : definitions) {
+        byte[] bytes = JSONUtils.INSTANCE.toJSON(definition);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+
+      for(Map.Entry<Key, ProfileState> entry : inMemory.entrySet()) {
+        writeRecord(out, entry.getKey(), SerDeUtils.toBytes(entry.getValue()));
+      }
+      copyRecords(checkpointFile, inCheckpoint, out, counted, checkpointed);
+      copyRecords(spillFile, inSpill, out, counted, checkpointed);
+
+      out.flush();
+      fileOut.getFD().sync();
+    }
+
+    if(checkpointFile != null) {
+      checkpointFile.close();
+    }
+    File checkpoint = new File(directory, CHECKPOINT_FILE);
+    Files.move(tmp.toPath(), checkpoint.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    checkpointFile = new RandomAccessFile(checkpoint, "r");
+    inCheckpoint = checkpointed;
+    inSpill.clear();
+    spillFile.setLength(0);
+    LOG.debug("Checkpointed profile state: directory={}, entities={}", directory, size());
+  }
+
+  @Override
+  public void close() throws IOException {
+    if(checkpointFile != null) {
+      checkpointFile.close();
+    }
+    spillFile.close();
+  }
+
+  @Override
+  public void destroy() throws IOException {
+    close();
+    Files.deleteIfExists(new File(directory, CHECKPOINT_FILE).toPath());
+    Files.deleteIfExists(new File(directory, SPILL_FILE).toPath());
+    Files.deleteIfExists(directory.toPath());
+  }
+
+  /**
+   * @return The number of entities whose state is held on the heap.
+   */
+  public int getInMemoryCount() {
+    return inMemory.size();
+  }
+
+  private int addDefinition(ProfileConfig definition) {
+    definitions.add(definition);
+    return definitions.size() - 1;
+  }
+
+  /**
+   * Reads the state of an entity from disk.  The entity is no longer considered to be on disk.
+   * @return The state of the entity or null, if it is not on disk.
+   */
+  private ProfileState read(Key key) {
+    try {
+      Long offset = inSpill.remove(key);
+      if(offset != null) {
+        return SerDeUtils.fromBytes(readRecord(spillFile, offset), ProfileState.class);
+      }
+      offset = inCheckpoint.remove(key);
+      if(offset != null) {
+        return SerDeUtils.fromBytes(readRecord(checkpointFile, offset), ProfileState.class);
+      }
+      return null;
+
+    } catch(IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Spills the state of the least recently used entities to disk until no more than the maximum
+   * number of entities are held on the heap.
+   */
+  private void evict() {
+    try {
+      Iterator<Map.Entry<Key, ProfileState>> iter = inMemory.entrySet().iterator();
+      while(inMemory.size() > maxEntitiesInMemory) {
+        Map.Entry<Key, ProfileState> eldest = iter.next();
+        inSpill.put(eldest.getKey(), spill(eldest.getKey(), SerDeUtils.toBytes(eldest.getValue())));
+        iter.remove();
+      }
+
+    } catch(IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Visits the state of each entity that is on disk.
+   * @param updated The entities whose state was changed and spilled, along with the offset of their record.
+   */
+  private void visit(Visitor visitor, RandomAccessFile file, Map<Key, Long> offsets, Map<Key, Long> updated) throws IOException {
+    Iterator<Map.Entry<Key, Long>> iter = offsets.entrySet().iterator();
+    while(iter.hasNext()) {
+      Map.Entry<Key, Long> entry = iter.next();
+      Key key = entry.getKey();
+      ProfileState state = SerDeUtils.fromBytes(readRecord(file, entry.getValue()), ProfileState.class);
+      switch(visitor.visit(definitions.get(key.profile), key.entity, state)) {
+        case UPDATE:
+          iter.remove();
+          updated.put(key, spill(key, SerDeUtils.toBytes(state)));
+          break;
+        case REMOVE:
+          iter.remove();
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  /**
+   * Appends the record of an entity to the spill file.
+   * @return The offset of the record.
+   */
+  private long spill(Key key, byte[] state) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(state.length + key.entity.length() + 16);
+    writeRecord(new DataOutputStream(bytes), key, state);
+
+    long offset = spillFile.length();
+    spillFile.seek(offset);
+    spillFile.write(bytes.toByteArray());
+    return offset;
+  }
+
+  private void writeRecord(DataOutputStream out, Key key, byte[] state) throws IOException {
+    out.writeInt(key.profile);
+    out.writeUTF(key.entity);
+    out.writeInt(state.length);
+    out.write(state);
+  }
+
+  /**
+   * Reads the serialized state of a record.
+   */
+  private byte[] readRecord(RandomAccessFile file, long offset) throws IOException {
+    file.seek(offset);
+    file.readInt();
+    file.readUTF();
+    byte[] state = new byte[file.readInt()];
+    file.readFully(state);
+    return state;
+  }
+
+  /**
+   * Copies the records of the entities that are on disk into a new checkpoint.
+   * @param checkpointed The entities that were copied, along with the offset of their record in the new checkpoint.
+   */
+  private void copyRecords(RandomAccessFile file,
+                           Map<Key, Long> offsets,
+                           DataOutputStream out,
+                           CountingOutputStream counted,
+                           Map<Key, Long> checkpointed) throws IOException {
+    for(Map.Entry<Key, Long> entry : offsets.entrySet()) {
+      checkpointed.put(entry.getKey(), counted.getCount());
+      writeRecord(out, entry.getKey(), readRecord(file, entry.getValue()));
+    }
+  }
+
+  /**
+   * Finds the record of each entity in the last checkpoint, if there is one.  The state itself is
+   * left on disk until it is needed.
+   */
+  private void recover() throws IOException {
+    File checkpoint = new File(directory, CHECKPOINT_FILE);
+    if(!checkpoint.exists()) {
+      return;
+    }
+
+    checkpointFile = new RandomAccessFile(checkpoint, "r");
+    int count = checkpointFile.readInt();
+    for(int i = 0; i < count; i++) {
+      byte[] bytes = new byte[checkpointFile.readInt()];
+      checkpointFile.readFully(bytes);
+      addDefinition(JSONUtils.INSTANCE.load(new String(bytes, StandardCharsets.UTF_8), ProfileConfig.class));
+      positions.put(definitions.get(i), i);
+    }
+
+    long length = checkpointFile.length();
+    while(checkpointFile.getFilePointer() < length) {
+      long offset = checkpointFile.getFilePointer();
+      try {
+        int profile = checkpointFile.readInt();
+        String entity = checkpointFile.readUTF();
+        checkpointFile.skipBytes(checkpointFile.readInt());
+        inCheckpoint.put(new Key(profile, entity), offset);
+
+      } catch(EOFException e) {
+        throw new IOException(format("truncated checkpoint: file=%s, offset=%d", checkpoint, offset), e);
+      }
+    }
+    LOG.info("Recovered profile state: directory={}, entities={}", directory, inCheckpoint.size());
+  }
+}
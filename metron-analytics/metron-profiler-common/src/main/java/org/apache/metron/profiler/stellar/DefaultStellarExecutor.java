@@ -133,6 +133,17 @@ public class DefaultStellarExecutor implements StellarExecutor, Serializable {
     return result;
   }
 
+  /**
+   * Replaces the state of the execution environment with the given map, which is used and modified
+   * in place rather than copied.  This allows one executor to execute expressions against the state
+   * of many entities in turn.
+   *
+   * @param state The state of the execution environment.
+   */
+  public void setState(Map<String, Object> state) {
+    this.state = state;
+  }
+
   @Override
   public void clearState() {
     this.state = new HashMap<>();
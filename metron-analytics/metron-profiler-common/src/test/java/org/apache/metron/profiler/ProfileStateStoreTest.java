@@ -0,0 +1,231 @@
+/*
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.apache.metron.profiler;
+
+import org.adrianwalker.multilinestring.Multiline;
+import org.apache.metron.common.configuration.profiler.ProfileConfig;
+import org.apache.metron.common.configuration.profiler.ProfileResult;
+import org.apache.metron.common.utils.JSONUtils;
+import org.apache.metron.profiler.clock.FixedClock;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.apache.metron.common.utils.ConversionUtils.convert;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the ProfileStateStore class.
+ */
+public class ProfileStateStoreTest {
+
+  /**
+   * {
+   *   "ip_src_addr": "10.0.0.1",
+   *   "value": 100
+   * }
+   */
+  @Multiline
+  private String input;
+  private JSONObject message;
+
+  /**
+   * {
+   *   "profile": "test",
+   *   "foreach": "ip_src_addr",
+   *   "init": {
+   *     "x": "0"
+   *   },
+   *   "update": {
+   *     "x": "x + 1",
+   *     "total": "if exists(total) then total + value else value"
+   *   },
+   *   "result": "x"
+   * }
+   */
+  @Multiline
+  private String testProfile;
+  private ProfileConfig definition;
+
+  private FixedClock clock;
+  private ProfileStateStore store;
+
+  @Before
+  public void setup() throws Exception {
+    message = (JSONObject) new JSONParser().parse(input);
+    definition = JSONUtils.INSTANCE.load(testProfile, ProfileConfig.class);
+    clock = new FixedClock();
+    store = new ProfileStateStore.Builder()
+            .withPeriodDurationMillis(TimeUnit.MINUTES.toMillis(10))
+            .withTimeToLiveMillis(TimeUnit.MINUTES.toMillis(30))
+            .withClock(clock)
+            .build();
+  }
+
+  /**
+   * Each entity of a profile should have its own state.
+   */
+  @Test
+  public void testStatePerEntity() {
+    store.apply(definition, "10.0.0.1", message);
+    store.apply(definition, "10.0.0.1", message);
+    store.apply(definition, "10.0.0.2", message);
+
+    assertEquals(2, store.size());
+    assertEquals(2, (int) convert(store.valueOf(definition, "10.0.0.1", "x"), Integer.class));
+    assertEquals(1, (int) convert(store.valueOf(definition, "10.0.0.2", "x"), Integer.class));
+    assertEquals(200, (int) convert(store.valueOf(definition, "10.0.0.1", "total"), Integer.class));
+    assertNull(store.valueOf(definition, "10.0.0.3", "x"));
+  }
+
+  /**
+   * An equal profile definition should share the state of the same profile.
+   */
+  @Test
+  public void testEqualDefinitionsShareState() throws Exception {
+    ProfileConfig copy = JSONUtils.INSTANCE.load(testProfile, ProfileConfig.class);
+    store.apply(definition, "10.0.0.1", message);
+    store.apply(copy, "10.0.0.1", message);
+
+    assertEquals(1, store.size());
+    assertEquals(2, (int) convert(store.valueOf(definition, "10.0.0.1", "x"), Integer.class));
+  }
+
+  /**
+   * A profile should be compiled again once the global configuration changes, without losing the
+   * state of its entities.
+   */
+  @Test
+  public void testGlobalConfigurationChange() throws Exception {
+    AtomicReference<Map<String, Object>> global = new AtomicReference<>(new HashMap<>());
+    store = new ProfileStateStore.Builder()
+            .withPeriodDurationMillis(TimeUnit.MINUTES.toMillis(10))
+            .withClock(clock)
+            .withGlobalConfiguration(global::get)
+            .build();
+    store.apply(definition, "10.0.0.1", message);
+    CompiledProfile compiled = store.compile(definition);
+    assertSame(compiled, store.compile(JSONUtils.INSTANCE.load(testProfile, ProfileConfig.class)));
+
+    // the global configuration is updated
+    Map<String, Object> updated = new HashMap<>();
+    updated.put("key", "value");
+    global.set(updated);
+    store.apply(definition, "10.0.0.1", message);
+
+    CompiledProfile recompiled = store.compile(definition);
+    assertNotSame(compiled, recompiled);
+    assertSame(global.get(), recompiled.getGlobalConfig());
+    assertEquals(2, (int) convert(store.valueOf(definition, "10.0.0.1", "x"), Integer.class));
+  }
+
+  /**
+   * A profile should not be compiled again when the global configuration is read into a new, but equal, map.
+   */
+  @Test
+  public void testEqualGlobalConfiguration() throws Exception {
+    store = new ProfileStateStore.Builder()
+            .withPeriodDurationMillis(TimeUnit.MINUTES.toMillis(10))
+            .withClock(clock)
+            .withGlobalConfiguration(HashMap::new)
+            .build();
+    store.apply(definition, "10.0.0.1", message);
+    CompiledProfile compiled = store.compile(definition);
+    store.apply(definition, "10.0.0.1", message);
+    store.flush();
+
+    assertSame(compiled, store.compile(definition));
+  }
+
+  /**
+   * A changed definition of a profile should have its own state, alongside that of the earlier definition.
+   */
+  @Test
+  public void testChangedDefinitionOfProfile() throws Exception {
+    ProfileConfig changed = JSONUtils.INSTANCE.load(testProfile, ProfileConfig.class);
+    changed.setResult(new ProfileResult("total"));
+    store.apply(definition, "10.0.0.1", message);
+    store.apply(changed, "10.0.0.1", message);
+    store.apply(changed, "10.0.0.1", message);
+
+    assertEquals(2, store.size());
+    assertEquals(1, (int) convert(store.valueOf(definition, "10.0.0.1", "x"), Integer.class));
+    assertEquals(2, (int) convert(store.valueOf(changed, "10.0.0.1", "x"), Integer.class));
+
+    List<ProfileMeasurement> measurements = store.flush();
+    assertEquals(2, measurements.size());
+  }
+
+  /**
+   * Only the entities that were applied to in the period are flushed.  Variables that are not
+   * re-initialized keep their value across periods, just as they do with a ProfileBuilder.
+   */
+  @Test
+  public void testFlush() {
+    store.apply(definition, "10.0.0.1", message);
+    store.apply(definition, "10.0.0.2", message);
+
+    List<ProfileMeasurement> measurements = store.flush();
+    assertEquals(2, measurements.size());
+    assertFalse(store.isInitialized(definition, "10.0.0.1"));
+
+    // only one entity is applied to in the next period
+    store.apply(definition, "10.0.0.1", message);
+    measurements = store.flush();
+    assertEquals(1, measurements.size());
+    assertEquals("10.0.0.1", measurements.get(0).getEntity());
+    assertEquals(1, (int) convert(measurements.get(0).getProfileValue(), Integer.class));
+    assertEquals(200, (int) convert(store.valueOf(definition, "10.0.0.1", "total"), Integer.class));
+  }
+
+  /**
+   * The state of an entity should be forgotten once it has not been applied to within the TTL.
+   */
+  @Test
+  public void testExpire() {
+    clock.setTime(0);
+    store.apply(definition, "10.0.0.1", message);
+    clock.setTime(TimeUnit.MINUTES.toMillis(20));
+    store.apply(definition, "10.0.0.2", message);
+
+    clock.setTime(TimeUnit.MINUTES.toMillis(30));
+    store.expire();
+    assertEquals(1, store.size());
+    assertNull(store.valueOf(definition, "10.0.0.1", "x"));
+    assertTrue(store.isInitialized(definition, "10.0.0.2"));
+
+    clock.setTime(TimeUnit.MINUTES.toMillis(50));
+    store.expire();
+    assertEquals(0, store.size());
+  }
+}
@@ -21,6 +21,8 @@
 package org.apache.metron.profiler.hbase;
 
 import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.storm.tuple.Tuple;
 import org.apache.metron.profiler.ProfileMeasurement;
 import org.apache.metron.profiler.ProfilePeriod;
@@ -30,11 +32,13 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.nio.ByteBuffer;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Formatter;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.core.IsEqual.equalTo;
@@ -103,6 +107,35 @@ public class SaltyRowKeyBuilderTest {
     Assert.assertTrue(Arrays.equals(expected, actual));
   }
 
+  /**
+   * The row key of a rollup should include the duration of its period.
+   */
+  @Test
+  public void testRowKeyOfRollup() throws Exception {
+    // setup - an hourly rollup
+    ProfilePeriod hour = new ProfilePeriod(AUG2016, 1, TimeUnit.HOURS);
+    measurement.withGroups(Arrays.asList("group1")).withPeriod(hour);
+
+    // the expected row key
+    ByteBuffer buffer = ByteBuffer
+            .allocate(100)
+            .put(SaltyRowKeyBuilder.getSalt(hour, saltDivisor))
+            .put(measurement.getProfileName().getBytes())
+            .put(measurement.getEntity().getBytes())
+            .put("group1".getBytes())
+            .putLong(TimeUnit.HOURS.toMillis(1))
+            .putLong(408925L);
+
+    buffer.flip();
+    final byte[] expected = new byte[buffer.limit()];
+    buffer.get(expected, 0, buffer.limit());
+
+    // validate
+    Assert.assertArrayEquals(expected, rowKeyBuilder.rowKey(measurement));
+    List<byte[]> actual = rowKeyBuilder.rowKeys("profile", "entity", Arrays.asList("group1"), Arrays.asList(hour));
+    Assert.assertArrayEquals(expected, actual.get(0));
+  }
+
   /**
    * Build a row key that includes two groups.
    */
@@ -255,6 +288,69 @@ public class SaltyRowKeyBuilderTest {
     }
   }
 
+  /**
+   * The row keys should be byte-identical to those built by previous versions, which are read from HBase.
+   */
+  @Test
+  public void testRowKeysMatchLegacyRowKeys() throws Exception {
+    Random random = new Random(42);
+    String[] names = { "", "profile", "10.0.0.1", "\u00e9t\u00e9", "\ud83d\ude00", "\ud83d", StringUtils.repeat("long", 200) };
+    List<List<Object>> groups = Arrays.asList(
+            Collections.emptyList(),
+            Arrays.asList("weekday"),
+            Arrays.asList(200, "group1", 2.5));
+
+    for(int i = 0; i < 1000; i++) {
+      String profile = names[random.nextInt(names.length)];
+      String entity = names[random.nextInt(names.length)];
+      List<Object> group = groups.get(random.nextInt(groups.size()));
+      int divisor = 1 + random.nextInt(2000);
+      long period = random.nextInt(4) == 0 ? random.nextLong() : 1635701L + random.nextInt(100000);
+
+      SaltyRowKeyBuilder builder = new SaltyRowKeyBuilder(divisor, periodDuration, periodUnits);
+      assertThat(builder.rowKey(profile, entity, period, group), equalTo(legacyRowKey(profile, entity, period, group, divisor)));
+    }
+
+    // the bulk API should encode each period just the same
+    long start = AUG2016 - TimeUnit.DAYS.toMillis(1);
+    List<byte[]> actualKeys = rowKeyBuilder.rowKeys("profile", "entity", groups.get(2), start, AUG2016);
+    List<ProfilePeriod> periods = new ArrayList<>();
+    for(ProfilePeriod period = new ProfilePeriod(start, periodDuration, periodUnits);
+        period.getStartTimeMillis() <= AUG2016;
+        period = period.next()) {
+      periods.add(period);
+    }
+    Assert.assertEquals(periods.size(), actualKeys.size());
+    List<byte[]> actualPeriodKeys = rowKeyBuilder.rowKeys("profile", "entity", groups.get(2), periods);
+    for(int i = 0; i < periods.size(); i++) {
+      byte[] expected = legacyRowKey("profile", "entity", periods.get(i).getPeriod(), groups.get(2), saltDivisor);
+      assertThat(actualKeys.get(i), equalTo(expected));
+      assertThat(actualPeriodKeys.get(i), equalTo(expected));
+    }
+  }
+
+  /**
+   * Builds a row key as previous versions did.
+   */
+  private static byte[] legacyRowKey(String profile, String entity, long period, List<Object> groups, int saltDivisor)
+          throws Exception {
+    byte[] hash = MessageDigest.getInstance("MD5").digest(Bytes.toBytes(period));
+    byte[] salt = Bytes.toBytes(Bytes.toShort(hash) % saltDivisor);
+    StringBuilder groupBuilder = new StringBuilder();
+    groups.forEach(g -> groupBuilder.append(g));
+    byte[] profileBytes = Bytes.toBytes(profile);
+    byte[] entityBytes = Bytes.toBytes(entity);
+    byte[] groupBytes = Bytes.toBytes(groupBuilder.toString());
+    return ByteBuffer
+            .allocate(salt.length + profileBytes.length + entityBytes.length + groupBytes.length + Bytes.SIZEOF_LONG)
+            .put(salt)
+            .put(profileBytes)
+            .put(entityBytes)
+            .put(groupBytes)
+            .put(Bytes.toBytes(period))
+            .array();
+  }
+
   private void printBytes(byte[] bytes) {
     StringBuilder sb = new StringBuilder(bytes.length * 2);
     Formatter formatter = new Formatter(sb);
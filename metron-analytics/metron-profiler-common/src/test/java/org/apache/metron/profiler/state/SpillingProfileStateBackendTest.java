@@ -0,0 +1,190 @@
+/*
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.apache.metron.profiler.state;
+
+import org.adrianwalker.multilinestring.Multiline;
+import org.apache.metron.common.configuration.profiler.ProfileConfig;
+import org.apache.metron.common.utils.JSONUtils;
+import org.apache.metron.profiler.ProfileMeasurement;
+import org.apache.metron.profiler.ProfileStateStore;
+import org.apache.metron.profiler.state.ProfileStateBackend.Action;
+import org.json.simple.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.metron.common.utils.ConversionUtils.convert;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests the SpillingProfileStateBackend class.
+ */
+public class SpillingProfileStateBackendTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * {
+   *   "profile": "test",
+   *   "foreach": "ip_src_addr",
+   *   "init": {
+   *     "x": "0"
+   *   },
+   *   "update": {
+   *     "x": "x + 1"
+   *   },
+   *   "result": "x"
+   * }
+   */
+  @Multiline
+  private String testProfile;
+  private ProfileConfig definition;
+
+  private File directory;
+  private SpillingProfileStateBackend backend;
+  private ProfileStateStore store;
+
+  @Before
+  public void setup() throws Exception {
+    definition = JSONUtils.INSTANCE.load(testProfile, ProfileConfig.class);
+    directory = new File(folder.getRoot(), "state");
+    open();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    store.close();
+  }
+
+  private void open() throws IOException {
+    backend = new SpillingProfileStateBackend(directory, 2);
+    store = new ProfileStateStore.Builder()
+            .withBackend(backend)
+            .withPeriodDurationMillis(TimeUnit.MINUTES.toMillis(10))
+            .build();
+  }
+
+  private void apply(String entity, int times) {
+    JSONObject message = new JSONObject();
+    message.put("ip_src_addr", entity);
+    for(int i = 0; i < times; i++) {
+      store.apply(definition, entity, message);
+    }
+  }
+
+  private int valueOf(String entity) {
+    return convert(store.valueOf(definition, entity, "x"), Integer.class);
+  }
+
+  /**
+   * The state of the least recently used entities should be spilled to disk and read back when needed.
+   */
+  @Test
+  public void testSpill() {
+    apply("10.0.0.1", 1);
+    apply("10.0.0.2", 2);
+    apply("10.0.0.3", 3);
+    assertEquals(2, backend.getInMemoryCount());
+    assertEquals(3, store.size());
+
+    apply("10.0.0.1", 1);
+    assertEquals(2, valueOf("10.0.0.1"));
+    assertEquals(2, valueOf("10.0.0.2"));
+    assertEquals(3, valueOf("10.0.0.3"));
+    assertEquals(2, backend.getInMemoryCount());
+    assertEquals(3, store.size());
+  }
+
+  /**
+   * Spilled state should be flushed, changed and removed just as state on the heap.
+   */
+  @Test
+  public void testFlushAndRemoveSpilledState() {
+    apply("10.0.0.1", 1);
+    apply("10.0.0.2", 2);
+    apply("10.0.0.3", 3);
+
+    List<ProfileMeasurement> measurements = store.flush();
+    assertEquals(3, measurements.size());
+    assertFalse(store.isInitialized(definition, "10.0.0.1"));
+    assertEquals(0, store.flush().size());
+
+    backend.forEach((d, entity, state) -> entity.equals("10.0.0.2") ? Action.REMOVE : Action.KEEP);
+    assertEquals(2, store.size());
+    assertNull(store.valueOf(definition, "10.0.0.2", "x"));
+  }
+
+  /**
+   * The state should be recovered from the last checkpoint, losing only what changed since.
+   */
+  @Test
+  public void testRecoverCheckpoint() throws Exception {
+    apply("10.0.0.1", 1);
+    apply("10.0.0.2", 2);
+    apply("10.0.0.3", 3);
+    store.checkpoint();
+
+    // changes after the checkpoint are lost on restart
+    apply("10.0.0.1", 5);
+    apply("10.0.0.4", 1);
+    store.close();
+    open();
+
+    assertEquals(3, store.size());
+    assertEquals(1, valueOf("10.0.0.1"));
+    assertEquals(2, valueOf("10.0.0.2"));
+    assertEquals(3, valueOf("10.0.0.3"));
+    assertNull(store.valueOf(definition, "10.0.0.4", "x"));
+
+    // a second checkpoint should include both the recovered and the spilled state
+    apply("10.0.0.4", 4);
+    store.checkpoint();
+    store.close();
+    open();
+    assertEquals(4, store.size());
+    assertEquals(4, valueOf("10.0.0.4"));
+    assertEquals(3, valueOf("10.0.0.3"));
+  }
+
+  /**
+   * Destroying the backend should remove its state from disk.
+   */
+  @Test
+  public void testDestroy() throws Exception {
+    apply("10.0.0.1", 1);
+    store.checkpoint();
+    store.destroy();
+    assertFalse(directory.exists());
+
+    open();
+    assertEquals(0, store.size());
+  }
+}
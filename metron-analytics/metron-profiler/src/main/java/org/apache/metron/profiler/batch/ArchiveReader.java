@@ -0,0 +1,177 @@
+/*
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.apache.metron.profiler.batch;
+
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.Schema;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.metron.writer.hdfs.AvroRecordWriter;
+import org.apache.metron.writer.hdfs.OutputFormats;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Reads the telemetry archived by the HdfsWriter.
+ *
+ * The files may be newline delimited JSON text, optionally compressed with any codec that Hadoop
+ * knows by its file extension, or Avro container files.  The format is chosen by the extension.
+ */
+public class ArchiveReader {
+
+  private FileSystem fileSystem;
+  private CompressionCodecFactory codecs;
+
+  /**
+   * @param fileSystem The file system that the telemetry is archived on.
+   */
+  public ArchiveReader(FileSystem fileSystem) {
+    this.fileSystem = fileSystem;
+    this.codecs = new CompressionCodecFactory(fileSystem.getConf());
+  }
+
+  /**
+   * Lists the archived files, searching directories recursively.  Hidden files, whose names start with
+   * '.' or '_', are skipped.
+   * @param inputs The files and directories that contain archived telemetry.
+   * @return The files, the least recently modified first, which is roughly the order in which they were written.
+   */
+  public List<FileStatus> listFiles(Collection<Path> inputs) throws IOException {
+    List<FileStatus> files = new ArrayList<>();
+    for(Path input : inputs) {
+      RemoteIterator<LocatedFileStatus> it = fileSystem.listFiles(input, true);
+      while(it.hasNext()) {
+        LocatedFileStatus file = it.next();
+        String name = file.getPath().getName();
+        if(!name.startsWith(".") && !name.startsWith("_")) {
+          files.add(file);
+        }
+      }
+    }
+    files.sort(Comparator.comparingLong(FileStatus::getModificationTime));
+    return files;
+  }
+
+  /**
+   * Reads each message of an archived file.
+   * @param path The file.
+   * @param handler Handles each message.
+   * @return The number of messages that could not be read.
+   */
+  public long read(Path path, Consumer<JSONObject> handler) throws IOException {
+    if(path.getName().endsWith(OutputFormats.AVRO.getExtension())) {
+      return readAvro(path, handler);
+    }
+    return readJSON(path, handler);
+  }
+
+  private long readJSON(Path path, Consumer<JSONObject> handler) throws IOException {
+    long invalid = 0;
+    JSONParser parser = new JSONParser();
+    CompressionCodec codec = codecs.getCodec(path);
+    InputStream in = fileSystem.open(path);
+    if(codec != null) {
+      in = codec.createInputStream(in);
+    }
+    try(BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+      for(String line = reader.readLine(); line != null; line = reader.readLine()) {
+        if(line.trim().isEmpty()) {
+          continue;
+        }
+        Object message;
+        try {
+          message = parser.parse(line);
+        } catch(ParseException e) {
+          message = null;
+        }
+        if(message instanceof JSONObject) {
+          handler.accept((JSONObject) message);
+        } else {
+          invalid++;
+        }
+      }
+    }
+    return invalid;
+  }
+
+  private long readAvro(Path path, Consumer<JSONObject> handler) throws IOException {
+    try(DataFileStream<GenericRecord> reader = new DataFileStream<>(fileSystem.open(path), new GenericDatumReader<>())) {
+      JSONParser parser = new JSONParser();
+      for(GenericRecord record : reader) {
+        handler.accept(toMessage(record, parser));
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Converts an Avro record written by the AvroRecordWriter back to a message.  The original name of each field
+   * is restored and the values kept in the extra field are parsed as JSON, unless they are plain text.
+   */
+  @SuppressWarnings("unchecked")
+  static JSONObject toMessage(GenericRecord record, JSONParser parser) {
+    JSONObject message = new JSONObject();
+    for(Schema.Field field : record.getSchema().getFields()) {
+      Object value = record.get(field.pos());
+      if(value == null) {
+        continue;
+      }
+      if(AvroRecordWriter.EXTRA_FIELD.equals(field.name())) {
+        for(Map.Entry<?, ?> extra : ((Map<?, ?>) value).entrySet()) {
+          message.put(extra.getKey().toString(), parseExtra(extra.getValue().toString(), parser));
+        }
+      } else {
+        String name = field.getProp(AvroRecordWriter.FIELD_NAME_PROP);
+        message.put(name == null ? field.name() : name, value instanceof CharSequence ? value.toString() : value);
+      }
+    }
+    return message;
+  }
+
+  private static Object parseExtra(String value, JSONParser parser) {
+    try {
+      Object parsed = parser.parse(value);
+      return parsed == null ? value : parsed;
+    } catch(ParseException e) {
+      return value;
+    }
+  }
+}
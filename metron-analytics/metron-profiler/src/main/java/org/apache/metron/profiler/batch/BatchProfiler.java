@@ -0,0 +1,585 @@
+/*
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.apache.metron.profiler.batch;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.PosixParser;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.client.Durability;
+import org.apache.metron.common.Constants;
+import org.apache.metron.common.configuration.ConfigurationsUtils;
+import org.apache.metron.common.configuration.profiler.ProfileConfig;
+import org.apache.metron.common.configuration.profiler.ProfilerConfig;
+import org.apache.metron.common.dsl.Context;
+import org.apache.metron.common.dsl.StellarFunctions;
+import org.apache.metron.common.utils.ConversionUtils;
+import org.apache.metron.common.utils.JSONUtils;
+import org.apache.metron.hbase.TableProvider;
+import org.apache.metron.hbase.bolt.mapper.ColumnList;
+import org.apache.metron.hbase.client.HBaseClient;
+import org.apache.metron.profiler.CompiledProfile;
+import org.apache.metron.profiler.ProfileMeasurement;
+import org.apache.metron.profiler.ProfilePeriod;
+import org.apache.metron.profiler.ProfileState;
+import org.apache.metron.profiler.bolt.ProfileHBaseMapper;
+import org.apache.metron.profiler.bolt.ProfileIndex;
+import org.apache.metron.profiler.hbase.SaltyRowKeyBuilder;
+import org.apache.metron.profiler.hbase.ValueOnlyColumnBuilder;
+import org.apache.metron.profiler.stellar.DefaultStellarExecutor;
+import org.apache.metron.profiler.stellar.StellarExecutor;
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static java.lang.String.format;
+
+/**
+ * Builds profiles from the telemetry archived by the HdfsWriter, rather than from a live stream, so that
+ * a new profile can be seeded with its history without replaying that history through the Profiler topology.
+ *
+ * The profiles are built as the ProfileBuilderBolt builds them in event time mode; the `onlyif` and
+ * `foreach` of each profile select the messages and entities, each message is counted in the period of its
+ * timestamp and each measurement is written to HBase with the same row key and columns.  The archived files
+ * are read in parallel, the least recently modified first.
+ *
+ * By default, the state of every period is held until all of the files have been read, so the result does
+ * not depend on the order of the messages.  When a maximum lateness is defined, a period is flushed once the
+ * latest timestamp read by every thread, less the lateness, passes its end, which bounds the state held, and
+ * the messages of a period that has been flushed are dropped.  As each thread only counts the messages it has
+ * applied, a message is dropped only if it is late relative to the messages read before it by its own thread,
+ * whichever thread reads the other files.
+ */
+public class BatchProfiler implements Closeable {
+
+  protected static final Logger LOG = LoggerFactory.getLogger(BatchProfiler.class);
+
+  /**
+   * The number of partitions of the profile state for each thread, so that threads rarely wait on each other.
+   */
+  private static final int PARTITIONS_PER_THREAD = 4;
+
+  /**
+   * The number of messages that a thread routes to a partition before applying them.
+   */
+  private static final int ROUTING_BATCH_SIZE = 256;
+
+  /**
+   * The number of messages that a thread routes before applying all of them, so that its progress advances
+   * the watermark while it reads a large file.
+   */
+  private static final int PROGRESS_INTERVAL = ROUTING_BATCH_SIZE * PARTITIONS_PER_THREAD;
+
+  private ProfilerConfig profilerConfig;
+  private Map<String, Object> global = Collections.emptyMap();
+  private CuratorFramework client;
+  private long periodDurationMillis = TimeUnit.MINUTES.toMillis(15);
+  private String timestampField = Constants.Fields.TIMESTAMP.getName();
+  private long maxLatenessMillis = Long.MAX_VALUE;
+  private int threads = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * Writes the measurements to HBase.
+   */
+  private HBaseClient hbaseClient;
+  private ProfileHBaseMapper mapper;
+  private int batchSize = 1000;
+  private int pendingMutations;
+
+  private Partition[] partitions;
+  /**
+   * The latest timestamp of the messages that each thread has applied, or Long.MAX_VALUE once it has no
+   * more files to read.
+   */
+  private AtomicLongArray progress;
+  private AtomicLong messages = new AtomicLong();
+  private AtomicLong invalid = new AtomicLong();
+  private AtomicLong late = new AtomicLong();
+  private AtomicLong errors = new AtomicLong();
+  private AtomicLong measurements = new AtomicLong();
+
+  /**
+   * @param profilerConfig The profiles to build.
+   */
+  public BatchProfiler(ProfilerConfig profilerConfig) {
+    this.profilerConfig = profilerConfig;
+  }
+
+  public BatchProfiler withGlobalConfiguration(Map<String, Object> global) {
+    this.global = global;
+    return this;
+  }
+
+  public BatchProfiler withZookeeperClient(CuratorFramework client) {
+    this.client = client;
+    return this;
+  }
+
+  public BatchProfiler withPeriodDuration(long duration, TimeUnit units) {
+    this.periodDurationMillis = units.toMillis(duration);
+    return this;
+  }
+
+  /**
+   * @param timestampField The field of each message that contains its timestamp.
+   */
+  public BatchProfiler withTimestampField(String timestampField) {
+    this.timestampField = timestampField;
+    return this;
+  }
+
+  /**
+   * @param duration How late a message may be read, relative to the latest timestamp read by every thread, and
+   *                 still be counted.
+   * @param units The units of the duration.
+   */
+  public BatchProfiler withMaxLateness(long duration, TimeUnit units) {
+    this.maxLatenessMillis = units.toMillis(duration);
+    return this;
+  }
+
+  public BatchProfiler withThreads(int threads) {
+    this.threads = threads;
+    return this;
+  }
+
+  /**
+   * @param provider Provides the HBase table that the measurements are written to.
+   * @param tableName The name of the table.
+   * @param mapper Defines how each measurement is written to HBase.
+   */
+  public BatchProfiler withHBaseTable(TableProvider provider, String tableName, ProfileHBaseMapper mapper) {
+    this.hbaseClient = new HBaseClient(provider, HBaseConfiguration.create(), tableName);
+    this.mapper = mapper;
+    return this;
+  }
+
+  /**
+   * @param batchSize The number of measurements written to HBase in each batch.
+   */
+  public BatchProfiler withBatchSize(int batchSize) {
+    this.batchSize = batchSize;
+    return this;
+  }
+
+  /**
+   * Builds the profiles from the archived telemetry and writes the measurements to HBase.
+   * @param reader Reads the archived telemetry.
+   * @param inputs The files and directories that contain the archived telemetry.
+   */
+  public void run(ArchiveReader reader, List<Path> inputs) throws IOException {
+    if(hbaseClient == null) {
+      throw new IllegalStateException("The HBase table must be defined.");
+    }
+    progress = new AtomicLongArray(threads);
+    for(int i = 0; i < threads; i++) {
+      progress.set(i, Long.MIN_VALUE);
+    }
+    partitions = new Partition[threads * PARTITIONS_PER_THREAD];
+    for(int i = 0; i < partitions.length; i++) {
+      partitions[i] = new Partition();
+    }
+
+    Queue<FileStatus> files = new ConcurrentLinkedQueue<>(reader.listFiles(inputs));
+    LOG.info("Building {} profiles from {} files", profilerConfig.getProfiles().size(), files.size());
+    ProfileIndex index = new ProfileIndex(profilerConfig.getProfiles());
+    ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+            .setNameFormat("batch-profiler-%d")
+            .setDaemon(true)
+            .build());
+    try {
+      List<Future<?>> workers = new ArrayList<>();
+      for(int i = 0; i < threads; i++) {
+        int worker = i;
+        workers.add(executor.submit(() -> {
+          Router router = new Router(index, worker);
+          for(FileStatus file = files.poll(); file != null; file = files.poll()) {
+            LOG.debug("Reading {}", file.getPath());
+            invalid.addAndGet(reader.read(file.getPath(), router::route));
+            router.applyAll();
+          }
+          // a thread that has finished no longer holds back the watermark
+          progress.set(worker, Long.MAX_VALUE);
+          return null;
+        }));
+      }
+      for(Future<?> worker : workers) {
+        worker.get();
+      }
+
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while building profiles", e);
+
+    } catch(ExecutionException e) {
+      throw new IOException(format("Unable to build profiles: %s", e.getCause().getMessage()), e.getCause());
+
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // the remaining periods have ended
+    for(Partition partition : partitions) {
+      partition.flush(Long.MAX_VALUE);
+    }
+    synchronized(hbaseClient) {
+      hbaseClient.mutate();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if(hbaseClient != null) {
+      hbaseClient.close();
+    }
+  }
+
+  /**
+   * @return The number of messages read.
+   */
+  public long getMessages() {
+    return messages.get();
+  }
+
+  /**
+   * @return The number of messages that could not be read or had no valid timestamp.
+   */
+  public long getInvalid() {
+    return invalid.get();
+  }
+
+  /**
+   * @return The number of messages dropped because the period of their timestamp had been flushed.
+   */
+  public long getLate() {
+    return late.get();
+  }
+
+  /**
+   * @return The number of failures to execute a profile's expressions.
+   */
+  public long getErrors() {
+    return errors.get();
+  }
+
+  /**
+   * @return The number of measurements written.
+   */
+  public long getMeasurements() {
+    return measurements.get();
+  }
+
+  /**
+   * The earliest progress of the threads, less the maximum lateness.
+   */
+  private long watermark() {
+    if(maxLatenessMillis == Long.MAX_VALUE) {
+      return Long.MIN_VALUE;
+    }
+    long earliest = Long.MAX_VALUE;
+    for(int i = 0; i < progress.length(); i++) {
+      earliest = Math.min(earliest, progress.get(i));
+    }
+    if(earliest == Long.MIN_VALUE) {
+      return Long.MIN_VALUE;
+    }
+    return earliest - maxLatenessMillis;
+  }
+
+  /**
+   * Writes measurements to HBase, in batches.
+   */
+  private void write(List<ProfileMeasurement> flushed) {
+    synchronized(hbaseClient) {
+      for(ProfileMeasurement measurement : flushed) {
+        byte[] rowKey = mapper.rowKey(measurement);
+        ColumnList cols = mapper.columns(measurement);
+        Optional<Long> ttl = mapper.getTTL(measurement);
+        if(ttl.isPresent()) {
+          hbaseClient.addMutation(rowKey, cols, Durability.SYNC_WAL, ttl.get());
+        } else {
+          hbaseClient.addMutation(rowKey, cols, Durability.SYNC_WAL);
+        }
+        if(++pendingMutations >= batchSize) {
+          hbaseClient.mutate();
+          pendingMutations = 0;
+        }
+      }
+    }
+    measurements.addAndGet(flushed.size());
+  }
+
+  /**
+   * A message that is needed by the profile of an entity.
+   */
+  private static class Routed {
+    private final ProfileConfig profile;
+    private final String entity;
+    private final long period;
+    private final JSONObject message;
+
+    Routed(ProfileConfig profile, String entity, long period, JSONObject message) {
+      this.profile = profile;
+      this.entity = entity;
+      this.period = period;
+      this.message = message;
+    }
+  }
+
+  /**
+   * Routes the messages read by one thread to the partition of each profile/entity pair that needs them, as
+   * the ProfileSplitterBolt does.
+   */
+  private class Router {
+    private final ProfileIndex index;
+    private final StellarExecutor executor;
+    private final List<List<Routed>> pending;
+    private final int worker;
+    private long latest = Long.MIN_VALUE;
+    private int routed;
+
+    Router(ProfileIndex index, int worker) {
+      this.index = index;
+      this.worker = worker;
+      this.executor = new DefaultStellarExecutor();
+      Context context = new Context.Builder()
+              .with(Context.Capabilities.ZOOKEEPER_CLIENT, () -> client)
+              .with(Context.Capabilities.GLOBAL_CONFIG, () -> global)
+              .with(Context.Capabilities.STELLAR_CONFIG, () -> global)
+              .build();
+      StellarFunctions.initialize(context);
+      this.executor.setContext(context);
+      this.pending = new ArrayList<>(partitions.length);
+      for(int i = 0; i < partitions.length; i++) {
+        pending.add(new ArrayList<>());
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    void route(JSONObject message) {
+      messages.incrementAndGet();
+      Long timestamp = ConversionUtils.convert(message.get(timestampField), Long.class);
+      if(timestamp == null) {
+        invalid.incrementAndGet();
+        return;
+      }
+      latest = Math.max(latest, timestamp);
+      long period = new ProfilePeriod(timestamp, periodDurationMillis, TimeUnit.MILLISECONDS).getPeriod();
+
+      Map<String, Object> state = (Map<String, Object>) message;
+      for(ProfileConfig profile : index.getCandidates(state)) {
+        try {
+          if(executor.execute(profile.getOnlyif(), state, Boolean.class)) {
+            String entity = executor.execute(profile.getForeach(), state, String.class);
+            int partition = Math.floorMod(31 * profile.hashCode() + entity.hashCode(), partitions.length);
+            List<Routed> batch = pending.get(partition);
+            batch.add(new Routed(profile, entity, period, message));
+            if(batch.size() >= ROUTING_BATCH_SIZE) {
+              apply(partition);
+            }
+          }
+        } catch(RuntimeException e) {
+          LOG.debug(format("Unable to select message for profile '%s': %s", profile.getProfile(), e.getMessage()), e);
+          errors.incrementAndGet();
+        }
+      }
+      if(++routed >= PROGRESS_INTERVAL) {
+        applyAll();
+      }
+    }
+
+    /**
+     * Applies every message routed, then advances the thread's progress.  The progress is only advanced once
+     * the messages read before the latest have been applied, so that they are not judged late because of it.
+     */
+    void applyAll() {
+      for(int i = 0; i < partitions.length; i++) {
+        apply(i);
+      }
+      routed = 0;
+      if(latest != Long.MIN_VALUE) {
+        progress.set(worker, latest);
+      }
+    }
+
+    private void apply(int partition) {
+      List<Routed> batch = pending.get(partition);
+      if(!batch.isEmpty()) {
+        partitions[partition].apply(batch, watermark());
+        pending.set(partition, new ArrayList<>());
+      }
+    }
+  }
+
+  /**
+   * The state of the profile/entity pairs of one partition, for each period that has not been flushed.
+   */
+  private class Partition {
+
+    /**
+     * The compiled profiles, which are only ever executed by one thread at a time.
+     */
+    private final Map<ProfileConfig, CompiledProfile> profiles = new HashMap<>();
+    private final TreeMap<Long, Map<ProfileConfig, Map<String, ProfileState>>> periods = new TreeMap<>();
+    private long watermark = Long.MIN_VALUE;
+
+    synchronized void apply(List<Routed> batch, long watermark) {
+      this.watermark = Math.max(this.watermark, watermark);
+      for(Routed routed : batch) {
+        if(isClosed(routed.period)) {
+          late.incrementAndGet();
+          continue;
+        }
+        CompiledProfile profile = profiles.computeIfAbsent(routed.profile, d -> new CompiledProfile(d, client, global));
+        ProfileState state = periods.computeIfAbsent(routed.period, p -> new HashMap<>())
+                .computeIfAbsent(routed.profile, p -> new HashMap<>())
+                .computeIfAbsent(routed.entity, e -> profile.newState());
+        try {
+          profile.apply(routed.entity, state, routed.message);
+
+        } catch(RuntimeException e) {
+          LOG.debug(format("Unable to apply message to profile '%s': %s", routed.profile.getProfile(), e.getMessage()), e);
+          errors.incrementAndGet();
+        }
+      }
+      flush(this.watermark);
+    }
+
+    /**
+     * Flushes the periods that have ended before the watermark.
+     */
+    synchronized void flush(long watermark) {
+      this.watermark = Math.max(this.watermark, watermark);
+      List<ProfileMeasurement> flushed = new ArrayList<>();
+      while(!periods.isEmpty() && isClosed(periods.firstKey())) {
+        Map.Entry<Long, Map<ProfileConfig, Map<String, ProfileState>>> closed = periods.pollFirstEntry();
+        ProfilePeriod period = new ProfilePeriod(closed.getKey() * periodDurationMillis, periodDurationMillis, TimeUnit.MILLISECONDS);
+        for(Map.Entry<ProfileConfig, Map<String, ProfileState>> profile : closed.getValue().entrySet()) {
+          CompiledProfile compiled = profiles.get(profile.getKey());
+          for(Map.Entry<String, ProfileState> entity : profile.getValue().entrySet()) {
+            if(!entity.getValue().isInitialized()) {
+              continue;
+            }
+            try {
+              flushed.add(compiled.flush(entity.getKey(), entity.getValue(), period));
+
+            } catch(RuntimeException e) {
+              LOG.error(format("Unable to flush profile '%s': %s", profile.getKey().getProfile(), e.getMessage()), e);
+              errors.incrementAndGet();
+            }
+          }
+        }
+      }
+      if(!flushed.isEmpty()) {
+        write(flushed);
+      }
+    }
+
+    private boolean isClosed(long period) {
+      return watermark == Long.MAX_VALUE || (period + 1) * periodDurationMillis <= watermark;
+    }
+  }
+
+  public static void main(String... argv) throws Exception {
+    CommandLine cli = BatchProfilerOptions.parse(new PosixParser(), argv);
+    EnumMap<BatchProfilerOptions, Optional<Object>> config = BatchProfilerOptions.createConfig(cli);
+
+    CuratorFramework client = null;
+    Optional<Object> zookeeperUrl = config.get(BatchProfilerOptions.ZOOKEEPER);
+    if(zookeeperUrl.isPresent()) {
+      client = ConfigurationsUtils.getClient((String) zookeeperUrl.get());
+      client.start();
+    }
+    try {
+      byte[] profiles = (byte[]) config.get(BatchProfilerOptions.PROFILES).orElse(null);
+      if(profiles == null && client != null) {
+        profiles = ConfigurationsUtils.readProfilerConfigBytesFromZookeeper(client);
+      }
+      if(profiles == null) {
+        throw new IllegalArgumentException("The profiles must be defined by a file or in Zookeeper.");
+      }
+      byte[] global = (byte[]) config.get(BatchProfilerOptions.GLOBAL).orElse(null);
+      if(global == null && client != null) {
+        global = ConfigurationsUtils.readGlobalConfigBytesFromZookeeper(client);
+      }
+
+      TimeUnit units = (TimeUnit) config.get(BatchProfilerOptions.PERIOD_UNITS).get();
+      long periodDuration = (long) config.get(BatchProfilerOptions.PERIOD_DURATION).get();
+      ProfileHBaseMapper mapper = new ProfileHBaseMapper(
+              new SaltyRowKeyBuilder((int) config.get(BatchProfilerOptions.SALT_DIVISOR).get(), periodDuration, units),
+              new ValueOnlyColumnBuilder((String) config.get(BatchProfilerOptions.HBASE_CF).get()));
+
+      try(BatchProfiler profiler = new BatchProfiler(JSONUtils.INSTANCE.load(new String(profiles), ProfilerConfig.class))) {
+        profiler.withZookeeperClient(client)
+                .withPeriodDuration(periodDuration, units)
+                .withTimestampField((String) config.get(BatchProfilerOptions.TIMESTAMP_FIELD).get())
+                .withThreads((int) config.get(BatchProfilerOptions.NUM_THREADS).get())
+                .withBatchSize((int) config.get(BatchProfilerOptions.BATCH_SIZE).get())
+                .withHBaseTable((TableProvider) config.get(BatchProfilerOptions.HBASE_PROVIDER).get(),
+                                (String) config.get(BatchProfilerOptions.HBASE_TABLE).get(),
+                                mapper);
+        if(global != null) {
+          profiler.withGlobalConfiguration(JSONUtils.INSTANCE.load(new String(global), new TypeReference<Map<String, Object>>() {}));
+        }
+        Optional<Object> lateness = config.get(BatchProfilerOptions.LATENESS);
+        if(lateness.isPresent()) {
+          profiler.withMaxLateness((long) lateness.get(), units);
+        }
+
+        @SuppressWarnings("unchecked")
+        List<Path> inputs = (List<Path>) config.get(BatchProfilerOptions.INPUT).get();
+        profiler.run(new ArchiveReader(inputs.get(0).getFileSystem(new Configuration())), inputs);
+        System.out.println(format("Read %d messages (%d invalid, %d late, %d errors) and wrote %d measurements",
+                profiler.getMessages(), profiler.getInvalid(), profiler.getLate(), profiler.getErrors(), profiler.getMeasurements()));
+      }
+
+    } finally {
+      if(client != null) {
+        client.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,354 @@
+/*
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.apache.metron.profiler.batch;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.fs.Path;
+import org.apache.metron.common.Constants;
+import org.apache.metron.common.utils.ConversionUtils;
+import org.apache.metron.common.utils.ReflectionUtils;
+import org.apache.metron.common.utils.cli.OptionHandler;
+import org.apache.metron.hbase.HTableProvider;
+import org.apache.metron.hbase.TableProvider;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The command line options of the BatchProfiler.
+ */
+public enum BatchProfilerOptions {
+  HELP("h", new OptionHandler<BatchProfilerOptions>() {
+    @Nullable
+    @Override
+    public Option apply(@Nullable String s) {
+      return new Option(s, "help", false, "Generate Help screen");
+    }
+  })
+  ,INPUT("i", new OptionHandler<BatchProfilerOptions>() {
+    @Nullable
+    @Override
+    public Option apply(@Nullable String s) {
+      Option o = new Option(s, "input", true, "The archived telemetry to read; a comma separated list of files or directories.");
+      o.setArgName("PATH");
+      o.setRequired(true);
+      return o;
+    }
+
+    @Override
+    public Optional<Object> getValue(BatchProfilerOptions option, CommandLine cli) {
+      List<Path> inputs = new ArrayList<>();
+      for(String input : Splitter.on(",").omitEmptyStrings().trimResults().split(option.get(cli))) {
+        inputs.add(new Path(input));
+      }
+      return Optional.of(inputs);
+    }
+  })
+  ,PROFILES("f", new OptionHandler<BatchProfilerOptions>() {
+    @Nullable
+    @Override
+    public Option apply(@Nullable String s) {
+      Option o = new Option(s, "profiles", true, "JSON Document defining the profiles.  Default: the profiles in Zookeeper");
+      o.setArgName("JSON_FILE");
+      o.setRequired(false);
+      return o;
+    }
+
+    @Override
+    public Optional<Object> getValue(BatchProfilerOptions option, CommandLine cli) {
+      return readFile(option, cli);
+    }
+  })
+  ,GLOBAL("g", new OptionHandler<BatchProfilerOptions>() {
+    @Nullable
+    @Override
+    public Option apply(@Nullable String s) {
+      Option o = new Option(s, "global_config", true, "JSON Document containing the global configuration.  Default: the global configuration in Zookeeper");
+      o.setArgName("JSON_FILE");
+      o.setRequired(false);
+      return o;
+    }
+
+    @Override
+    public Optional<Object> getValue(BatchProfilerOptions option, CommandLine cli) {
+      return readFile(option, cli);
+    }
+  })
+  ,ZOOKEEPER("z", new OptionHandler<BatchProfilerOptions>() {
+    @Nullable
+    @Override
+    public Option apply(@Nullable String s) {
+      Option o = new Option(s, "zk_quorum", true, "Zookeeper Quorum URL (zk1:port,zk2:port,...)");
+      o.setArgName("ZK_QUORUM");
+      o.setRequired(false);
+      return o;
+    }
+
+    @Override
+    public Optional<Object> getValue(BatchProfilerOptions option, CommandLine cli) {
+      return Optional.ofNullable(option.get(cli)).map(String::trim);
+    }
+  })
+  ,HBASE_TABLE("t", new OptionHandler<BatchProfilerOptions>() {
+    @Nullable
+    @Override
+    public Option apply(@Nullable String s) {
+      Option o = new Option(s, "hbase_table", true, "HBase table to write the measurements to.  Default: profiler");
+      o.setArgName("TABLE");
+      o.setRequired(false);
+      return o;
+    }
+
+    @Override
+    public Optional<Object> getValue(BatchProfilerOptions option, CommandLine cli) {
+      return Optional.of(option.has(cli) ? option.get(cli).trim() : "profiler");
+    }
+  })
+  ,HBASE_CF("c", new OptionHandler<BatchProfilerOptions>() {
+    @Nullable
+    @Override
+    public Option apply(@Nullable String s) {
+      Option o = new Option(s, "hbase_cf", true, "HBase column family to write the measurements to.  Default: P");
+      o.setArgName("CF");
+      o.setRequired(false);
+      return o;
+    }
+
+    @Override
+    public Optional<Object> getValue(BatchProfilerOptions option, CommandLine cli) {
+      return Optional.of(option.has(cli) ? option.get(cli).trim() : "P");
+    }
+  })
+  ,HBASE_PROVIDER("v", new OptionHandler<BatchProfilerOptions>() {
+    @Nullable
+    @Override
+    public Option apply(@Nullable String s) {
+      Option o = new Option(s, "hbase_provider", true, "The class that provides the HBase table.  Default: " + HTableProvider.class.getName());
+      o.setArgName("CLASS");
+      o.setRequired(false);
+      return o;
+    }
+
+    @Override
+    public Optional<Object> getValue(BatchProfilerOptions option, CommandLine cli) {
+      TableProvider provider = new HTableProvider();
+      if(option.has(cli)) {
+        provider = ReflectionUtils.createInstance(option.get(cli).trim(), provider);
+      }
+      return Optional.of(provider);
+    }
+  })
+  ,SALT_DIVISOR("s", new OptionHandler<BatchProfilerOptions>() {
+    @Nullable
+    @Override
+    public Option apply(@Nullable String s) {
+      Option o = new Option(s, "salt_divisor", true, "The salt divisor used by the Profiler.  Default: 1000");
+      o.setArgName("NUM");
+      o.setRequired(false);
+      return o;
+    }
+
+    @Override
+    public Optional<Object> getValue(BatchProfilerOptions option, CommandLine cli) {
+      return Optional.of(option.has(cli) ? ConversionUtils.convert(option.get(cli).trim(), Integer.class) : 1000);
+    }
+  })
+  ,PERIOD_DURATION("d", new OptionHandler<BatchProfilerOptions>() {
+    @Nullable
+    @Override
+    public Option apply(@Nullable String s) {
+      Option o = new Option(s, "period_duration", true, "The duration of each profile period used by the Profiler.  Default: 15");
+      o.setArgName("DURATION");
+      o.setRequired(false);
+      return o;
+    }
+
+    @Override
+    public Optional<Object> getValue(BatchProfilerOptions option, CommandLine cli) {
+      return Optional.of(option.has(cli) ? ConversionUtils.convert(option.get(cli).trim(), Long.class) : 15L);
+    }
+  })
+  ,PERIOD_UNITS("u", new OptionHandler<BatchProfilerOptions>() {
+    @Nullable
+    @Override
+    public Option apply(@Nullable String s) {
+      Option o = new Option(s, "period_units", true, "The units of the period duration and lateness.  Default: MINUTES");
+      o.setArgName("UNITS");
+      o.setRequired(false);
+      return o;
+    }
+
+    @Override
+    public Optional<Object> getValue(BatchProfilerOptions option, CommandLine cli) {
+      return Optional.of(option.has(cli) ? TimeUnit.valueOf(option.get(cli).trim().toUpperCase()) : TimeUnit.MINUTES);
+    }
+  })
+  ,TIMESTAMP_FIELD("e", new OptionHandler<BatchProfilerOptions>() {
+    @Nullable
+    @Override
+    public Option apply(@Nullable String s) {
+      Option o = new Option(s, "timestamp_field", true, "The field containing the timestamp of each message.  Default: " + Constants.Fields.TIMESTAMP.getName());
+      o.setArgName("FIELD");
+      o.setRequired(false);
+      return o;
+    }
+
+    @Override
+    public Optional<Object> getValue(BatchProfilerOptions option, CommandLine cli) {
+      return Optional.of(option.has(cli) ? option.get(cli).trim() : Constants.Fields.TIMESTAMP.getName());
+    }
+  })
+  ,LATENESS("l", new OptionHandler<BatchProfilerOptions>() {
+    @Nullable
+    @Override
+    public Option apply(@Nullable String s) {
+      Option o = new Option(s, "lateness", true, "How late, in period units, a message may be read relative to the latest message"
+              + " and still be counted.  Periods are flushed as the latest message passes them, which bounds the memory used."
+              + "  Default: all periods are held until every file has been read");
+      o.setArgName("DURATION");
+      o.setRequired(false);
+      return o;
+    }
+
+    @Override
+    public Optional<Object> getValue(BatchProfilerOptions option, CommandLine cli) {
+      return Optional.ofNullable(option.get(cli)).map(l -> ConversionUtils.convert(l.trim(), Long.class));
+    }
+  })
+  ,NUM_THREADS("p", new OptionHandler<BatchProfilerOptions>() {
+    @Nullable
+    @Override
+    public Option apply(@Nullable String s) {
+      Option o = new Option(s, "threads", true, "The number of threads to use when reading the archive.  The default is the number of cores of your machine.");
+      o.setArgName("NUM_THREADS");
+      o.setRequired(false);
+      return o;
+    }
+
+    @Override
+    public Optional<Object> getValue(BatchProfilerOptions option, CommandLine cli) {
+      int numThreads = Runtime.getRuntime().availableProcessors();
+      if(option.has(cli)) {
+        numThreads = ConversionUtils.convert(option.get(cli), Integer.class);
+      }
+      return Optional.of(numThreads);
+    }
+  })
+  ,BATCH_SIZE("b", new OptionHandler<BatchProfilerOptions>() {
+    @Nullable
+    @Override
+    public Option apply(@Nullable String s) {
+      Option o = new Option(s, "batchSize", true, "The batch size to use for HBase puts.  Default: 1000");
+      o.setArgName("SIZE");
+      o.setRequired(false);
+      return o;
+    }
+
+    @Override
+    public Optional<Object> getValue(BatchProfilerOptions option, CommandLine cli) {
+      int batchSize = 1000;
+      if(option.has(cli)) {
+        batchSize = ConversionUtils.convert(option.get(cli), Integer.class);
+      }
+      return Optional.of(batchSize);
+    }
+  })
+  ;
+  Option option;
+  String shortCode;
+  OptionHandler<BatchProfilerOptions> handler;
+  BatchProfilerOptions(String shortCode, OptionHandler<BatchProfilerOptions> optionHandler) {
+    this.shortCode = shortCode;
+    this.handler = optionHandler;
+    this.option = optionHandler.apply(shortCode);
+  }
+
+  public boolean has(CommandLine cli) {
+    return cli.hasOption(shortCode);
+  }
+
+  public String get(CommandLine cli) {
+    return cli.getOptionValue(shortCode);
+  }
+
+  private static Optional<Object> readFile(BatchProfilerOptions option, CommandLine cli) {
+    if(!option.has(cli)) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(FileUtils.readFileToByteArray(new File(option.get(cli).trim())));
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to read " + option.get(cli) + ": " + e.getMessage(), e);
+    }
+  }
+
+  public static CommandLine parse(CommandLineParser parser, String[] args) {
+    try {
+      CommandLine cli = parser.parse(getOptions(), args);
+      if(HELP.has(cli)) {
+        printHelp();
+        System.exit(0);
+      }
+      return cli;
+    } catch (ParseException e) {
+      System.err.println("Unable to parse args: " + Joiner.on(' ').join(args));
+      e.printStackTrace(System.err);
+      printHelp();
+      System.exit(-1);
+      return null;
+    }
+  }
+
+  public static EnumMap<BatchProfilerOptions, Optional<Object> > createConfig(CommandLine cli) {
+    EnumMap<BatchProfilerOptions, Optional<Object> > ret = new EnumMap<>(BatchProfilerOptions.class);
+    for(BatchProfilerOptions option : values()) {
+      ret.put(option, option.handler.getValue(option, cli));
+    }
+    return ret;
+  }
+
+  public static void printHelp() {
+    HelpFormatter formatter = new HelpFormatter();
+    formatter.printHelp( "BatchProfiler", getOptions());
+  }
+
+  public static Options getOptions() {
+    Options ret = new Options();
+    for(BatchProfilerOptions o : BatchProfilerOptions.values()) {
+      ret.addOption(o.option);
+    }
+    return ret;
+  }
+}
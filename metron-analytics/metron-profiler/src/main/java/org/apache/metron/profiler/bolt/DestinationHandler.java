@@ -53,4 +53,22 @@ public interface DestinationHandler {
    * @param collector The output collector.
    */
   void emit(ProfileMeasurement measurement, OutputCollector collector);
+
+  /**
+   * Emit a rollup; the measurement of a profile over a period that spans many profile periods.
+   *
+   * Rollups are only of use to a destination that persists measurements for later retrieval,
+   * so by default they are not emitted.
+   * @param measurement The rollup to emit.
+   * @param collector The output collector.
+   */
+  default void emitRollup(ProfileMeasurement measurement, OutputCollector collector) {
+  }
+
+  /**
+   * Counts the measurements emitted to the destination.  By default, they are not counted.
+   * @param metrics The metrics of the bolt that emits the measurements.
+   */
+  default void setMetrics(ProfilerMetrics metrics) {
+  }
 }
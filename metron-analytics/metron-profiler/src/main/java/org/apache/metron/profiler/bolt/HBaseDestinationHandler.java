@@ -37,6 +37,11 @@ public class HBaseDestinationHandler implements DestinationHandler, Serializable
    */
   private String streamId = "hbase";
 
+  /**
+   * Counts the measurements emitted.
+   */
+  private transient ProfilerMetrics metrics;
+
   @Override
   public void declareOutputFields(OutputFieldsDeclarer declarer) {
     declarer.declareStream(getStreamId(), new Fields("measurement"));
@@ -45,6 +50,22 @@ public class HBaseDestinationHandler implements DestinationHandler, Serializable
   @Override
   public void emit(ProfileMeasurement measurement, OutputCollector collector) {
     collector.emit(getStreamId(), new Values(measurement));
+    if(metrics != null) {
+      metrics.count(getStreamId(), ProfilerMetrics.Outcome.EMITTED);
+    }
+  }
+
+  @Override
+  public void emitRollup(ProfileMeasurement measurement, OutputCollector collector) {
+    collector.emit(getStreamId(), new Values(measurement));
+    if(metrics != null) {
+      metrics.count(getStreamId(), ProfilerMetrics.Outcome.ROLLUP);
+    }
+  }
+
+  @Override
+  public void setMetrics(ProfilerMetrics metrics) {
+    this.metrics = metrics;
   }
 
   @Override
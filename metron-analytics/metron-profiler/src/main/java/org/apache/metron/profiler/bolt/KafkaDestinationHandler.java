@@ -49,6 +49,11 @@ public class KafkaDestinationHandler implements DestinationHandler, Serializable
    */
   private String sourceType = "profiler";
 
+  /**
+   * Counts the measurements emitted.
+   */
+  private transient ProfilerMetrics metrics;
+
   @Override
   public void declareOutputFields(OutputFieldsDeclarer declarer) {
     // the kafka writer expects a field named 'message'
@@ -81,6 +86,14 @@ public class KafkaDestinationHandler implements DestinationHandler, Serializable
     });
 
     collector.emit(getStreamId(), new Values(message));
+    if(metrics != null) {
+      metrics.count(getStreamId(), ProfilerMetrics.Outcome.EMITTED);
+    }
+  }
+
+  @Override
+  public void setMetrics(ProfilerMetrics metrics) {
+    this.metrics = metrics;
   }
 
   /**
@@ -20,14 +20,19 @@
 
 package org.apache.metron.profiler.bolt;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.metron.common.bolt.ConfiguredProfilerBolt;
 import org.apache.metron.common.configuration.profiler.ProfileConfig;
 import org.apache.metron.common.utils.ConversionUtils;
-import org.apache.metron.profiler.ProfileBuilder;
 import org.apache.metron.profiler.ProfileMeasurement;
+import org.apache.metron.profiler.ProfilePeriod;
+import org.apache.metron.profiler.ProfileStateStore;
+import org.apache.metron.profiler.clock.Clock;
+import org.apache.metron.profiler.clock.EventTimeClock;
 import org.apache.metron.profiler.clock.WallClock;
+import org.apache.metron.profiler.state.InMemoryProfileStateBackend;
+import org.apache.metron.profiler.state.ProfileStateBackend;
+import org.apache.metron.profiler.state.SpillingProfileStateBackend;
 import org.apache.storm.Config;
 import org.apache.storm.task.OutputCollector;
 import org.apache.storm.task.TopologyContext;
@@ -39,10 +44,12 @@ import org.json.simple.parser.JSONParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
+import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
 
 import static java.lang.String.format;
@@ -54,11 +61,36 @@ import static java.lang.String.format;
  * period expires, the data is summarized as a ProfileMeasurement, all state is
  * flushed, and the ProfileMeasurement is emitted.
  *
+ * By default, periods are cut by tick tuples, so each message is counted in the
+ * period in which it is received.  In event time mode, each message is counted
+ * in the period of its own timestamp instead and a period is flushed once the
+ * watermark, the latest timestamp seen less the time by which messages may
+ * arrive late, passes the end of the period.  While no messages arrive, each tick
+ * advances the watermark by the wall clock time that has passed, so that the last
+ * periods are flushed.
+ *
+ * The state of the profiles is held on the heap, unless a state directory is
+ * defined.  The state of the least recently used profiles is then spilled to
+ * that directory and the state of every profile is checkpointed there on each
+ * tick and periodically between ticks, to be recovered when the bolt restarts.
+ *
+ * Optionally, the measurements of each profile are also rolled up into coarser periods, which
+ * are emitted to those destinations that persist measurements.
  */
 public class ProfileBuilderBolt extends ConfiguredProfilerBolt {
 
   protected static final Logger LOG = LoggerFactory.getLogger(ProfileBuilderBolt.class);
 
+  /**
+   * The name of the store of profile state in processing time mode.
+   */
+  private static final String PROCESSING_TIME_STATE = "profiles";
+
+  /**
+   * The prefix of the name of the store of profile state for each open period in event time mode.
+   */
+  private static final String PERIOD_STATE = "period-";
+
   private OutputCollector collector;
 
   /**
@@ -77,7 +109,7 @@ public class ProfileBuilderBolt extends ConfiguredProfilerBolt {
   /**
    * Maintains the state of a profile which is unique to a profile/entity pair.
    */
-  private transient Cache<String, ProfileBuilder> profileCache;
+  private transient ProfileStateStore stateStore;
 
   /**
    * Parses JSON messages.
@@ -90,6 +122,76 @@ public class ProfileBuilderBolt extends ConfiguredProfilerBolt {
    */
   private List<DestinationHandler> destinationHandlers;
 
+  /**
+   * The field of each message that contains its timestamp, if periods are cut by event time.  If
+   * null, periods are cut by processing time.
+   */
+  private String timestampField;
+
+  /**
+   * How late, in milliseconds, a message may arrive in event time mode and still be counted in its period.
+   */
+  private long maxLatenessMillis;
+
+  /**
+   * Tracks the watermark in event time mode.
+   */
+  private transient EventTimeClock eventTimeClock;
+
+  /**
+   * The state of the profiles in event time mode, keyed by period, which are yet to be flushed.
+   */
+  private transient TreeMap<Long, ProfileStateStore> openPeriods;
+
+  /**
+   * The directory in which profile state is spilled and checkpointed.  If null, profile state is
+   * held only on the heap.
+   */
+  private String stateDirectory;
+
+  /**
+   * The maximum number of profile/entity pairs whose state is held on the heap, when a state
+   * directory is defined.
+   */
+  private int maxEntitiesInMemory;
+
+  /**
+   * The directory in which this task spills and checkpoints profile state.
+   */
+  private transient File taskStateDirectory;
+
+  /**
+   * How often, in milliseconds, profile state is checkpointed between ticks, when a state directory is defined.
+   */
+  private long checkpointIntervalMillis = TimeUnit.MINUTES.toMillis(1);
+
+  /**
+   * The wall clock time at which profile state was last checkpointed.
+   */
+  private transient long lastCheckpointMillis;
+
+  /**
+   * The duration of each rollup period, as a multiple of the profile period.  If empty,
+   * measurements are not rolled up.
+   */
+  private List<Integer> rollupMultiples = new ArrayList<>();
+
+  /**
+   * Rolls the measurements up into coarser periods.  Null if measurements are not rolled up.
+   */
+  private transient ProfileRollup rollup;
+
+  /**
+   * Tells the wall clock time, by which periods are cut in processing time mode and the watermark advances
+   * while no messages arrive in event time mode.
+   */
+  private Clock wallClock = new WallClock();
+
+  /**
+   * Counts late messages and times the Stellar execution of each profile and the flush of each period.
+   */
+  private transient ProfilerMetrics metrics;
+
   /**
    * @param zookeeperUrl The Zookeeper URL that contains the configuration data.
    */
@@ -122,10 +224,38 @@ public class ProfileBuilderBolt extends ConfiguredProfilerBolt {
     }
     this.collector = collector;
     this.parser = new JSONParser();
-    this.profileCache = CacheBuilder
-            .newBuilder()
-            .expireAfterAccess(profileTimeToLiveMillis, TimeUnit.MILLISECONDS)
-            .build();
+    this.metrics = new ProfilerMetrics();
+    this.metrics.register(stormConf, context);
+    destinationHandlers.forEach(handler -> handler.setMetrics(metrics));
+    if(stateDirectory != null) {
+      this.taskStateDirectory = new File(stateDirectory, context.getThisComponentId() + "-" + context.getThisTaskId());
+    }
+    this.stateStore = createStateStore(PROCESSING_TIME_STATE, profileTimeToLiveMillis);
+    this.eventTimeClock = new EventTimeClock(maxLatenessMillis, wallClock);
+    this.openPeriods = new TreeMap<>();
+    if(!rollupMultiples.isEmpty()) {
+      this.rollup = new ProfileRollup(periodDurationMillis, rollupMultiples);
+    }
+    if(isEventTime()) {
+      recoverOpenPeriods();
+    }
+    this.lastCheckpointMillis = wallClock.currentTimeMillis();
+  }
+
+  @Override
+  public void cleanup() {
+    try {
+      stateStore.close();
+      for(ProfileStateStore periodStore : openPeriods.values()) {
+        periodStore.close();
+      }
+
+    } catch(IOException e) {
+      LOG.error(format("Unable to close profile state: %s", e.getMessage()), e);
+
+    } finally {
+      super.cleanup();
+    }
   }
 
   @Override
@@ -148,7 +278,6 @@ public class ProfileBuilderBolt extends ConfiguredProfilerBolt {
     try {
       if(TupleUtils.isTick(input)) {
         handleTick();
-        profileCache.cleanUp();
 
       } else {
         handleMessage(input);
@@ -167,53 +296,200 @@ public class ProfileBuilderBolt extends ConfiguredProfilerBolt {
    * Handles a telemetry message
    * @param input The tuple.
    */
-  private void handleMessage(Tuple input) throws ExecutionException {
+  private void handleMessage(Tuple input) throws IOException {
     JSONObject message = getField("message", input, JSONObject.class);
-    getBuilder(input).apply(message);
+    if(isEventTime()) {
+      handleEventTimeMessage(input, message);
+    } else {
+      apply(stateStore, input, message);
+    }
+
+    // the periods in progress are checkpointed between ticks, so that they are not lost on restart
+    if(taskStateDirectory != null && wallClock.currentTimeMillis() - lastCheckpointMillis >= checkpointIntervalMillis) {
+      checkpoint();
+    }
+  }
+
+  /**
+   * Handles a telemetry message in event time mode.  The message is applied to the profile for the
+   * period of its timestamp, unless that period has already been flushed, then any periods that the
+   * watermark has passed are flushed.
+   * @param input The tuple.
+   * @param message The telemetry message.
+   */
+  private void handleEventTimeMessage(Tuple input, JSONObject message) throws IOException {
+    Long timestamp = ConversionUtils.convert(message.get(timestampField), Long.class);
+    if(timestamp == null) {
+      throw new IllegalStateException(format("invalid message: missing or invalid timestamp field '%s'", timestampField));
+    }
+
+    ProfilePeriod period = new ProfilePeriod(timestamp, periodDurationMillis, TimeUnit.MILLISECONDS);
+    if(period.getEndTimeMillis() <= eventTimeClock.currentTimeMillis()) {
+      LOG.debug("Dropping a late message: timestamp={}, watermark={}", timestamp, eventTimeClock.currentTimeMillis());
+      metrics.count(getField("profile", input, ProfileConfig.class).getProfile(), ProfilerMetrics.Outcome.LATE);
+      return;
+    }
+
+    // the state of a period is discarded once it is flushed, so it never needs to expire
+    ProfileStateStore periodStore = openPeriods.computeIfAbsent(period.getPeriod(), p -> createStateStore(PERIOD_STATE + p, Long.MAX_VALUE));
+    apply(periodStore, input, message);
+
+    eventTimeClock.advance(timestamp);
+    flushClosedPeriods();
+  }
+
+  /**
+   * Flushes each of the profiles in event time mode whose period the watermark has passed.
+   */
+  private void flushClosedPeriods() throws IOException {
+    long watermark = eventTimeClock.currentTimeMillis();
+    while(!openPeriods.isEmpty() && (openPeriods.firstKey() + 1) * periodDurationMillis <= watermark) {
+      long start = System.nanoTime();
+      Map.Entry<Long, ProfileStateStore> closed = openPeriods.pollFirstEntry();
+      ProfilePeriod period = new ProfilePeriod(closed.getKey() * periodDurationMillis, periodDurationMillis, TimeUnit.MILLISECONDS);
+      List<ProfileMeasurement> measurements = closed.getValue().flush(period);
+      measurements.forEach(this::emit);
+      closed.getValue().destroy();
+      emitRollups(period);
+      metrics.flushed(measurements, System.nanoTime() - start);
+    }
   }
 
   /**
    * Handles a tick tuple.
    */
-  private void handleTick() {
-    profileCache.asMap().forEach((key, profileBuilder) -> {
-      if(profileBuilder.isInitialized()) {
+  private void handleTick() throws IOException {
+    if(isEventTime()) {
+      // periods, and their rollups, are only flushed once the watermark has closed them.  the watermark
+      // advances by the time that has passed without messages, so the last periods are flushed when idle
+      eventTimeClock.advanceIdle();
+      flushClosedPeriods();
+      checkpoint();
+      return;
+    }
 
-        // flush the profile
-        ProfileMeasurement measurement = profileBuilder.flush();
+    // forget the profiles that have not been applied to within the TTL, then flush the rest
+    long start = System.nanoTime();
+    stateStore.expire();
+    ProfilePeriod period = new ProfilePeriod(wallClock.currentTimeMillis(), periodDurationMillis, TimeUnit.MILLISECONDS);
+    List<ProfileMeasurement> measurements = stateStore.flush(period);
+    measurements.forEach(this::emit);
+    emitRollups(period);
+    metrics.flushed(measurements, System.nanoTime() - start);
+
+    // the state as of the period boundary is recovered after a restart, unless it is checkpointed again
+    checkpoint();
+  }
 
-        // forward the measurement to each destination handler
-        destinationHandlers.forEach(handler -> handler.emit(measurement, collector));
+  /**
+   * Checkpoints the state of every profile, if the backend supports it, so that it can be recovered
+   * after a restart.
+   */
+  private void checkpoint() throws IOException {
+    stateStore.checkpoint();
+    for(ProfileStateStore periodStore : openPeriods.values()) {
+      periodStore.checkpoint();
+    }
+    lastCheckpointMillis = wallClock.currentTimeMillis();
+  }
+
+  /**
+   * Recovers the state of the periods that were open in event time mode when the bolt last stopped.
+   */
+  private void recoverOpenPeriods() {
+    File[] periodDirectories = taskStateDirectory == null ? null : taskStateDirectory.listFiles();
+    if(periodDirectories == null) {
+      return;
+    }
+
+    for(File periodDirectory : periodDirectories) {
+      String name = periodDirectory.getName();
+      if(name.startsWith(PERIOD_STATE)) {
+        long period = Long.parseLong(name.substring(PERIOD_STATE.length()));
+        openPeriods.put(period, createStateStore(name, Long.MAX_VALUE));
       }
-    });
+    }
   }
 
   /**
-   * Builds the key that is used to lookup the ProfileState within the cache.
-   * @param tuple A tuple.
+   * Forwards a measurement to each destination handler.
+   * @param measurement The profile measurement.
    */
-  private String cacheKey(Tuple tuple) {
-    return format("%s:%s",
-            getField("profile", tuple, ProfileConfig.class),
-            getField("entity", tuple, String.class));
+  private void emit(ProfileMeasurement measurement) {
+    destinationHandlers.forEach(handler -> handler.emit(measurement, collector));
+    if(rollup != null) {
+      rollup.add(measurement);
+    }
+  }
+
+  /**
+   * Forwards the rollup of each period that has ended to each destination handler.
+   * @param flushed The profile period that was just flushed.
+   */
+  private void emitRollups(ProfilePeriod flushed) {
+    if(rollup != null) {
+      for(ProfileMeasurement measurement : rollup.flush(flushed.getEndTimeMillis())) {
+        destinationHandlers.forEach(handler -> handler.emitRollup(measurement, collector));
+      }
+    }
   }
 
   /**
-   * Retrieves the cached ProfileBuilder that is used to build and maintain the Profile.  If none exists,
-   * one will be created and returned.
+   * Applies a message to the profile/entity pair of a tuple.
+   * @param store The state of the profiles.
    * @param tuple The tuple.
+   * @param message The telemetry message.
+   */
+  private void apply(ProfileStateStore store, Tuple tuple, JSONObject message) {
+    ProfileConfig profile = getField("profile", tuple, ProfileConfig.class);
+    long start = System.nanoTime();
+    store.apply(profile, getField("entity", tuple, String.class), message);
+    metrics.time(profile.getProfile(), ProfilerMetrics.Stage.APPLY, System.nanoTime() - start);
+  }
+
+  /**
+   * Creates the store that maintains the state of the profiles.
+   * @param name The name of the store, which is unique within the task.
+   * @param timeToLiveMillis How long the state of a profile/entity pair is kept after a message was last applied to it.
+   */
+  private ProfileStateStore createStateStore(String name, long timeToLiveMillis) {
+    return new ProfileStateStore.Builder()
+            .withBackend(createStateBackend(name))
+            .withPeriodDurationMillis(periodDurationMillis)
+            .withTimeToLiveMillis(timeToLiveMillis)
+            .withGlobalConfiguration(() -> getConfigurations().getGlobalConfig())
+            .withZookeeperClient(client)
+            .withClock(wallClock)
+            .build();
+  }
+
+  /**
+   * Creates the backend that keeps the state of the profiles for a store.
+   * @param name The name of the store, which is unique within the task.
+   */
+  private ProfileStateBackend createStateBackend(String name) {
+    if(taskStateDirectory == null) {
+      return new InMemoryProfileStateBackend();
+    }
+
+    File directory = new File(taskStateDirectory, name);
+    try {
+      return new SpillingProfileStateBackend(directory, maxEntitiesInMemory);
+
+    } catch(IOException e) {
+      throw new IllegalStateException(format("unable to open profile state: directory=%s", directory), e);
+    }
+  }
+
+  /**
+   * Returns the store that maintains the state of the profiles in processing time mode.
    */
-  protected ProfileBuilder getBuilder(Tuple tuple) throws ExecutionException {
-    return profileCache.get(
-            cacheKey(tuple),
-            () -> new ProfileBuilder.Builder()
-                    .withDefinition(getField("profile", tuple, ProfileConfig.class))
-                    .withEntity(getField("entity", tuple, String.class))
-                    .withPeriodDurationMillis(periodDurationMillis)
-                    .withGlobalConfiguration(getConfigurations().getGlobalConfig())
-                    .withZookeeperClient(client)
-                    .withClock(new WallClock())
-                    .build());
+  protected ProfileStateStore getStateStore() {
+    return stateStore;
+  }
+
+  private boolean isEventTime() {
+    return timestampField != null;
   }
 
   /**
@@ -251,6 +527,59 @@ public class ProfileBuilderBolt extends ConfiguredProfilerBolt {
     return withProfileTimeToLiveMillis(units.toMillis(duration));
   }
 
+  /**
+   * Cut periods by event time, rather than processing time.
+   * @param timestampField The field of each message that contains its timestamp in epoch milliseconds.  If
+   *                       empty, periods are cut by processing time.
+   * @param maxLateness How late a message may arrive and still be counted in its period.
+   * @param units The units of the maximum lateness.
+   */
+  public ProfileBuilderBolt withEventTime(String timestampField, int maxLateness, TimeUnit units) {
+    this.timestampField = StringUtils.isEmpty(timestampField) ? null : timestampField;
+    this.maxLatenessMillis = units.toMillis(maxLateness);
+    return this;
+  }
+
+  /**
+   * Spill the state of the least recently used profiles to local disk and checkpoint the state of
+   * every profile there on each tick.
+   * @param directory The directory in which profile state is spilled and checkpointed.  If empty,
+   *                  profile state is held only on the heap.
+   * @param maxEntitiesInMemory The maximum number of profile/entity pairs whose state is held on the heap.
+   */
+  public ProfileBuilderBolt withStateDirectory(String directory, int maxEntitiesInMemory) {
+    this.stateDirectory = StringUtils.isEmpty(directory) ? null : directory;
+    this.maxEntitiesInMemory = maxEntitiesInMemory;
+    return this;
+  }
+
+  /**
+   * How often profile state is checkpointed between ticks, when a state directory is defined.  Any messages
+   * applied since the last checkpoint are lost when the bolt restarts.
+   * @param interval The interval between checkpoints.
+   * @param units The units of the interval.
+   */
+  public ProfileBuilderBolt withCheckpointInterval(int interval, TimeUnit units) {
+    this.checkpointIntervalMillis = units.toMillis(interval);
+    return this;
+  }
+
+  /**
+   * Roll the measurements of each profile up into coarser periods.  Only values that can be
+   * merged, statistics and cardinality estimates, are rolled up.
+   * @param multiples A comma separated list of the duration of each rollup period, as a multiple of the
+   *                  profile period; for example, '4,96'.  If empty, measurements are not rolled up.
+   */
+  public ProfileBuilderBolt withRollups(String multiples) {
+    this.rollupMultiples = ProfileRollup.parseMultiples(StringUtils.defaultString(multiples));
+    return this;
+  }
+
+  ProfileBuilderBolt withWallClock(Clock wallClock) {
+    this.wallClock = wallClock;
+    return this;
+  }
+
   public ProfileBuilderBolt withDestinationHandler(DestinationHandler handler) {
     this.destinationHandlers.add(handler);
     return this;
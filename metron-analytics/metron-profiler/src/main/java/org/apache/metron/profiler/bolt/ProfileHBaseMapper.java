@@ -66,6 +66,15 @@ public class ProfileHBaseMapper implements HBaseMapper {
   @Override
   public byte[] rowKey(Tuple tuple) {
     ProfileMeasurement measurement = (ProfileMeasurement) tuple.getValueByField("measurement");
+    return rowKey(measurement);
+  }
+
+  /**
+   * Defines the HBase row key that will be used when writing a measurement to HBase.
+   *
+   * @param measurement The measurement to map to HBase.
+   */
+  public byte[] rowKey(ProfileMeasurement measurement) {
     return rowKeyBuilder.rowKey(measurement);
   }
 
@@ -78,6 +87,15 @@ public class ProfileHBaseMapper implements HBaseMapper {
   @Override
   public ColumnList columns(Tuple tuple) {
     ProfileMeasurement measurement = (ProfileMeasurement) tuple.getValueByField("measurement");
+    return columns(measurement);
+  }
+
+  /**
+   * Defines the columnar structure that will be used when writing a measurement to HBase.
+   *
+   * @param measurement The measurement to map to HBase.
+   */
+  public ColumnList columns(ProfileMeasurement measurement) {
     return columnBuilder.columns(measurement);
   }
 
@@ -91,9 +109,20 @@ public class ProfileHBaseMapper implements HBaseMapper {
    */
   @Override
   public Optional<Long> getTTL(Tuple tuple) {
+    ProfileMeasurement measurement = (ProfileMeasurement) tuple.getValueByField("measurement");
+    return getTTL(measurement);
+  }
+
+  /**
+   * Defines the TTL (time-to-live) that will be used when writing a measurement
+   * to HBase.
+   *
+   * @param measurement The measurement to map to HBase.
+   * @return The TTL in milliseconds.
+   */
+  public Optional<Long> getTTL(ProfileMeasurement measurement) {
     Optional<Long> result = Optional.empty();
 
-    ProfileMeasurement measurement = (ProfileMeasurement) tuple.getValueByField("measurement");
     ProfileConfig profileConfig = measurement.getDefinition();
     if(profileConfig.getExpires() != null) {
       result = Optional.of(profileConfig.getExpires());
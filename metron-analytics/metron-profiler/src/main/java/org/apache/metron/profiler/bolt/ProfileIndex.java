@@ -0,0 +1,275 @@
+/*
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.apache.metron.profiler.bolt;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.Token;
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.apache.metron.common.configuration.profiler.ProfileConfig;
+import org.apache.metron.common.dsl.ErrorListener;
+import org.apache.metron.common.stellar.BaseStellarProcessor;
+import org.apache.metron.common.stellar.generated.StellarLexer;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An index of profile definitions by the simple tests in their `onlyif` expressions, which finds the
+ * profiles that a message may be needed by without executing the `onlyif` of every profile.
+ *
+ * A profile is indexed by a test that its `onlyif` can only be true if it passes; either a field being
+ * equal to a string literal, e.g. `source.type == 'bro'`, or a field existing, e.g. `exists(ip_src_addr)`.
+ * Such a test is necessary if it is the whole expression or is joined to the rest of it by `and`.  Stellar
+ * groups `and` and `or` from the right, so `a == 'x' and b or c` is necessary on `a == 'x'`.  Profiles
+ * with no such test are always candidates.
+ *
+ * The candidates are a superset of the profiles whose `onlyif` is true, in the order that they are defined,
+ * so the `onlyif` of each candidate must still be executed.  This assumes that the variables of the
+ * expressions resolve to the fields of the message.
+ */
+public class ProfileIndex {
+
+  /**
+   * The profile definitions, in the order that they are defined.
+   */
+  private final List<ProfileConfig> profiles;
+
+  /**
+   * The profiles, by position, that are indexed by a field being equal to a value, by field and value.
+   */
+  private final Map<String, Map<String, BitSet>> equalsIndex = new HashMap<>();
+
+  /**
+   * The profiles, by position, that are indexed by a field existing, by field.
+   */
+  private final Map<String, BitSet> existsIndex = new HashMap<>();
+
+  /**
+   * The profiles, by position, that are not indexed.
+   */
+  private final BitSet unindexed = new BitSet();
+
+  /**
+   * @param profiles The profile definitions, in the order that they are defined.
+   */
+  public ProfileIndex(List<ProfileConfig> profiles) {
+    this.profiles = profiles;
+    for(int i = 0; i < profiles.size(); i++) {
+      Test test = necessaryTest(profiles.get(i).getOnlyif());
+      if(test == null) {
+        unindexed.set(i);
+      } else if(test.value == null) {
+        existsIndex.computeIfAbsent(test.field, f -> new BitSet()).set(i);
+      } else {
+        equalsIndex.computeIfAbsent(test.field, f -> new HashMap<>())
+                .computeIfAbsent(test.value, v -> new BitSet())
+                .set(i);
+      }
+    }
+  }
+
+  /**
+   * Finds the profiles that a message may be needed by.
+   * @param message The message.
+   * @return The candidate profiles, in the order that they are defined.
+   */
+  public List<ProfileConfig> getCandidates(Map<String, Object> message) {
+    if(unindexed.cardinality() == profiles.size()) {
+      return profiles;
+    }
+
+    BitSet candidates = (BitSet) unindexed.clone();
+    for(Map.Entry<String, Map<String, BitSet>> entry : equalsIndex.entrySet()) {
+      Object value = message.get(entry.getKey());
+      if(value != null) {
+        BitSet matches = entry.getValue().get(value);
+        if(matches != null) {
+          candidates.or(matches);
+        }
+      }
+    }
+    for(Map.Entry<String, BitSet> entry : existsIndex.entrySet()) {
+      if(message.get(entry.getKey()) != null) {
+        candidates.or(entry.getValue());
+      }
+    }
+
+    List<ProfileConfig> result = new ArrayList<>(candidates.cardinality());
+    for(int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+      result.add(profiles.get(i));
+    }
+    return result;
+  }
+
+  /**
+   * @return The number of profiles that are indexed.
+   */
+  public int getIndexedCount() {
+    return profiles.size() - unindexed.cardinality();
+  }
+
+  /**
+   * A test of a field, either being equal to a string literal or, if the value is null, existing.
+   */
+  static class Test {
+    final String field;
+    final String value;
+
+    Test(String field, String value) {
+      this.field = field;
+      this.value = value;
+    }
+  }
+
+  /**
+   * Finds a test that an expression can only be true if it passes, preferring an equality test.
+   * @param expression The `onlyif` expression.
+   * @return The test or null, if there is none or the expression is not valid.
+   */
+  static Test necessaryTest(String expression) {
+    List<? extends Token> tokens;
+    try {
+      // an expression that can not be compiled fails for every message, so it is left unindexed
+      BaseStellarProcessor.compile(expression);
+      StellarLexer lexer = new StellarLexer(new ANTLRInputStream(expression));
+      lexer.removeErrorListeners();
+      lexer.addErrorListener(new ErrorListener());
+      tokens = lexer.getAllTokens();
+    } catch(RuntimeException e) {
+      return null;
+    }
+
+    Test exists = null;
+    for(Test test : necessaryTests(tokens)) {
+      if(test.value != null) {
+        return test;
+      } else if(exists == null) {
+        exists = test;
+      }
+    }
+    return exists;
+  }
+
+  /**
+   * Finds the tests that an expression can only be true if they pass.
+   * @param tokens The tokens of the expression.
+   */
+  private static List<Test> necessaryTests(List<? extends Token> tokens) {
+    if(isParenthesized(tokens)) {
+      return necessaryTests(tokens.subList(1, tokens.size() - 1));
+    }
+
+    // split the expression into clauses on the 'and' and 'or' that are not nested
+    List<List<? extends Token>> clauses = new ArrayList<>();
+    List<Integer> operators = new ArrayList<>();
+    int depth = 0;
+    int start = 0;
+    for(int i = 0; i < tokens.size(); i++) {
+      int type = tokens.get(i).getType();
+      if(type == StellarLexer.LPAREN || type == StellarLexer.LBRACKET || type == StellarLexer.LBRACE) {
+        depth++;
+      } else if(type == StellarLexer.RPAREN || type == StellarLexer.RBRACKET || type == StellarLexer.RBRACE) {
+        depth--;
+      } else if(depth == 0 && (type == StellarLexer.AND || type == StellarLexer.OR)) {
+        clauses.add(tokens.subList(start, i));
+        operators.add(type);
+        start = i + 1;
+      } else if(depth == 0 && (type == StellarLexer.QUESTION || type == StellarLexer.COLON || type == StellarLexer.IF
+              || type == StellarLexer.THEN || type == StellarLexer.ELSE || type == StellarLexer.LAMBDA_OP)) {
+        // a conditional or lambda expression is not a chain of clauses
+        return Collections.emptyList();
+      }
+    }
+    clauses.add(tokens.subList(start, tokens.size()));
+
+    // 'a and b or c' is 'a and (b or c)', so each clause up to the first 'or' is necessary
+    List<Test> tests = new ArrayList<>();
+    for(int i = 0; i < clauses.size(); i++) {
+      if(i < operators.size() && operators.get(i) != StellarLexer.AND) {
+        break;
+      }
+      List<? extends Token> clause = clauses.get(i);
+      Test test = asTest(clause);
+      if(test != null) {
+        tests.add(test);
+      } else if(isParenthesized(clause)) {
+        tests.addAll(necessaryTests(clause.subList(1, clause.size() - 1)));
+      }
+    }
+    return tests;
+  }
+
+  /**
+   * @return The test that a clause is, if it is either `field == 'value'`, `'value' == field` or `exists(field)`.
+   */
+  private static Test asTest(List<? extends Token> clause) {
+    if(clause.size() == 3 && clause.get(1).getType() == StellarLexer.EQ) {
+      Token left = clause.get(0);
+      Token right = clause.get(2);
+      if(left.getType() == StellarLexer.IDENTIFIER && right.getType() == StellarLexer.STRING_LITERAL) {
+        return new Test(left.getText(), literal(right));
+      } else if(left.getType() == StellarLexer.STRING_LITERAL && right.getType() == StellarLexer.IDENTIFIER) {
+        return new Test(right.getText(), literal(left));
+      }
+    } else if(clause.size() == 4
+            && clause.get(0).getType() == StellarLexer.EXISTS
+            && clause.get(1).getType() == StellarLexer.LPAREN
+            && clause.get(2).getType() == StellarLexer.IDENTIFIER
+            && clause.get(3).getType() == StellarLexer.RPAREN) {
+      return new Test(clause.get(2).getText(), null);
+    }
+    return null;
+  }
+
+  /**
+   * @return The value of a string literal, as Stellar reads it.
+   */
+  private static String literal(Token token) {
+    String literal = StringEscapeUtils.UNESCAPE_JSON.translate(token.getText());
+    return literal.substring(1, literal.length() - 1);
+  }
+
+  /**
+   * @return True, if the tokens are entirely enclosed by a pair of parentheses.
+   */
+  private static boolean isParenthesized(List<? extends Token> tokens) {
+    if(tokens.size() < 2 || tokens.get(0).getType() != StellarLexer.LPAREN) {
+      return false;
+    }
+    int depth = 0;
+    for(int i = 0; i < tokens.size(); i++) {
+      int type = tokens.get(i).getType();
+      if(type == StellarLexer.LPAREN) {
+        depth++;
+      } else if(type == StellarLexer.RPAREN) {
+        depth--;
+        if(depth == 0) {
+          return i == tokens.size() - 1;
+        }
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,224 @@
+/*
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.apache.metron.profiler.bolt;
+
+import org.apache.metron.profiler.ProfileMeasurement;
+import org.apache.metron.profiler.ProfilePeriod;
+import org.apache.metron.statistics.OnlineStatisticsProvider;
+import org.apache.metron.statistics.approximation.HyperLogLogPlus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+
+/**
+ * Rolls the measurements of a profile up into coarser periods, such as hours and days, so that a
+ * long lookback can be read from far fewer periods.
+ *
+ * Each rollup period is a whole number of profile periods.  The value of a rollup is the merge of the
+ * values of the profile periods within it.  Only values that can be merged are rolled up; those
+ * of type OnlineStatisticsProvider and HyperLogLogPlus.
+ *
+ * A rollup is only produced for a period that began after the first profile period that was
+ * added, as the measurements of any earlier profile periods may have been lost when the bolt
+ * last restarted.  Nor is a rollup rebuilt for a period that has already been flushed, as it would
+ * overwrite the complete rollup with a partial one.
+ */
+public class ProfileRollup {
+
+  protected static final Logger LOG = LoggerFactory.getLogger(ProfileRollup.class);
+
+  /**
+   * The duration of each rollup period in milliseconds.
+   */
+  private final List<Long> rollupDurationsMillis;
+
+  /**
+   * The rollups in progress, keyed by profile, entity, group(s) and rollup duration.
+   */
+  private final Map<List<Object>, Rollup> rollups = new HashMap<>();
+
+  /**
+   * Rollups are only produced for periods that start at or after this time.
+   */
+  private long horizonMillis = Long.MAX_VALUE;
+
+  /**
+   * The rollups of periods that end at or before this time have been flushed.
+   */
+  private long flushedMillis = Long.MIN_VALUE;
+
+  /**
+   * @param periodDurationMillis The duration of each profile period in milliseconds.
+   * @param multiples The duration of each rollup period, as a multiple of the profile period.
+   */
+  public ProfileRollup(long periodDurationMillis, List<Integer> multiples) {
+    this.rollupDurationsMillis = new ArrayList<>();
+    for(int multiple : multiples) {
+      if(multiple < 2) {
+        throw new IllegalArgumentException(format("rollup must span at least 2 periods; got %d", multiple));
+      }
+      rollupDurationsMillis.add(multiple * periodDurationMillis);
+    }
+  }
+
+  /**
+   * Parses the duration of each rollup period.
+   * @param multiples A comma separated list of multiples of the profile period; for example, '4,96'.
+   */
+  public static List<Integer> parseMultiples(String multiples) {
+    List<Integer> result = new ArrayList<>();
+    for(String multiple : multiples.split(",")) {
+      if(!multiple.trim().isEmpty()) {
+        result.add(Integer.parseInt(multiple.trim()));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Adds the measurement of a profile period to the rollups that contain it.
+   * @param measurement The measurement of a profile period.
+   */
+  public void add(ProfileMeasurement measurement) {
+    ProfilePeriod period = measurement.getPeriod();
+    if(horizonMillis == Long.MAX_VALUE) {
+      horizonMillis = period.getEndTimeMillis();
+    }
+    if(!isMergeable(measurement.getProfileValue())) {
+      return;
+    }
+
+    for(long durationMillis : rollupDurationsMillis) {
+      ProfilePeriod rollupPeriod = new ProfilePeriod(period.getStartTimeMillis(), durationMillis, TimeUnit.MILLISECONDS);
+      if(rollupPeriod.getStartTimeMillis() < horizonMillis || rollupPeriod.getEndTimeMillis() <= flushedMillis) {
+        continue;
+      }
+
+      List<Object> key = Arrays.asList(measurement.getProfileName(), measurement.getEntity(), measurement.getGroups(), durationMillis);
+      Rollup rollup = rollups.get(key);
+      if(rollup == null || !rollup.period.equals(rollupPeriod)) {
+        rollups.put(key, new Rollup(measurement, rollupPeriod));
+      } else {
+        rollup.merge(measurement.getProfileValue());
+      }
+    }
+  }
+
+  /**
+   * Completes the rollups of each period that has ended.
+   * @param timeMillis The time, in epoch milliseconds, that all of the measurements before have been added.
+   * @return The rollups of each period that ended at or before the given time.
+   */
+  public List<ProfileMeasurement> flush(long timeMillis) {
+    flushedMillis = Math.max(flushedMillis, timeMillis);
+    if(rollups.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    List<ProfileMeasurement> measurements = new ArrayList<>();
+    Iterator<Rollup> iterator = rollups.values().iterator();
+    while(iterator.hasNext()) {
+      Rollup rollup = iterator.next();
+      if(rollup.period.getEndTimeMillis() <= timeMillis) {
+        if(rollup.value != null) {
+          measurements.add(new ProfileMeasurement()
+                  .withProfileName(rollup.first.getProfileName())
+                  .withEntity(rollup.first.getEntity())
+                  .withGroups(rollup.first.getGroups())
+                  .withDefinition(rollup.first.getDefinition())
+                  .withPeriod(rollup.period)
+                  .withProfileValue(rollup.value));
+        }
+        iterator.remove();
+      }
+    }
+    return measurements;
+  }
+
+  /**
+   * Returns the number of rollups in progress.
+   */
+  public int size() {
+    return rollups.size();
+  }
+
+  private static boolean isMergeable(Object value) {
+    return value instanceof OnlineStatisticsProvider || value instanceof HyperLogLogPlus;
+  }
+
+  /**
+   * A rollup in progress.
+   */
+  private static class Rollup {
+
+    /**
+     * The first measurement in the rollup, which describes the profile, entity and group(s).
+     */
+    private final ProfileMeasurement first;
+
+    private final ProfilePeriod period;
+
+    /**
+     * The merged value, or null if the values could not be merged.
+     */
+    private Object value;
+
+    Rollup(ProfileMeasurement first, ProfilePeriod period) {
+      this.first = first;
+      this.period = period;
+      this.value = first.getProfileValue();
+    }
+
+    /**
+     * Merges a value into the rollup.  The merged values are not changed.
+     */
+    void merge(Object other) {
+      try {
+        if(value instanceof OnlineStatisticsProvider && other instanceof OnlineStatisticsProvider) {
+          value = ((OnlineStatisticsProvider) value).merge((OnlineStatisticsProvider) other);
+
+        } else if(value instanceof HyperLogLogPlus && other instanceof HyperLogLogPlus) {
+          value = ((HyperLogLogPlus) value).merge(Collections.singletonList((HyperLogLogPlus) other));
+
+        } else if(value != null) {
+          throw new IllegalArgumentException(format("cannot merge %s with %s",
+                  value.getClass().getSimpleName(), other.getClass().getSimpleName()));
+        }
+
+      } catch(RuntimeException e) {
+        // a rollup that is missing a value would be wrong, so none is produced for this period
+        LOG.warn(format("Unable to roll up profile: profile=%s, entity=%s, period=%s",
+                first.getProfileName(), first.getEntity(), period), e);
+        value = null;
+      }
+    }
+  }
+}
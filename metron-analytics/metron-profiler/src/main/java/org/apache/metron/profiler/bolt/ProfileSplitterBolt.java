@@ -33,14 +33,14 @@ import org.apache.metron.common.configuration.profiler.ProfileConfig;
 import org.apache.metron.common.configuration.profiler.ProfilerConfig;
 import org.apache.metron.common.dsl.Context;
 import org.apache.metron.common.dsl.StellarFunctions;
+import org.apache.metron.common.message.JSONMessageCodec;
 import org.apache.metron.profiler.stellar.StellarExecutor;
 import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.UnsupportedEncodingException;
+import java.util.List;
 import java.util.Map;
 
 import static java.lang.String.format;
@@ -57,14 +57,24 @@ public class ProfileSplitterBolt extends ConfiguredProfilerBolt {
   private OutputCollector collector;
 
   /**
-   * JSON parser.
+   * Executes Stellar code.
    */
-  private transient JSONParser parser;
+  private StellarExecutor executor;
 
   /**
-   * Executes Stellar code.
+   * Finds the profiles that each message may be needed by.  Rebuilt whenever the profiler configuration changes.
    */
-  private StellarExecutor executor;
+  private transient ProfileIndex index;
+
+  /**
+   * The profiler configuration that the index was built from.
+   */
+  private transient ProfilerConfig indexedConfig;
+
+  /**
+   * Counts the messages routed to and rejected by each profile.
+   */
+  private transient ProfilerMetrics metrics;
 
   /**
    * @param zookeeperUrl The Zookeeper URL that contains the configuration for this bolt.
@@ -77,8 +87,9 @@ public class ProfileSplitterBolt extends ConfiguredProfilerBolt {
   public void prepare(Map stormConf, TopologyContext context, OutputCollector collector) {
     super.prepare(stormConf, context, collector);
     this.collector = collector;
-    this.parser = new JSONParser();
     this.executor = new DefaultStellarExecutor();
+    this.metrics = new ProfilerMetrics();
+    this.metrics.register(stormConf, context);
     initializeStellar();
   }
 
@@ -97,7 +108,7 @@ public class ProfileSplitterBolt extends ConfiguredProfilerBolt {
     try {
       doExecute(input);
 
-    } catch (IllegalArgumentException | ParseException | UnsupportedEncodingException e) {
+    } catch (IllegalArgumentException | ParseException e) {
       LOG.error(format("Unexpected failure: message='%s', tuple='%s'", e.getMessage(), input), e);
       collector.reportError(e);
 
@@ -106,11 +117,11 @@ public class ProfileSplitterBolt extends ConfiguredProfilerBolt {
     }
   }
 
-  private void doExecute(Tuple input) throws ParseException, UnsupportedEncodingException {
+  private void doExecute(Tuple input) throws ParseException {
 
-    // retrieve the input message
+    // retrieve the input message, which may be JSON text or binary
     byte[] data = input.getBinary(0);
-    JSONObject message = (JSONObject) parser.parse(new String(data, "UTF8"));
+    JSONObject message = JSONMessageCodec.fromBytes(data);
 
     // ensure there is a valid profiler configuration
     ProfilerConfig config = getProfilerConfig();
@@ -118,10 +129,37 @@ public class ProfileSplitterBolt extends ConfiguredProfilerBolt {
       throw new IllegalArgumentException("Fatal: Unable to find valid profiler definition");
     }
 
-    // apply the message to each of the profile definitions
+    // apply the message to each of the profile definitions that it may be needed by; the candidates are
+    // in the order of the definitions, so the profiles skipped by the index are those between them
+    List<ProfileConfig> candidates = getCandidates(config, message);
+    int next = 0;
     for (ProfileConfig profile: config.getProfiles()) {
-      applyProfile(profile, input, message);
+      if(next < candidates.size() && candidates.get(next).equals(profile)) {
+        applyProfile(profile, input, message);
+        next++;
+      } else {
+        metrics.count(profile.getProfile(), ProfilerMetrics.Outcome.SKIPPED);
+      }
+    }
+  }
+
+  /**
+   * Finds the profiles that a message may be needed by.
+   * @param config The profiler configuration.
+   * @param message The message.
+   */
+  @SuppressWarnings("unchecked")
+  private List<ProfileConfig> getCandidates(ProfilerConfig config, JSONObject message) {
+    if(!executor.getState().isEmpty()) {
+      // the index assumes that variables resolve to the fields of the message
+      return config.getProfiles();
     }
+    if(config != indexedConfig) {
+      index = new ProfileIndex(config.getProfiles());
+      indexedConfig = config;
+      LOG.info("Indexed {} of {} profiles", index.getIndexedCount(), config.getProfiles().size());
+    }
+    return index.getCandidates(message);
   }
 
   /**
@@ -130,18 +168,25 @@ public class ProfileSplitterBolt extends ConfiguredProfilerBolt {
    * @param input The input tuple that delivered the message.
    * @param message The message that may be needed by the profile.
    */
-  private void applyProfile(ProfileConfig profile, Tuple input, JSONObject message) throws ParseException, UnsupportedEncodingException {
+  private void applyProfile(ProfileConfig profile, Tuple input, JSONObject message) throws ParseException {
     @SuppressWarnings("unchecked")
     Map<String, Object> state = (Map<String, Object>)message;
 
     // is this message needed by this profile?
+    long start = System.nanoTime();
     if (executor.execute(profile.getOnlyif(), state, Boolean.class)) {
 
       // what is the name of the entity in this message?
       String entity = executor.execute(profile.getForeach(), state, String.class);
+      metrics.time(profile.getProfile(), ProfilerMetrics.Stage.SELECT, System.nanoTime() - start);
 
       // emit a message for the bolt responsible for building this profile
       collector.emit(input, new Values(entity, profile, message));
+      metrics.count(profile.getProfile(), ProfilerMetrics.Outcome.ROUTED);
+
+    } else {
+      metrics.time(profile.getProfile(), ProfilerMetrics.Stage.SELECT, System.nanoTime() - start);
+      metrics.count(profile.getProfile(), ProfilerMetrics.Outcome.REJECTED);
     }
   }
 
@@ -0,0 +1,128 @@
+/*
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.apache.metron.profiler.bolt;
+
+import org.apache.metron.common.metrics.MultiHistogramMetric;
+import org.apache.metron.common.utils.ConversionUtils;
+import org.apache.metron.profiler.ProfileMeasurement;
+import org.apache.storm.Config;
+import org.apache.storm.metric.api.MultiCountMetric;
+import org.apache.storm.task.TopologyContext;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The metrics of the Profiler bolts, reported through storm's metrics API.  They are
+ * <ul>
+ *   <li>profiler.count - counts of messages by profile and outcome and of measurements by destination</li>
+ *   <li>profiler.latency - histograms, in microseconds, of the time spent selecting messages for each profile,
+ *   applying messages to each profile and flushing each period</li>
+ *   <li>profiler.entities - the number of entities of each profile that were flushed in the last period</li>
+ * </ul>
+ * Each count and histogram is keyed by the profile or destination stream followed by the outcome or stage,
+ * e.g. "my-profile.routed" or "hbase.emitted".  Flushes are keyed by "flush" alone, since all profiles are
+ * flushed at once.  The metrics are reported every topology.builtin.metrics.bucket.size.secs seconds.
+ */
+public class ProfilerMetrics {
+  public static final String COUNT_METRIC = "profiler.count";
+  public static final String LATENCY_METRIC = "profiler.latency";
+  public static final String ENTITIES_METRIC = "profiler.entities";
+
+  public enum Stage {
+     SELECT("select")
+    ,APPLY("apply")
+    ,FLUSH("flush")
+    ;
+    private String name;
+
+    Stage(String name) {
+      this.name = name;
+    }
+  }
+
+  public enum Outcome {
+     ROUTED("routed")
+    ,REJECTED("rejected")
+    ,SKIPPED("skipped")
+    ,LATE("late")
+    ,EMITTED("emitted")
+    ,ROLLUP("rollups")
+    ;
+    private String name;
+
+    Outcome(String name) {
+      this.name = name;
+    }
+  }
+
+  private final MultiCountMetric counts = new MultiCountMetric();
+  private final MultiHistogramMetric latencies = new MultiHistogramMetric();
+  private Map<String, Long> entities = Collections.emptyMap();
+  //the metric keys are cached to avoid building them for every message
+  private final Map<String, Map<Object, String>> keys = new HashMap<>();
+
+  /**
+   * Register the metrics with storm.
+   *
+   * @param stormConf The storm configuration
+   * @param context The topology context
+   */
+  public void register(Map stormConf, TopologyContext context) {
+    Integer bucketSize = ConversionUtils.convert(stormConf.get(Config.TOPOLOGY_BUILTIN_METRICS_BUCKET_SIZE_SECS), Integer.class);
+    int bucketSizeSecs = bucketSize == null ? 60 : bucketSize;
+    context.registerMetric(COUNT_METRIC, counts, bucketSizeSecs);
+    context.registerMetric(LATENCY_METRIC, latencies, bucketSizeSecs);
+    context.registerMetric(ENTITIES_METRIC, () -> entities, bucketSizeSecs);
+  }
+
+  /**
+   * @param name The name of the profile, or the destination stream.
+   */
+  public void count(String name, Outcome outcome) {
+    counts.scope(key(name, outcome, outcome.name)).incr();
+  }
+
+  public void time(String profile, Stage stage, long elapsedNanos) {
+    latencies.update(key(profile, stage, stage.name), elapsedNanos / 1000);
+  }
+
+  /**
+   * Records the time taken to flush a period and the number of entities of each profile that were flushed.
+   * @param measurements The measurements of the period.
+   * @param elapsedNanos The time taken to flush the period and emit the measurements.
+   */
+  public void flushed(List<ProfileMeasurement> measurements, long elapsedNanos) {
+    latencies.update(Stage.FLUSH.name, elapsedNanos / 1000);
+    Map<String, Long> flushed = new HashMap<>();
+    for(ProfileMeasurement measurement : measurements) {
+      flushed.merge(measurement.getProfileName(), 1L, Long::sum);
+    }
+    entities = flushed;
+  }
+
+  private String key(String name, Object measure, String measureName) {
+    return keys.computeIfAbsent(name, s -> new HashMap<>())
+               .computeIfAbsent(measure, m -> name + "." + measureName);
+  }
+}
@@ -0,0 +1,268 @@
+/*
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.apache.metron.profiler.batch;
+
+import org.adrianwalker.multilinestring.Multiline;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.metron.common.configuration.profiler.ProfilerConfig;
+import org.apache.metron.common.utils.JSONUtils;
+import org.apache.metron.hbase.TableProvider;
+import org.apache.metron.profiler.bolt.ProfileHBaseMapper;
+import org.apache.metron.profiler.client.HBaseProfilerClient;
+import org.apache.metron.profiler.hbase.ColumnBuilder;
+import org.apache.metron.profiler.hbase.RowKeyBuilder;
+import org.apache.metron.profiler.hbase.SaltyRowKeyBuilder;
+import org.apache.metron.profiler.hbase.ValueOnlyColumnBuilder;
+import org.apache.metron.test.mock.MockHTable;
+import org.apache.metron.writer.hdfs.AvroRecordWriter;
+import org.json.simple.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static java.lang.String.format;
+
+/**
+ * Tests the BatchProfiler class.
+ */
+public class BatchProfilerTest {
+
+  /**
+   * {
+   *   "profiles": [
+   *      {
+   *        "profile": "count",
+   *        "foreach": "ip_src_addr",
+   *        "onlyif": "protocol == 'HTTP'",
+   *        "init":   { "count": 0 },
+   *        "update": { "count": "count + 1" },
+   *        "result": "count"
+   *      }
+   *   ]
+   * }
+   */
+  @Multiline
+  private String countProfile;
+
+  private static final String tableName = "profiler";
+  private static final String columnFamily = "P";
+  private static final long periodDurationMillis = TimeUnit.MINUTES.toMillis(15);
+  private static final long period = 1000;
+
+  /**
+   * A TableProvider that allows us to mock HBase.
+   */
+  public static class MockTableProvider implements TableProvider {
+
+    MockHTable.Provider provider = new MockHTable.Provider();
+
+    @Override
+    public HTableInterface getTable(Configuration config, String tableName) throws IOException {
+      return provider.getTable(config, tableName);
+    }
+  }
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private FileSystem fileSystem;
+  private RowKeyBuilder rowKeyBuilder;
+  private ColumnBuilder columnBuilder;
+  private MockHTable table;
+
+  @Before
+  public void setup() throws Exception {
+    fileSystem = FileSystem.getLocal(new Configuration());
+    rowKeyBuilder = new SaltyRowKeyBuilder(1000, periodDurationMillis, TimeUnit.MILLISECONDS);
+    columnBuilder = new ValueOnlyColumnBuilder(columnFamily);
+    table = (MockHTable) MockHTable.Provider.addToCache(tableName, columnFamily);
+  }
+
+  @After
+  public void tearDown() {
+    MockHTable.Provider.clear();
+  }
+
+  /**
+   * The measurements should be the same as those of the Profiler, however the messages are spread across the files.
+   */
+  @Test
+  public void testBuildProfiles() throws Exception {
+    write("a.json", message("10.0.0.1", "HTTP", period, 1), message("10.0.0.2", "HTTP", period, 2),
+                    message("10.0.0.1", "DNS", period, 3), message("10.0.0.1", "HTTP", period + 1, 4));
+    write("dir/b.json", message("10.0.0.1", "HTTP", period, 5), message("10.0.0.1", "HTTP", period + 1, 6));
+
+    BatchProfiler profiler = newProfiler().withThreads(2);
+    profiler.run(new ArchiveReader(fileSystem), Collections.singletonList(new Path(folder.getRoot().getPath())));
+
+    Assert.assertEquals(6, profiler.getMessages());
+    Assert.assertEquals(0, profiler.getInvalid());
+    Assert.assertEquals(0, profiler.getErrors());
+    Assert.assertEquals(3, profiler.getMeasurements());
+    Assert.assertEquals(Arrays.asList(2, 2), read("10.0.0.1"));
+    Assert.assertEquals(Collections.singletonList(1), read("10.0.0.2"));
+  }
+
+  /**
+   * Messages that cannot be read or have no timestamp should be counted and skipped.
+   */
+  @Test
+  public void testInvalidMessages() throws Exception {
+    JSONObject noTimestamp = message("10.0.0.1", "HTTP", period, 1);
+    noTimestamp.remove("timestamp");
+    write("a.json", message("10.0.0.1", "HTTP", period, 2), noTimestamp);
+    Files.write(folder.newFile("b.json").toPath(), "{ not json\n".getBytes(StandardCharsets.UTF_8));
+
+    BatchProfiler profiler = newProfiler();
+    profiler.run(new ArchiveReader(fileSystem), Collections.singletonList(new Path(folder.getRoot().getPath())));
+
+    Assert.assertEquals(2, profiler.getInvalid());
+    Assert.assertEquals(Collections.singletonList(1), read("10.0.0.1"));
+  }
+
+  /**
+   * Once the latest message passes a period by more than the maximum lateness, the period is flushed and its
+   * messages are dropped.
+   */
+  @Test
+  public void testMaxLateness() throws Exception {
+    File first = write("a.json", message("10.0.0.1", "HTTP", period + 2, 1));
+    File second = write("b.json", message("10.0.0.1", "HTTP", period, 2), message("10.0.0.1", "HTTP", period + 1, 3));
+    first.setLastModified(second.lastModified() - 10000);
+
+    BatchProfiler profiler = newProfiler()
+            .withThreads(1)
+            .withMaxLateness(1, TimeUnit.MINUTES);
+    profiler.run(new ArchiveReader(fileSystem), Collections.singletonList(new Path(folder.getRoot().getPath())));
+
+    Assert.assertEquals(1, profiler.getLate());
+    Assert.assertEquals(Arrays.asList(1, 1), read("10.0.0.1"));
+  }
+
+  /**
+   * When the files are read by several threads, a message should only be dropped if it is late relative to the
+   * messages its own thread read before it, however the threads are scheduled.
+   */
+  @Test
+  public void testMaxLatenessWithThreads() throws Exception {
+    List<File> older = new ArrayList<>();
+    for(int i = 0; i < 8; i++) {
+      older.add(write(format("old-%d.json", i), message("10.0.0.1", "HTTP", period, i), message("10.0.0.1", "HTTP", period + 1, i)));
+    }
+    File newest = write("new.json", message("10.0.0.1", "HTTP", period + 2, 1));
+    for(File file : older) {
+      file.setLastModified(newest.lastModified() - 10000);
+    }
+
+    for(int run = 0; run < 10; run++) {
+      MockHTable.Provider.clear();
+      table = (MockHTable) MockHTable.Provider.addToCache(tableName, columnFamily);
+      BatchProfiler profiler = newProfiler()
+              .withThreads(4)
+              .withMaxLateness(1, TimeUnit.MINUTES);
+      profiler.run(new ArchiveReader(fileSystem), Collections.singletonList(new Path(folder.getRoot().getPath())));
+
+      Assert.assertEquals(0, profiler.getLate());
+      Assert.assertEquals(Arrays.asList(8, 8, 1), read("10.0.0.1"));
+    }
+  }
+
+  /**
+   * Telemetry archived as Avro should be read.
+   */
+  @Test
+  public void testAvro() throws Exception {
+    File file = folder.newFile("a.avro");
+    try(AvroRecordWriter writer = new AvroRecordWriter(new FileOutputStream(file), new HashMap<>())) {
+      writer.write(message("10.0.0.1", "HTTP", period, 1));
+      writer.write(message("10.0.0.1", "HTTP", period, 2));
+    }
+
+    BatchProfiler profiler = newProfiler();
+    profiler.run(new ArchiveReader(fileSystem), Collections.singletonList(new Path(file.getPath())));
+
+    Assert.assertEquals(Collections.singletonList(2), read("10.0.0.1"));
+  }
+
+  private BatchProfiler newProfiler() throws Exception {
+    ProfileHBaseMapper mapper = new ProfileHBaseMapper(rowKeyBuilder, columnBuilder);
+    return new BatchProfiler(JSONUtils.INSTANCE.load(countProfile, ProfilerConfig.class))
+            .withPeriodDuration(periodDurationMillis, TimeUnit.MILLISECONDS)
+            .withBatchSize(2)
+            .withHBaseTable(new MockTableProvider(), tableName, mapper);
+  }
+
+  /**
+   * Creates a message.
+   * @param offset The offset of the message within the period, in seconds.
+   */
+  @SuppressWarnings("unchecked")
+  private JSONObject message(String ip, String protocol, long period, int offset) {
+    JSONObject message = new JSONObject();
+    message.put("ip_src_addr", ip);
+    message.put("protocol", protocol);
+    message.put("timestamp", period * periodDurationMillis + TimeUnit.SECONDS.toMillis(offset));
+    return message;
+  }
+
+  private File write(String name, JSONObject... messages) throws Exception {
+    File file = new File(folder.getRoot(), name);
+    file.getParentFile().mkdirs();
+    List<String> lines = new ArrayList<>();
+    for(JSONObject message : messages) {
+      lines.add(message.toJSONString());
+    }
+    Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+    return file;
+  }
+
+  /**
+   * Reads the measurements of an entity, as PROFILE_GET does.
+   */
+  private List<Integer> read(String entity) {
+    HBaseProfilerClient client = new HBaseProfilerClient(table, rowKeyBuilder, columnBuilder);
+    long start = period * periodDurationMillis;
+    long end = (period + 3) * periodDurationMillis - 1;
+    return client.fetch(Object.class, "count", entity, Collections.emptyList(), start, end)
+            .stream()
+            .map(value -> ((Number) value).intValue())
+            .collect(Collectors.toList());
+  }
+}
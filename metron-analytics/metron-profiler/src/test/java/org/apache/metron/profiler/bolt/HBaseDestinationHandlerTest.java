@@ -0,0 +1,102 @@
+/*
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.apache.metron.profiler.bolt;
+
+import org.apache.metron.common.configuration.profiler.ProfileConfig;
+import org.apache.metron.common.configuration.profiler.ProfileResult;
+import org.apache.metron.profiler.ProfileMeasurement;
+import org.apache.storm.metric.api.IMetric;
+import org.apache.storm.task.OutputCollector;
+import org.apache.storm.task.TopologyContext;
+import org.apache.storm.tuple.Values;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests the HBaseDestinationHandler.
+ */
+public class HBaseDestinationHandlerTest {
+
+  private HBaseDestinationHandler handler;
+  private OutputCollector collector;
+  private ProfileMeasurement measurement;
+
+  @Before
+  public void setup() {
+    handler = new HBaseDestinationHandler();
+    collector = mock(OutputCollector.class);
+    measurement = new ProfileMeasurement()
+            .withProfileName("profile")
+            .withEntity("entity")
+            .withPeriod(20000, 15, TimeUnit.MINUTES)
+            .withProfileValue(22)
+            .withDefinition(new ProfileConfig("profile", "ip_src_addr", new ProfileResult("22")));
+  }
+
+  /**
+   * The handler should emit both measurements and rollups to the HBase stream.
+   */
+  @Test
+  public void testEmit() {
+    handler.emit(measurement, collector);
+    handler.emitRollup(measurement, collector);
+
+    ArgumentCaptor<Values> arg = ArgumentCaptor.forClass(Values.class);
+    verify(collector, times(2)).emit(eq("hbase"), arg.capture());
+    for(Values values : arg.getAllValues()) {
+      assertSame(measurement, values.get(0));
+    }
+  }
+
+  /**
+   * The measurements and rollups emitted should be counted separately.
+   */
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testMetrics() {
+    TopologyContext context = mock(TopologyContext.class);
+    ProfilerMetrics metrics = new ProfilerMetrics();
+    metrics.register(new HashMap<>(), context);
+    handler.setMetrics(metrics);
+    ArgumentCaptor<IMetric> counts = ArgumentCaptor.forClass(IMetric.class);
+    verify(context).registerMetric(eq(ProfilerMetrics.COUNT_METRIC), counts.capture(), eq(60));
+
+    handler.emit(measurement, collector);
+    handler.emit(measurement, collector);
+    handler.emitRollup(measurement, collector);
+
+    Map<String, Long> countValues = (Map<String, Long>) counts.getValue().getValueAndReset();
+    assertEquals(2L, (long) countValues.get("hbase.emitted"));
+    assertEquals(1L, (long) countValues.get("hbase.rollups"));
+  }
+}
@@ -26,7 +26,9 @@ import org.apache.metron.common.configuration.profiler.ProfileConfig;
 import org.apache.metron.common.utils.JSONUtils;
 import org.apache.metron.profiler.ProfileMeasurement;
 import org.apache.metron.statistics.OnlineStatisticsProvider;
+import org.apache.storm.metric.api.IMetric;
 import org.apache.storm.task.OutputCollector;
+import org.apache.storm.task.TopologyContext;
 import org.apache.storm.tuple.Values;
 import org.json.simple.JSONObject;
 import org.junit.Before;
@@ -36,6 +38,7 @@ import org.mockito.Mockito;
 
 import java.io.IOException;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
@@ -193,6 +196,36 @@ public class KafkaDestinationHandlerTest {
     assertEquals(measurement.getTriageValues().get("triage-key"), actual.get("triage-key"));
   }
 
+  /**
+   * The measurements emitted should be counted.
+   */
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testMetrics() throws Exception {
+    TopologyContext context = Mockito.mock(TopologyContext.class);
+    ProfilerMetrics metrics = new ProfilerMetrics();
+    metrics.register(new HashMap<>(), context);
+    handler.setMetrics(metrics);
+    ArgumentCaptor<IMetric> counts = ArgumentCaptor.forClass(IMetric.class);
+    verify(context).registerMetric(eq(ProfilerMetrics.COUNT_METRIC), counts.capture(), eq(60));
+
+    ProfileMeasurement measurement = new ProfileMeasurement()
+            .withProfileName("profile")
+            .withEntity("entity")
+            .withPeriod(20000, 15, TimeUnit.MINUTES)
+            .withTriageValues(Collections.emptyMap())
+            .withDefinition(profile);
+    handler.emit(measurement, collector);
+    handler.emit(measurement, collector);
+
+    // rollups are not emitted to kafka
+    handler.emitRollup(measurement, collector);
+
+    Map<String, Long> countValues = (Map<String, Long>) counts.getValue().getValueAndReset();
+    assertEquals(2L, (long) countValues.get("kafka.emitted"));
+    assertNull(countValues.get("kafka.rollups"));
+  }
+
   /**
    * Creates a profile definition based on a string of JSON.
    * @param json The string of JSON.
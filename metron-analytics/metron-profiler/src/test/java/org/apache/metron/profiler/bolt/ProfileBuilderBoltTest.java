@@ -23,27 +23,37 @@ package org.apache.metron.profiler.bolt;
 import org.adrianwalker.multilinestring.Multiline;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.metron.common.configuration.profiler.ProfileConfig;
+import org.apache.metron.common.metrics.MultiHistogramMetric;
 import org.apache.metron.common.utils.JSONUtils;
-import org.apache.metron.profiler.ProfileBuilder;
 import org.apache.metron.profiler.ProfileMeasurement;
+import org.apache.metron.profiler.ProfileStateStore;
+import org.apache.metron.profiler.clock.Clock;
+import org.apache.metron.profiler.clock.FixedClock;
+import org.apache.metron.profiler.clock.WallClock;
+import org.apache.metron.statistics.StatisticsProvider;
 import org.apache.metron.test.bolt.BaseBoltTest;
 import org.apache.storm.Constants;
+import org.apache.storm.metric.api.IMetric;
 import org.apache.storm.topology.OutputFieldsDeclarer;
 import org.apache.storm.tuple.Tuple;
 import org.apache.storm.tuple.Values;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentCaptor;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import static org.apache.metron.common.utils.ConversionUtils.convert;
 import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
@@ -59,6 +69,9 @@ import static org.mockito.Mockito.when;
  */
 public class ProfileBuilderBoltTest extends BaseBoltTest {
 
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
   /**
    * {
    *   "ip_src_addr": "10.0.0.1",
@@ -119,8 +132,31 @@ public class ProfileBuilderBoltTest extends BaseBoltTest {
    * Create a ProfileBuilderBolt to test
    */
   private ProfileBuilderBolt createBolt() throws IOException {
+    return createBolt(null);
+  }
+
+  /**
+   * Creates a ProfileBuilderBolt that spills and checkpoints profile state to a directory.
+   * @param stateDirectory The directory for profile state or null, to hold it only on the heap.
+   */
+  private ProfileBuilderBolt createBolt(File stateDirectory) throws IOException {
+    return createBolt(stateDirectory, new WallClock());
+  }
+
+  /**
+   * Creates a ProfileBuilderBolt that spills and checkpoints profile state to a directory and tells wall
+   * clock time by the given clock.
+   * @param stateDirectory The directory for profile state or null, to hold it only on the heap.
+   * @param wallClock Tells the wall clock time.
+   */
+  private ProfileBuilderBolt createBolt(File stateDirectory, Clock wallClock) throws IOException {
 
     ProfileBuilderBolt bolt = new ProfileBuilderBolt("zookeeperURL");
+    bolt.withWallClock(wallClock);
+    bolt.withCheckpointInterval(1, TimeUnit.MINUTES);
+    if(stateDirectory != null) {
+      bolt.withStateDirectory(stateDirectory.getAbsolutePath(), 1);
+    }
     bolt.setCuratorFramework(client);
     bolt.setTreeCache(cache);
     bolt.withPeriodDuration(10, TimeUnit.MINUTES);
@@ -160,7 +196,7 @@ public class ProfileBuilderBoltTest extends BaseBoltTest {
   private String profileTwo;
 
   /**
-   * The bolt should create a ProfileBuilder to manage a profile.
+   * The bolt should maintain the state of a profile.
    */
   @Test
   public void testCreateProfileBuilder() throws Exception {
@@ -174,13 +210,13 @@ public class ProfileBuilderBoltTest extends BaseBoltTest {
     bolt.execute(tupleOne);
 
     // validate - 1 messages applied
-    ProfileBuilder builderOne = bolt.getBuilder(tupleOne);
-    assertEquals(1, (int) convert(builderOne.valueOf("x"), Integer.class));
+    ProfileStateStore store = bolt.getStateStore();
+    assertEquals(1, (int) convert(store.valueOf(definition, entity, "x"), Integer.class));
   }
 
   /**
    * This test creates two different messages, with different entities that are applied to
-   * the same profile.  The bolt should create separate ProfileBuilder objects to handle each
+   * the same profile.  The bolt should maintain separate state for each
    * profile/entity pair.
    */
   @Test
@@ -202,21 +238,19 @@ public class ProfileBuilderBoltTest extends BaseBoltTest {
     bolt.execute(tupleTwo);
 
     // validate - 2 messages applied
-    ProfileBuilder builderOne = bolt.getBuilder(tupleOne);
-    assertTrue(builderOne.isInitialized());
-    assertEquals(2, (int) convert(builderOne.valueOf("x"), Integer.class));
+    ProfileStateStore store = bolt.getStateStore();
+    assertTrue(store.isInitialized(definition, entityOne));
+    assertEquals(2, (int) convert(store.valueOf(definition, entityOne, "x"), Integer.class));
 
     // validate - 1 message applied
-    ProfileBuilder builderTwo = bolt.getBuilder(tupleTwo);
-    assertTrue(builderTwo.isInitialized());
-    assertEquals(1, (int) convert(builderTwo.valueOf("x"), Integer.class));
+    assertTrue(store.isInitialized(definition, entityTwo));
+    assertEquals(1, (int) convert(store.valueOf(definition, entityTwo, "x"), Integer.class));
 
-    assertNotSame(builderOne, builderTwo);
+    assertEquals(2, store.size());
   }
 
   /**
-   * The bolt should create separate ProfileBuilder objects to handle each
-   * profile/entity pair.
+   * The bolt should maintain separate state for each profile/entity pair.
    */
   @Test
   public void testCreateProfileBuilderForEachProfile() throws Exception {
@@ -236,16 +270,80 @@ public class ProfileBuilderBoltTest extends BaseBoltTest {
     bolt.execute(tupleTwo);
 
     // validate - 1 message applied
-    ProfileBuilder builderOne = bolt.getBuilder(tupleOne);
-    assertTrue(builderOne.isInitialized());
-    assertEquals(1, (int) convert(builderOne.valueOf("x"), Integer.class));
+    ProfileStateStore store = bolt.getStateStore();
+    assertTrue(store.isInitialized(definitionOne, entity));
+    assertEquals(1, (int) convert(store.valueOf(definitionOne, entity, "x"), Integer.class));
 
     // validate - 1 message applied
-    ProfileBuilder builderTwo = bolt.getBuilder(tupleTwo);
-    assertTrue(builderTwo.isInitialized());
-    assertEquals(1, (int) convert(builderTwo.valueOf("x"), Integer.class));
+    assertTrue(store.isInitialized(definitionTwo, entity));
+    assertEquals(1, (int) convert(store.valueOf(definitionTwo, entity, "x"), Integer.class));
 
-    assertNotSame(builderOne, builderTwo);
+    assertEquals(2, store.size());
+  }
+
+  /**
+   * The state of each profile/entity pair should be recovered from the checkpoint of the last tick
+   * when the bolt restarts.
+   */
+  @Test
+  public void testRecoverStateAfterRestart() throws Exception {
+    File stateDirectory = folder.newFolder("state");
+    ProfileBuilderBolt bolt = createBolt(stateDirectory);
+    ProfileConfig definition = createDefinition(profileOne);
+    String entityOne = (String) messageOne.get("ip_src_addr");
+    String entityTwo = (String) messageTwo.get("ip_src_addr");
+
+    // apply messages for two entities, only one of which is held on the heap
+    bolt.execute(createTuple(entityOne, messageOne, definition));
+    bolt.execute(createTuple(entityOne, messageOne, definition));
+    bolt.execute(createTuple(entityTwo, messageTwo, definition));
+
+    // the tick checkpoints the state, so a message applied after it is lost on restart
+    bolt.execute(mockTickTuple());
+    bolt.execute(createTuple(entityOne, messageOne, definition));
+    bolt.cleanup();
+
+    ProfileStateStore store = createBolt(stateDirectory).getStateStore();
+    assertEquals(2, store.size());
+    assertEquals(2, (int) convert(store.valueOf(definition, entityOne, "x"), Integer.class));
+    assertEquals(1, (int) convert(store.valueOf(definition, entityTwo, "x"), Integer.class));
+  }
+
+  /**
+   * The period in progress should be checkpointed between ticks, so that it is recovered and then flushed
+   * when the bolt restarts.
+   */
+  @Test
+  public void testRecoverPeriodInProgressAfterRestart() throws Exception {
+    File stateDirectory = folder.newFolder("state");
+    FixedClock wallClock = new FixedClock();
+    wallClock.setTime(TimeUnit.DAYS.toMillis(20000));
+    ProfileBuilderBolt bolt = createBolt(stateDirectory, wallClock);
+    ProfileConfig definition = createDefinition(profileOne);
+    String entityOne = (String) messageOne.get("ip_src_addr");
+    String entityTwo = (String) messageTwo.get("ip_src_addr");
+
+    // the third message is applied after the checkpoint interval has passed, so all three are checkpointed
+    bolt.execute(createTuple(entityOne, messageOne, definition));
+    bolt.execute(createTuple(entityTwo, messageTwo, definition));
+    wallClock.setTime(wallClock.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1));
+    bolt.execute(createTuple(entityOne, messageOne, definition));
+
+    // a message applied after the checkpoint is lost on restart
+    bolt.execute(createTuple(entityOne, messageOne, definition));
+    bolt.cleanup();
+
+    // the tick after the restart flushes the recovered period
+    createBolt(stateDirectory, wallClock).execute(mockTickTuple());
+    ArgumentCaptor<Values> arg = ArgumentCaptor.forClass(Values.class);
+    verify(outputCollector, times(2)).emit(eq("hbase"), arg.capture());
+    Map<String, Integer> counts = new HashMap<>();
+    for(Values value : arg.getAllValues()) {
+      ProfileMeasurement measurement = (ProfileMeasurement) value.get(0);
+      counts.put(measurement.getEntity(), convert(measurement.getProfileValue(), Integer.class));
+    }
+    assertEquals(2, (int) counts.get(entityOne));
+    assertEquals(1, (int) counts.get(entityTwo));
   }
 
   /**
@@ -334,4 +432,269 @@ public class ProfileBuilderBoltTest extends BaseBoltTest {
     verify(outputCollector, times(1)).emit(eq("kafka"), arg.capture());
     assertTrue(arg.getValue().get(0) instanceof JSONObject);
   }
+
+  /**
+   * Create a ProfileBuilderBolt that cuts periods by event time.
+   */
+  private ProfileBuilderBolt createEventTimeBolt() throws IOException {
+    return createEventTimeBolt("");
+  }
+
+  /**
+   * Create a ProfileBuilderBolt that cuts periods by event time and rolls measurements up.
+   * @param rollups The duration of each rollup period, as a multiple of the profile period.
+   */
+  private ProfileBuilderBolt createEventTimeBolt(String rollups) throws IOException {
+    return createEventTimeBolt(rollups, new WallClock());
+  }
+
+  /**
+   * Create a ProfileBuilderBolt that cuts periods by event time and tells wall clock time by the given clock.
+   * @param rollups The duration of each rollup period, as a multiple of the profile period.
+   * @param wallClock Tells the wall clock time.
+   */
+  private ProfileBuilderBolt createEventTimeBolt(String rollups, Clock wallClock) throws IOException {
+
+    ProfileBuilderBolt bolt = new ProfileBuilderBolt("zookeeperURL");
+    bolt.withWallClock(wallClock);
+    bolt.setCuratorFramework(client);
+    bolt.setTreeCache(cache);
+    bolt.withPeriodDuration(10, TimeUnit.MINUTES);
+    bolt.withProfileTimeToLive(30, TimeUnit.MINUTES);
+    bolt.withEventTime("timestamp", 1, TimeUnit.MINUTES);
+    bolt.withRollups(rollups);
+    bolt.withDestinationHandler(new HBaseDestinationHandler());
+    bolt.withDestinationHandler(new KafkaDestinationHandler());
+
+    bolt.prepare(new HashMap<>(), topologyContext, outputCollector);
+    return bolt;
+  }
+
+  /**
+   * Creates a message with a timestamp.
+   * @param message The message to copy.
+   * @param timestamp The timestamp in epoch milliseconds.
+   */
+  private JSONObject withTimestamp(JSONObject message, long timestamp) {
+    JSONObject copy = new JSONObject(message);
+    copy.put("timestamp", timestamp);
+    return copy;
+  }
+
+  /**
+   * In event time, each message should be counted in the period of its timestamp and a period
+   * should only be flushed once the watermark has passed it.
+   */
+  @Test
+  public void testEventTimePeriods() throws Exception {
+
+    // setup
+    ProfileBuilderBolt bolt = createEventTimeBolt();
+    ProfileConfig definition = createDefinition(profileOne);
+    final String entity = (String) messageOne.get("ip_src_addr");
+    final long period = TimeUnit.MINUTES.toMillis(10);
+    final long start = period * 1000;
+
+    // two messages in the first period, with one out of order, and one in the second
+    bolt.execute(createTuple(entity, withTimestamp(messageOne, start + 1000), definition));
+    bolt.execute(createTuple(entity, withTimestamp(messageOne, start + period + 1000), definition));
+    bolt.execute(createTuple(entity, withTimestamp(messageOne, start + 2000), definition));
+
+    // the watermark has not passed the first period yet, and ticks do not flush in event time
+    bolt.execute(mockTickTuple());
+    verify(outputCollector, times(0)).emit(eq("hbase"), any());
+
+    // advance the watermark past the end of the first period
+    bolt.execute(createTuple(entity, withTimestamp(messageOne, start + period + TimeUnit.MINUTES.toMillis(1)), definition));
+
+    ArgumentCaptor<Values> arg = ArgumentCaptor.forClass(Values.class);
+    verify(outputCollector, times(1)).emit(eq("hbase"), arg.capture());
+    ProfileMeasurement measurement = (ProfileMeasurement) arg.getValue().get(0);
+    assertEquals(start, measurement.getPeriod().getStartTimeMillis());
+    assertEquals(2, (int) convert(measurement.getProfileValue(), Integer.class));
+  }
+
+  /**
+   * In event time, a tick should advance the watermark by the wall clock time that has passed without
+   * messages, so that the last period is flushed even if no later messages arrive.
+   */
+  @Test
+  public void testEventTimeFlushesWhenIdle() throws Exception {
+
+    // setup
+    FixedClock wallClock = new FixedClock();
+    wallClock.setTime(TimeUnit.DAYS.toMillis(20000));
+    ProfileBuilderBolt bolt = createEventTimeBolt("", wallClock);
+    ProfileConfig definition = createDefinition(profileOne);
+    final String entity = (String) messageOne.get("ip_src_addr");
+    final long period = TimeUnit.MINUTES.toMillis(10);
+    final long start = period * 1000;
+
+    // the only messages are in the first period
+    bolt.execute(createTuple(entity, withTimestamp(messageOne, start + 1000), definition));
+    bolt.execute(createTuple(entity, withTimestamp(messageOne, start + 2000), definition));
+
+    // not enough time has passed for the watermark to pass the end of the period
+    wallClock.setTime(wallClock.currentTimeMillis() + period);
+    bolt.execute(mockTickTuple());
+    verify(outputCollector, times(0)).emit(eq("hbase"), any());
+
+    // the watermark passes the end of the period, allowing for the lateness
+    wallClock.setTime(wallClock.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1));
+    bolt.execute(mockTickTuple());
+
+    ArgumentCaptor<Values> arg = ArgumentCaptor.forClass(Values.class);
+    verify(outputCollector, times(1)).emit(eq("hbase"), arg.capture());
+    ProfileMeasurement measurement = (ProfileMeasurement) arg.getValue().get(0);
+    assertEquals(start, measurement.getPeriod().getStartTimeMillis());
+    assertEquals(2, (int) convert(measurement.getProfileValue(), Integer.class));
+  }
+
+  /**
+   * In event time, a message whose period has already been flushed should be dropped.
+   */
+  @Test
+  public void testEventTimeDropsLateMessages() throws Exception {
+
+    // setup
+    ProfileBuilderBolt bolt = createEventTimeBolt();
+    ProfileConfig definition = createDefinition(profileOne);
+    final String entity = (String) messageOne.get("ip_src_addr");
+    final long period = TimeUnit.MINUTES.toMillis(10);
+    final long start = period * 1000;
+
+    // the first period is flushed by the second message
+    bolt.execute(createTuple(entity, withTimestamp(messageOne, start), definition));
+    bolt.execute(createTuple(entity, withTimestamp(messageOne, start + period + TimeUnit.MINUTES.toMillis(2)), definition));
+    verify(outputCollector, times(1)).emit(eq("hbase"), any());
+
+    // a message for the first period is now too late
+    bolt.execute(createTuple(entity, withTimestamp(messageOne, start + 1000), definition));
+    bolt.execute(createTuple(entity, withTimestamp(messageOne, start + 3 * period), definition));
+
+    ArgumentCaptor<Values> arg = ArgumentCaptor.forClass(Values.class);
+    verify(outputCollector, times(2)).emit(eq("hbase"), arg.capture());
+    ProfileMeasurement measurement = (ProfileMeasurement) arg.getValue().get(0);
+    assertEquals(start + period, measurement.getPeriod().getStartTimeMillis());
+    assertEquals(1, (int) convert(measurement.getProfileValue(), Integer.class));
+  }
+
+  /**
+   * The bolt should count late messages and the measurements emitted to each destination and should measure
+   * the time taken to apply messages and to flush each period.
+   */
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testMetrics() throws Exception {
+
+    // setup
+    ProfileBuilderBolt bolt = createEventTimeBolt();
+    ArgumentCaptor<IMetric> counts = ArgumentCaptor.forClass(IMetric.class);
+    ArgumentCaptor<IMetric> latencies = ArgumentCaptor.forClass(IMetric.class);
+    ArgumentCaptor<IMetric> entities = ArgumentCaptor.forClass(IMetric.class);
+    verify(topologyContext).registerMetric(eq(ProfilerMetrics.COUNT_METRIC), counts.capture(), eq(60));
+    verify(topologyContext).registerMetric(eq(ProfilerMetrics.LATENCY_METRIC), latencies.capture(), eq(60));
+    verify(topologyContext).registerMetric(eq(ProfilerMetrics.ENTITIES_METRIC), entities.capture(), eq(60));
+    ProfileConfig definition = createDefinition(profileOne);
+    final long period = TimeUnit.MINUTES.toMillis(10);
+    final long start = period * 1000;
+
+    // two entities in the first period, which is flushed by the third message, then a late message
+    bolt.execute(createTuple("10.0.0.1", withTimestamp(messageOne, start), definition));
+    bolt.execute(createTuple("10.0.0.2", withTimestamp(messageTwo, start), definition));
+    bolt.execute(createTuple("10.0.0.1", withTimestamp(messageOne, start + period + TimeUnit.MINUTES.toMillis(2)), definition));
+    bolt.execute(createTuple("10.0.0.1", withTimestamp(messageOne, start + 1000), definition));
+
+    // a tick does not flush in event time, so it records no flush
+    bolt.execute(mockTickTuple());
+
+    // validate
+    Map<String, Long> countValues = (Map<String, Long>) counts.getValue().getValueAndReset();
+    assertEquals(1L, (long) countValues.get("profileOne.late"));
+    assertEquals(2L, (long) countValues.get("hbase.emitted"));
+    assertEquals(2L, (long) countValues.get("kafka.emitted"));
+    assertNull(countValues.get("hbase.rollups"));
+    Map<String, Map<String, Number>> latencyValues = (Map<String, Map<String, Number>>) latencies.getValue().getValueAndReset();
+    assertEquals(3L, latencyValues.get("profileOne.apply").get(MultiHistogramMetric.COUNT));
+    assertEquals(1L, latencyValues.get("flush").get(MultiHistogramMetric.COUNT));
+    Map<String, Long> entityValues = (Map<String, Long>) entities.getValue().getValueAndReset();
+    assertEquals(2L, (long) entityValues.get("profileOne"));
+  }
+
+  /**
+   * {
+   *   "profile": "statsProfile",
+   *   "foreach": "ip_src_addr",
+   *   "init":   { "s": "STATS_INIT()" },
+   *   "update": { "s": "STATS_ADD(s, 1)" },
+   *   "result": "s"
+   * }
+   */
+  @Multiline
+  private String statsProfile;
+
+  /**
+   * The rollup of each period that has ended should be emitted only to HBase.
+   */
+  @Test
+  public void testEmitRollups() throws Exception {
+
+    // setup - roll up pairs of periods
+    ProfileBuilderBolt bolt = createEventTimeBolt("2");
+    ProfileConfig definition = createDefinition(statsProfile);
+    final String entity = (String) messageOne.get("ip_src_addr");
+    final long period = TimeUnit.MINUTES.toMillis(10);
+    final long start = period * 1000;
+
+    // the first period flushed is in progress when the rollups start, so only the next pair is rolled up
+    bolt.execute(createTuple(entity, withTimestamp(messageOne, start), definition));
+    bolt.execute(createTuple(entity, withTimestamp(messageOne, start + 2 * period), definition));
+    bolt.execute(createTuple(entity, withTimestamp(messageOne, start + 3 * period), definition));
+    bolt.execute(createTuple(entity, withTimestamp(messageOne, start + 3 * period + 1000), definition));
+    bolt.execute(createTuple(entity, withTimestamp(messageOne, start + 4 * period + TimeUnit.MINUTES.toMillis(2)), definition));
+
+    // validate - 3 periods and 1 rollup were written to HBase
+    ArgumentCaptor<Values> arg = ArgumentCaptor.forClass(Values.class);
+    verify(outputCollector, times(4)).emit(eq("hbase"), arg.capture());
+    ProfileMeasurement rollup = (ProfileMeasurement) arg.getValue().get(0);
+    assertEquals(start + 2 * period, rollup.getPeriod().getStartTimeMillis());
+    assertEquals(2 * period, rollup.getPeriod().getDurationMillis());
+    assertEquals(3, ((StatisticsProvider) rollup.getProfileValue()).getCount());
+
+    // only the 3 periods were written to Kafka
+    verify(outputCollector, times(3)).emit(eq("kafka"), any());
+  }
+
+  /**
+   * In event time, ticks should not flush rollups, as their periods may still be open.
+   */
+  @Test
+  public void testTicksDoNotFlushRollupsInEventTime() throws Exception {
+
+    // setup - roll up pairs of periods
+    ProfileBuilderBolt bolt = createEventTimeBolt("2");
+    ProfileConfig definition = createDefinition(statsProfile);
+    final String entity = (String) messageOne.get("ip_src_addr");
+    final long period = TimeUnit.MINUTES.toMillis(10);
+    final long start = period * 1000;
+
+    // ticks, whose wall clock time is long after the messages, arrive between the messages
+    bolt.execute(createTuple(entity, withTimestamp(messageOne, start), definition));
+    bolt.execute(mockTickTuple());
+    bolt.execute(createTuple(entity, withTimestamp(messageOne, start + 2 * period), definition));
+    bolt.execute(mockTickTuple());
+    bolt.execute(createTuple(entity, withTimestamp(messageOne, start + 3 * period), definition));
+    bolt.execute(mockTickTuple());
+    bolt.execute(createTuple(entity, withTimestamp(messageOne, start + 3 * period + 1000), definition));
+    bolt.execute(mockTickTuple());
+    bolt.execute(createTuple(entity, withTimestamp(messageOne, start + 4 * period + TimeUnit.MINUTES.toMillis(2)), definition));
+
+    // validate - the one rollup is complete
+    ArgumentCaptor<Values> arg = ArgumentCaptor.forClass(Values.class);
+    verify(outputCollector, times(4)).emit(eq("hbase"), arg.capture());
+    ProfileMeasurement rollup = (ProfileMeasurement) arg.getValue().get(0);
+    assertEquals(start + 2 * period, rollup.getPeriod().getStartTimeMillis());
+    assertEquals(2 * period, rollup.getPeriod().getDurationMillis());
+    assertEquals(3, ((StatisticsProvider) rollup.getProfileValue()).getCount());
+  }
 }
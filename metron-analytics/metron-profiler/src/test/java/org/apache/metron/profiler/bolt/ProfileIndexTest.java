@@ -0,0 +1,145 @@
+/*
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.apache.metron.profiler.bolt;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.metron.common.configuration.profiler.ProfileConfig;
+import org.apache.metron.common.configuration.profiler.ProfileResult;
+import org.apache.metron.common.dsl.Context;
+import org.apache.metron.common.dsl.StellarFunctions;
+import org.apache.metron.profiler.stellar.DefaultStellarExecutor;
+import org.apache.metron.profiler.stellar.StellarExecutor;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the ProfileIndex.
+ */
+public class ProfileIndexTest {
+
+  private static void assertTest(String field, String value, String expression) {
+    ProfileIndex.Test test = ProfileIndex.necessaryTest(expression);
+    assertEquals(expression, field, test.field);
+    assertEquals(expression, value, test.value);
+  }
+
+  private static void assertNoTest(String expression) {
+    assertNull(expression, ProfileIndex.necessaryTest(expression));
+  }
+
+  @Test
+  public void testNecessaryTests() {
+    assertTest("source.type", "bro", "source.type == 'bro'");
+    assertTest("source.type", "bro", "'bro' == source.type");
+    assertTest("source.type", "bro", "source.type == \"bro\"");
+    assertTest("source.type", "it's", "source.type == 'it\\'s'");
+    assertTest("ip_src_addr", null, "exists(ip_src_addr)");
+    assertTest("source.type", "bro", "(source.type == 'bro')");
+    assertTest("source.type", "bro", "source.type == 'bro' and length > 10");
+    assertTest("source.type", "bro", "length > 10 && source.type == 'bro'");
+    // an equality test is preferred
+    assertTest("source.type", "bro", "exists(ip_src_addr) and source.type == 'bro'");
+    // 'and' and 'or' group from the right
+    assertTest("source.type", "bro", "source.type == 'bro' and length > 10 or protocol == 'HTTP'");
+    assertTest("source.type", "bro", "(source.type == 'bro' and length > 10) and false or true");
+    assertTest("protocol", "HTTP", "(source.type == 'bro' or false) and (protocol == 'HTTP' and source.type == 'bro')");
+  }
+
+  @Test
+  public void testUnindexableExpressions() {
+    assertNoTest("true");
+    assertNoTest("NOT-VALID");
+    assertNoTest("source.type == 'bro' or protocol == 'HTTP'");
+    assertNoTest("length > 10 or source.type == 'bro'");
+    assertNoTest("(source.type == 'bro' or false) and length > 10");
+    assertNoTest("(source.type == 'bro' and length > 10) or false and true");
+    assertNoTest("source.type != 'bro'");
+    assertNoTest("not(source.type == 'bro')");
+    assertNoTest("source.type == 'bro' ? true : false");
+    assertNoTest("if source.type == 'bro' then true else false");
+    assertNoTest("source.type == TO_LOWER('BRO')");
+    assertNoTest("source.type in [ 'bro', 'snort' ]");
+  }
+
+  private static ProfileConfig profile(String name, String onlyif) {
+    ProfileConfig profile = new ProfileConfig(name, "ip_src_addr", new ProfileResult("1"));
+    profile.setOnlyif(onlyif);
+    return profile;
+  }
+
+  /**
+   * The candidates must include every profile whose 'onlyif' is true, in the order they are defined.
+   */
+  @Test
+  public void testCandidatesMatchRouting() {
+    StellarExecutor executor = new DefaultStellarExecutor();
+    executor.setContext(Context.EMPTY_CONTEXT());
+    StellarFunctions.initialize(Context.EMPTY_CONTEXT());
+    List<ProfileConfig> profiles = Arrays.asList(
+            profile("bro", "source.type == 'bro'"),
+            profile("snort", "'snort' == source.type and exists(ip_src_addr)"),
+            profile("any", "true"),
+            profile("src", "exists(ip_src_addr)"),
+            profile("http", "protocol == 'HTTP' or source.type == 'snort'"),
+            profile("bro-http", "source.type == 'bro' and (protocol == 'HTTP' or protocol == 'HTTPS')"),
+            profile("number", "length == '10'")
+    );
+    List<Map<String, Object>> messages = Arrays.asList(
+            ImmutableMap.of("source.type", "bro", "protocol", "HTTP"),
+            ImmutableMap.of("source.type", "snort", "ip_src_addr", "10.0.0.1"),
+            ImmutableMap.of("source.type", "snort"),
+            ImmutableMap.of("ip_src_addr", "10.0.0.1", "length", 10),
+            ImmutableMap.of("length", "10"),
+            new HashMap<>()
+    );
+
+    ProfileIndex index = new ProfileIndex(profiles);
+    assertEquals(5, index.getIndexedCount());
+    for(Map<String, Object> message : messages) {
+      List<ProfileConfig> expected = profiles.stream()
+              .filter(p -> executor.execute(p.getOnlyif(), message, Boolean.class))
+              .collect(Collectors.toList());
+      List<ProfileConfig> routed = new ArrayList<>();
+      for(ProfileConfig candidate : index.getCandidates(message)) {
+        if(executor.execute(candidate.getOnlyif(), message, Boolean.class)) {
+          routed.add(candidate);
+        }
+      }
+      assertEquals(message.toString(), expected, routed);
+    }
+
+    // only the profiles which are not indexed are candidates for an unrelated message
+    List<ProfileConfig> candidates = index.getCandidates(ImmutableMap.of("source.type", "yaf"));
+    assertEquals(2, candidates.size());
+    assertTrue(candidates.contains(profiles.get(2)));
+    assertTrue(candidates.contains(profiles.get(4)));
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.apache.metron.profiler.bolt;
+
+import org.apache.metron.profiler.ProfileMeasurement;
+import org.apache.metron.statistics.OnlineStatisticsProvider;
+import org.apache.metron.statistics.approximation.HyperLogLogPlus;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the ProfileRollup.
+ */
+public class ProfileRollupTest {
+
+  private static final long periodMillis = TimeUnit.MINUTES.toMillis(15);
+  private static final long hourMillis = TimeUnit.HOURS.toMillis(1);
+
+  /**
+   * The start of an hour.
+   */
+  private static final long hour = hourMillis * 400000;
+
+  private ProfileRollup rollup;
+
+  @Before
+  public void setup() {
+    rollup = new ProfileRollup(periodMillis, Arrays.asList(4));
+  }
+
+  private ProfileMeasurement measurement(String entity, long whenMillis, Object value) {
+    return new ProfileMeasurement()
+            .withProfileName("profile")
+            .withEntity(entity)
+            .withGroups(Collections.emptyList())
+            .withPeriod(whenMillis, periodMillis, TimeUnit.MILLISECONDS)
+            .withProfileValue(value);
+  }
+
+  private OnlineStatisticsProvider stats(double... values) {
+    OnlineStatisticsProvider stats = new OnlineStatisticsProvider();
+    for(double value : values) {
+      stats.addValue(value);
+    }
+    return stats;
+  }
+
+  /**
+   * The statistics of each period within an hour should be merged.
+   */
+  @Test
+  public void testRollupStatistics() {
+
+    // the first period added is the last of the previous hour
+    rollup.add(measurement("entity", hour - periodMillis, stats(100)));
+    assertTrue(rollup.flush(hour).isEmpty());
+
+    for(int i=0; i<4; i++) {
+      rollup.add(measurement("entity", hour + i * periodMillis, stats(i, i)));
+    }
+
+    // the hour has not ended until its last period is flushed
+    assertTrue(rollup.flush(hour + 3 * periodMillis).isEmpty());
+    List<ProfileMeasurement> rollups = rollup.flush(hour + hourMillis);
+
+    assertEquals(1, rollups.size());
+    ProfileMeasurement m = rollups.get(0);
+    assertEquals("entity", m.getEntity());
+    assertEquals(hour, m.getPeriod().getStartTimeMillis());
+    assertEquals(hourMillis, m.getPeriod().getDurationMillis());
+    OnlineStatisticsProvider value = (OnlineStatisticsProvider) m.getProfileValue();
+    assertEquals(8, value.getCount());
+    assertEquals(12, value.getSum(), 0.0);
+    assertEquals(0, rollup.size());
+  }
+
+  /**
+   * The cardinality estimates of each period within an hour should be merged.
+   */
+  @Test
+  public void testRollupCardinality() {
+    rollup.add(measurement("entity", hour - periodMillis, new HyperLogLogPlus()));
+    for(int i=0; i<4; i++) {
+      HyperLogLogPlus hllp = new HyperLogLogPlus();
+      hllp.addAll(Arrays.<Object>asList("a", "b", "value" + i));
+      rollup.add(measurement("entity", hour + i * periodMillis, hllp));
+    }
+
+    List<ProfileMeasurement> rollups = rollup.flush(hour + hourMillis);
+    assertEquals(1, rollups.size());
+    assertEquals(6, ((HyperLogLogPlus) rollups.get(0).getProfileValue()).cardinality());
+  }
+
+  /**
+   * No rollup should be produced for the period in progress when the first measurement was added,
+   * as the measurements before it may be missing.
+   */
+  @Test
+  public void testNoRollupOfPeriodInProgress() {
+    for(int i=1; i<4; i++) {
+      rollup.add(measurement("entity", hour + i * periodMillis, stats(i)));
+    }
+    assertTrue(rollup.flush(hour + hourMillis).isEmpty());
+    assertEquals(0, rollup.size());
+  }
+
+  /**
+   * A rollup should not be rebuilt from a measurement of a period that has already been flushed.
+   */
+  @Test
+  public void testNoRollupOfPeriodAlreadyFlushed() {
+    rollup.add(measurement("entity", hour - periodMillis, stats(1)));
+    rollup.add(measurement("entity", hour, stats(1)));
+    rollup.flush(hour + hourMillis);
+
+    rollup.add(measurement("entity", hour + periodMillis, stats(2)));
+    assertEquals(0, rollup.size());
+    assertTrue(rollup.flush(hour + hourMillis).isEmpty());
+  }
+
+  /**
+   * Values that cannot be merged should not be rolled up.
+   */
+  @Test
+  public void testNoRollupOfValuesThatCannotBeMerged() {
+    rollup.add(measurement("entity", hour - periodMillis, 1));
+    for(int i=0; i<4; i++) {
+      rollup.add(measurement("entity", hour + i * periodMillis, i));
+    }
+    assertTrue(rollup.flush(hour + hourMillis).isEmpty());
+  }
+
+  /**
+   * The measurements of each entity should be rolled up separately.
+   */
+  @Test
+  public void testRollupEachEntity() {
+    rollup.add(measurement("entity1", hour - periodMillis, stats(1)));
+    rollup.add(measurement("entity1", hour, stats(1)));
+    rollup.add(measurement("entity2", hour, stats(1, 2)));
+    rollup.add(measurement("entity2", hour + periodMillis, stats(3)));
+
+    List<ProfileMeasurement> rollups = rollup.flush(hour + hourMillis);
+    assertEquals(2, rollups.size());
+    long count = rollups.stream()
+            .mapToLong(m -> ((OnlineStatisticsProvider) m.getProfileValue()).getCount())
+            .sum();
+    assertEquals(4, count);
+  }
+}
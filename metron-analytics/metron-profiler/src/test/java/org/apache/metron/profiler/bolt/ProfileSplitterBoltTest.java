@@ -23,16 +23,21 @@ package org.apache.metron.profiler.bolt;
 import org.apache.storm.tuple.Tuple;
 import org.apache.storm.tuple.Values;
 import org.adrianwalker.multilinestring.Multiline;
+import org.apache.metron.common.metrics.MultiHistogramMetric;
 import org.apache.metron.profiler.stellar.DefaultStellarExecutor;
+import org.apache.storm.metric.api.IMetric;
 import org.apache.metron.test.bolt.BaseBoltTest;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.Map;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
@@ -121,6 +126,31 @@ public class ProfileSplitterBoltTest extends BaseBoltTest {
   @Multiline
   private String onlyIfInvalid;
 
+  /**
+   * {
+   *   "profiles": [
+   *      {
+   *        "profile": "dns",
+   *        "foreach": "ip_src_addr",
+   *        "onlyif": "protocol == 'DNS'",
+   *        "init": {},
+   *        "update": {},
+   *        "result": "2"
+   *      },
+   *      {
+   *        "profile": "http",
+   *        "foreach": "ip_dst_addr",
+   *        "onlyif": "protocol == 'HTTP' and exists(ip_dst_addr)",
+   *        "init": {},
+   *        "update": {},
+   *        "result": "2"
+   *      }
+   *   ]
+   * }
+   */
+  @Multiline
+  private String indexedProfiles;
+
   private JSONObject message;
 
   @Before
@@ -240,4 +270,81 @@ public class ProfileSplitterBoltTest extends BaseBoltTest {
     // execute
     bolt.execute(tuple);
   }
+
+  /**
+   * A message should only be applied to the profiles whose 'onlyif' is true when the
+   * profiles are indexed.
+   */
+  @Test
+  public void testIndexedProfiles() throws Exception {
+
+    // setup
+    ProfileSplitterBolt bolt = createBolt(indexedProfiles);
+
+    // execute
+    bolt.execute(tuple);
+
+    // only the 'http' profile needs the message
+    verify(outputCollector, times(1)).emit(refEq(tuple), any(Values.class));
+    verify(outputCollector, times(1)).emit(any(Tuple.class), refEq(new Values("10.0.0.20", indexedProfiles, message)));
+  }
+
+  /**
+   * The messages that the index excludes from a profile should be counted as skipped, rather than not at all.
+   */
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testSkippedMetrics() throws Exception {
+    ProfileSplitterBolt bolt = createBolt(indexedProfiles);
+    ArgumentCaptor<IMetric> counts = ArgumentCaptor.forClass(IMetric.class);
+    verify(topologyContext).registerMetric(eq(ProfilerMetrics.COUNT_METRIC), counts.capture(), eq(60));
+
+    bolt.execute(tuple);
+
+    // the index prunes the 'dns' profile, as the message is not DNS
+    Map<String, Long> countValues = (Map<String, Long>) counts.getValue().getValueAndReset();
+    Assert.assertEquals(1L, (long) countValues.get("dns.skipped"));
+    Assert.assertNull(countValues.get("dns.rejected"));
+    Assert.assertEquals(1L, (long) countValues.get("http.routed"));
+    Assert.assertNull(countValues.get("http.skipped"));
+  }
+
+  /**
+   * The messages routed to each profile should be counted and the time taken to select them measured.
+   */
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testRoutedMetrics() throws Exception {
+    ProfileSplitterBolt bolt = createBolt(onlyIfTrue);
+    ArgumentCaptor<IMetric> counts = ArgumentCaptor.forClass(IMetric.class);
+    ArgumentCaptor<IMetric> latencies = ArgumentCaptor.forClass(IMetric.class);
+    verify(topologyContext).registerMetric(eq(ProfilerMetrics.COUNT_METRIC), counts.capture(), eq(60));
+    verify(topologyContext).registerMetric(eq(ProfilerMetrics.LATENCY_METRIC), latencies.capture(), eq(60));
+
+    bolt.execute(tuple);
+    bolt.execute(tuple);
+
+    Map<String, Long> countValues = (Map<String, Long>) counts.getValue().getValueAndReset();
+    Assert.assertEquals(2L, (long) countValues.get("test.routed"));
+    Assert.assertNull(countValues.get("test.rejected"));
+    Map<String, Map<String, Number>> latencyValues = (Map<String, Map<String, Number>>) latencies.getValue().getValueAndReset();
+    Assert.assertEquals(2L, latencyValues.get("test.select").get(MultiHistogramMetric.COUNT));
+  }
+
+  /**
+   * The messages rejected by the 'onlyif' of each profile should be counted.
+   */
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testRejectedMetrics() throws Exception {
+    ProfileSplitterBolt bolt = createBolt(onlyIfFalse);
+    ArgumentCaptor<IMetric> counts = ArgumentCaptor.forClass(IMetric.class);
+    verify(topologyContext).registerMetric(eq(ProfilerMetrics.COUNT_METRIC), counts.capture(), eq(60));
+
+    bolt.execute(tuple);
+
+    Map<String, Long> countValues = (Map<String, Long>) counts.getValue().getValueAndReset();
+    Assert.assertEquals(1L, (long) countValues.get("test.rejected"));
+    Assert.assertNull(countValues.get("test.routed"));
+  }
 }
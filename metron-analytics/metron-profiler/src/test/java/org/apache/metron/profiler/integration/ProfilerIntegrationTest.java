@@ -298,6 +298,13 @@ public class ProfilerIntegrationTest extends BaseIntegrationTest {
       setProperty("profiler.period.duration.units", "SECONDS");
       setProperty("profiler.ttl", "30");
       setProperty("profiler.ttl.units", "MINUTES");
+      setProperty("profiler.event.time.field", "");
+      setProperty("profiler.event.time.lateness", "1");
+      setProperty("profiler.event.time.lateness.units", "MINUTES");
+      setProperty("profiler.state.dir", "");
+      setProperty("profiler.state.max.entities", "100000");
+      setProperty("profiler.state.checkpoint.interval.seconds", "60");
+      setProperty("profiler.rollup.periods", "");
       setProperty("profiler.hbase.salt.divisor", "10");
       setProperty("profiler.hbase.table", tableName);
       setProperty("profiler.hbase.column.family", columnFamily);
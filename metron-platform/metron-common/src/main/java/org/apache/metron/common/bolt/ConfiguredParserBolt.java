@@ -39,6 +39,10 @@ public abstract class ConfiguredParserBolt extends ConfiguredBolt<ParserConfigur
   }
 
   protected SensorParserConfig getSensorParserConfig() {
+    return getSensorParserConfig(sensorType);
+  }
+
+  protected SensorParserConfig getSensorParserConfig(String sensorType) {
     return getConfigurations().getSensorParserConfig(sensorType);
   }
 
@@ -29,9 +29,13 @@ import java.util.Map;
 
 public class IndexingConfigurations extends Configurations {
   public static final String BATCH_SIZE_CONF = "batchSize";
+  public static final String BATCH_TIMEOUT_CONF = "batchTimeout";
   public static final String ENABLED_CONF = "enabled";
   public static final String INDEX_CONF = "index";
   public static final String OUTPUT_PATH_FUNCTION_CONF = "outputPathFunction";
+  public static final String OUTPUT_FORMAT_CONF = "outputFormat";
+  public static final String OUTPUT_SCHEMA_CONF = "outputSchema";
+  public static final String OUTPUT_COMPRESSION_CONF = "outputCompression";
 
   public Map<String, Object> getSensorIndexingConfig(String sensorType, String writerName) {
     Map<String, Object> ret = (Map<String, Object>) configurations.get(getKey(sensorType));
@@ -77,6 +81,10 @@ public class IndexingConfigurations extends Configurations {
      return getBatchSize(getSensorIndexingConfig(sensorName, writerName));
   }
 
+  public int getBatchTimeout(String sensorName, String writerName ) {
+     return getBatchTimeout(getSensorIndexingConfig(sensorName, writerName));
+  }
+
   public String getIndex(String sensorName, String writerName) {
     return getIndex(getSensorIndexingConfig(sensorName, writerName), sensorName);
   }
@@ -105,6 +113,17 @@ public class IndexingConfigurations extends Configurations {
                 );
   }
 
+  /**
+   * @return The maximum age of a batch in seconds, or 0 to use the default of the topology.
+   */
+  public static int getBatchTimeout(Map<String, Object> conf) {
+    return getAs( BATCH_TIMEOUT_CONF
+                 ,conf
+                , 0
+                , Integer.class
+                );
+  }
+
   public static String getIndex(Map<String, Object> conf, String sensorName) {
     return getAs( INDEX_CONF
                  ,conf
@@ -132,6 +151,12 @@ public class IndexingConfigurations extends Configurations {
     return ret;
   }
 
+  public static Map<String, Object> setBatchTimeout(Map<String, Object> conf, int batchTimeout) {
+    Map<String, Object> ret = conf == null?new HashMap<>():conf;
+    ret.put(BATCH_TIMEOUT_CONF, batchTimeout);
+    return ret;
+  }
+
   public static Map<String, Object> setIndex(Map<String, Object> conf, String index) {
     Map<String, Object> ret = conf == null?new HashMap<>():conf;
     ret.put(INDEX_CONF, index);
@@ -19,6 +19,7 @@ package org.apache.metron.common.configuration.profiler;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonValue;
 
 /**
  * A Stellar expression that is executed to produce a single
@@ -34,6 +35,7 @@ public class ProfileResultExpressions {
     this.expression = expression;
   }
 
+  @JsonValue
   public String getExpression() {
     return expression;
   }
@@ -19,6 +19,7 @@ package org.apache.metron.common.configuration.profiler;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonValue;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -61,7 +62,21 @@ public class ProfileTriageExpressions {
     return expressions.get(name);
   }
 
+  @JsonValue
   public Map<String, String> getExpressions() {
     return expressions;
   }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    ProfileTriageExpressions that = (ProfileTriageExpressions) o;
+    return expressions != null ? expressions.equals(that.expressions) : that.expressions == null;
+  }
+
+  @Override
+  public int hashCode() {
+    return expressions != null ? expressions.hashCode() : 0;
+  }
 }
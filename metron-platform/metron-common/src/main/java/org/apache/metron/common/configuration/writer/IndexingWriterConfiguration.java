@@ -37,6 +37,11 @@ public class IndexingWriterConfiguration implements WriterConfiguration{
     return config.orElse(new IndexingConfigurations()).getBatchSize(sensorName, writerName);
   }
 
+  @Override
+  public int getBatchTimeout(String sensorName) {
+    return config.orElse(new IndexingConfigurations()).getBatchTimeout(sensorName, writerName);
+  }
+
   @Override
   public String getIndex(String sensorName) {
     return config.orElse(new IndexingConfigurations()).getIndex(sensorName, writerName);
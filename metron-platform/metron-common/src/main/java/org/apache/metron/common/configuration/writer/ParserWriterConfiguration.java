@@ -41,6 +41,18 @@ public class ParserWriterConfiguration implements WriterConfiguration {
     return 1;
   }
 
+  @Override
+  public int getBatchTimeout(String sensorName) {
+    if(config != null
+    && config.getSensorParserConfig(sensorName) != null
+    && config.getSensorParserConfig(sensorName).getParserConfig() != null
+      ) {
+      Object batchObj = config.getSensorParserConfig(sensorName).getParserConfig().get(IndexingConfigurations.BATCH_TIMEOUT_CONF);
+      return batchObj == null ? 0 : ConversionUtils.convert(batchObj, Integer.class);
+    }
+    return 0;
+  }
+
   @Override
   public String getIndex(String sensorName) {
     if(config != null && config.getSensorParserConfig(sensorName) != null
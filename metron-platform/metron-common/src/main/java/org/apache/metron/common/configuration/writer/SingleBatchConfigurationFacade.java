@@ -31,6 +31,11 @@ public class SingleBatchConfigurationFacade implements WriterConfiguration {
     return 1;
   }
 
+  @Override
+  public int getBatchTimeout(String sensorName) {
+    return 0;
+  }
+
   @Override
   public String getIndex(String sensorName) {
     return config.getIndex(sensorName);
@@ -23,6 +23,16 @@ import java.util.Map;
 
 public interface WriterConfiguration extends Serializable {
   int getBatchSize(String sensorName);
+
+  /**
+   * @param sensorName The sensor
+   * @return The maximum age, in seconds, of a batch before it is written regardless of its size,
+   * or 0 to use the default of the topology.  A configuration without batch timeouts need not implement it.
+   */
+  default int getBatchTimeout(String sensorName) {
+    return 0;
+  }
+
   String getIndex(String sensorName);
   boolean isEnabled(String sensorName);
   Map<String, Object> getSensorConfig(String sensorName);
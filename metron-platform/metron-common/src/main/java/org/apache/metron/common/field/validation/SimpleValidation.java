@@ -70,4 +70,12 @@ public abstract class SimpleValidation implements FieldValidation, Predicate<Lis
   protected boolean isNonExistentOk() {
     return true;
   }
+
+  /**
+   * @return Whether input fields which do not exist in the message are considered valid.  If so, a message
+   * which has none of the input fields is always valid.
+   */
+  public boolean allowsNonExistent() {
+    return isNonExistentOk();
+  }
 }
@@ -0,0 +1,37 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.common.message;
+
+import java.io.Serializable;
+
+/**
+ * Generates the unique identifier which is stamped on a message as its guid.
+ */
+public interface GuidGenerator extends Serializable {
+
+  String generate();
+
+  /**
+   * Tells the generator the id of the storm task that it generates guids for.  A generator which must keep
+   * the guids of concurrent tasks distinct may use it.  By default, it is ignored.
+   *
+   * @param taskId The id of the task, which is unique within its topology
+   */
+  default void setTaskId(int taskId) {
+  }
+}
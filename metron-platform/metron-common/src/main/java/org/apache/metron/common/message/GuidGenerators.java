@@ -0,0 +1,69 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.common.message;
+
+import org.apache.metron.common.utils.ReflectionUtils;
+
+import java.util.function.Supplier;
+
+/**
+ * GuidGenerators is a convenience enum for looking up the implementations of GuidGenerator.  The implementations include:
+ * <ul>
+ *   <li>RANDOM_UUID - random UUIDs, generated from a shared SecureRandom</li>
+ *   <li>TIME_ORDERED - time ordered, compact identifiers generated without contention between threads</li>
+ * </ul>
+ * RANDOM_UUID is the default.  TIME_ORDERED identifiers are not UUIDs, so it should only be chosen when every
+ * consumer of the guid accepts any string.
+ */
+public enum GuidGenerators {
+  RANDOM_UUID(RandomUUIDGenerator::new),
+  TIME_ORDERED(TimeOrderedGuidGenerator::new);
+
+  public static final GuidGenerators DEFAULT = RANDOM_UUID;
+
+  Supplier<GuidGenerator> supplier;
+
+  GuidGenerators(Supplier<GuidGenerator> supplier) {
+    this.supplier = supplier;
+  }
+
+  /**
+   * @return A new generator, which may be given the id of the task that uses it
+   */
+  public GuidGenerator get() {
+    return supplier.get();
+  }
+
+  /**
+   * Look up a generator by name, falling back to instantiating it as a class.
+   *
+   * @param generatorName The name of a GuidGenerators value or the class name of a GuidGenerator
+   * @return The generator or the default generator if no name is given
+   */
+  public static GuidGenerator create(String generatorName) {
+    if(generatorName == null || generatorName.trim().isEmpty()) {
+      return DEFAULT.get();
+    }
+    try {
+      return GuidGenerators.valueOf(generatorName).get();
+    }
+    catch(IllegalArgumentException e) {
+      return ReflectionUtils.createInstance(generatorName);
+    }
+  }
+}
@@ -19,19 +19,11 @@ package org.apache.metron.common.message;
 
 import org.apache.storm.tuple.Tuple;
 import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
 
 public class JSONFromPosition implements MessageGetStrategy {
 
   private int position = 0;
 
-  private ThreadLocal<JSONParser> parser = new ThreadLocal<JSONParser>() {
-    @Override
-    protected JSONParser initialValue() {
-      return new JSONParser();
-    }
-  };
-
   public JSONFromPosition() {};
 
   public JSONFromPosition(int position) {
@@ -41,7 +33,7 @@ public class JSONFromPosition implements MessageGetStrategy {
   @Override
   public JSONObject get(Tuple tuple) {
     try {
-      return (JSONObject) parser.get().parse(new String(tuple.getBinary(position), "UTF8"));
+      return JSONMessageCodec.fromBytes(tuple.getBinary(position));
     } catch (Exception e) {
       throw new IllegalStateException(e.getMessage(), e);
     }
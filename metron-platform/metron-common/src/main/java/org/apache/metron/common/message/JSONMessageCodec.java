@@ -0,0 +1,82 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.common.message;
+
+import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.apache.metron.common.utils.SerDeUtils;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes the messages passed between topologies.  A message is either JSON text or, in the binary encoding,
+ * a two byte header followed by the message serialized with {@link SerDeUtils}.  The binary encoding preserves
+ * the types of the values in the message and avoids formatting and parsing JSON text.
+ *
+ * <p>No UTF-8 encoded JSON object starts with the header, so decoding accepts either encoding.
+ */
+public class JSONMessageCodec {
+
+  private static final byte[] HEADER = new byte[] { 0x00, 0x01 };
+
+  private static ThreadLocal<JSONParser> parser = new ThreadLocal<JSONParser>() {
+    @Override
+    protected JSONParser initialValue() {
+      return new JSONParser();
+    }
+  };
+
+  private JSONMessageCodec() {
+    // do not instantiate
+  }
+
+  /**
+   * @param message The message to encode
+   * @return The message in the binary encoding
+   */
+  public static byte[] toBytes(JSONObject message) {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    bos.write(HEADER, 0, HEADER.length);
+    SerDeUtils.toBytes(message, bos);
+    return bos.toByteArray();
+  }
+
+  /**
+   * @param data The encoded message
+   * @return Whether the message is in the binary encoding
+   */
+  public static boolean isBinary(byte[] data) {
+    return data != null && data.length > HEADER.length && data[0] == HEADER[0] && data[1] == HEADER[1];
+  }
+
+  /**
+   * Decode a message in either encoding.
+   *
+   * @param data The encoded message
+   * @return The message
+   * @throws ParseException If the message is JSON text that can not be parsed
+   */
+  public static JSONObject fromBytes(byte[] data) throws ParseException {
+    if(isBinary(data)) {
+      return SerDeUtils.fromBytes(data, HEADER.length, JSONObject.class);
+    }
+    return (JSONObject) parser.get().parse(new String(data, StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,51 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.common.message;
+
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+
+import java.util.Map;
+
+/**
+ * A Kafka deserializer which reads messages in either encoding of {@link JSONMessageCodec}.
+ */
+public class JSONMessageDeserializer implements Deserializer<JSONObject> {
+
+  @Override
+  public void configure(Map<String, ?> configs, boolean isKey) {
+  }
+
+  @Override
+  public JSONObject deserialize(String topic, byte[] data) {
+    if(data == null) {
+      return null;
+    }
+    try {
+      return JSONMessageCodec.fromBytes(data);
+    } catch (ParseException e) {
+      throw new SerializationException("Unable to parse message from " + topic, e);
+    }
+  }
+
+  @Override
+  public void close() {
+  }
+}
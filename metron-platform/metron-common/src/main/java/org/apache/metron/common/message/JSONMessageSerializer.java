@@ -0,0 +1,53 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.common.message;
+
+import org.apache.kafka.common.serialization.Serializer;
+import org.json.simple.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * A Kafka serializer which writes messages in the binary encoding of {@link JSONMessageCodec}.
+ * Strings are written as UTF-8 text, so a producer may still send JSON text.
+ */
+public class JSONMessageSerializer implements Serializer<Object> {
+
+  @Override
+  public void configure(Map<String, ?> configs, boolean isKey) {
+  }
+
+  @Override
+  public byte[] serialize(String topic, Object data) {
+    if(data == null) {
+      return null;
+    }
+    if(data instanceof JSONObject) {
+      return JSONMessageCodec.toBytes((JSONObject) data);
+    }
+    if(data instanceof byte[]) {
+      return (byte[]) data;
+    }
+    return data.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public void close() {
+  }
+}
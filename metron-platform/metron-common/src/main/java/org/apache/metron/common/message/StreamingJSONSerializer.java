@@ -0,0 +1,253 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.metron.common.message;
+
+import org.apache.metron.common.interfaces.FieldNameConverter;
+import org.json.simple.JSONAware;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Serializes messages as UTF-8 encoded JSON directly into a reusable buffer, without building the JSON
+ * string first.  The output is the same as that of {@link org.json.simple.JSONObject#toJSONString()}, but
+ * the top level field names may be converted along the way.
+ *
+ * Several messages may be appended to the buffer, in which case each may be referred to by its offset
+ * and length within it.  An instance is not thread safe.
+ */
+public class StreamingJSONSerializer {
+  private static final int DEFAULT_CAPACITY = 4096;
+  private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+  private final FieldNameConverter fieldNameConverter;
+  private byte[] buffer;
+  private int size = 0;
+
+  public StreamingJSONSerializer() {
+    this(null);
+  }
+
+  /**
+   * @param fieldNameConverter Converts the names of the top level fields of a message, if not null
+   */
+  public StreamingJSONSerializer(FieldNameConverter fieldNameConverter) {
+    this(fieldNameConverter, DEFAULT_CAPACITY);
+  }
+
+  public StreamingJSONSerializer(FieldNameConverter fieldNameConverter, int initialCapacity) {
+    this.fieldNameConverter = fieldNameConverter;
+    this.buffer = new byte[Math.max(16, initialCapacity)];
+  }
+
+  /**
+   * Appends a message to the buffer.
+   * @param message The message
+   * @return The offset of the message within the buffer
+   */
+  public int append(Map<?, ?> message) {
+    int offset = size;
+    writeMap(message, fieldNameConverter);
+    return offset;
+  }
+
+  /**
+   * Appends a single byte, e.g. a record delimiter, to the buffer.
+   */
+  public void append(byte b) {
+    ensureCapacity(1);
+    buffer[size++] = b;
+  }
+
+  /**
+   * Empties the buffer so that it may be reused.
+   */
+  public void reset() {
+    size = 0;
+  }
+
+  /**
+   * @return The buffer, which is only valid up to {@link #size()} and until the next append grows it.
+   */
+  public byte[] getBuffer() {
+    return buffer;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public byte[] toByteArray() {
+    return Arrays.copyOf(buffer, size);
+  }
+
+  public void writeTo(OutputStream out) throws IOException {
+    out.write(buffer, 0, size);
+  }
+
+  private void writeMap(Map<?, ?> map, FieldNameConverter converter) {
+    writeAscii('{');
+    boolean first = true;
+    for(Map.Entry<?, ?> entry : map.entrySet()) {
+      if(!first) {
+        writeAscii(',');
+      }
+      first = false;
+      String key = String.valueOf(entry.getKey());
+      writeString(converter == null ? key : converter.convert(key));
+      writeAscii(':');
+      writeValue(entry.getValue());
+    }
+    writeAscii('}');
+  }
+
+  private void writeValue(Object value) {
+    if(value == null) {
+      writeRaw("null");
+    }
+    else if(value instanceof String) {
+      writeString((String) value);
+    }
+    else if(value instanceof Double) {
+      Double d = (Double) value;
+      writeRaw(d.isInfinite() || d.isNaN() ? "null" : d.toString());
+    }
+    else if(value instanceof Float) {
+      Float f = (Float) value;
+      writeRaw(f.isInfinite() || f.isNaN() ? "null" : f.toString());
+    }
+    else if(value instanceof Number || value instanceof Boolean) {
+      writeRaw(value.toString());
+    }
+    else if(value instanceof JSONAware && !(value instanceof Map) && !(value instanceof Collection)) {
+      writeRaw(((JSONAware) value).toJSONString());
+    }
+    else if(value instanceof Map) {
+      writeMap((Map<?, ?>) value, null);
+    }
+    else if(value instanceof Collection) {
+      writeAscii('[');
+      boolean first = true;
+      for(Object o : (Collection<?>) value) {
+        if(!first) {
+          writeAscii(',');
+        }
+        first = false;
+        writeValue(o);
+      }
+      writeAscii(']');
+    }
+    else {
+      //as JSONValue does, anything else is written as is
+      writeRaw(value.toString());
+    }
+  }
+
+  /**
+   * Writes a quoted string, escaped the way {@link org.json.simple.JSONValue#escape(String)} does.
+   */
+  private void writeString(String s) {
+    writeAscii('"');
+    for(int i = 0; i < s.length(); i++) {
+      char ch = s.charAt(i);
+      switch(ch) {
+        case '"': writeAscii('\\'); writeAscii('"'); break;
+        case '\\': writeAscii('\\'); writeAscii('\\'); break;
+        case '\b': writeAscii('\\'); writeAscii('b'); break;
+        case '\f': writeAscii('\\'); writeAscii('f'); break;
+        case '\n': writeAscii('\\'); writeAscii('n'); break;
+        case '\r': writeAscii('\\'); writeAscii('r'); break;
+        case '\t': writeAscii('\\'); writeAscii('t'); break;
+        case '/': writeAscii('\\'); writeAscii('/'); break;
+        default:
+          if(ch <= '\u001F' || (ch >= '\u007F' && ch <= '\u009F') || (ch >= '\u2000' && ch <= '\u20FF')) {
+            writeAscii('\\');
+            writeAscii('u');
+            writeAscii(HEX[(ch >> 12) & 0xF]);
+            writeAscii(HEX[(ch >> 8) & 0xF]);
+            writeAscii(HEX[(ch >> 4) & 0xF]);
+            writeAscii(HEX[ch & 0xF]);
+          }
+          else if(ch < 0x80) {
+            writeAscii(ch);
+          }
+          else if(Character.isHighSurrogate(ch) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+            writeCodePoint(Character.toCodePoint(ch, s.charAt(++i)));
+          }
+          else if(Character.isSurrogate(ch)) {
+            //unpaired surrogates are replaced, as String.getBytes does
+            writeAscii('?');
+          }
+          else {
+            writeCodePoint(ch);
+          }
+      }
+    }
+    writeAscii('"');
+  }
+
+  private void writeCodePoint(int cp) {
+    ensureCapacity(4);
+    if(cp < 0x800) {
+      buffer[size++] = (byte) (0xC0 | (cp >> 6));
+      buffer[size++] = (byte) (0x80 | (cp & 0x3F));
+    }
+    else if(cp < 0x10000) {
+      buffer[size++] = (byte) (0xE0 | (cp >> 12));
+      buffer[size++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+      buffer[size++] = (byte) (0x80 | (cp & 0x3F));
+    }
+    else {
+      buffer[size++] = (byte) (0xF0 | (cp >> 18));
+      buffer[size++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+      buffer[size++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+      buffer[size++] = (byte) (0x80 | (cp & 0x3F));
+    }
+  }
+
+  /**
+   * Writes characters which are known to be ASCII, e.g. numbers.
+   */
+  private void writeRaw(String s) {
+    ensureCapacity(s.length());
+    for(int i = 0; i < s.length(); i++) {
+      char ch = s.charAt(i);
+      if(ch < 0x80) {
+        buffer[size++] = (byte) ch;
+      }
+      else {
+        //not ASCII after all, e.g. the JSON of a custom JSONAware
+        writeCodePoint(Character.isHighSurrogate(ch) && i + 1 < s.length() ? Character.toCodePoint(ch, s.charAt(++i)) : ch);
+      }
+    }
+  }
+
+  private void writeAscii(char ch) {
+    ensureCapacity(1);
+    buffer[size++] = (byte) ch;
+  }
+
+  private void ensureCapacity(int needed) {
+    if(size + needed > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + needed));
+    }
+  }
+}
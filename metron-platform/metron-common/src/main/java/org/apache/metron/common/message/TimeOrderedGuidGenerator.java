@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.common.message;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates 128 bit identifiers which sort by the time at which they were generated.  The bits are laid out as
+ * <ul>
+ *   <li>48 bits - the current time in milliseconds</li>
+ *   <li>16 bits - the worker id</li>
+ *   <li>24 bits - a counter shared by all threads of the worker</li>
+ *   <li>40 bits - a random number from a thread local source</li>
+ * </ul>
+ * and encoded as 22 characters drawn from an alphabet of 64 characters in ascending ASCII order, so
+ * the encoded identifiers sort in the same order as their bits.
+ *
+ * <p>The worker id is the id of the storm task that the generator is used by, so it is distinct for each task of
+ * a topology.  Until the generator is given a task id, the worker id is derived from the name of the JVM, which
+ * contains its process id and host.  The counter keeps identifiers generated by a worker within the same millisecond
+ * distinct and the random bits keep identifiers distinct across workers whose ids collide, such as the tasks of
+ * different topologies.  Nothing here takes a lock.
+ *
+ * <p>The identifiers are not UUIDs, so this must only be used where every consumer of the guid accepts any string.
+ */
+public class TimeOrderedGuidGenerator implements GuidGenerator {
+
+  public static final int LENGTH = 22;
+  private static final char[] ALPHABET = "-0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ_abcdefghijklmnopqrstuvwxyz".toCharArray();
+  private static final int DEFAULT_WORKER_ID = ManagementFactory.getRuntimeMXBean().getName().hashCode() & 0xFFFF;
+  private static final AtomicInteger COUNTER = new AtomicInteger(ThreadLocalRandom.current().nextInt());
+
+  private int workerId;
+
+  public TimeOrderedGuidGenerator() {
+    this(DEFAULT_WORKER_ID);
+  }
+
+  public TimeOrderedGuidGenerator(int workerId) {
+    this.workerId = workerId & 0xFFFF;
+  }
+
+  /**
+   * Uses the id of the task as the worker id.
+   *
+   * @param taskId The id of the task, which is unique within its topology
+   */
+  @Override
+  public void setTaskId(int taskId) {
+    this.workerId = taskId & 0xFFFF;
+  }
+
+  int getWorkerId() {
+    return workerId;
+  }
+
+  @Override
+  public String generate() {
+    return generate(System.currentTimeMillis());
+  }
+
+  String generate(long timestamp) {
+    long hi = (timestamp << 16) | workerId;
+    long lo = ((COUNTER.getAndIncrement() & 0xFFFFFFL) << 40) | (ThreadLocalRandom.current().nextLong() & 0xFFFFFFFFFFL);
+    char[] chars = new char[LENGTH];
+    encode(hi, chars, 0);
+    encode(lo, chars, LENGTH / 2);
+    return new String(chars);
+  }
+
+  /**
+   * Encodes 64 bits as 11 characters of 6 bits, most significant first.
+   */
+  private static void encode(long bits, char[] chars, int offset) {
+    for(int i = offset + LENGTH / 2 - 1;i >= offset;--i) {
+      chars[i] = ALPHABET[(int)(bits & 0x3F)];
+      bits >>>= 6;
+    }
+  }
+}
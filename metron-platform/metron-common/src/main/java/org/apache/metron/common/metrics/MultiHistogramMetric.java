@@ -0,0 +1,72 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.common.metrics;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.UniformReservoir;
+import org.apache.storm.metric.api.IMetric;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A storm metric holding a histogram per key, in the style of storm's MultiCountMetric.  Each time
+ * the metric is reported the histograms are summarized and reset, so the summary covers a single
+ * metrics bucket.  Updates may come from any thread.
+ */
+public class MultiHistogramMetric implements IMetric {
+  public static final String COUNT = "count";
+  public static final String MIN = "min";
+  public static final String MAX = "max";
+  public static final String MEAN = "mean";
+  public static final String P50 = "p50";
+  public static final String P95 = "p95";
+  public static final String P99 = "p99";
+
+  private volatile Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+  public void update(String key, long value) {
+    histograms.computeIfAbsent(key, k -> new Histogram(new UniformReservoir())).update(value);
+  }
+
+  /**
+   * @return The summary of each histogram updated since the last report, keyed by the histogram key.
+   */
+  @Override
+  public Object getValueAndReset() {
+    Map<String, Histogram> current = histograms;
+    histograms = new ConcurrentHashMap<>();
+    Map<String, Map<String, Number>> ret = new HashMap<>();
+    for(Map.Entry<String, Histogram> entry : current.entrySet()) {
+      Histogram histogram = entry.getValue();
+      Snapshot snapshot = histogram.getSnapshot();
+      Map<String, Number> summary = new HashMap<>();
+      summary.put(COUNT, histogram.getCount());
+      summary.put(MIN, snapshot.getMin());
+      summary.put(MAX, snapshot.getMax());
+      summary.put(MEAN, snapshot.getMean());
+      summary.put(P50, snapshot.getMedian());
+      summary.put(P95, snapshot.get95thPercentile());
+      summary.put(P99, snapshot.get99thPercentile());
+      ret.put(entry.getKey(), summary);
+    }
+    return ret;
+  }
+}
@@ -35,13 +35,15 @@ import de.javakaffee.kryoserializers.guava.ImmutableSetSerializer;
 import de.javakaffee.kryoserializers.jodatime.JodaLocalDateSerializer;
 import de.javakaffee.kryoserializers.jodatime.JodaLocalDateTimeSerializer;
 import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
 import org.objenesis.instantiator.ObjectInstantiator;
 import org.objenesis.strategy.InstantiatorStrategy;
 import org.objenesis.strategy.StdInstantiatorStrategy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Modifier;
@@ -89,6 +91,9 @@ public class SerDeUtils {
       ImmutableSetSerializer.registerSerializers(ret);
       ImmutableMapSerializer.registerSerializers(ret);
       ImmutableMultimapSerializer.registerSerializers(ret);
+      // json-simple messages, which are passed between topologies
+      ret.register(JSONObject.class);
+      ret.register(JSONArray.class);
       return ret;
     }
   };
@@ -220,13 +225,23 @@ public class SerDeUtils {
    * @param value The value to serialize.
    */
   public static byte[] toBytes(Object value) {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    toBytes(value, bos);
+    return bos.toByteArray();
+  }
+
+  /**
+   * Serialize a value to a stream.  The stream is flushed, but not closed.
+   *
+   * @param value The value to serialize.
+   * @param out The stream to write to.
+   */
+  public static void toBytes(Object value, OutputStream out) {
     try {
-      ByteArrayOutputStream bos = new ByteArrayOutputStream();
-      Output output = new Output(bos);
+      Output output = new Output(out);
       kryo.get().writeClassAndObject(output, value);
       output.flush();
-      bos.flush();
-      return bos.toByteArray();
+      out.flush();
     }
     catch(Throwable t) {
       LOG.error("Unable to serialize: " + value + " because " + t.getMessage(), t);
@@ -244,8 +259,19 @@ public class SerDeUtils {
    * @param value The value to deserialize.
    */
   public static <T> T fromBytes(byte[] value, Class<T> clazz) {
+    return fromBytes(value, 0, clazz);
+  }
+
+  /**
+   * Deserialize a value which starts at an offset into a byte array.
+   *
+   * @param value The bytes to deserialize.
+   * @param offset The offset of the serialized value.
+   * @param clazz The expected type of the value.
+   */
+  public static <T> T fromBytes(byte[] value, int offset, Class<T> clazz) {
     try {
-      Input input = new Input(new ByteArrayInputStream(value));
+      Input input = new Input(value, offset, value.length - offset);
       return clazz.cast(kryo.get().readClassAndObject(input));
     }
     catch(Throwable t) {
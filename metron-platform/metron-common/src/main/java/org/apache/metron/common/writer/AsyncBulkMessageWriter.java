@@ -0,0 +1,66 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.common.writer;
+
+import org.apache.metron.common.configuration.writer.WriterConfiguration;
+import org.apache.storm.tuple.Tuple;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A bulk writer which does not block while a batch is being written.  Several batches may be in flight
+ * at once; the caller bounds how many and handles the response of each batch when its future completes.
+ * Futures may complete on any thread, so they should not touch the output collector themselves.
+ */
+public interface AsyncBulkMessageWriter<MESSAGE_T> extends BulkMessageWriter<MESSAGE_T> {
+
+  /**
+   * Starts writing the messages to a particular output (e.g. Elasticsearch).
+   * @param sensorType The type of sensor being generating the messages
+   * @param configurations Configurations that should be passed to the writer
+   * @param tuples The Tuple that produced each message, in the same order as the messages
+   * @param messages  The message to be written
+   * @return A future of the response containing successes and failures within the batch.  The future completes
+   * exceptionally if the entire batch failed.
+   */
+  CompletableFuture<BulkWriterResponse> writeAsync(String sensorType
+            , WriterConfiguration configurations
+            , Iterable<Tuple> tuples
+            , List<MESSAGE_T> messages
+            );
+
+  @Override
+  default BulkWriterResponse write(String sensorType
+            , WriterConfiguration configurations
+            , Iterable<Tuple> tuples
+            , List<MESSAGE_T> messages
+            ) throws Exception
+  {
+    try {
+      return writeAsync(sensorType, configurations, tuples, messages).get();
+    }
+    catch(ExecutionException e) {
+      if(e.getCause() instanceof Exception) {
+        throw (Exception)e.getCause();
+      }
+      throw e;
+    }
+  }
+}
@@ -0,0 +1,35 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.common.writer;
+
+import org.apache.metron.common.configuration.writer.WriterConfiguration;
+import org.apache.storm.tuple.Tuple;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A message writer which does not block while a message is being written.
+ */
+public interface AsyncMessageWriter<T> extends MessageWriter<T> {
+
+  /**
+   * Starts writing a message.
+   * @return A future which completes once the message has been written, or completes exceptionally if it could not be.
+   */
+  CompletableFuture<Void> writeAsync(String sensorType, WriterConfiguration configurations, Tuple tuple, T message);
+}
@@ -30,6 +30,7 @@ import java.util.Map;
 
 public class BulkWriterResponse {
     private Multimap<Throwable, Tuple> errors = ArrayListMultimap.create();
+    private Multimap<Throwable, Tuple> retryableErrors = ArrayListMultimap.create();
     private List<Tuple> successes = new ArrayList<>();
 
     public void addError(Throwable error, Tuple tuple) {
@@ -42,8 +43,22 @@ public class BulkWriterResponse {
         }
     }
 
+    /**
+     * Adds a transient error, such as the destination being overloaded, after which the tuple should be
+     * replayed rather than reported as an error.
+     */
+    public void addRetryableError(Throwable error, Tuple tuple) {
+        retryableErrors.put(error, tuple);
+    }
+
+    public void addAllRetryableErrors(Throwable error, Iterable<Tuple> tuples) {
+        if(tuples != null) {
+            retryableErrors.putAll(error, tuples);
+        }
+    }
+
     public boolean hasErrors() {
-        return !errors.isEmpty();
+        return !errors.isEmpty() || !retryableErrors.isEmpty();
     }
 
     public void addSuccess(Tuple success) {
@@ -60,6 +75,10 @@ public class BulkWriterResponse {
         return errors.asMap();
     }
 
+    public Map<Throwable, Collection<Tuple>> getRetryableErrors() {
+        return retryableErrors.asMap();
+    }
+
     public List<Tuple> getSuccesses() {
         return successes;
     }
@@ -72,6 +91,7 @@ public class BulkWriterResponse {
         BulkWriterResponse that = (BulkWriterResponse) o;
 
         if (!errors.equals(that.errors)) return false;
+        if (!retryableErrors.equals(that.retryableErrors)) return false;
         return successes.equals(that.successes);
 
     }
@@ -79,6 +99,7 @@ public class BulkWriterResponse {
     @Override
     public int hashCode() {
         int result = errors.hashCode();
+        result = 31 * result + retryableErrors.hashCode();
         result = 31 * result + successes.hashCode();
         return result;
     }
@@ -87,6 +108,7 @@ public class BulkWriterResponse {
     public String toString() {
         return "BulkWriterResponse{" +
                 "errors=" + errors +
+                ", retryableErrors=" + retryableErrors +
                 ", successes=" + successes +
                 '}';
     }
@@ -204,4 +204,14 @@ public class ProfileConfigTest {
     assertEquals("4 + 4", profile.getResult().getTriageExpressions().getExpression("eight"));
     assertEquals("8 + 8", profile.getResult().getTriageExpressions().getExpression("sixteen"));
   }
+
+  /**
+   * A profile definition should be serialized to JSON that reads back as an equal definition.
+   */
+  @Test
+  public void testToJSON() throws IOException {
+    ProfileConfig expected = JSONUtils.INSTANCE.load(resultWithTriage, ProfileConfig.class);
+    ProfileConfig actual = JSONUtils.INSTANCE.load(JSONUtils.INSTANCE.toJSON(expected, false), ProfileConfig.class);
+    assertEquals(expected, actual);
+  }
 }
@@ -0,0 +1,99 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.common.message;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GuidGeneratorsTest {
+
+  @Test
+  public void createShouldReturnGeneratorsByNameOrClass() {
+    assertTrue(GuidGenerators.create(null) instanceof RandomUUIDGenerator);
+    assertTrue(GuidGenerators.create("TIME_ORDERED") instanceof TimeOrderedGuidGenerator);
+    assertTrue(GuidGenerators.create("RANDOM_UUID") instanceof RandomUUIDGenerator);
+    assertTrue(GuidGenerators.create(RandomUUIDGenerator.class.getName()) instanceof RandomUUIDGenerator);
+  }
+
+  @Test
+  public void defaultGuidsShouldBeUUIDs() {
+    String guid = GuidGenerators.DEFAULT.get().generate();
+    assertEquals(guid, UUID.fromString(guid).toString());
+  }
+
+  @Test
+  public void timeOrderedWorkerIdShouldComeFromTheTaskId() {
+    TimeOrderedGuidGenerator first = (TimeOrderedGuidGenerator) GuidGenerators.TIME_ORDERED.get();
+    TimeOrderedGuidGenerator second = (TimeOrderedGuidGenerator) GuidGenerators.TIME_ORDERED.get();
+    first.setTaskId(7);
+    second.setTaskId(8);
+    assertEquals(7, first.getWorkerId());
+    assertEquals(8, second.getWorkerId());
+    assertTrue(first.generate(1000L).compareTo(second.generate(1000L)) < 0);
+  }
+
+  @Test
+  public void timeOrderedGuidsShouldSortByTime() {
+    TimeOrderedGuidGenerator generator = new TimeOrderedGuidGenerator(0xFFFF);
+    List<String> guids = new ArrayList<>();
+    for(long ts : new long[] { 0L, 1L, 63L, 64L, 1497000000000L, 1497000000001L, (1L << 48) - 1 }) {
+      String guid = generator.generate(ts);
+      assertEquals(TimeOrderedGuidGenerator.LENGTH, guid.length());
+      guids.add(guid);
+    }
+    List<String> sorted = new ArrayList<>(guids);
+    Collections.sort(sorted);
+    assertEquals(guids, sorted);
+  }
+
+  @Test
+  public void timeOrderedGuidsShouldBeUniqueAcrossThreads() throws Exception {
+    GuidGenerator generator = GuidGenerators.TIME_ORDERED.get();
+    Set<String> guids = ConcurrentHashMap.newKeySet();
+    int numThreads = 4;
+    int numGuids = 50000;
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    List<Future<?>> futures = new ArrayList<>();
+    for(int i = 0;i < numThreads;++i) {
+      futures.add(executor.submit(() -> {
+        for(int j = 0;j < numGuids;++j) {
+          guids.add(generator.generate());
+        }
+      }));
+    }
+    for(Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+    executor.awaitTermination(10, TimeUnit.SECONDS);
+    assertEquals(numThreads * numGuids, guids.size());
+  }
+}
@@ -0,0 +1,78 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.common.message;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JSONMessageCodecTest {
+
+  private JSONObject createMessage() {
+    JSONObject message = new JSONObject();
+    message.put("string", "value");
+    message.put("long", 1L);
+    message.put("double", 1.5);
+    message.put("boolean", true);
+    message.put("null", null);
+    JSONArray array = new JSONArray();
+    array.add("a");
+    array.add(2L);
+    message.put("array", array);
+    JSONObject nested = new JSONObject();
+    nested.put("long", 3L);
+    message.put("nested", nested);
+    return message;
+  }
+
+  @Test
+  public void binaryMessagesShouldRoundTripWithTheirTypes() throws Exception {
+    JSONObject message = createMessage();
+    message.put("int", 3);
+    byte[] data = JSONMessageCodec.toBytes(message);
+    assertTrue(JSONMessageCodec.isBinary(data));
+    JSONObject decoded = JSONMessageCodec.fromBytes(data);
+    assertEquals(message, decoded);
+    //JSON text would not preserve the int
+    assertEquals(Integer.class, decoded.get("int").getClass());
+  }
+
+  @Test
+  public void textMessagesShouldBeDecoded() throws Exception {
+    byte[] data = "{\"string\":\"value\",\"long\":1}".getBytes(StandardCharsets.UTF_8);
+    assertFalse(JSONMessageCodec.isBinary(data));
+    JSONObject decoded = JSONMessageCodec.fromBytes(data);
+    assertEquals("value", decoded.get("string"));
+    assertEquals(1L, decoded.get("long"));
+  }
+
+  @Test
+  public void serDeShouldAcceptMessagesAndText() throws Exception {
+    JSONMessageSerializer serializer = new JSONMessageSerializer();
+    JSONMessageDeserializer deserializer = new JSONMessageDeserializer();
+    JSONObject message = createMessage();
+    assertEquals(message, deserializer.deserialize("topic", serializer.serialize("topic", message)));
+    assertEquals(message, deserializer.deserialize("topic", serializer.serialize("topic", message.toJSONString())));
+  }
+}
@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.common.message;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class StreamingJSONSerializerTest {
+
+  private JSONObject createMessage() {
+    JSONObject message = new JSONObject();
+    message.put("string", "value");
+    message.put("escaped", "quote\" backslash\\ slash/ tab\t newline\n control\u0001 del\u007F space ");
+    message.put("unicode", "café 中文 😀");
+    message.put("long", 1L);
+    message.put("int", 2);
+    message.put("double", 1.5);
+    message.put("nan", Double.NaN);
+    message.put("float", 2.5f);
+    message.put("boolean", true);
+    message.put("null", null);
+    JSONArray array = new JSONArray();
+    array.add("a");
+    array.add(2L);
+    array.add(null);
+    message.put("array", array);
+    JSONObject nested = new JSONObject();
+    nested.put("nested.field", 3L);
+    message.put("nested", nested);
+    message.put("dotted.field", "dotted");
+    return message;
+  }
+
+  @Test
+  public void shouldMatchTheJSONText() {
+    JSONObject message = createMessage();
+    StreamingJSONSerializer serializer = new StreamingJSONSerializer(null, 16);
+    int offset = serializer.append(message);
+    assertEquals(0, offset);
+    assertArrayEquals(message.toJSONString().getBytes(StandardCharsets.UTF_8), serializer.toByteArray());
+  }
+
+  @Test
+  public void shouldConvertTopLevelFieldNames() throws Exception {
+    JSONObject message = createMessage();
+    StreamingJSONSerializer serializer = new StreamingJSONSerializer(field -> field.replace(".", ":"));
+    serializer.append(message);
+    JSONObject expected = new JSONObject();
+    for(Object key : message.keySet()) {
+      expected.put(key.toString().replace(".", ":"), message.get(key));
+    }
+    JSONParser parser = new JSONParser();
+    assertEquals(parser.parse(expected.toJSONString()), parser.parse(new String(serializer.toByteArray(), StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  public void shouldAppendSeveralMessages() {
+    JSONObject message1 = createMessage();
+    JSONObject message2 = new JSONObject();
+    message2.put("field", "value");
+    StreamingJSONSerializer serializer = new StreamingJSONSerializer(null, 16);
+    int offset1 = serializer.append(message1);
+    serializer.append((byte) '\n');
+    int offset2 = serializer.append(message2);
+    int end = serializer.size();
+    byte[] buffer = serializer.getBuffer();
+    assertEquals(message1.toJSONString() + "\n", new String(buffer, offset1, offset2 - offset1, StandardCharsets.UTF_8));
+    assertEquals(message2.toJSONString(), new String(Arrays.copyOfRange(buffer, offset2, end), StandardCharsets.UTF_8));
+
+    serializer.reset();
+    assertEquals(0, serializer.append(message2));
+    assertEquals(message2.toJSONString(), new String(serializer.toByteArray(), StandardCharsets.UTF_8));
+  }
+}
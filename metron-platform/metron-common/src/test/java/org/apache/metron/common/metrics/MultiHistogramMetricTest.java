@@ -0,0 +1,47 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.common.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+
+public class MultiHistogramMetricTest {
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testSummaryAndReset() {
+    MultiHistogramMetric metric = new MultiHistogramMetric();
+    for(long i = 1;i <= 100;++i) {
+      metric.update("a", i);
+    }
+    metric.update("b", 7);
+    Map<String, Map<String, Number>> summaries = (Map<String, Map<String, Number>>) metric.getValueAndReset();
+    Assert.assertEquals(2, summaries.size());
+    Map<String, Number> a = summaries.get("a");
+    Assert.assertEquals(100L, a.get(MultiHistogramMetric.COUNT));
+    Assert.assertEquals(1L, a.get(MultiHistogramMetric.MIN));
+    Assert.assertEquals(100L, a.get(MultiHistogramMetric.MAX));
+    Assert.assertEquals(50.5, a.get(MultiHistogramMetric.MEAN).doubleValue(), 1e-6);
+    Assert.assertEquals(7L, summaries.get("b").get(MultiHistogramMetric.MAX));
+
+    //the histograms are reset once reported
+    Assert.assertTrue(((Map) metric.getValueAndReset()).isEmpty());
+  }
+}
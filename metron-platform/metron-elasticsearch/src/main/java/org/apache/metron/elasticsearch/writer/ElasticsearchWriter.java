@@ -22,17 +22,24 @@ import org.apache.storm.tuple.Tuple;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.metron.common.configuration.writer.WriterConfiguration;
-import org.apache.metron.common.writer.BulkMessageWriter;
+import org.apache.metron.common.writer.AsyncBulkMessageWriter;
 import org.apache.metron.common.writer.BulkWriterResponse;
 import org.apache.metron.common.interfaces.FieldNameConverter;
+import org.apache.metron.common.message.StreamingJSONSerializer;
+import org.apache.metron.common.utils.ConversionUtils;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.bulk.BulkItemResponse;
-import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
-import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.client.transport.TransportClient;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.transport.InetSocketTransportAddress;
+import org.elasticsearch.rest.RestStatus;
 import org.json.simple.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,12 +49,27 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
-public class ElasticsearchWriter implements BulkMessageWriter<JSONObject>, Serializable {
+public class ElasticsearchWriter implements AsyncBulkMessageWriter<JSONObject>, Serializable {
 
   private Map<String, String> optionalSettings;
   private transient TransportClient client;
-  private SimpleDateFormat dateFormat;
+  public static final String BULK_MAX_BYTES_CONF = "es.bulk.max.bytes";
+  public static final String BULK_MAX_RETRIES_CONF = "es.bulk.max.retries";
+  public static final String BULK_RETRY_BACKOFF_MS_CONF = "es.bulk.retry.backoff.ms";
+  public static final long DEFAULT_BULK_MAX_BYTES = 5*1024*1024;
+  public static final int DEFAULT_BULK_MAX_RETRIES = 3;
+  public static final long DEFAULT_BULK_RETRY_BACKOFF_MS = 1000;
+  private transient ThreadLocal<SimpleDateFormat> dateFormat;
+  private transient ScheduledExecutorService retryExecutor;
+  private long maxBulkBytes = DEFAULT_BULK_MAX_BYTES;
+  private int maxRetries = DEFAULT_BULK_MAX_RETRIES;
+  private long retryBackoffMs = DEFAULT_BULK_RETRY_BACKOFF_MS;
   private static final Logger LOG = LoggerFactory
           .getLogger(ElasticsearchWriter.class);
   private FieldNameConverter fieldNameConverter = new ElasticsearchFieldNameConverter();
@@ -72,6 +94,7 @@ public class ElasticsearchWriter implements BulkMessageWriter<JSONObject>, Seria
     }
 
     Settings settings = settingsBuilder.build();
+    TransportClient client;
 
     try{
       client = TransportClient.builder().settings(settings).build();
@@ -87,7 +110,27 @@ public class ElasticsearchWriter implements BulkMessageWriter<JSONObject>, Seria
       throw new RuntimeException(exception);
     }
 
-    dateFormat = new SimpleDateFormat((String) globalConfiguration.get("es.date.format"));
+    init(client, globalConfiguration);
+  }
+
+  /**
+   * Initialize the writer to write with a client which is already connected.
+   */
+  void init(TransportClient client, Map<String, Object> globalConfiguration) {
+    this.client = client;
+    String datePattern = (String) globalConfiguration.get("es.date.format");
+    dateFormat = ThreadLocal.withInitial(() -> new SimpleDateFormat(datePattern));
+    maxBulkBytes = getOrDefault(globalConfiguration, BULK_MAX_BYTES_CONF, Long.class, DEFAULT_BULK_MAX_BYTES);
+    maxRetries = getOrDefault(globalConfiguration, BULK_MAX_RETRIES_CONF, Integer.class, DEFAULT_BULK_MAX_RETRIES);
+    retryBackoffMs = getOrDefault(globalConfiguration, BULK_RETRY_BACKOFF_MS_CONF, Long.class, DEFAULT_BULK_RETRY_BACKOFF_MS);
+    retryExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("es-writer-retry-%d")
+                                                                                        .setDaemon(true)
+                                                                                        .build());
+  }
+
+  private static <T> T getOrDefault(Map<String, Object> globalConfiguration, String key, Class<T> clazz, T defaultValue) {
+    T value = ConversionUtils.convert(globalConfiguration.get(key), clazz);
+    return value == null ? defaultValue : value;
 
   }
 
@@ -153,96 +196,177 @@ public class ElasticsearchWriter implements BulkMessageWriter<JSONObject>, Seria
   }
 
   @Override
-  public BulkWriterResponse write(String sensorType, WriterConfiguration configurations, Iterable<Tuple> tuples, List<JSONObject> messages) throws Exception {
-    String indexPostfix = dateFormat.format(new Date());
-    BulkRequestBuilder bulkRequest = client.prepareBulk();
-
-    for(JSONObject message: messages) {
-
-      String indexName = sensorType;
-
-      if (configurations != null) {
-        indexName = configurations.getIndex(sensorType);
-      }
-
-      indexName = indexName + "_index_" + indexPostfix;
-
-      JSONObject esDoc = new JSONObject();
-      for(Object k : message.keySet()){
-
-        deDot(k.toString(),message,esDoc);
-
+  public CompletableFuture<BulkWriterResponse> writeAsync(String sensorType, WriterConfiguration configurations, Iterable<Tuple> tuples, List<JSONObject> messages) {
+    String indexName = sensorType;
+    if (configurations != null) {
+      indexName = configurations.getIndex(sensorType);
+    }
+    indexName = indexName + "_index_" + dateFormat.get().format(new Date());
+
+    // The documents of a batch are serialized, with their field names converted, into one buffer.
+    // The index requests refer to slices of it, so the buffer is not reused until the batch is written.
+    StreamingJSONSerializer serializer = new StreamingJSONSerializer(fieldNameConverter);
+    int[] offsets = new int[messages.size() + 1];
+    for(int i = 0; i < messages.size(); i++) {
+      offsets[i] = serializer.append(messages.get(i));
+    }
+    offsets[messages.size()] = serializer.size();
+    byte[] buffer = serializer.getBuffer();
+
+    // The batch is sent as bulk requests of at most maxBulkBytes each.
+    BulkWriterResponse response = new BulkWriterResponse();
+    List<Tuple> tupleList = Lists.newArrayList(tuples);
+    List<CompletableFuture<Void>> futures = new ArrayList<>();
+    List<Tuple> bulkTuples = new ArrayList<>();
+    List<IndexRequest> bulkRequests = new ArrayList<>();
+    long bulkBytes = 0;
+    for(int i = 0; i < messages.size(); i++) {
+      int length = offsets[i + 1] - offsets[i];
+      if(!bulkRequests.isEmpty() && bulkBytes + length > maxBulkBytes) {
+        futures.add(new SubBatch(bulkTuples, bulkRequests, response).send());
+        bulkTuples = new ArrayList<>();
+        bulkRequests = new ArrayList<>();
+        bulkBytes = 0;
       }
-
-      IndexRequestBuilder indexRequestBuilder = client.prepareIndex(indexName,
-              sensorType + "_doc");
-
-      indexRequestBuilder = indexRequestBuilder.setSource(esDoc.toJSONString());
-      Object ts = esDoc.get("timestamp");
+      IndexRequest indexRequest = new IndexRequest(indexName, sensorType + "_doc").source(buffer, offsets[i], length);
+      Object ts = messages.get(i).get("timestamp");
       if(ts != null) {
-        indexRequestBuilder = indexRequestBuilder.setTimestamp(ts.toString());
+        indexRequest.timestamp(ts.toString());
       }
-      bulkRequest.add(indexRequestBuilder);
-
+      bulkTuples.add(tupleList.get(i));
+      bulkRequests.add(indexRequest);
+      bulkBytes += length;
+    }
+    if(!bulkRequests.isEmpty()) {
+      futures.add(new SubBatch(bulkTuples, bulkRequests, response).send());
     }
+    return CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()])).thenApply(v -> response);
+  }
 
-    BulkResponse bulkResponse = bulkRequest.execute().actionGet();
+  /**
+   * The index requests of a batch which are sent as one bulk request, along with their tuples.  Requests
+   * which are rejected because the cluster is overloaded are sent again after an exponentially increasing
+   * delay, until they succeed or run out of retries, after which their tuples are failed to be replayed.
+   */
+  private class SubBatch implements ActionListener<BulkResponse> {
+    private final BulkWriterResponse response;
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+    private List<Tuple> tuples;
+    private List<IndexRequest> requests;
+    private int retries = 0;
+
+    SubBatch(List<Tuple> tuples, List<IndexRequest> requests, BulkWriterResponse response) {
+      this.tuples = tuples;
+      this.requests = requests;
+      this.response = response;
+    }
 
-    return buildWriteReponse(tuples, bulkResponse);
-  }
+    CompletableFuture<Void> send() {
+      try {
+        BulkRequest bulkRequest = new BulkRequest();
+        for(IndexRequest request : requests) {
+          bulkRequest.add(request);
+        }
+        client.bulk(bulkRequest, this);
+      }
+      catch(Exception e) {
+        onFailure(e);
+      }
+      return future;
+    }
 
-  @Override
-  public String getName() {
-    return "elasticsearch";
-  }
+    @Override
+    public void onResponse(BulkResponse bulkResponse) {
+      // Elasticsearch responses are in the same order as the request, giving us an implicit mapping with Tuples
+      BulkItemResponse[] items = bulkResponse.getItems();
+      if(items.length != requests.size()) {
+        future.completeExceptionally(new IllegalStateException(bulkResponse.buildFailureMessage()));
+        return;
+      }
+      List<Tuple> retryTuples = new ArrayList<>();
+      List<IndexRequest> retryRequests = new ArrayList<>();
+      synchronized (response) {
+        for (int i = 0; i < items.length; i++) {
+          Tuple tuple = tuples.get(i);
+          if (!items[i].isFailed()) {
+            response.addSuccess(tuple);
+          }
+          else if (!isRetryable(items[i].getFailure().getStatus())) {
+            response.addError(items[i].getFailure().getCause(), tuple);
+          }
+          else if (retries < maxRetries) {
+            retryTuples.add(tuple);
+            retryRequests.add(requests.get(i));
+          }
+          else {
+            response.addRetryableError(items[i].getFailure().getCause(), tuple);
+          }
+        }
+      }
+      if(retryTuples.isEmpty()) {
+        future.complete(null);
+      }
+      else {
+        retry(retryTuples, retryRequests);
+      }
+    }
 
-  protected BulkWriterResponse buildWriteReponse(Iterable<Tuple> tuples, BulkResponse bulkResponse) throws Exception {
-    // Elasticsearch responses are in the same order as the request, giving us an implicit mapping with Tuples
-    BulkWriterResponse writerResponse = new BulkWriterResponse();
-    if (bulkResponse.hasFailures()) {
-      Iterator<BulkItemResponse> respIter = bulkResponse.iterator();
-      Iterator<Tuple> tupleIter = tuples.iterator();
-      while (respIter.hasNext() && tupleIter.hasNext()) {
-        BulkItemResponse item = respIter.next();
-        Tuple tuple = tupleIter.next();
-
-        if (item.isFailed()) {
-          writerResponse.addError(item.getFailure().getCause(), tuple);
-        } else {
-          writerResponse.addSuccess(tuple);
+    @Override
+    public void onFailure(Throwable e) {
+      boolean retryable = isRetryable(ExceptionsHelper.status(ExceptionsHelper.unwrapCause(e)));
+      if(retryable && retries < maxRetries) {
+        retry(tuples, requests);
+        return;
+      }
+      synchronized (response) {
+        if(retryable) {
+          response.addAllRetryableErrors(e, tuples);
+        }
+        else {
+          response.addAllErrors(e, tuples);
         }
+      }
+      future.complete(null);
+    }
 
-        // Should never happen, so fail the entire batch if it does.
-        if (respIter.hasNext() != tupleIter.hasNext()) {
-          throw new Exception(bulkResponse.buildFailureMessage());
+    private void retry(List<Tuple> retryTuples, List<IndexRequest> retryRequests) {
+      long delay = retryBackoffMs << retries;
+      retries++;
+      tuples = retryTuples;
+      requests = retryRequests;
+      LOG.debug("Retrying {} rejected requests in {} ms", requests.size(), delay);
+      try {
+        retryExecutor.schedule(this::send, delay, TimeUnit.MILLISECONDS);
+      }
+      catch(RejectedExecutionException e) {
+        // the writer is closing, so leave the requests to be replayed
+        synchronized (response) {
+          response.addAllRetryableErrors(e, tuples);
         }
+        future.complete(null);
       }
-    } else {
-      writerResponse.addAllSuccesses(tuples);
     }
+  }
 
-    return writerResponse;
+  /**
+   * @return Whether a request failed because the cluster is overloaded or temporarily unavailable, so
+   * should be retried
+   */
+  static boolean isRetryable(RestStatus status) {
+    return status == RestStatus.TOO_MANY_REQUESTS || status == RestStatus.SERVICE_UNAVAILABLE;
   }
 
   @Override
-  public void close() throws Exception {
-    client.close();
+  public String getName() {
+    return "elasticsearch";
   }
 
-  //JSONObject doesn't expose map generics
-  @SuppressWarnings("unchecked")
-  private void deDot(String field, JSONObject origMessage, JSONObject message){
-
-    if(field.contains(".")){
-
-      if(LOG.isDebugEnabled()){
-        LOG.debug("Dotted field: " + field);
-      }
-
+  @Override
+  public void close() throws Exception {
+    if(retryExecutor != null) {
+      retryExecutor.shutdownNow();
     }
-    String newkey = fieldNameConverter.convert(field);
-    message.put(newkey,origMessage.get(field));
-
+    client.close();
   }
 
 }
@@ -18,36 +18,74 @@
 
 package org.apache.metron.elasticsearch.writer;
 
+import org.apache.storm.task.OutputCollector;
 import org.apache.storm.tuple.Tuple;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.apache.metron.common.configuration.writer.WriterConfiguration;
+import org.apache.metron.common.message.MessageGetStrategy;
 import org.apache.metron.common.writer.BulkWriterResponse;
+import org.apache.metron.writer.BulkWriterComponent;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.rest.RestStatus;
+import org.json.simple.JSONObject;
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import static org.junit.Assert.*;
 
 
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class ElasticsearchWriterTest {
+
+    private TransportClient client;
+    private List<BulkRequest> bulkRequests;
+    private ElasticsearchWriter esWriter;
+
+    @Before
+    public void setup() {
+        client = mock(TransportClient.class);
+        bulkRequests = Collections.synchronizedList(new ArrayList<>());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if(esWriter != null) {
+            esWriter.close();
+        }
+    }
+
     @Test
     public void testSingleSuccesses() throws Exception {
         Tuple tuple1 = mock(Tuple.class);
 
-        BulkResponse response = mock(BulkResponse.class);
-        when(response.hasFailures()).thenReturn(false);
+        respondWith(bulkResponse(buildBulkItemSuccess()));
 
         BulkWriterResponse expected = new BulkWriterResponse();
         expected.addSuccess(tuple1);
 
-        ElasticsearchWriter esWriter = new ElasticsearchWriter();
-        BulkWriterResponse actual = esWriter.buildWriteReponse(ImmutableList.of(tuple1), response);
+        BulkWriterResponse actual = write(ImmutableList.of(tuple1));
 
         assertEquals("Response should have no errors and single success", expected, actual);
     }
@@ -57,15 +95,13 @@ public class ElasticsearchWriterTest {
         Tuple tuple1 = mock(Tuple.class);
         Tuple tuple2 = mock(Tuple.class);
 
-        BulkResponse response = mock(BulkResponse.class);
-        when(response.hasFailures()).thenReturn(false);
+        respondWith(bulkResponse(buildBulkItemSuccess(), buildBulkItemSuccess()));
 
         BulkWriterResponse expected = new BulkWriterResponse();
         expected.addSuccess(tuple1);
         expected.addSuccess(tuple2);
 
-        ElasticsearchWriter esWriter = new ElasticsearchWriter();
-        BulkWriterResponse actual = esWriter.buildWriteReponse(ImmutableList.of(tuple1, tuple2), response);
+        BulkWriterResponse actual = write(ImmutableList.of(tuple1, tuple2));
 
         assertEquals("Response should have no errors and two successes", expected, actual);
     }
@@ -74,18 +110,13 @@ public class ElasticsearchWriterTest {
     public void testSingleFailure() throws Exception {
         Tuple tuple1 = mock(Tuple.class);
 
-        BulkResponse response = mock(BulkResponse.class);
-        when(response.hasFailures()).thenReturn(true);
-
         Exception e = new IllegalStateException();
-        BulkItemResponse itemResponse = buildBulkItemFailure(e);
-        when(response.iterator()).thenReturn(ImmutableList.of(itemResponse).iterator());
+        respondWith(bulkResponse(buildBulkItemFailure(e)));
 
         BulkWriterResponse expected = new BulkWriterResponse();
         expected.addError(e, tuple1);
 
-        ElasticsearchWriter esWriter = new ElasticsearchWriter();
-        BulkWriterResponse actual = esWriter.buildWriteReponse(ImmutableList.of(tuple1), response);
+        BulkWriterResponse actual = write(ImmutableList.of(tuple1));
 
         assertEquals("Response should have one error and zero successes", expected, actual);
     }
@@ -95,22 +126,14 @@ public class ElasticsearchWriterTest {
         Tuple tuple1 = mock(Tuple.class);
         Tuple tuple2 = mock(Tuple.class);
 
-        BulkResponse response = mock(BulkResponse.class);
-        when(response.hasFailures()).thenReturn(true);
-
         Exception e = new IllegalStateException();
-
-        BulkItemResponse itemResponse = buildBulkItemFailure(e);
-        BulkItemResponse itemResponse2 = buildBulkItemFailure(e);
-
-        when(response.iterator()).thenReturn(ImmutableList.of(itemResponse, itemResponse2).iterator());
+        respondWith(bulkResponse(buildBulkItemFailure(e), buildBulkItemFailure(e)));
 
         BulkWriterResponse expected = new BulkWriterResponse();
         expected.addError(e, tuple1);
         expected.addError(e, tuple2);
 
-        ElasticsearchWriter esWriter = new ElasticsearchWriter();
-        BulkWriterResponse actual = esWriter.buildWriteReponse(ImmutableList.of(tuple1, tuple2), response);
+        BulkWriterResponse actual = write(ImmutableList.of(tuple1, tuple2));
 
         assertEquals("Response should have two errors and no successes", expected, actual);
 
@@ -126,22 +149,15 @@ public class ElasticsearchWriterTest {
         Tuple tuple1 = mock(Tuple.class);
         Tuple tuple2 = mock(Tuple.class);
 
-        BulkResponse response = mock(BulkResponse.class);
-        when(response.hasFailures()).thenReturn(true);
-
         Exception e = new IllegalStateException("Cause");
         Exception e2 = new IllegalStateException("Different Cause");
-        BulkItemResponse itemResponse = buildBulkItemFailure(e);
-        BulkItemResponse itemResponse2 = buildBulkItemFailure(e2);
-
-        when(response.iterator()).thenReturn(ImmutableList.of(itemResponse, itemResponse2).iterator());
+        respondWith(bulkResponse(buildBulkItemFailure(e), buildBulkItemFailure(e2)));
 
         BulkWriterResponse expected = new BulkWriterResponse();
         expected.addError(e, tuple1);
         expected.addError(e2, tuple2);
 
-        ElasticsearchWriter esWriter = new ElasticsearchWriter();
-        BulkWriterResponse actual = esWriter.buildWriteReponse(ImmutableList.of(tuple1, tuple2), response);
+        BulkWriterResponse actual = write(ImmutableList.of(tuple1, tuple2));
 
         assertEquals("Response should have two errors and no successes", expected, actual);
 
@@ -158,33 +174,227 @@ public class ElasticsearchWriterTest {
         Tuple tuple1 = mock(Tuple.class);
         Tuple tuple2 = mock(Tuple.class);
 
-        BulkResponse response = mock(BulkResponse.class);
-        when(response.hasFailures()).thenReturn(true);
+        Exception e = new IllegalStateException("Cause");
+        respondWith(bulkResponse(buildBulkItemFailure(e), buildBulkItemSuccess()));
+
+        BulkWriterResponse expected = new BulkWriterResponse();
+        expected.addError(e, tuple1);
+        expected.addSuccess(tuple2);
+
+        BulkWriterResponse actual = write(ImmutableList.of(tuple1, tuple2));
 
+        assertEquals("Response should have one error and one success", expected, actual);
+    }
+
+    @Test
+    public void testBatchIsSplitByMaxBytes() throws Exception {
+        Tuple tuple1 = mock(Tuple.class);
+        Tuple tuple2 = mock(Tuple.class);
+        Tuple tuple3 = mock(Tuple.class);
+
+        // each message is larger than the maximum, so is sent in a bulk request of its own
         Exception e = new IllegalStateException("Cause");
-        BulkItemResponse itemResponse = buildBulkItemFailure(e);
+        respondWith(bulkResponse(buildBulkItemSuccess()), bulkResponse(buildBulkItemFailure(e)), bulkResponse(buildBulkItemSuccess()));
 
-        BulkItemResponse itemResponse2 = mock(BulkItemResponse.class);
-        when(itemResponse2.isFailed()).thenReturn(false);
+        BulkWriterResponse expected = new BulkWriterResponse();
+        expected.addSuccess(tuple1);
+        expected.addError(e, tuple2);
+        expected.addSuccess(tuple3);
 
-        when(response.iterator()).thenReturn(ImmutableList.of(itemResponse, itemResponse2).iterator());
+        BulkWriterResponse actual = write(ImmutableList.of(tuple1, tuple2, tuple3), ImmutableMap.<String, Object>of(ElasticsearchWriter.BULK_MAX_BYTES_CONF, 1));
+
+        assertEquals("Each response should be matched with the tuple of its own request", expected, actual);
+        assertEquals(3, bulkRequests.size());
+        for(BulkRequest request : bulkRequests) {
+            assertEquals(1, request.numberOfActions());
+        }
+    }
+
+    @Test
+    public void testBatchWithinMaxBytesIsNotSplit() throws Exception {
+        Tuple tuple1 = mock(Tuple.class);
+        Tuple tuple2 = mock(Tuple.class);
+
+        respondWith(bulkResponse(buildBulkItemSuccess(), buildBulkItemSuccess()));
+
+        write(ImmutableList.of(tuple1, tuple2));
+
+        assertEquals(1, bulkRequests.size());
+        assertEquals(2, bulkRequests.get(0).numberOfActions());
+    }
+
+    @Test
+    public void testRejectedRequestsAreRetried() throws Exception {
+        Tuple tuple1 = mock(Tuple.class);
+        Tuple tuple2 = mock(Tuple.class);
+
+        // the rejected request is sent again on its own, and succeeds
+        Exception e = new IllegalStateException("Cause");
+        respondWith(bulkResponse(buildBulkItemFailure(e), buildBulkItemFailure(new IllegalStateException("Rejected"), RestStatus.TOO_MANY_REQUESTS))
+                   , bulkResponse(buildBulkItemSuccess()));
 
         BulkWriterResponse expected = new BulkWriterResponse();
         expected.addError(e, tuple1);
         expected.addSuccess(tuple2);
 
+        BulkWriterResponse actual = write(ImmutableList.of(tuple1, tuple2), ImmutableMap.<String, Object>of(ElasticsearchWriter.BULK_RETRY_BACKOFF_MS_CONF, 1));
+
+        assertEquals("The rejected request should have succeeded when retried", expected, actual);
+        assertEquals(2, bulkRequests.size());
+        assertEquals(1, bulkRequests.get(1).numberOfActions());
+    }
+
+    @Test
+    public void testRejectionIsRetryable() throws Exception {
+        Tuple tuple1 = mock(Tuple.class);
+        Tuple tuple2 = mock(Tuple.class);
+
+        // the request is still rejected once the retries run out
+        Exception e = new IllegalStateException("Cause");
+        Exception rejected = new IllegalStateException("Rejected");
+        respondWith(bulkResponse(buildBulkItemFailure(e), buildBulkItemFailure(rejected, RestStatus.SERVICE_UNAVAILABLE))
+                   , bulkResponse(buildBulkItemFailure(rejected, RestStatus.SERVICE_UNAVAILABLE))
+                   , bulkResponse(buildBulkItemFailure(rejected, RestStatus.SERVICE_UNAVAILABLE)));
+
+        BulkWriterResponse expected = new BulkWriterResponse();
+        expected.addError(e, tuple1);
+        expected.addRetryableError(rejected, tuple2);
+
+        BulkWriterResponse actual = write(ImmutableList.of(tuple1, tuple2), ImmutableMap.<String, Object>of(ElasticsearchWriter.BULK_MAX_RETRIES_CONF, 2
+                                                                                          , ElasticsearchWriter.BULK_RETRY_BACKOFF_MS_CONF, 1));
+
+        assertEquals("Response should have one error and one retryable error", expected, actual);
+        assertEquals(3, bulkRequests.size());
+    }
+
+    @Test
+    public void testRejectedBulkRequestIsRetried() throws Exception {
+        Tuple tuple1 = mock(Tuple.class);
+        Tuple tuple2 = mock(Tuple.class);
+
+        respondWith(new EsRejectedExecutionException("Rejected"), bulkResponse(buildBulkItemSuccess(), buildBulkItemSuccess()));
+
+        BulkWriterResponse expected = new BulkWriterResponse();
+        expected.addSuccess(tuple1);
+        expected.addSuccess(tuple2);
+
+        BulkWriterResponse actual = write(ImmutableList.of(tuple1, tuple2), ImmutableMap.<String, Object>of(ElasticsearchWriter.BULK_RETRY_BACKOFF_MS_CONF, 1));
+
+        assertEquals("The rejected bulk request should have succeeded when retried", expected, actual);
+        assertEquals(2, bulkRequests.size());
+    }
+
+    @Test
+    public void testFailedBulkRequestIsNotRetried() throws Exception {
+        Tuple tuple1 = mock(Tuple.class);
+        Tuple tuple2 = mock(Tuple.class);
+
+        Exception e = new IllegalStateException("Cause");
+        respondWith(e);
+
+        BulkWriterResponse expected = new BulkWriterResponse();
+        expected.addAllErrors(e, ImmutableList.of(tuple1, tuple2));
+
+        BulkWriterResponse actual = write(ImmutableList.of(tuple1, tuple2));
+
+        assertEquals("Response should have two errors", expected, actual);
+        assertEquals(1, bulkRequests.size());
+    }
+
+    @Test
+    public void testRetryableErrorsAreFailedForReplay() throws Exception {
+        Tuple tuple1 = mock(Tuple.class);
+        Tuple tuple2 = mock(Tuple.class);
+        OutputCollector collector = mock(OutputCollector.class);
+        WriterConfiguration configurations = mock(WriterConfiguration.class);
+        when(configurations.isEnabled("test")).thenReturn(true);
+        when(configurations.getBatchSize("test")).thenReturn(2);
+        when(configurations.getIndex("test")).thenReturn("test");
+        MessageGetStrategy messageGetStrategy = mock(MessageGetStrategy.class);
+
+        respondWith(bulkResponse(buildBulkItemSuccess(), buildBulkItemFailure(new IllegalStateException("Rejected"), RestStatus.TOO_MANY_REQUESTS)));
+        esWriter = createWriter(ImmutableMap.<String, Object>of(ElasticsearchWriter.BULK_MAX_RETRIES_CONF, 0));
+
+        BulkWriterComponent<JSONObject> writerComponent = new BulkWriterComponent<>(collector);
+        writerComponent.write("test", tuple1, message(0), esWriter, configurations, messageGetStrategy);
+        writerComponent.write("test", tuple2, message(1), esWriter, configurations, messageGetStrategy);
+
+        verify(collector).ack(tuple1);
+        verify(collector).fail(tuple2);
+        verify(collector, never()).ack(tuple2);
+    }
+
+    private BulkWriterResponse write(List<Tuple> tuples) throws Exception {
+        return write(tuples, Collections.emptyMap());
+    }
+
+    private BulkWriterResponse write(List<Tuple> tuples, Map<String, Object> globalConfig) throws Exception {
+        esWriter = createWriter(globalConfig);
+        List<JSONObject> messages = new ArrayList<>();
+        for(int i = 0; i < tuples.size(); i++) {
+            messages.add(message(i));
+        }
+        return esWriter.writeAsync("test", null, tuples, messages).get();
+    }
+
+    private ElasticsearchWriter createWriter(Map<String, Object> globalConfig) {
+        Map<String, Object> globalConfiguration = new HashMap<>(globalConfig);
+        globalConfiguration.put("es.date.format", "yyyy.MM.dd.HH");
         ElasticsearchWriter esWriter = new ElasticsearchWriter();
-        BulkWriterResponse actual = esWriter.buildWriteReponse(ImmutableList.of(tuple1, tuple2), response);
+        esWriter.init(client, globalConfiguration);
+        return esWriter;
+    }
 
-        assertEquals("Response should have one error and one success", expected, actual);
+    private JSONObject message(int i) {
+        JSONObject message = new JSONObject();
+        message.put("value", i);
+        message.put("timestamp", 1000L + i);
+        return message;
+    }
+
+    /**
+     * Answer each bulk request with the next of the responses; either a BulkResponse, or an Exception to fail the request with.
+     */
+    @SuppressWarnings("unchecked")
+    private void respondWith(Object... responses) {
+        Queue<Object> pending = new ConcurrentLinkedQueue<>(ImmutableList.copyOf(responses));
+        doAnswer(invocation -> {
+            bulkRequests.add((BulkRequest) invocation.getArguments()[0]);
+            ActionListener<BulkResponse> listener = (ActionListener<BulkResponse>) invocation.getArguments()[1];
+            Object response = pending.remove();
+            if(response instanceof Exception) {
+                listener.onFailure((Exception) response);
+            }
+            else {
+                listener.onResponse((BulkResponse) response);
+            }
+            return null;
+        }).when(client).bulk(any(BulkRequest.class), any(ActionListener.class));
+    }
+
+    private BulkResponse bulkResponse(BulkItemResponse... items) {
+        BulkResponse response = mock(BulkResponse.class);
+        when(response.getItems()).thenReturn(items);
+        return response;
+    }
+
+    private BulkItemResponse buildBulkItemSuccess() {
+        BulkItemResponse itemResponse = mock(BulkItemResponse.class);
+        when(itemResponse.isFailed()).thenReturn(false);
+        return itemResponse;
     }
 
     private BulkItemResponse buildBulkItemFailure(Exception e) {
+        return buildBulkItemFailure(e, RestStatus.BAD_REQUEST);
+    }
+
+    private BulkItemResponse buildBulkItemFailure(Exception e, RestStatus status) {
         BulkItemResponse itemResponse = mock(BulkItemResponse.class);
         when(itemResponse.isFailed()).thenReturn(true);
         BulkItemResponse.Failure failure = mock(BulkItemResponse.Failure.class);
         when(itemResponse.getFailure()).thenReturn(failure);
         when(failure.getCause()).thenReturn(e);
+        when(failure.getStatus()).thenReturn(status);
         return itemResponse;
     }
 }
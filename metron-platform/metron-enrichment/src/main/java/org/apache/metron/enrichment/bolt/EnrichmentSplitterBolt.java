@@ -26,20 +26,21 @@ import org.apache.metron.common.configuration.enrichment.handler.ConfigHandler;
 import org.apache.metron.enrichment.configuration.Enrichment;
 import org.apache.metron.enrichment.utils.EnrichmentUtils;
 import org.apache.metron.common.utils.MessageUtils;
+import org.apache.metron.common.message.GuidGenerator;
+import org.apache.metron.common.message.GuidGenerators;
+import org.apache.metron.common.message.JSONMessageCodec;
 import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.UnsupportedEncodingException;
 import java.util.*;
 
 public class EnrichmentSplitterBolt extends SplitBolt<JSONObject> {
   protected static final Logger LOG = LoggerFactory.getLogger(EnrichmentSplitterBolt.class);
   private List<Enrichment> enrichments;
   protected String messageFieldName;
-  private transient JSONParser parser;
+  private GuidGenerator guidGenerator = GuidGenerators.DEFAULT.get();
 
 
   public EnrichmentSplitterBolt(String zookeeperUrl) {
@@ -55,9 +56,18 @@ public class EnrichmentSplitterBolt extends SplitBolt<JSONObject> {
     this.messageFieldName = messageFieldName;
     return this;
   }
+
+  /**
+   * @param guidGenerator The name of a GuidGenerators value or the class name of a GuidGenerator,
+   *                      used to key messages which have neither a key nor a guid.
+   */
+  public EnrichmentSplitterBolt withGuidGenerator(String guidGenerator) {
+    this.guidGenerator = GuidGenerators.create(guidGenerator);
+    return this;
+  }
   @Override
   public void prepare(Map map, TopologyContext topologyContext) {
-    parser = new JSONParser();
+    guidGenerator.setTaskId(topologyContext.getThisTaskId());
   }
   @Override
   public String getKey(Tuple tuple, JSONObject message) {
@@ -76,7 +86,7 @@ public class EnrichmentSplitterBolt extends SplitBolt<JSONObject> {
       return guid;
     }
     else {
-      return UUID.randomUUID().toString();
+      return guidGenerator.generate();
     }
   }
 
@@ -86,9 +96,9 @@ public class EnrichmentSplitterBolt extends SplitBolt<JSONObject> {
     if (messageFieldName == null) {
       byte[] data = tuple.getBinary(0);
       try {
-        message = (JSONObject) parser.parse(new String(data, "UTF8"));
+        message = JSONMessageCodec.fromBytes(data);
         message.put(getClass().getSimpleName().toLowerCase() + ".splitter.begin.ts", "" + System.currentTimeMillis());
-      } catch (ParseException | UnsupportedEncodingException e) {
+      } catch (ParseException e) {
         e.printStackTrace();
       }
     } else {
@@ -32,6 +32,7 @@ import org.apache.metron.common.configuration.writer.WriterConfiguration;
 import org.apache.metron.test.bolt.BaseEnrichmentBoltTest;
 import org.apache.metron.common.writer.BulkMessageWriter;
 import org.apache.metron.writer.bolt.BulkMessageWriterBolt;
+import org.apache.metron.writer.kafka.KafkaWriter;
 import org.hamcrest.Description;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
@@ -47,12 +48,14 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.argThat;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -164,4 +167,44 @@ public class BulkMessageWriterBoltTest extends BaseEnrichmentBoltTest {
     verify(outputCollector, times(1)).emit(eq(Constants.ERROR_STREAM), any(Values.class));
     verify(outputCollector, times(1)).reportError(any(Throwable.class));
   }
+
+  @Test
+  public void kafkaWriterShouldWriteBatchesAsynchronouslyAndDrainThemOnCleanup() throws Exception {
+    KafkaWriter kafkaWriter = mock(KafkaWriter.class);
+    when(kafkaWriter.getName()).thenReturn("kafka");
+    CompletableFuture<BulkWriterResponse> future = new CompletableFuture<>();
+    List<Tuple> written = new ArrayList<>();
+    when(kafkaWriter.writeAsync(eq(sensorType), any(WriterConfiguration.class), Matchers.<Iterable<Tuple>>any(), Matchers.anyListOf(JSONObject.class))).thenAnswer(invocation -> {
+      ((Iterable<Tuple>) invocation.getArguments()[2]).forEach(written::add);
+      return future;
+    });
+    BulkMessageWriterBolt bulkMessageWriterBolt = new BulkMessageWriterBolt("zookeeperUrl")
+            .withMessageWriter(kafkaWriter).withMessageGetter(MessageGetters.JSON_FROM_FIELD.name()).withMessageGetterField("message");
+    bulkMessageWriterBolt.setCuratorFramework(client);
+    bulkMessageWriterBolt.setTreeCache(cache);
+    bulkMessageWriterBolt.getConfigurations().updateSensorIndexingConfig(sensorType, "{ \"kafka\" : { \"batchSize\" : 2 } }".getBytes());
+    bulkMessageWriterBolt.prepare(new HashMap(), topologyContext, outputCollector);
+    for(int i = 0; i < 2; i++) {
+      when(tuple.getValueByField("message")).thenReturn(messageList.get(i));
+      bulkMessageWriterBolt.execute(tuple);
+    }
+    //the messages are written together, rather than one at a time
+    verify(kafkaWriter, times(1)).writeAsync(eq(sensorType), any(WriterConfiguration.class), Matchers.<Iterable<Tuple>>any(), argThat(new MessageListMatcher(messageList.subList(0, 2))));
+    verify(kafkaWriter, times(0)).write(any(), any(WriterConfiguration.class), any(Tuple.class), any());
+    verify(outputCollector, times(0)).ack(tuple);
+
+    new Thread(() -> {
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      BulkWriterResponse response = new BulkWriterResponse();
+      response.addAllSuccesses(written);
+      future.complete(response);
+    }).start();
+    //waits for the batch in flight to be acknowledged
+    bulkMessageWriterBolt.cleanup();
+    verify(outputCollector, times(2)).ack(tuple);
+  }
 }
@@ -19,6 +19,7 @@ package org.apache.metron.enrichment.bolt;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import org.apache.metron.common.message.TimeOrderedGuidGenerator;
 import org.apache.metron.test.bolt.BaseEnrichmentBoltTest;
 import org.apache.metron.enrichment.configuration.Enrichment;
 import org.json.simple.JSONObject;
@@ -64,6 +65,8 @@ public class EnrichmentSplitterBoltTest extends BaseEnrichmentBoltTest {
 
     String key = enrichmentSplitterBolt.getKey(tuple, sampleMessage);
     Assert.assertTrue(key != null && key.length() == 36);
+    key = new EnrichmentSplitterBolt("zookeeperUrl").withGuidGenerator("TIME_ORDERED").getKey(tuple, sampleMessage);
+    Assert.assertTrue(key != null && key.length() == TimeOrderedGuidGenerator.LENGTH);
     String someKey = "someKey";
     when(tuple.getStringByField("key")).thenReturn(someKey);
     key = enrichmentSplitterBolt.getKey(tuple, sampleMessage);
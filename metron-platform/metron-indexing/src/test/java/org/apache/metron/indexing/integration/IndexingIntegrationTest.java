@@ -127,6 +127,9 @@ public abstract class IndexingIntegrationTest extends BaseIntegrationTest {
       setProperty("indexing.executors", "0");
       setProperty("index.input.topic", Constants.INDEXING_TOPIC);
       setProperty("index.error.topic", ERROR_TOPIC);
+      setProperty("index.writer.max.inflight", "4");
+      setProperty("index.writer.spool.dir", "");
+      setProperty("index.writer.spool.max.bytes", "0");
       setProperty("index.date.format", dateFormat);
       setProperty("topology.auto-credentials", "[]");
       //HDFS settings
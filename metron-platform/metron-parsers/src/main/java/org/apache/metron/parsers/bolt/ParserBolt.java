@@ -17,10 +17,10 @@
  */
 package org.apache.metron.parsers.bolt;
 
-import org.apache.commons.lang3.StringUtils;
+import com.google.common.base.Joiner;
 import org.apache.metron.common.Constants;
 import org.apache.metron.common.bolt.ConfiguredParserBolt;
-import org.apache.metron.common.configuration.FieldTransformer;
+import org.apache.metron.common.configuration.ConfigurationType;
 import org.apache.metron.common.configuration.FieldValidator;
 import org.apache.metron.common.configuration.SensorParserConfig;
 import org.apache.metron.common.dsl.Context;
@@ -30,14 +30,18 @@ import org.apache.metron.common.message.MessageGetStrategy;
 import org.apache.metron.common.message.MessageGetters;
 import org.apache.metron.common.utils.ErrorUtils;
 import org.apache.metron.enrichment.adapters.geo.GeoLiteDatabase;
-import org.apache.metron.parsers.filters.Filters;
 import org.apache.metron.parsers.interfaces.MessageFilter;
 import org.apache.metron.parsers.interfaces.MessageParser;
+import org.apache.metron.storm.kafka.flux.SimpleStormKafkaBuilder;
+import org.apache.metron.writer.BulkWriterComponent;
+import org.apache.storm.Config;
 import org.apache.storm.task.OutputCollector;
 import org.apache.storm.task.TopologyContext;
 import org.apache.storm.topology.OutputFieldsDeclarer;
 import org.apache.storm.tuple.Fields;
 import org.apache.storm.tuple.Tuple;
+import org.apache.storm.tuple.Values;
+import org.apache.storm.utils.TupleUtils;
 import org.json.simple.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,68 +49,163 @@ import org.slf4j.LoggerFactory;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 public class ParserBolt extends ConfiguredParserBolt implements Serializable {
 
   private static final Logger LOG = LoggerFactory.getLogger(ParserBolt.class);
+
+  /**
+   * The separator used to name a bolt (and topology) which handles several sensors.
+   */
+  public static final String SENSOR_TYPE_SEPARATOR = "__";
+
   private OutputCollector collector;
-  private MessageParser<JSONObject> parser;
-  //default filter is noop, so pass everything through.
-  private MessageFilter<JSONObject> filter;
-  private WriterHandler writer;
+  private Map<String, ParserComponents> sensorToComponentMap;
+  private transient Map<String, String> topicToSensorMap;
+  private transient Map<String, ParserPipeline> pipelines;
+  //the id of this task, which keeps the guids of the tasks distinct
+  private transient int taskId;
   private org.apache.metron.common.dsl.Context stellarContext;
   private transient MessageGetStrategy messageGetStrategy;
+  private transient ParserMetrics metrics;
+  private transient SlowMessageSampler slowMessageSampler;
+  private transient Set<WriterHandler> writers;
   public ParserBolt( String zookeeperUrl
                    , String sensorType
                    , MessageParser<JSONObject> parser
                    , WriterHandler writer
   )
   {
-    super(zookeeperUrl, sensorType);
-    this.writer = writer;
-    this.parser = parser;
+    this(zookeeperUrl, sensorType, Collections.singletonMap(sensorType, new ParserComponents(parser, writer)));
   }
 
+  /**
+   * Create a parser bolt which handles several sensors.  Each tuple is routed to the parser of the sensor
+   * whose topic it was read from, so the spout must emit the kafka topic as a field.  Writer handlers may be
+   * shared between sensors.
+   *
+   * @param zookeeperUrl The zookeeper URL
+   * @param sensorToComponentMap The parser components for each sensor
+   */
+  public ParserBolt( String zookeeperUrl
+                   , Map<String, ParserComponents> sensorToComponentMap
+  )
+  {
+    this(zookeeperUrl, Joiner.on(SENSOR_TYPE_SEPARATOR).join(sensorToComponentMap.keySet()), sensorToComponentMap);
+  }
+
+  private ParserBolt( String zookeeperUrl
+                    , String sensorType
+                    , Map<String, ParserComponents> sensorToComponentMap
+  )
+  {
+    super(zookeeperUrl, sensorType);
+    this.sensorToComponentMap = sensorToComponentMap;
+  }
 
   public ParserBolt withMessageFilter(MessageFilter<JSONObject> filter) {
-    this.filter = filter;
+    for(ParserComponents components : sensorToComponentMap.values()) {
+      components.setFilter(filter);
+    }
     return this;
   }
 
+  public Map<String, ParserComponents> getSensorToComponentMap() {
+    return sensorToComponentMap;
+  }
+
+  @Override
+  public Map<String, Object> getComponentConfiguration() {
+    //tick tuples flush the batches which have been waiting longer than their batch timeout
+    Config conf = new Config();
+    conf.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, BulkWriterComponent.BATCH_TIMEOUT_TICK_SECS);
+    return conf;
+  }
+
   @SuppressWarnings("unchecked")
   @Override
   public void prepare(Map stormConf, TopologyContext context, OutputCollector collector) {
     super.prepare(stormConf, context, collector);
     messageGetStrategy = MessageGetters.DEFAULT_BYTES_FROM_POSITION.get();
     this.collector = collector;
+    this.taskId = context.getThisTaskId();
     initializeStellar();
-    if(getSensorParserConfig() != null && filter == null) {
-      getSensorParserConfig().getParserConfig().putIfAbsent("stellarContext", stellarContext);
-      if (!StringUtils.isEmpty(getSensorParserConfig().getFilterClassName())) {
-        filter = Filters.get(getSensorParserConfig().getFilterClassName()
-                , getSensorParserConfig().getParserConfig()
-        );
+    topicToSensorMap = new HashMap<>();
+    pipelines = new ConcurrentHashMap<>();
+    slowMessageSampler = new SlowMessageSampler();
+    //writer handlers may be shared between sensors, so only initialize each of them once.
+    writers = Collections.newSetFromMap(new IdentityHashMap<>());
+    for(Map.Entry<String, ParserComponents> entry : sensorToComponentMap.entrySet()) {
+      String sensorType = entry.getKey();
+      ParserComponents components = entry.getValue();
+      SensorParserConfig config = getSensorParserConfig(sensorType);
+      components.getMessageParser().init();
+
+      if(writers.add(components.getWriter())) {
+        components.getWriter().init(stormConf, context, collector, getConfigurations());
       }
-    }
 
-    parser.init();
+      if(config != null) {
+        config.init();
+      }
+      else {
+        throw new IllegalStateException("Unable to retrieve a parser config for " + sensorType);
+      }
+      components.getMessageParser().configure(config.getParserConfig());
+      updatePipeline(sensorType);
+      topicToSensorMap.put(config.getSensorTopic() != null ? config.getSensorTopic() : sensorType, sensorType);
+    }
+    metrics = new ParserMetrics();
+    metrics.register(stormConf, context, writers);
+  }
 
-    writer.init(stormConf, context, collector, getConfigurations());
+  @Override
+  public void reloadCallback(String name, ConfigurationType type) {
+    if(pipelines == null) {
+      //not prepared yet; the pipelines are compiled in prepare.
+      return;
+    }
+    try {
+      if(type == ConfigurationType.GLOBAL) {
+        for(String sensorType : pipelines.keySet()) {
+          updatePipeline(sensorType);
+        }
+      }
+      else if(type == ConfigurationType.PARSER && pipelines.containsKey(name)) {
+        updatePipeline(name);
+      }
+    }
+    catch(Exception e) {
+      LOG.error("Unable to recompile the parser pipeline after an update to " + name + ", keeping the previous one", e);
+    }
+  }
 
-    SensorParserConfig config = getSensorParserConfig();
+  /**
+   * Compile the pipeline of a sensor from its current configuration and swap it in.  This is synchronized
+   * so that a slower compile of an older configuration never replaces that of a newer one.
+   *
+   * @param sensorType The sensor type
+   */
+  protected synchronized void updatePipeline(String sensorType) {
+    SensorParserConfig config = getSensorParserConfig(sensorType);
     if(config != null) {
-      config.init();
+      ParserPipeline pipeline = ParserPipeline.compile( config
+                                                      , getConfigurations().getGlobalConfig()
+                                                      , getConfigurations().getFieldValidations()
+                                                      , stellarContext
+                                                      );
+      pipeline.getGuidGenerator().setTaskId(taskId);
+      pipelines.put(sensorType, pipeline);
     }
-    else {
-      throw new IllegalStateException("Unable to retrieve a parser config for " + getSensorType());
-    }
-    parser.configure(config.getParserConfig());
   }
 
   protected void initializeStellar() {
@@ -118,36 +217,78 @@ public class ParserBolt extends ConfiguredParserBolt implements Serializable {
     StellarFunctions.initialize(stellarContext);
   }
 
+  /**
+   * Determine the sensor of a tuple.  A bolt which handles a single sensor does not need the topic,
+   * otherwise the sensor is looked up from the kafka topic that the tuple was read from.
+   *
+   * @param tuple The tuple
+   * @return The sensor type
+   */
+  protected String getSensorType(Tuple tuple) {
+    if(sensorToComponentMap.size() == 1) {
+      return sensorToComponentMap.keySet().iterator().next();
+    }
+    String topic = tuple.getStringByField(SimpleStormKafkaBuilder.FieldsConfiguration.TOPIC.getFieldName());
+    String sensorType = topicToSensorMap.get(topic);
+    if(sensorType == null) {
+      throw new IllegalStateException("Unable to find a sensor for the topic " + topic);
+    }
+    return sensorType;
+  }
+
   @SuppressWarnings("unchecked")
   @Override
   public void execute(Tuple tuple) {
+    if(TupleUtils.isTick(tuple)) {
+      flushTimedOut();
+      return;
+    }
+    long startTime = System.nanoTime();
     byte[] originalMessage = (byte[]) messageGetStrategy.get(tuple);
-    SensorParserConfig sensorParserConfig = getSensorParserConfig();
+    String sensorType = null;
     try {
+      sensorType = getSensorType(tuple);
+      ParserComponents components = sensorToComponentMap.get(sensorType);
+      MessageParser<JSONObject> parser = components.getMessageParser();
+      WriterHandler writer = components.getWriter();
+      ParserPipeline pipeline = pipelines.get(sensorType);
+      SensorParserConfig sensorParserConfig = pipeline.getSensorParserConfig();
+      //a filter set on the bolt takes precedence over the one configured for the sensor
+      MessageFilter<JSONObject> filter = components.getFilter() != null ? components.getFilter() : pipeline.getFilter();
       //we want to ack the tuple in the situation where we have are not doing a bulk write
       //otherwise we want to defer to the writerComponent who will ack on bulk commit.
       boolean ackTuple = !writer.handleAck();
-      int numWritten = 0;
+      //the messages are written together so that a bulk writer acks the tuple once all of them are written
+      List<JSONObject> toWrite = new ArrayList<>();
       if(sensorParserConfig != null) {
-        List<FieldValidator> fieldValidations = getConfigurations().getFieldValidations();
         Optional<List<JSONObject>> messages = parser.parseOptional(originalMessage);
+        long stageEnd = System.nanoTime();
+        metrics.time(sensorType, ParserMetrics.Stage.PARSE, stageEnd - startTime);
         for (JSONObject message : messages.orElse(Collections.emptyList())) {
-          message.put(Constants.SENSOR_TYPE, getSensorType());
-          for (FieldTransformer handler : sensorParserConfig.getFieldTransformations()) {
-            if (handler != null) {
-              handler.transformAndUpdate(message, sensorParserConfig.getParserConfig(), stellarContext);
-            }
-          }
+          metrics.count(sensorType, ParserMetrics.Outcome.PARSED);
+          long stageStart = stageEnd;
+          message.put(Constants.SENSOR_TYPE, sensorType);
+          pipeline.transform(message);
           if(!message.containsKey(Constants.GUID)) {
-            message.put(Constants.GUID, UUID.randomUUID().toString());
+            message.put(Constants.GUID, pipeline.getGuidGenerator().generate());
+          }
+          stageEnd = System.nanoTime();
+          metrics.time(sensorType, ParserMetrics.Stage.TRANSFORM, stageEnd - stageStart);
+          if (!parser.validate(message)) {
+            metrics.count(sensorType, ParserMetrics.Outcome.REJECTED);
+          }
+          else if (filter != null && !filter.emitTuple(message, stellarContext)) {
+            metrics.count(sensorType, ParserMetrics.Outcome.FILTERED);
           }
-          if (parser.validate(message) && (filter == null || filter.emitTuple(message, stellarContext))) {
-            numWritten++;
-            List<FieldValidator> failedValidators = getFailedValidators(message, fieldValidations);
+          else {
+            stageStart = System.nanoTime();
+            List<FieldValidator> failedValidators = pipeline.getFailedValidators(message);
+            stageEnd = System.nanoTime();
+            metrics.time(sensorType, ParserMetrics.Stage.VALIDATE, stageEnd - stageStart);
             if(failedValidators.size() > 0) {
               MetronError error = new MetronError()
                       .withErrorType(Constants.ErrorType.PARSER_INVALID)
-                      .withSensorType(getSensorType())
+                      .withSensorType(sensorType)
                       .addRawMessage(message);
               Set<String> errorFields = failedValidators.stream()
                       .flatMap(fieldValidator -> fieldValidator.getInput().stream())
@@ -155,43 +296,76 @@ public class ParserBolt extends ConfiguredParserBolt implements Serializable {
               if (!errorFields.isEmpty()) {
                 error.withErrorFields(errorFields);
               }
+              metrics.count(sensorType, Constants.ErrorType.PARSER_INVALID);
               ErrorUtils.handleError(collector, error);
             }
             else {
-              writer.write(getSensorType(), tuple, message, getConfigurations(), messageGetStrategy);
+              toWrite.add(message);
             }
           }
+          stageEnd = System.nanoTime();
+        }
+        if(!toWrite.isEmpty()) {
+          long writeStart = stageEnd;
+          writer.write(sensorType, tuple, toWrite, getConfigurations(), messageGetStrategy);
+          stageEnd = System.nanoTime();
+          metrics.count(sensorType, ParserMetrics.Outcome.WRITTEN, toWrite.size());
+          metrics.time(sensorType, ParserMetrics.Stage.WRITE, stageEnd - writeStart);
+        }
+        long elapsed = stageEnd - startTime;
+        metrics.time(sensorType, ParserMetrics.Stage.TOTAL, elapsed);
+        if(slowMessageSampler.sample(sensorType, pipeline.getSlowMessageThresholdNanos(), elapsed, stageEnd)) {
+          collector.emit(SlowMessageSampler.STREAM, new Values(sensorType, TimeUnit.NANOSECONDS.toMillis(elapsed), originalMessage));
         }
       }
       //if we are supposed to ack the tuple OR if we've never passed this tuple to the bulk writer
       //(meaning that none of the messages are valid either globally or locally)
       //then we want to handle the ack ourselves.
-      if(ackTuple || numWritten == 0) {
+      if(ackTuple || toWrite.isEmpty()) {
         collector.ack(tuple);
       }
     } catch (Throwable ex) {
+      sensorType = sensorType != null ? sensorType : getSensorType();
       MetronError error = new MetronError()
               .withErrorType(Constants.ErrorType.PARSER_ERROR)
               .withThrowable(ex)
-              .withSensorType(getSensorType())
+              .withSensorType(sensorType)
               .addRawMessage(originalMessage);
+      metrics.count(sensorType, Constants.ErrorType.PARSER_ERROR);
       ErrorUtils.handleError(collector, error);
       collector.ack(tuple);
     }
   }
 
-  private List<FieldValidator> getFailedValidators(JSONObject input, List<FieldValidator> validators) {
-    List<FieldValidator> failedValidators = new ArrayList<>();
-    for(FieldValidator validator : validators) {
-      if(!validator.isValid(input, getConfigurations().getGlobalConfig(), stellarContext)) {
-        failedValidators.add(validator);
+  private void flushTimedOut() {
+    for(WriterHandler writer : writers) {
+      try {
+        writer.flushTimedOut(getConfigurations(), messageGetStrategy);
+      }
+      catch(Throwable ex) {
+        LOG.error("Unable to flush the batches which have timed out", ex);
+      }
+    }
+  }
+
+  @Override
+  public void cleanup() {
+    if(writers != null) {
+      for(WriterHandler writer : writers) {
+        try {
+          writer.drain(BulkWriterComponent.CLEANUP_DRAIN_SECS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
       }
     }
-    return failedValidators;
+    super.cleanup();
   }
 
   @Override
   public void declareOutputFields(OutputFieldsDeclarer declarer) {
     declarer.declareStream(Constants.ERROR_STREAM, new Fields("message"));
+    declarer.declareStream(SlowMessageSampler.STREAM, new Fields(Constants.SENSOR_TYPE, "latencyMs", "message"));
   }
 }
@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.parsers.bolt;
+
+import org.apache.metron.common.Constants;
+import org.apache.metron.common.metrics.MultiHistogramMetric;
+import org.apache.metron.common.utils.ConversionUtils;
+import org.apache.storm.Config;
+import org.apache.storm.metric.api.MultiCountMetric;
+import org.apache.storm.task.TopologyContext;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The metrics of a parser bolt, reported per sensor through storm's metrics API.  They are
+ * <ul>
+ *   <li>parser.latency - histograms, in microseconds, of the time spent in each stage</li>
+ *   <li>parser.count - counts of messages by outcome and of errors by error type</li>
+ *   <li>parser.writer.batch - histograms of the latency, in microseconds, and size of each batch written</li>
+ *   <li>parser.writer.pending - the number of messages waiting to be written in a batch</li>
+ * </ul>
+ * Each metric is keyed by the sensor type followed by the stage, outcome or measure, e.g. "bro.parse".
+ * The metrics are reported every topology.builtin.metrics.bucket.size.secs seconds.
+ */
+public class ParserMetrics {
+  public static final String LATENCY_METRIC = "parser.latency";
+  public static final String COUNT_METRIC = "parser.count";
+  public static final String BATCH_METRIC = "parser.writer.batch";
+  public static final String PENDING_METRIC = "parser.writer.pending";
+
+  public enum Stage {
+     PARSE("parse")
+    ,TRANSFORM("transform")
+    ,VALIDATE("validate")
+    ,WRITE("write")
+    ,TOTAL("total")
+    ;
+    private String name;
+
+    Stage(String name) {
+      this.name = name;
+    }
+  }
+
+  public enum Outcome {
+     PARSED("parsed")
+    ,REJECTED("rejected")
+    ,FILTERED("filtered")
+    ,WRITTEN("written")
+    ;
+    private String name;
+
+    Outcome(String name) {
+      this.name = name;
+    }
+  }
+
+  private final MultiHistogramMetric latencies = new MultiHistogramMetric();
+  private final MultiCountMetric counts = new MultiCountMetric();
+  private final MultiHistogramMetric batches = new MultiHistogramMetric();
+  //the metric keys are cached to avoid building them for every message
+  private final Map<String, Map<Object, String>> keys = new HashMap<>();
+
+  /**
+   * Register the metrics with storm.
+   *
+   * @param stormConf The storm configuration
+   * @param context The topology context
+   * @param writers The writer handlers of the bolt, which report the batch metrics
+   */
+  public void register(Map stormConf, TopologyContext context, Collection<WriterHandler> writers) {
+    Integer bucketSize = ConversionUtils.convert(stormConf.get(Config.TOPOLOGY_BUILTIN_METRICS_BUCKET_SIZE_SECS), Integer.class);
+    int bucketSizeSecs = bucketSize == null ? 60 : bucketSize;
+    context.registerMetric(LATENCY_METRIC, latencies, bucketSizeSecs);
+    context.registerMetric(COUNT_METRIC, counts, bucketSizeSecs);
+    context.registerMetric(BATCH_METRIC, batches, bucketSizeSecs);
+    context.registerMetric(PENDING_METRIC, () -> {
+      Map<String, Integer> pending = new HashMap<>();
+      for(WriterHandler writer : writers) {
+        pending.putAll(writer.getPendingCounts());
+      }
+      return pending;
+    }, bucketSizeSecs);
+    for(WriterHandler writer : writers) {
+      writer.setBatchMetrics(batches);
+    }
+  }
+
+  public void time(String sensorType, Stage stage, long elapsedNanos) {
+    latencies.update(key(sensorType, stage, stage.name), elapsedNanos / 1000);
+  }
+
+  public void count(String sensorType, Outcome outcome) {
+    counts.scope(key(sensorType, outcome, outcome.name)).incr();
+  }
+
+  public void count(String sensorType, Outcome outcome, long n) {
+    counts.scope(key(sensorType, outcome, outcome.name)).incrBy(n);
+  }
+
+  public void count(String sensorType, Constants.ErrorType errorType) {
+    counts.scope(key(sensorType, errorType, errorType.getType())).incr();
+  }
+
+  private String key(String sensorType, Object measure, String name) {
+    return keys.computeIfAbsent(sensorType, s -> new HashMap<>())
+               .computeIfAbsent(measure, m -> sensorType + "." + name);
+  }
+}
@@ -0,0 +1,422 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.metron.parsers.bolt;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.metron.common.configuration.FieldTransformer;
+import org.apache.metron.common.configuration.FieldValidator;
+import org.apache.metron.common.configuration.SensorParserConfig;
+import org.apache.metron.common.dsl.Context;
+import org.apache.metron.common.dsl.StellarFunctions;
+import org.apache.metron.common.dsl.VariableResolver;
+import org.apache.metron.common.dsl.functions.resolver.FunctionResolver;
+import org.apache.metron.common.field.transformation.StellarTransformation;
+import org.apache.metron.common.field.validation.SimpleValidation;
+import org.apache.metron.common.message.GuidGenerator;
+import org.apache.metron.common.message.GuidGenerators;
+import org.apache.metron.common.stellar.StellarCompiler;
+import org.apache.metron.common.stellar.StellarProcessor;
+import org.apache.metron.common.utils.ConversionUtils;
+import org.apache.metron.parsers.filters.Filters;
+import org.apache.metron.parsers.interfaces.MessageFilter;
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The field transformations, filter and field validations of a sensor, compiled once when the
+ * configuration is loaded rather than interpreted for every message.
+ *
+ * <p>Consecutive Stellar transformations are evaluated in a single pass over a shared variable resolver
+ * using pre-compiled expressions.  The result is the same as applying each transformation in turn.
+ * Validations which always pass when none of their input fields exist are skipped for such messages.
+ *
+ * <p>A pipeline is immutable; the parser bolt swaps in a new pipeline when the configuration changes.
+ */
+public class ParserPipeline {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ParserPipeline.class);
+
+  /**
+   * The parser config key naming the GuidGenerators value or GuidGenerator class used to stamp the guid.
+   */
+  public static final String GUID_GENERATOR_CONF = "guidGenerator";
+
+  /**
+   * A step which transforms a message in place.
+   */
+  private interface TransformationStep {
+    void transformAndUpdate(JSONObject message);
+  }
+
+  private final SensorParserConfig sensorParserConfig;
+  private final List<TransformationStep> transformations;
+  private final List<CompiledValidator> validators;
+  private final MessageFilter<JSONObject> filter;
+  private final GuidGenerator guidGenerator;
+  private final long slowMessageThresholdNanos;
+  private final Map<String, Object> globalConfig;
+  private final Context context;
+
+  private ParserPipeline( SensorParserConfig sensorParserConfig
+                        , List<TransformationStep> transformations
+                        , List<CompiledValidator> validators
+                        , MessageFilter<JSONObject> filter
+                        , GuidGenerator guidGenerator
+                        , long slowMessageThresholdNanos
+                        , Map<String, Object> globalConfig
+                        , Context context
+                        )
+  {
+    this.sensorParserConfig = sensorParserConfig;
+    this.transformations = transformations;
+    this.validators = validators;
+    this.filter = filter;
+    this.guidGenerator = guidGenerator;
+    this.slowMessageThresholdNanos = slowMessageThresholdNanos;
+    this.globalConfig = globalConfig;
+    this.context = context;
+  }
+
+  /**
+   * Compile the pipeline for a sensor.
+   *
+   * @param sensorParserConfig The parser configuration of the sensor
+   * @param globalConfig The global configuration
+   * @param fieldValidations The field validations from the global configuration
+   * @param context The stellar context
+   * @return The compiled pipeline
+   */
+  public static ParserPipeline compile( SensorParserConfig sensorParserConfig
+                                      , Map<String, Object> globalConfig
+                                      , List<FieldValidator> fieldValidations
+                                      , Context context
+                                      )
+  {
+    Map<String, Object> parserConfig = sensorParserConfig.getParserConfig();
+
+    // the filter
+    MessageFilter<JSONObject> filter = null;
+    parserConfig.putIfAbsent("stellarContext", context);
+    if (!StringUtils.isEmpty(sensorParserConfig.getFilterClassName())) {
+      filter = Filters.get(sensorParserConfig.getFilterClassName(), parserConfig);
+    }
+
+    // the transformations, merging consecutive stellar transformations
+    List<TransformationStep> transformations = new ArrayList<>();
+    List<CompiledStellarTransformation> stellarTransformations = new ArrayList<>();
+    for (FieldTransformer transformer : sensorParserConfig.getFieldTransformations()) {
+      if (transformer == null) {
+        continue;
+      }
+      CompiledStellarTransformation compiled = CompiledStellarTransformation.compile(transformer);
+      if (compiled != null) {
+        stellarTransformations.add(compiled);
+      }
+      else {
+        addStellarStep(transformations, stellarTransformations, parserConfig, context);
+        stellarTransformations = new ArrayList<>();
+        transformations.add(message -> transformer.transformAndUpdate(message, parserConfig, context));
+      }
+    }
+    addStellarStep(transformations, stellarTransformations, parserConfig, context);
+
+    // the validations
+    List<CompiledValidator> validators = new ArrayList<>();
+    for (FieldValidator validator : fieldValidations) {
+      validators.add(new CompiledValidator(validator));
+    }
+
+    return new ParserPipeline( sensorParserConfig
+                             , ImmutableList.copyOf(transformations)
+                             , ImmutableList.copyOf(validators)
+                             , filter
+                             , GuidGenerators.create((String) parserConfig.get(GUID_GENERATOR_CONF))
+                             , getSlowMessageThresholdNanos(parserConfig)
+                             , globalConfig
+                             , context
+                             );
+  }
+
+  private static long getSlowMessageThresholdNanos(Map<String, Object> parserConfig) {
+    Long thresholdMs = ConversionUtils.convert(parserConfig.get(SlowMessageSampler.THRESHOLD_CONF), Long.class);
+    return thresholdMs == null ? -1 : TimeUnit.MILLISECONDS.toNanos(thresholdMs);
+  }
+
+  private static void addStellarStep( List<TransformationStep> transformations
+                                    , List<CompiledStellarTransformation> stellarTransformations
+                                    , Map<String, Object> parserConfig
+                                    , Context context
+                                    )
+  {
+    if (!stellarTransformations.isEmpty()) {
+      transformations.add(new StellarStep(stellarTransformations, parserConfig, context));
+    }
+  }
+
+  public SensorParserConfig getSensorParserConfig() {
+    return sensorParserConfig;
+  }
+
+  /**
+   * @return The filter configured for the sensor, or null if there is none.
+   */
+  public MessageFilter<JSONObject> getFilter() {
+    return filter;
+  }
+
+  /**
+   * @return The generator of guids for messages which do not have one.
+   */
+  public GuidGenerator getGuidGenerator() {
+    return guidGenerator;
+  }
+
+  /**
+   * @return The time above which a message is slow, in nanoseconds, or a negative number if slow messages are not captured.
+   */
+  public long getSlowMessageThresholdNanos() {
+    return slowMessageThresholdNanos;
+  }
+
+  /**
+   * Apply the field transformations to a message in place.
+   *
+   * @param message The message
+   */
+  public void transform(JSONObject message) {
+    for (TransformationStep step : transformations) {
+      step.transformAndUpdate(message);
+    }
+  }
+
+  /**
+   * Validate a message against the global field validations.
+   *
+   * @param message The message
+   * @return The validators that the message fails
+   */
+  public List<FieldValidator> getFailedValidators(JSONObject message) {
+    List<FieldValidator> failedValidators = new ArrayList<>();
+    for (CompiledValidator validator : validators) {
+      if (!validator.isValid(message, globalConfig, context)) {
+        failedValidators.add(validator.getValidator());
+      }
+    }
+    return failedValidators;
+  }
+
+  /**
+   * A field validator that knows whether it may be skipped when its input fields are absent.
+   */
+  private static class CompiledValidator {
+    private final FieldValidator validator;
+    private final boolean skipWhenAbsent;
+
+    CompiledValidator(FieldValidator validator) {
+      this.validator = validator;
+      this.skipWhenAbsent = validator.getInput() != null
+                         && !validator.getInput().isEmpty()
+                         && validator.getValidation() instanceof SimpleValidation
+                         && ((SimpleValidation) validator.getValidation()).allowsNonExistent();
+    }
+
+    FieldValidator getValidator() {
+      return validator;
+    }
+
+    boolean isValid(JSONObject message, Map<String, Object> globalConfig, Context context) {
+      if (skipWhenAbsent && allAbsent(message)) {
+        return true;
+      }
+      return validator.isValid(message, globalConfig, context);
+    }
+
+    private boolean allAbsent(JSONObject message) {
+      for (String field : validator.getInput()) {
+        if (message.get(field) != null) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * A Stellar field transformation with its expressions compiled.
+   */
+  private static class CompiledStellarTransformation {
+    private final Set<String> input;
+    private final Set<String> outputs;
+    private final List<String> fields;
+    private final List<String> rules;
+    private final List<StellarCompiler.Expression> expressions;
+
+    private CompiledStellarTransformation( Set<String> input
+                                         , Set<String> outputs
+                                         , List<String> fields
+                                         , List<String> rules
+                                         , List<StellarCompiler.Expression> expressions
+                                         )
+    {
+      this.input = input;
+      this.outputs = outputs;
+      this.fields = fields;
+      this.rules = rules;
+      this.expressions = expressions;
+    }
+
+    /**
+     * Compile a field transformer.
+     *
+     * @param transformer The field transformer
+     * @return The compiled transformation or null if it is not a Stellar transformation or it does not compile.
+     */
+    static CompiledStellarTransformation compile(FieldTransformer transformer) {
+      if (!(transformer.getFieldTransformation() instanceof StellarTransformation)) {
+        return null;
+      }
+      List<String> fields = new ArrayList<>();
+      List<String> rules = new ArrayList<>();
+      List<StellarCompiler.Expression> expressions = new ArrayList<>();
+      for (Map.Entry<String, Object> kv : transformer.getConfig().entrySet()) {
+        if (kv.getValue() == null) {
+          continue;
+        }
+        String rule = kv.getValue().toString();
+        StellarCompiler.Expression expression;
+        try {
+          expression = StellarProcessor.compile(rule);
+        }
+        catch (Exception e) {
+          // leave the transformation to be interpreted, so that the failure is reported per message as before
+          LOG.warn("Unable to compile transformation " + rule + ": " + e.getMessage(), e);
+          return null;
+        }
+        if (expression != null) {
+          fields.add(kv.getKey());
+          rules.add(rule);
+          expressions.add(expression);
+        }
+      }
+      List<String> input = transformer.getInput();
+      return new CompiledStellarTransformation( input == null || input.isEmpty() ? null : new HashSet<>(input)
+                                              , new HashSet<>(transformer.getOutput())
+                                              , fields
+                                              , rules
+                                              , expressions
+                                              );
+    }
+  }
+
+  /**
+   * Consecutive Stellar transformations evaluated in one pass.  Each transformation sees the message as
+   * updated by the ones before it and its intermediate variables are not visible to the others.
+   */
+  private static class StellarStep implements TransformationStep {
+    private final List<CompiledStellarTransformation> transformations;
+    private final Map<String, Object> sensorConfig;
+    private final Context context;
+    private final FunctionResolver functionResolver;
+
+    StellarStep(List<CompiledStellarTransformation> transformations, Map<String, Object> sensorConfig, Context context) {
+      this.transformations = transformations;
+      this.sensorConfig = sensorConfig;
+      this.context = context;
+      this.functionResolver = StellarFunctions.FUNCTION_RESOLVER();
+    }
+
+    @Override
+    public void transformAndUpdate(JSONObject message) {
+      StellarStepResolver resolver = new StellarStepResolver(message, sensorConfig);
+      StellarCompiler.ExpressionState state = new StellarCompiler.ExpressionState(context, functionResolver, resolver);
+      for (CompiledStellarTransformation transformation : transformations) {
+        resolver.reset(transformation.input);
+        for (int i = 0; i < transformation.expressions.size(); i++) {
+          String field = transformation.fields.get(i);
+          try {
+            Object o = transformation.expressions.get(i).apply(state);
+            if (o != null) {
+              if (transformation.outputs.contains(field)) {
+                resolver.output.put(field, o);
+              }
+              else {
+                resolver.intermediateVariables.put(field, o);
+              }
+            }
+          }
+          catch (Exception ex) {
+            throw new IllegalStateException( "Unable to process transformation: " + transformation.rules.get(i)
+                                           + " for " + field + " because " + ex.getMessage()
+                                           , ex
+                                           );
+          }
+        }
+        message.putAll(resolver.output);
+      }
+    }
+  }
+
+  /**
+   * Resolves the output and intermediate variables of the transformation being evaluated, then its
+   * input fields from the message and finally the sensor config.
+   */
+  private static class StellarStepResolver implements VariableResolver {
+    private final Map<String, Object> output = new HashMap<>();
+    private final Map<String, Object> intermediateVariables = new HashMap<>();
+    private final JSONObject message;
+    private final Map<String, Object> sensorConfig;
+    private Set<String> input;
+
+    StellarStepResolver(JSONObject message, Map<String, Object> sensorConfig) {
+      this.message = message;
+      this.sensorConfig = sensorConfig;
+    }
+
+    void reset(Set<String> input) {
+      this.input = input;
+      output.clear();
+      intermediateVariables.clear();
+    }
+
+    @Override
+    public Object resolve(String variable) {
+      Object o = output.get(variable);
+      if (o == null) {
+        o = intermediateVariables.get(variable);
+      }
+      if (o == null && (input == null || input.contains(variable))) {
+        o = message.get(variable);
+      }
+      if (o == null && sensorConfig != null) {
+        o = sensorConfig.get(variable);
+      }
+      return o;
+    }
+  }
+}
@@ -0,0 +1,57 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.parsers.bolt;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decides which slow messages to capture.  A message is captured when it took longer than the
+ * threshold of its sensor, but no more than one message per sensor is captured each second, so a
+ * burst of slow messages does not flood the stream.
+ */
+public class SlowMessageSampler {
+  /**
+   * The parser config key holding the threshold, in milliseconds, above which a message is slow.
+   * Slow messages are not captured when this is not set.
+   */
+  public static final String THRESHOLD_CONF = "slowMessageThresholdMs";
+  public static final String STREAM = "slow_message";
+  private static final long INTERVAL_NANOS = 1000L * 1000L * 1000L;
+
+  private final Map<String, Long> lastSampled = new HashMap<>();
+
+  /**
+   * @param sensorType The sensor type
+   * @param thresholdNanos The threshold of the sensor in nanoseconds, negative if there is none
+   * @param elapsedNanos The time taken by the message
+   * @param now The current value of System.nanoTime()
+   * @return Whether the message should be captured
+   */
+  public boolean sample(String sensorType, long thresholdNanos, long elapsedNanos, long now) {
+    if(thresholdNanos < 0 || elapsedNanos <= thresholdNanos) {
+      return false;
+    }
+    Long last = lastSampled.get(sensorType);
+    if(last != null && now - last < INTERVAL_NANOS) {
+      return false;
+    }
+    lastSampled.put(sensorType, now);
+    return true;
+  }
+}
@@ -24,16 +24,23 @@ import org.apache.metron.common.error.MetronError;
 import org.apache.metron.common.message.MessageGetStrategy;
 import org.apache.metron.common.message.MessageGetters;
 import org.apache.metron.common.utils.ErrorUtils;
+import org.apache.metron.writer.BulkWriterComponent;
+import org.apache.storm.Config;
 import org.apache.storm.task.OutputCollector;
 import org.apache.storm.task.TopologyContext;
 import org.apache.storm.topology.OutputFieldsDeclarer;
 import org.apache.storm.topology.base.BaseRichBolt;
 import org.apache.storm.tuple.Tuple;
+import org.apache.storm.utils.TupleUtils;
 import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public class WriterBolt extends BaseRichBolt {
+  private static final Logger LOG = LoggerFactory.getLogger(WriterBolt.class);
   private WriterHandler handler;
   private ParserConfigurations configuration;
   private String sensorType;
@@ -51,6 +58,14 @@ public class WriterBolt extends BaseRichBolt {
     return this;
   }
 
+  @Override
+  public Map<String, Object> getComponentConfiguration() {
+    //tick tuples flush the batches which have been waiting longer than their batch timeout
+    Config conf = new Config();
+    conf.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, BulkWriterComponent.BATCH_TIMEOUT_TICK_SECS);
+    return conf;
+  }
+
   @Override
   public void prepare(Map stormConf, TopologyContext context, OutputCollector collector) {
     this.collector = collector;
@@ -74,6 +89,14 @@ public class WriterBolt extends BaseRichBolt {
   @Override
   public void execute(Tuple tuple) {
     JSONObject message = null;
+    if(TupleUtils.isTick(tuple)) {
+      try {
+        handler.flushTimedOut(configuration, messageGetStrategy);
+      } catch (Exception e) {
+        LOG.error("Unable to flush the batches which have timed out", e);
+      }
+      return;
+    }
     try {
       message = (JSONObject) messageGetStrategy.get(tuple);
       handler.write(sensorType, tuple, message, configuration, messageGetStrategy);
@@ -91,6 +114,15 @@ public class WriterBolt extends BaseRichBolt {
     }
   }
 
+  @Override
+  public void cleanup() {
+    try {
+      handler.drain(BulkWriterComponent.CLEANUP_DRAIN_SECS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
   /**
    * Declare the output schema for all the streams of this topology.
    *
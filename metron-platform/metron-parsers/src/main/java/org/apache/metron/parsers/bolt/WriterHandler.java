@@ -19,6 +19,7 @@
 package org.apache.metron.parsers.bolt;
 
 import org.apache.metron.common.message.MessageGetStrategy;
+import org.apache.metron.common.metrics.MultiHistogramMetric;
 import org.apache.storm.task.OutputCollector;
 import org.apache.storm.task.TopologyContext;
 import org.apache.storm.tuple.Tuple;
@@ -33,13 +34,19 @@ import org.apache.metron.writer.WriterToBulkWriter;
 import org.json.simple.JSONObject;
 
 import java.io.Serializable;
-import java.util.Collection;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 public class WriterHandler implements Serializable {
+  /**
+   * The number of batches an asynchronous bulk writer may have in flight by default.  Batches are small
+   * relative to the parsing rate, so more of them are allowed in flight than for the indexing writers.
+   */
+  public static final int DEFAULT_MAX_IN_FLIGHT = 100;
   private BulkMessageWriter<JSONObject> messageWriter;
+  private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
   private transient BulkWriterComponent<JSONObject> writerComponent;
   private transient Function<ParserConfigurations, WriterConfiguration> writerTransformer;
   private boolean isBulk = false;
@@ -54,6 +61,15 @@ public class WriterHandler implements Serializable {
   }
 
 
+  /**
+   * The maximum number of batches an asynchronous bulk writer may have in flight at once.  The tuples of a
+   * batch are acked once it has been written.
+   */
+  public WriterHandler withMaxInFlight(int maxInFlight) {
+    this.maxInFlight = maxInFlight;
+    return this;
+  }
+
   public boolean handleAck() {
     return isBulk;
   }
@@ -70,12 +86,9 @@ public class WriterHandler implements Serializable {
     } catch (Exception e) {
       throw new IllegalStateException("Unable to initialize message writer", e);
     }
-    this.writerComponent = new BulkWriterComponent<JSONObject>(collector, isBulk, isBulk) {
-      @Override
-      protected Collection<Tuple> createTupleCollection() {
-        return new HashSet<>();
-      }
-    };
+    this.writerComponent = new BulkWriterComponent<JSONObject>(collector, isBulk, isBulk)
+     .withDefaultBatchTimeout(BulkWriterComponent.getDefaultBatchTimeout(stormConf))
+     .withMaxInFlight(maxInFlight);
   }
 
   public void write( String sensorType
@@ -87,7 +100,43 @@ public class WriterHandler implements Serializable {
     writerComponent.write(sensorType, tuple, message, messageWriter, writerTransformer.apply(configurations), messageGetStrategy);
   }
 
+  /**
+   * Write all of the messages parsed from a tuple.  A bulk writer acks the tuple once every one of them is written.
+   */
+  public void write( String sensorType
+                   , Tuple tuple
+                   , List<JSONObject> messages
+                   , ParserConfigurations configurations
+                   , MessageGetStrategy messageGetStrategy
+                   ) throws Exception {
+    writerComponent.write(sensorType, tuple, messages, messageWriter, writerTransformer.apply(configurations), messageGetStrategy);
+  }
+
+  /**
+   * Write the batches which are older than their batch timeout.
+   */
+  public void flushTimedOut(ParserConfigurations configurations, MessageGetStrategy messageGetStrategy) throws Exception {
+    writerComponent.flushTimedOut(messageWriter, writerTransformer.apply(configurations), messageGetStrategy);
+  }
+
+  public void setBatchMetrics(MultiHistogramMetric batchMetrics) {
+    writerComponent.withBatchMetrics(batchMetrics);
+  }
+
+  public Map<String, Integer> getPendingCounts() {
+    return writerComponent.getPendingCounts();
+  }
+
   public void errorAll(String sensorType, Throwable e, MessageGetStrategy messageGetStrategy) {
     writerComponent.errorAll(sensorType, e, messageGetStrategy);
   }
+
+  /**
+   * Wait for the batches in flight to complete, so that their tuples are acked rather than replayed.
+   *
+   * @return Whether every batch completed within the timeout
+   */
+  public boolean drain(long timeout, TimeUnit unit) throws InterruptedException {
+    return writerComponent == null || writerComponent.drain(timeout, unit);
+  }
 }
@@ -17,6 +17,7 @@
  */
 package org.apache.metron.parsers.topology;
 
+import com.google.common.base.Joiner;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.metron.storm.kafka.flux.SimpleStormKafkaBuilder;
 import org.apache.metron.storm.kafka.flux.SpoutConfiguration;
@@ -34,6 +35,7 @@ import org.apache.metron.common.writer.BulkMessageWriter;
 import org.apache.metron.common.writer.MessageWriter;
 import org.apache.metron.common.utils.ReflectionUtils;
 import org.apache.metron.parsers.bolt.ParserBolt;
+import org.apache.metron.parsers.bolt.ParserComponents;
 import org.apache.metron.parsers.bolt.WriterBolt;
 import org.apache.metron.parsers.bolt.WriterHandler;
 import org.apache.metron.parsers.interfaces.MessageParser;
@@ -44,10 +46,15 @@ import org.json.simple.JSONObject;
 import java.util.*;
 
 /**
- * Builds a Storm topology that parses telemetry data received from a sensor.
+ * Builds a Storm topology that parses telemetry data received from one or more sensors.
  */
 public class ParserTopologyBuilder {
 
+  /**
+   * The prefix of the settings of the error writer within a sensor's parser configuration.
+   */
+  private static final String ERROR_CONFIG_PREFIX = "error";
+
   /**
    * Builds a Storm topology that parses telemetry data received from an external sensor.
    *
@@ -77,26 +84,77 @@ public class ParserTopologyBuilder {
                                       Optional<String> securityProtocol,
                                       Optional<String> outputTopic
   ) throws Exception {
+    return build(zookeeperUrl,
+            brokerUrl,
+            Collections.singletonList(sensorType),
+            spoutParallelism,
+            spoutNumTasks,
+            parserParallelism,
+            parserNumTasks,
+            errorWriterParallelism,
+            errorWriterNumTasks,
+            kafkaSpoutConfig,
+            securityProtocol,
+            outputTopic
+    );
+  }
+
+  /**
+   * Builds a Storm topology that parses telemetry data received from one or more external sensors.
+   *
+   * <p>When more than one sensor is given, a single spout consumes the topics of every sensor and a
+   * single parser bolt routes each record to the parser of its sensor by topic.  Sensors that use the
+   * default kafka writer with the same settings share one writer, which batches each sensor separately.
+   *
+   * @param zookeeperUrl             Zookeeper URL
+   * @param brokerUrl                Kafka Broker URL
+   * @param sensorTypes              Types of sensor
+   * @param spoutParallelism         Parallelism hint for the spout
+   * @param spoutNumTasks            Number of tasks for the spout
+   * @param parserParallelism        Parallelism hint for the parser bolt
+   * @param parserNumTasks           Number of tasks for the parser bolt
+   * @param errorWriterParallelism   Parallelism hint for the bolt that handles errors
+   * @param errorWriterNumTasks      Number of tasks for the bolt that handles errors
+   * @param kafkaSpoutConfig         Configuration options for the kafka spout
+   * @return A Storm topology that parses telemetry data received from the external sensors
+   * @throws Exception
+   */
+  public static TopologyBuilder build(String zookeeperUrl,
+                                      Optional<String> brokerUrl,
+                                      List<String> sensorTypes,
+                                      int spoutParallelism,
+                                      int spoutNumTasks,
+                                      int parserParallelism,
+                                      int parserNumTasks,
+                                      int errorWriterParallelism,
+                                      int errorWriterNumTasks,
+                                      Map<String, Object> kafkaSpoutConfig,
+                                      Optional<String> securityProtocol,
+                                      Optional<String> outputTopic
+  ) throws Exception {
 
     // fetch configuration from zookeeper
     ParserConfigurations configs = new ParserConfigurations();
-    SensorParserConfig parserConfig = getSensorParserConfig(zookeeperUrl, sensorType, configs);
+    Map<String, SensorParserConfig> parserConfigs = getSensorParserConfigs(zookeeperUrl, sensorTypes, configs);
 
     // create the spout
     TopologyBuilder builder = new TopologyBuilder();
-    KafkaSpout kafkaSpout = createKafkaSpout(zookeeperUrl, sensorType, securityProtocol, Optional.ofNullable(kafkaSpoutConfig) , parserConfig);
+    KafkaSpout kafkaSpout = createKafkaSpout(zookeeperUrl, securityProtocol, Optional.ofNullable(kafkaSpoutConfig) , parserConfigs);
     builder.setSpout("kafkaSpout", kafkaSpout, spoutParallelism)
             .setNumTasks(spoutNumTasks);
 
     // create the parser bolt
-    ParserBolt parserBolt = createParserBolt(zookeeperUrl, brokerUrl, sensorType, securityProtocol, configs, parserConfig, outputTopic);
+    ParserBolt parserBolt = createParserBolt(zookeeperUrl, brokerUrl, securityProtocol, configs, parserConfigs, outputTopic);
     builder.setBolt("parserBolt", parserBolt, parserParallelism)
             .setNumTasks(parserNumTasks)
             .shuffleGrouping("kafkaSpout");
 
     // create the error bolt, if needed
     if (errorWriterNumTasks > 0) {
-      WriterBolt errorBolt = createErrorBolt(zookeeperUrl, brokerUrl, sensorType, securityProtocol, configs, parserConfig);
+      // the sensors share one error writer, so they must agree on its settings
+      validateErrorWriterConfigs(parserConfigs);
+      String errorSensorType = sensorTypes.get(0);
+      WriterBolt errorBolt = createErrorBolt(zookeeperUrl, brokerUrl, errorSensorType, securityProtocol, configs, parserConfigs.get(errorSensorType));
       builder.setBolt("errorMessageWriter", errorBolt, errorWriterParallelism)
               .setNumTasks(errorWriterNumTasks)
               .shuffleGrouping("parserBolt", Constants.ERROR_STREAM);
@@ -106,33 +164,37 @@ public class ParserTopologyBuilder {
   }
 
   /**
-   * Create a spout that consumes tuples from a Kafka topic.
+   * Create a spout that consumes tuples from the Kafka topics of one or more sensors.  If there is more than
+   * one sensor, the topic is exposed in the tuple so that the parser bolt can route by it.
    *
    * @param zkQuorum Zookeeper URL
-   * @param sensorType              Type of sensor
    * @param kafkaConfigOptional     Configuration options for the kafka spout
-   * @param parserConfig            Configuration for the parser
+   * @param parserConfigs           Configuration for the parser of each sensor
    * @return
    */
   private static StormKafkaSpout<Object, Object> createKafkaSpout( String zkQuorum
-                                                 , String sensorType
                                                  , Optional<String> securityProtocol
                                                  , Optional<Map<String, Object>> kafkaConfigOptional
-                                                 , SensorParserConfig parserConfig
+                                                 , Map<String, SensorParserConfig> parserConfigs
                                                  )
   {
     Map<String, Object> kafkaSpoutConfigOptions = kafkaConfigOptional.orElse(new HashMap<>());
-    String inputTopic = parserConfig.getSensorTopic() != null ? parserConfig.getSensorTopic() : sensorType;
+    List<String> inputTopics = new ArrayList<>();
+    for(Map.Entry<String, SensorParserConfig> entry : parserConfigs.entrySet()) {
+      SensorParserConfig parserConfig = entry.getValue();
+      inputTopics.add(parserConfig.getSensorTopic() != null ? parserConfig.getSensorTopic() : entry.getKey());
+    }
     kafkaSpoutConfigOptions.putIfAbsent( SpoutConfiguration.FIRST_POLL_OFFSET_STRATEGY.key
             , KafkaSpoutConfig.FirstPollOffsetStrategy.UNCOMMITTED_EARLIEST.toString()
     );
     kafkaSpoutConfigOptions.putIfAbsent( ConsumerConfig.GROUP_ID_CONFIG
-            , inputTopic + "_parser"
+            , Joiner.on(ParserBolt.SENSOR_TYPE_SEPARATOR).join(inputTopics) + "_parser"
     );
     if(securityProtocol.isPresent()) {
       kafkaSpoutConfigOptions.putIfAbsent("security.protocol", securityProtocol.get());
     }
-    return SimpleStormKafkaBuilder.create(inputTopic, zkQuorum, Arrays.asList("value"), kafkaSpoutConfigOptions);
+    List<String> fields = inputTopics.size() > 1 ? Arrays.asList("value", "topic") : Arrays.asList("value");
+    return SimpleStormKafkaBuilder.create(Joiner.on(",").join(inputTopics), zkQuorum, fields, kafkaSpoutConfigOptions);
   }
 
   private static KafkaWriter createKafkaWriter( Optional<String> broker
@@ -156,42 +218,57 @@ public class ParserTopologyBuilder {
   }
 
   /**
-   * Create a bolt that parses input from a sensor.
+   * Create a bolt that parses input from one or more sensors.
    *
    * @param zookeeperUrl Zookeeper URL
    * @param brokerUrl    Kafka Broker URL
-   * @param sensorType   Type of sensor that is being consumed.
    * @param configs
-   * @param parserConfig
-   * @return A Storm bolt that parses input from a sensor
+   * @param parserConfigs The parser configuration of each sensor that is being consumed.
+   * @return A Storm bolt that parses input from the sensors
    */
   private static ParserBolt createParserBolt( String zookeeperUrl
                                             , Optional<String> brokerUrl
-                                            , String sensorType
                                             , Optional<String> securityProtocol
                                             , ParserConfigurations configs
-                                            , SensorParserConfig parserConfig
+                                            , Map<String, SensorParserConfig> parserConfigs
                                             , Optional<String> outputTopic
                                             )
   {
+    Map<String, ParserComponents> sensorToComponentMap = new LinkedHashMap<>();
+    // sensors using the default writer with identical settings share a writer handler
+    Map<List<Object>, WriterHandler> defaultWriterHandlers = new HashMap<>();
+    for(Map.Entry<String, SensorParserConfig> entry : parserConfigs.entrySet()) {
+      String sensorType = entry.getKey();
+      SensorParserConfig parserConfig = entry.getValue();
 
-    // create message parser
-    MessageParser<JSONObject> parser = ReflectionUtils.createInstance(parserConfig.getParserClassName());
-    parser.configure(parserConfig.getParserConfig());
-
-    // create writer - if not configured uses a sensible default
-    AbstractWriter writer = parserConfig.getWriterClassName() == null ?
-            createKafkaWriter( brokerUrl
-                             , zookeeperUrl
-                             , securityProtocol
-                             ).withTopic(outputTopic.orElse(Constants.ENRICHMENT_TOPIC)) :
-            ReflectionUtils.createInstance(parserConfig.getWriterClassName());
-    writer.configure(sensorType, new ParserWriterConfiguration(configs));
+      // create message parser
+      MessageParser<JSONObject> parser = ReflectionUtils.createInstance(parserConfig.getParserClassName());
+      parser.configure(parserConfig.getParserConfig());
 
-    // create a writer handler
-    WriterHandler writerHandler = createWriterHandler(writer);
+      // create writer - if not configured uses a sensible default
+      WriterHandler writerHandler;
+      if(parserConfig.getWriterClassName() == null) {
+        KafkaWriter writer = createKafkaWriter( brokerUrl
+                                              , zookeeperUrl
+                                              , securityProtocol
+                                              ).withTopic(outputTopic.orElse(Constants.ENRICHMENT_TOPIC));
+        writer.configure(sensorType, new ParserWriterConfiguration(configs));
+        List<Object> writerKey = Arrays.asList(writer.getKafkaTopic(), writer.getZkQuorum(), writer.createProducerConfigs());
+        writerHandler = defaultWriterHandlers.computeIfAbsent(writerKey, key -> createWriterHandler(writer));
+      }
+      else {
+        AbstractWriter writer = ReflectionUtils.createInstance(parserConfig.getWriterClassName());
+        writer.configure(sensorType, new ParserWriterConfiguration(configs));
+        writerHandler = createWriterHandler(writer);
+      }
+      sensorToComponentMap.put(sensorType, new ParserComponents(parser, writerHandler));
+    }
 
-    return new ParserBolt(zookeeperUrl, sensorType, parser, writerHandler);
+    if(sensorToComponentMap.size() == 1) {
+      Map.Entry<String, ParserComponents> entry = sensorToComponentMap.entrySet().iterator().next();
+      return new ParserBolt(zookeeperUrl, entry.getKey(), entry.getValue().getMessageParser(), entry.getValue().getWriter());
+    }
+    return new ParserBolt(zookeeperUrl, sensorToComponentMap);
   }
 
   /**
@@ -220,7 +297,7 @@ public class ParserTopologyBuilder {
                                , zookeeperUrl
                                , securityProtocol
                                ).withTopic((String) configs.getGlobalConfig().get("parser.error.topic"))
-                                .withConfigPrefix("error")
+                                .withConfigPrefix(ERROR_CONFIG_PREFIX)
             : ReflectionUtils.createInstance(parserConfig.getWriterClassName());
     writer.configure(sensorType, new ParserWriterConfiguration(configs));
 
@@ -231,25 +308,68 @@ public class ParserTopologyBuilder {
   }
 
   /**
-   * Fetch the parser configuration from Zookeeper.
+   * Ensure that the sensors of a topology agree on the settings of the error writer that they share;
+   * the error writer class and the 'error' prefixed settings of their parser configuration.
+   *
+   * @param parserConfigs The parser configuration of each sensor
+   * @throws IllegalStateException If any two sensors define different error writer settings
+   */
+  static void validateErrorWriterConfigs(Map<String, SensorParserConfig> parserConfigs) {
+    String firstSensorType = null;
+    List<Object> firstSettings = null;
+    for(Map.Entry<String, SensorParserConfig> entry : parserConfigs.entrySet()) {
+      List<Object> settings = getErrorWriterSettings(entry.getValue());
+      if(firstSettings == null) {
+        firstSensorType = entry.getKey();
+        firstSettings = settings;
+      }
+      else if(!firstSettings.equals(settings)) {
+        throw new IllegalStateException("Sensors " + firstSensorType + " and " + entry.getKey() + " share an error writer," +
+                " but define different error writer settings: " + firstSettings + " and " + settings);
+      }
+    }
+  }
+
+  private static List<Object> getErrorWriterSettings(SensorParserConfig parserConfig) {
+    Map<String, Object> errorConfig = new TreeMap<>();
+    if(parserConfig.getParserConfig() != null) {
+      for(Map.Entry<String, Object> entry : parserConfig.getParserConfig().entrySet()) {
+        if(entry.getKey().startsWith(ERROR_CONFIG_PREFIX + ".")) {
+          errorConfig.put(entry.getKey(), entry.getValue());
+        }
+      }
+    }
+    return Arrays.asList(parserConfig.getErrorWriterClassName(), errorConfig);
+  }
+
+  /**
+   * Fetch the parser configuration of each sensor from Zookeeper.
    *
    * @param zookeeperUrl Zookeeper URL
-   * @param sensorType   Type of sensor
+   * @param sensorTypes  Types of sensor
    * @param configs
-   * @return
+   * @return The parser configuration of each sensor, in the order of the sensor types given
    * @throws Exception
    */
-  private static SensorParserConfig getSensorParserConfig(String zookeeperUrl, String sensorType, ParserConfigurations configs) throws Exception {
+  private static Map<String, SensorParserConfig> getSensorParserConfigs(String zookeeperUrl, List<String> sensorTypes, ParserConfigurations configs) throws Exception {
     CuratorFramework client = ConfigurationsUtils.getClient(zookeeperUrl);
     client.start();
-    ConfigurationsUtils.updateParserConfigsFromZookeeper(configs, client);
-    SensorParserConfig parserConfig = configs.getSensorParserConfig(sensorType);
-    if (parserConfig == null) {
-      throw new IllegalStateException("Cannot find the parser configuration in zookeeper for " + sensorType + "." +
-              "  Please check that it exists in zookeeper by using the 'zk_load_configs.sh -m DUMP' command.");
+    try {
+      ConfigurationsUtils.updateParserConfigsFromZookeeper(configs, client);
+      Map<String, SensorParserConfig> parserConfigs = new LinkedHashMap<>();
+      for(String sensorType : sensorTypes) {
+        SensorParserConfig parserConfig = configs.getSensorParserConfig(sensorType);
+        if (parserConfig == null) {
+          throw new IllegalStateException("Cannot find the parser configuration in zookeeper for " + sensorType + "." +
+                  "  Please check that it exists in zookeeper by using the 'zk_load_configs.sh -m DUMP' command.");
+        }
+        parserConfigs.put(sensorType, parserConfig);
+      }
+      return parserConfigs;
+    }
+    finally {
+      client.close();
     }
-    client.close();
-    return parserConfig;
   }
 
   /**
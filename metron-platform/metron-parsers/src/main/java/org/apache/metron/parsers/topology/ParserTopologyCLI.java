@@ -28,9 +28,12 @@ import org.apache.storm.topology.TopologyBuilder;
 import org.apache.storm.utils.Utils;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
 import org.apache.commons.cli.*;
 import org.apache.commons.io.FileUtils;
 import org.apache.metron.common.utils.JSONUtils;
+import org.apache.metron.parsers.bolt.ParserBolt;
 import org.apache.metron.parsers.topology.config.Arg;
 import org.apache.metron.parsers.topology.config.ConfigHandlers;
 
@@ -60,7 +63,7 @@ public class ParserTopologyCLI {
       return o;
     }),
     SENSOR_TYPE("s", code -> {
-      Option o = new Option(code, "sensor", true, "Sensor Type");
+      Option o = new Option(code, "sensor", true, "Sensor Type, or a comma separated list of sensor types to parse in a single topology");
       o.setArgName("SENSOR_TYPE");
       o.setRequired(true);
       return o;
@@ -296,7 +299,8 @@ public class ParserTopologyCLI {
       }
       String zookeeperUrl = ParserOptions.ZK_QUORUM.get(cmd);;
       Optional<String> brokerUrl = ParserOptions.BROKER_URL.has(cmd)?Optional.of(ParserOptions.BROKER_URL.get(cmd)):Optional.empty();
-      String sensorType= ParserOptions.SENSOR_TYPE.get(cmd);
+      List<String> sensorTypes = Lists.newArrayList(Splitter.on(',').omitEmptyStrings().trimResults().split(ParserOptions.SENSOR_TYPE.get(cmd)));
+      String topologyName = Joiner.on(ParserBolt.SENSOR_TYPE_SEPARATOR).join(sensorTypes);
       int spoutParallelism = Integer.parseInt(ParserOptions.SPOUT_PARALLELISM.get(cmd, "1"));
       int spoutNumTasks = Integer.parseInt(ParserOptions.SPOUT_NUM_TASKS.get(cmd, "1"));
       int parserParallelism = Integer.parseInt(ParserOptions.PARSER_PARALLELISM.get(cmd, "1"));
@@ -314,7 +318,7 @@ public class ParserTopologyCLI {
       securityProtocol = getSecurityProtocol(securityProtocol, spoutConfig);
       TopologyBuilder builder = ParserTopologyBuilder.build(zookeeperUrl,
               brokerUrl,
-              sensorType,
+              sensorTypes,
               spoutParallelism,
               spoutNumTasks,
               parserParallelism,
@@ -329,11 +333,11 @@ public class ParserTopologyCLI {
       if (ParserOptions.TEST.has(cmd)) {
         stormConf.put(Config.TOPOLOGY_DEBUG, true);
         LocalCluster cluster = new LocalCluster();
-        cluster.submitTopology(sensorType, stormConf, builder.createTopology());
+        cluster.submitTopology(topologyName, stormConf, builder.createTopology());
         Utils.sleep(300000);
         cluster.shutdown();
       } else {
-        StormSubmitter.submitTopology(sensorType, stormConf, builder.createTopology());
+        StormSubmitter.submitTopology(topologyName, stormConf, builder.createTopology());
       }
     } catch (Exception e) {
       e.printStackTrace();
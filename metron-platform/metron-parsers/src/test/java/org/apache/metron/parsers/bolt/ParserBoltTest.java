@@ -23,6 +23,8 @@ import org.apache.metron.common.configuration.*;
 import org.apache.metron.common.error.MetronError;
 import org.apache.metron.test.error.MetronErrorJSONMatcher;
 import org.apache.metron.test.utils.UnitTestHelper;
+import org.apache.metron.common.metrics.MultiHistogramMetric;
+import org.apache.storm.metric.api.IMetric;
 import org.apache.storm.task.OutputCollector;
 import org.apache.storm.task.TopologyContext;
 import org.apache.storm.tuple.Tuple;
@@ -47,6 +49,8 @@ import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.junit.Assert;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatcher;
 import org.mockito.Mock;
 
 import java.io.File;
@@ -304,7 +308,7 @@ public void testImplicitBatchOfOne() throws Exception {
   when(filter.emitTuple(any(), any(Context.class))).thenReturn(true);
   BulkWriterResponse response = new BulkWriterResponse();
   response.addSuccess(t1);
-  when(batchWriter.write(eq(sensorType), any(WriterConfiguration.class), eq(Collections.singleton(t1)), any())).thenReturn(response);
+  when(batchWriter.write(eq(sensorType), any(WriterConfiguration.class), eq(Collections.singletonList(t1)), any())).thenReturn(response);
   parserBolt.withMessageFilter(filter);
   parserBolt.execute(t1);
   verify(outputCollector, times(1)).ack(t1);
@@ -331,7 +335,7 @@ public void testImplicitBatchOfOne() throws Exception {
 
     ParserBolt parserBolt = new ParserBolt("zookeeperUrl", sensorType, parser, new WriterHandler(batchWriter)) {
       @Override
-      protected SensorParserConfig getSensorParserConfig() {
+      protected SensorParserConfig getSensorParserConfig(String sensorType) {
         try {
           return SensorParserConfig.fromBytes(Bytes.toBytes(sensorParserConfig));
         } catch (IOException e) {
@@ -368,7 +372,7 @@ public void testImplicitBatchOfOne() throws Exception {
 
     ParserBolt parserBolt = new ParserBolt("zookeeperUrl", sensorType, parser, new WriterHandler(batchWriter)) {
       @Override
-      protected SensorParserConfig getSensorParserConfig() {
+      protected SensorParserConfig getSensorParserConfig(String sensorType) {
         try {
           return SensorParserConfig.fromBytes(Bytes.toBytes(sensorParserConfig));
         } catch (IOException e) {
@@ -437,7 +441,7 @@ public void testImplicitBatchOfOne() throws Exception {
     };
     ParserBolt parserBolt = new ParserBolt("zookeeperUrl", sensorType, dummyParser, new WriterHandler(recordingWriter)) {
       @Override
-      protected SensorParserConfig getSensorParserConfig() {
+      protected SensorParserConfig getSensorParserConfig(String sensorType) {
         try {
           return SensorParserConfig.fromBytes(Bytes.toBytes(csvWithFieldTransformations));
         } catch (IOException e) {
@@ -456,6 +460,152 @@ public void testImplicitBatchOfOne() throws Exception {
     Assert.assertEquals(expected, recordingWriter.getRecords().get(0).get("timestamp"));
   }
 
+  /**
+  {
+     "sensorTopic":"dummy"
+     ,"parserConfig": {
+      "batchSize" : 1
+     }
+      ,"fieldTransformations" : [
+          {
+           "transformation" : "STELLAR"
+          ,"output" : [ "timestamp", "reloaded" ]
+          ,"config" : {
+            "timestamp" : "TO_EPOCH_TIMESTAMP(timestampstr, 'yyyy-MM-dd HH:mm:ss', 'UTC')"
+           ,"reloaded" : "'yes'"
+                      }
+          }
+                               ]
+   }
+   */
+  @Multiline
+  public static String reloadedFieldTransformations;
+
+  @Test
+  public void testPipelineRecompiledOnConfigUpdate() throws Exception {
+    String sensorType = "dummy";
+    RecordingWriter recordingWriter = new RecordingWriter();
+    BasicParser dummyParser = new BasicParser() {
+      @Override
+      public void init() {
+
+      }
+
+      @Override
+      public List<JSONObject> parse(byte[] rawMessage) {
+        return ImmutableList.of(new JSONObject() {{
+                put("timestampstr", "2016-01-05 17:02:30");
+                put("original_string", "blah");
+              }});
+      }
+
+      @Override
+      public void configure(Map<String, Object> config) {
+
+      }
+    };
+    ParserBolt parserBolt = new ParserBolt("zookeeperUrl", sensorType, dummyParser, new WriterHandler(recordingWriter));
+    parserBolt.getConfigurations().updateSensorParserConfig(sensorType, Bytes.toBytes(csvWithFieldTransformations));
+    parserBolt.setCuratorFramework(client);
+    parserBolt.setTreeCache(cache);
+    parserBolt.prepare(new HashMap(), topologyContext, outputCollector);
+    when(t1.getBinary(0)).thenReturn(new byte[] {});
+    parserBolt.execute(t1);
+    Assert.assertFalse(recordingWriter.getRecords().get(0).containsKey("reloaded"));
+
+    parserBolt.getConfigurations().updateSensorParserConfig(sensorType, Bytes.toBytes(reloadedFieldTransformations));
+    parserBolt.reloadCallback(sensorType, ConfigurationType.PARSER);
+    parserBolt.execute(t1);
+    Assert.assertEquals(1452013350000L, recordingWriter.getRecords().get(1).get("timestamp"));
+    Assert.assertEquals("yes", recordingWriter.getRecords().get(1).get("reloaded"));
+  }
+
+  /**
+  {
+     "sensorTopic":"dummy"
+     ,"parserConfig": {
+      "batchSize" : 1
+     ,"slowMessageThresholdMs" : 0
+     }
+      ,"fieldTransformations" : [
+          {
+           "transformation" : "STELLAR"
+          ,"output" : "timestamp"
+          ,"config" : {
+            "timestamp" : "TO_EPOCH_TIMESTAMP(timestampstr, 'yyyy-MM-dd HH:mm:ss', 'UTC')"
+                      }
+          }
+                               ]
+   }
+   */
+  @Multiline
+  public static String slowMessageConfig;
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testMetricsAndSlowMessages() throws Exception {
+    String sensorType = "dummy";
+    RecordingWriter recordingWriter = new RecordingWriter();
+    BasicParser dummyParser = new BasicParser() {
+      @Override
+      public void init() {
+
+      }
+
+      @Override
+      public List<JSONObject> parse(byte[] rawMessage) {
+        if(rawMessage.length == 0) {
+          throw new IllegalStateException("empty");
+        }
+        return ImmutableList.of(new JSONObject() {{
+                put("timestampstr", "2016-01-05 17:02:30");
+                put("original_string", "blah");
+              }});
+      }
+
+      @Override
+      public void configure(Map<String, Object> config) {
+
+      }
+    };
+    ParserBolt parserBolt = new ParserBolt("zookeeperUrl", sensorType, dummyParser, new WriterHandler(recordingWriter));
+    parserBolt.getConfigurations().updateSensorParserConfig(sensorType, Bytes.toBytes(slowMessageConfig));
+    parserBolt.setCuratorFramework(client);
+    parserBolt.setTreeCache(cache);
+    parserBolt.prepare(new HashMap(), topologyContext, outputCollector);
+    ArgumentCaptor<IMetric> counts = ArgumentCaptor.forClass(IMetric.class);
+    ArgumentCaptor<IMetric> latencies = ArgumentCaptor.forClass(IMetric.class);
+    ArgumentCaptor<IMetric> batches = ArgumentCaptor.forClass(IMetric.class);
+    verify(topologyContext).registerMetric(eq(ParserMetrics.COUNT_METRIC), counts.capture(), eq(60));
+    verify(topologyContext).registerMetric(eq(ParserMetrics.LATENCY_METRIC), latencies.capture(), eq(60));
+    verify(topologyContext).registerMetric(eq(ParserMetrics.BATCH_METRIC), batches.capture(), eq(60));
+
+    byte[] rawMessage = "raw".getBytes();
+    when(t1.getBinary(0)).thenReturn(rawMessage);
+    parserBolt.execute(t1);
+    parserBolt.execute(t1);
+    when(t2.getBinary(0)).thenReturn(new byte[] {});
+    parserBolt.execute(t2);
+    Assert.assertEquals(2, recordingWriter.getRecords().size());
+
+    Map<String, Long> countValues = (Map<String, Long>) counts.getValue().getValueAndReset();
+    Assert.assertEquals(2L, (long) countValues.get("dummy.parsed"));
+    Assert.assertEquals(2L, (long) countValues.get("dummy.written"));
+    Assert.assertEquals(1L, (long) countValues.get("dummy.parser_error"));
+    Map<String, Map<String, Number>> latencyValues = (Map<String, Map<String, Number>>) latencies.getValue().getValueAndReset();
+    for(String stage : ImmutableList.of("parse", "transform", "validate", "write", "total")) {
+      Assert.assertEquals(2L, latencyValues.get("dummy." + stage).get(MultiHistogramMetric.COUNT));
+    }
+    Map<String, Map<String, Number>> batchValues = (Map<String, Map<String, Number>>) batches.getValue().getValueAndReset();
+    Assert.assertEquals(1L, batchValues.get("dummy.size").get(MultiHistogramMetric.MAX));
+
+    //every message is slow, but only one is captured per second
+    ArgumentCaptor<List> slowMessages = ArgumentCaptor.forClass(List.class);
+    verify(outputCollector, times(1)).emit(eq(SlowMessageSampler.STREAM), slowMessages.capture());
+    Assert.assertEquals(sensorType, slowMessages.getValue().get(0));
+    Assert.assertArrayEquals(rawMessage, (byte[]) slowMessages.getValue().get(2));
+  }
+
   @Test
   public void testBatchOfOne() throws Exception {
 
@@ -490,7 +640,7 @@ public void testImplicitBatchOfOne() throws Exception {
     when(filter.emitTuple(any(), any(Context.class))).thenReturn(true);
     BulkWriterResponse response = new BulkWriterResponse();
     response.addSuccess(t1);
-    when(batchWriter.write(eq(sensorType), any(WriterConfiguration.class), eq(Collections.singleton(t1)), any())).thenReturn(response);
+    when(batchWriter.write(eq(sensorType), any(WriterConfiguration.class), eq(Collections.singletonList(t1)), any())).thenReturn(response);
     parserBolt.withMessageFilter(filter);
     parserBolt.execute(t1);
     verify(outputCollector, times(1)).ack(t1);
@@ -527,7 +677,7 @@ public void testImplicitBatchOfOne() throws Exception {
     when(parser.validate(any())).thenReturn(true);
     when(parser.parseOptional(any())).thenReturn(Optional.of(ImmutableList.of(new JSONObject())));
     when(filter.emitTuple(any(), any(Context.class))).thenReturn(true);
-    Set<Tuple> tuples = Stream.of(t1, t2, t3, t4, t5).collect(Collectors.toSet());
+    List<Tuple> tuples = ImmutableList.of(t1, t2, t3, t4, t5);
     BulkWriterResponse response = new BulkWriterResponse();
     response.addAllSuccesses(tuples);
     when(batchWriter.write(eq(sensorType), any(WriterConfiguration.class), eq(tuples), any())).thenReturn(response);
@@ -545,6 +695,77 @@ public void testImplicitBatchOfOne() throws Exception {
 
 
   }
+  private ParserBolt createBatchBolt(String sensorType, int batchSize) {
+    return new ParserBolt("zookeeperUrl", sensorType, parser, new WriterHandler(batchWriter)) {
+      @Override
+      protected ParserConfigurations defaultConfigurations() {
+        return new ParserConfigurations() {
+          @Override
+          public SensorParserConfig getSensorParserConfig(String sensorType) {
+            return new SensorParserConfig() {
+              @Override
+              public Map<String, Object> getParserConfig() {
+                return new HashMap<String, Object>() {{
+                  put(IndexingConfigurations.BATCH_SIZE_CONF, batchSize);
+                }};
+              }
+            };
+          }
+        };
+      }
+    };
+  }
+
+  @Test
+  public void testTupleWithSeveralMessagesIsAckedOnce() throws Exception {
+    String sensorType = "yaf";
+    ParserBolt parserBolt = createBatchBolt(sensorType, 1);
+    parserBolt.setCuratorFramework(client);
+    parserBolt.setTreeCache(cache);
+    parserBolt.prepare(new HashMap(), topologyContext, outputCollector);
+    when(parser.validate(any())).thenReturn(true);
+    when(parser.parseOptional(any())).thenReturn(Optional.of(ImmutableList.of(new JSONObject(), new JSONObject(), new JSONObject())));
+    when(batchWriter.write(eq(sensorType), any(WriterConfiguration.class), any(), any())).thenAnswer(invocation -> {
+      BulkWriterResponse response = new BulkWriterResponse();
+      response.addAllSuccesses((Iterable<Tuple>) invocation.getArguments()[2]);
+      return response;
+    });
+    parserBolt.execute(t1);
+    verify(batchWriter, times(3)).write(eq(sensorType), any(WriterConfiguration.class), eq(Collections.singletonList(t1)), any());
+    verify(outputCollector, times(1)).ack(t1);
+  }
+
+  @Test
+  public void testTupleWithSeveralMessagesIsFailedOnceAllAreDone() throws Exception {
+    String sensorType = "yaf";
+    ParserBolt parserBolt = createBatchBolt(sensorType, 2);
+    parserBolt.setCuratorFramework(client);
+    parserBolt.setTreeCache(cache);
+    parserBolt.prepare(new HashMap(), topologyContext, outputCollector);
+    when(parser.validate(any())).thenReturn(true);
+    when(parser.parseOptional(any())).thenReturn(Optional.of(ImmutableList.of(new JSONObject(), new JSONObject(), new JSONObject())));
+    Exception retryable = new Exception("overloaded");
+    when(batchWriter.write(eq(sensorType), any(WriterConfiguration.class), any(), any())).thenAnswer(invocation -> {
+      List<Tuple> tuples = (List<Tuple>) invocation.getArguments()[2];
+      BulkWriterResponse response = new BulkWriterResponse();
+      response.addSuccess(tuples.get(0));
+      response.addAllRetryableErrors(retryable, tuples.subList(1, tuples.size()));
+      return response;
+    });
+    parserBolt.execute(t1);
+    //the third message is still waiting for a batch
+    verify(batchWriter, times(1)).write(eq(sensorType), any(WriterConfiguration.class), eq(ImmutableList.of(t1, t1)), any());
+    verify(outputCollector, never()).ack(t1);
+    verify(outputCollector, never()).fail(t1);
+
+    when(parser.parseOptional(any())).thenReturn(Optional.of(ImmutableList.of(new JSONObject())));
+    parserBolt.execute(t2);
+    verify(batchWriter, times(1)).write(eq(sensorType), any(WriterConfiguration.class), eq(ImmutableList.of(t1, t2)), any());
+    verify(outputCollector, times(1)).fail(t1);
+    verify(outputCollector, never()).ack(t1);
+    verify(outputCollector, times(1)).fail(t2);
+  }
+
   @Test
   public void testBatchOfFiveWithError() throws Exception {
 
@@ -592,6 +813,83 @@ public void testImplicitBatchOfOne() throws Exception {
 
   }
 
+  @Test
+  public void testMultipleSensors() throws Exception {
+    MessageParser<JSONObject> broParser = mock(MessageParser.class);
+    MessageParser<JSONObject> snortParser = mock(MessageParser.class);
+    WriterHandler writerHandler = new WriterHandler(writer);
+    Map<String, ParserComponents> sensorToComponentMap = new LinkedHashMap<>();
+    sensorToComponentMap.put("bro", new ParserComponents(broParser, writerHandler));
+    sensorToComponentMap.put("snort", new ParserComponents(snortParser, writerHandler));
+    ParserBolt parserBolt = new ParserBolt("zookeeperUrl", sensorToComponentMap) {
+      @Override
+      protected ParserConfigurations defaultConfigurations() {
+        return new ParserConfigurations() {
+          @Override
+          public SensorParserConfig getSensorParserConfig(String sensorType) {
+            SensorParserConfig config = new SensorParserConfig() {
+              @Override
+              public Map<String, Object> getParserConfig() {
+                return new HashMap<String, Object>() {{
+                }};
+              }
+            };
+            config.setSensorTopic(sensorType + "_topic");
+            return config;
+          }
+        };
+      }
+    };
+    Assert.assertEquals("bro__snort", parserBolt.getSensorType());
+
+    parserBolt.setCuratorFramework(client);
+    parserBolt.setTreeCache(cache);
+    parserBolt.prepare(new HashMap(), topologyContext, outputCollector);
+    verify(broParser, times(1)).init();
+    verify(snortParser, times(1)).init();
+    //the writer is shared, so it is only initialized once
+    verify(writer, times(1)).init();
+
+    byte[] broMessage = "bro message".getBytes();
+    byte[] snortMessage = "snort message".getBytes();
+    when(t1.getBinary(0)).thenReturn(broMessage);
+    when(t1.getStringByField("topic")).thenReturn("bro_topic");
+    when(t2.getBinary(0)).thenReturn(snortMessage);
+    when(t2.getStringByField("topic")).thenReturn("snort_topic");
+    when(broParser.parseOptional(broMessage)).thenReturn(Optional.of(ImmutableList.of(new JSONObject())));
+    when(snortParser.parseOptional(snortMessage)).thenReturn(Optional.of(ImmutableList.of(new JSONObject())));
+    when(broParser.validate(any())).thenReturn(true);
+    when(snortParser.validate(any())).thenReturn(true);
+    parserBolt.execute(t1);
+    parserBolt.execute(t2);
+    verify(broParser, times(0)).parseOptional(snortMessage);
+    verify(snortParser, times(0)).parseOptional(broMessage);
+    verify(writer, times(1)).write(eq("bro"), any(), eq(t1), argThat(new SourceTypeMatcher("bro")));
+    verify(writer, times(1)).write(eq("snort"), any(), eq(t2), argThat(new SourceTypeMatcher("snort")));
+    verify(outputCollector, times(1)).ack(t1);
+    verify(outputCollector, times(1)).ack(t2);
+
+    //a tuple from a topic that no sensor consumes is an error
+    when(t3.getBinary(0)).thenReturn(broMessage);
+    when(t3.getStringByField("topic")).thenReturn("unknown_topic");
+    parserBolt.execute(t3);
+    verify(outputCollector, times(1)).ack(t3);
+    verify(outputCollector, times(1)).emit(eq(Constants.ERROR_STREAM), any());
+  }
+
+  private static class SourceTypeMatcher extends ArgumentMatcher<JSONObject> {
+    private String sensorType;
+
+    public SourceTypeMatcher(String sensorType) {
+      this.sensorType = sensorType;
+    }
+
+    @Override
+    public boolean matches(Object o) {
+      return sensorType.equals(((JSONObject) o).get(Constants.SENSOR_TYPE));
+    }
+  }
+
   protected void buildGlobalConfig(ParserBolt parserBolt) {
     HashMap<String, Object> globalConfig = new HashMap<>();
     Map<String, Object> fieldValidation = new HashMap<>();
@@ -0,0 +1,200 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.metron.parsers.bolt;
+
+import org.adrianwalker.multilinestring.Multiline;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.metron.common.configuration.FieldTransformer;
+import org.apache.metron.common.configuration.FieldValidator;
+import org.apache.metron.common.configuration.SensorParserConfig;
+import org.apache.metron.common.dsl.Context;
+import org.apache.metron.common.dsl.StellarFunctions;
+import org.apache.metron.common.field.validation.SimpleValidation;
+import org.apache.metron.common.utils.JSONUtils;
+import org.json.simple.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+public class ParserPipelineTest {
+
+  @Before
+  public void setup() {
+    StellarFunctions.initialize(Context.EMPTY_CONTEXT());
+  }
+
+  /**
+   {
+    "parserConfig" : {
+      "suffix" : "_sfx"
+    }
+   ,"fieldTransformations" : [
+      {
+        "transformation" : "STELLAR"
+       ,"output" : [ "upper" ]
+       ,"config" : {
+          "tmp" : "TO_UPPER(field1)"
+         ,"upper" : "JOIN([tmp, suffix], '')"
+        }
+      }
+     ,{
+        "transformation" : "STELLAR"
+       ,"input" : [ "upper" ]
+       ,"output" : [ "restricted", "leaked" ]
+       ,"config" : {
+          "restricted" : "if exists(field1) then 'visible' else 'hidden'"
+         ,"leaked" : "tmp"
+        }
+      }
+     ,{
+        "transformation" : "REMOVE"
+       ,"input" : "field2"
+      }
+     ,{
+        "transformation" : "STELLAR"
+       ,"output" : [ "lower", "field1" ]
+       ,"config" : {
+          "lower" : "TO_LOWER(upper)"
+         ,"field1" : "if exists(field2) then 'kept' else 'removed'"
+        }
+      }
+    ]
+   }
+   */
+  @Multiline
+  public static String transformations;
+
+  @Test
+  public void testTransformationsMatchSequentialTransformations() throws Exception {
+    SensorParserConfig config = SensorParserConfig.fromBytes(Bytes.toBytes(transformations));
+    ParserPipeline pipeline = ParserPipeline.compile(config, new HashMap<>(), new ArrayList<>(), Context.EMPTY_CONTEXT());
+
+    JSONObject expected = new JSONObject();
+    expected.put("field1", "foo");
+    expected.put("field2", "bar");
+    JSONObject actual = new JSONObject(expected);
+    for (FieldTransformer transformer : config.getFieldTransformations()) {
+      transformer.transformAndUpdate(expected, config.getParserConfig(), Context.EMPTY_CONTEXT());
+    }
+    pipeline.transform(actual);
+
+    Assert.assertEquals(expected, actual);
+    Assert.assertEquals("FOO_sfx", actual.get("upper"));
+    //input fields are restricted to those listed
+    Assert.assertEquals("hidden", actual.get("restricted"));
+    //intermediate variables are not shared between transformations
+    Assert.assertFalse(actual.containsKey("leaked"));
+    Assert.assertFalse(actual.containsKey("tmp"));
+    Assert.assertEquals("foo_sfx", actual.get("lower"));
+    Assert.assertEquals("removed", actual.get("field1"));
+    Assert.assertFalse(actual.containsKey("field2"));
+  }
+
+  /**
+   {
+    "fieldTransformations" : [
+      {
+        "transformation" : "STELLAR"
+       ,"output" : [ "bad" ]
+       ,"config" : {
+          "bad" : "TO_UPPER(field1"
+        }
+      }
+    ]
+   }
+   */
+  @Multiline
+  public static String badTransformation;
+
+  @Test(expected = IllegalStateException.class)
+  public void testUncompilableTransformationFailsPerMessage() throws Exception {
+    SensorParserConfig config = SensorParserConfig.fromBytes(Bytes.toBytes(badTransformation));
+    ParserPipeline pipeline = ParserPipeline.compile(config, new HashMap<>(), new ArrayList<>(), Context.EMPTY_CONTEXT());
+    JSONObject message = new JSONObject();
+    message.put("field1", "foo");
+    pipeline.transform(message);
+  }
+
+  public static class CountingValidation extends SimpleValidation {
+    static int count = 0;
+
+    @Override
+    public Predicate<Object> getPredicate() {
+      return o -> {
+        count++;
+        return o.toString().startsWith("valid");
+      };
+    }
+  }
+
+  /**
+   {
+    "fieldValidations" : [
+      {
+        "input" : [ "field1", "field2" ]
+       ,"validation" : "org.apache.metron.parsers.bolt.ParserPipelineTest$CountingValidation"
+      }
+     ,{
+        "input" : [ "field3" ]
+       ,"validation" : "NOT_EMPTY"
+      }
+    ]
+   }
+   */
+  @Multiline
+  public static String validations;
+
+  @Test
+  public void testValidations() throws Exception {
+    Map<String, Object> globalConfig = JSONUtils.INSTANCE.load(validations, Map.class);
+    List<FieldValidator> validators = FieldValidator.readValidations(globalConfig);
+    SensorParserConfig config = SensorParserConfig.fromBytes(Bytes.toBytes("{}"));
+    ParserPipeline pipeline = ParserPipeline.compile(config, globalConfig, validators, Context.EMPTY_CONTEXT());
+    CountingValidation.count = 0;
+    {
+      //the counting validation is skipped when its fields are absent, but NOT_EMPTY is not
+      JSONObject message = new JSONObject();
+      List<FieldValidator> failed = pipeline.getFailedValidators(message);
+      Assert.assertEquals(1, failed.size());
+      Assert.assertEquals(validators.get(1), failed.get(0));
+      Assert.assertEquals(0, CountingValidation.count);
+    }
+    {
+      JSONObject message = new JSONObject();
+      message.put("field2", "invalid");
+      message.put("field3", "present");
+      List<FieldValidator> failed = pipeline.getFailedValidators(message);
+      Assert.assertEquals(1, failed.size());
+      Assert.assertEquals(validators.get(0), failed.get(0));
+      Assert.assertEquals(1, CountingValidation.count);
+    }
+    {
+      JSONObject message = new JSONObject();
+      message.put("field1", "valid");
+      message.put("field3", "present");
+      Assert.assertTrue(pipeline.getFailedValidators(message).isEmpty());
+    }
+  }
+}
@@ -24,6 +24,7 @@ import org.apache.metron.common.configuration.IndexingConfigurations;
 import org.apache.metron.common.configuration.ParserConfigurations;
 import org.apache.metron.common.configuration.SensorParserConfig;
 import org.apache.metron.common.error.MetronError;
+import org.apache.metron.common.writer.AsyncBulkMessageWriter;
 import org.apache.metron.common.writer.BulkMessageWriter;
 import org.apache.metron.common.writer.BulkWriterResponse;
 import org.apache.metron.common.writer.MessageWriter;
@@ -31,10 +32,12 @@ import org.apache.metron.test.bolt.BaseBoltTest;
 import org.apache.metron.test.error.MetronErrorJSONMatcher;
 import org.apache.metron.test.utils.UnitTestHelper;
 import org.apache.metron.writer.BulkWriterComponent;
+import org.apache.storm.Config;
 import org.apache.storm.task.OutputCollector;
 import org.apache.storm.task.TopologyContext;
 import org.apache.storm.tuple.Tuple;
 import org.json.simple.JSONObject;
+import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.Mock;
 
@@ -42,6 +45,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
@@ -65,7 +69,14 @@ public class WriterBoltTest extends BaseBoltTest{
   @Mock
   private BulkMessageWriter<JSONObject> batchWriter;
 
+  @Mock
+  private AsyncBulkMessageWriter<JSONObject> asyncWriter;
+
   private ParserConfigurations getConfigurations(int batchSize) {
+    return getConfigurations(batchSize, 0);
+  }
+
+  private ParserConfigurations getConfigurations(int batchSize, int batchTimeout) {
     return new ParserConfigurations() {
           @Override
           public SensorParserConfig getSensorParserConfig(String sensorType) {
@@ -74,6 +85,7 @@ public class WriterBoltTest extends BaseBoltTest{
               public Map<String, Object> getParserConfig() {
                 return new HashMap<String, Object>() {{
                   put(IndexingConfigurations.BATCH_SIZE_CONF, batchSize);
+                  put(IndexingConfigurations.BATCH_TIMEOUT_CONF, batchTimeout);
                 }};
               }
             };
@@ -114,6 +126,65 @@ public class WriterBoltTest extends BaseBoltTest{
     verify(outputCollector, times(0)).fail(any());
   }
 
+  @Test
+  public void testBatchTimeout() throws Exception {
+    ParserConfigurations configurations = getConfigurations(5, 1);
+    String sensorType = "test";
+    Tuple t = mock(Tuple.class);
+    when(t.getValueByField(eq("message"))).thenReturn(new JSONObject());
+    Tuple tick = mock(Tuple.class);
+    when(tick.getSourceComponent()).thenReturn(org.apache.storm.Constants.SYSTEM_COMPONENT_ID);
+    when(tick.getSourceStreamId()).thenReturn(org.apache.storm.Constants.SYSTEM_TICK_STREAM_ID);
+    WriterBolt bolt = new WriterBolt(new WriterHandler(batchWriter), configurations, sensorType);
+    Assert.assertEquals(BulkWriterComponent.BATCH_TIMEOUT_TICK_SECS, bolt.getComponentConfiguration().get(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS));
+    bolt.prepare(new HashMap(), topologyContext, outputCollector);
+    BulkWriterResponse writerResponse = new BulkWriterResponse();
+    writerResponse.addSuccess(t);
+    when(batchWriter.write(any(), any(), any(), any())).thenReturn(writerResponse);
+
+    bolt.execute(t);
+    bolt.execute(tick);
+    verify(batchWriter, times(0)).write(eq(sensorType), any(), any(), any());
+
+    //the partial batch is written on the first tick after it times out
+    Thread.sleep(1100);
+    bolt.execute(tick);
+    verify(batchWriter, times(1)).write(eq(sensorType), any(), any(), any());
+    verify(outputCollector, times(1)).ack(t);
+    verify(outputCollector, times(0)).ack(tick);
+  }
+
+  @Test
+  public void testCleanupDrainsBatchesInFlight() throws Exception {
+    ParserConfigurations configurations = getConfigurations(1);
+    String sensorType = "test";
+    Tuple t = mock(Tuple.class);
+    when(t.getValueByField(eq("message"))).thenReturn(new JSONObject());
+    CompletableFuture<BulkWriterResponse> future = new CompletableFuture<>();
+    when(asyncWriter.writeAsync(any(), any(), any(), any())).thenReturn(future);
+    WriterBolt bolt = new WriterBolt(new WriterHandler(asyncWriter), configurations, sensorType);
+    bolt.prepare(new HashMap(), topologyContext, outputCollector);
+
+    bolt.execute(t);
+    verify(asyncWriter, times(1)).writeAsync(eq(sensorType), any(), any(), any());
+    verify(outputCollector, times(0)).ack(t);
+
+    new Thread(() -> {
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      BulkWriterResponse writerResponse = new BulkWriterResponse();
+      writerResponse.addSuccess(t);
+      future.complete(writerResponse);
+    }).start();
+
+    //the batch in flight is acked before the bolt shuts down
+    bolt.cleanup();
+    verify(outputCollector, times(1)).ack(t);
+  }
+
   @Test
   public void testNonBatchHappyPath() throws Exception {
     ParserConfigurations configurations = getConfigurations(1);
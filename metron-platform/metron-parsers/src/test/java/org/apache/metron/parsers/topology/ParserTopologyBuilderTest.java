@@ -0,0 +1,61 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.metron.parsers.topology;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.metron.common.configuration.SensorParserConfig;
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ParserTopologyBuilderTest {
+
+  private SensorParserConfig createConfig(String errorWriterClassName, Map<String, Object> parserConfig) {
+    SensorParserConfig config = new SensorParserConfig();
+    config.setErrorWriterClassName(errorWriterClassName);
+    config.setParserConfig(parserConfig);
+    return config;
+  }
+
+  @Test
+  public void testSameErrorWriterConfigsAreValid() {
+    Map<String, SensorParserConfig> configs = new LinkedHashMap<>();
+    configs.put("bro", createConfig(null, ImmutableMap.of("error.kafka.topic", "errors", "batchSize", 5)));
+    configs.put("snort", createConfig(null, ImmutableMap.of("error.kafka.topic", "errors")));
+    configs.put("yaf", createConfig(null, ImmutableMap.of("error.kafka.topic", "errors", "batchSize", 10)));
+    ParserTopologyBuilder.validateErrorWriterConfigs(configs);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testDifferentErrorWriterSettingsAreRejected() {
+    Map<String, SensorParserConfig> configs = new LinkedHashMap<>();
+    configs.put("bro", createConfig(null, ImmutableMap.of("error.kafka.topic", "errors")));
+    configs.put("snort", createConfig(null, ImmutableMap.of("error.kafka.topic", "snort_errors")));
+    ParserTopologyBuilder.validateErrorWriterConfigs(configs);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testDifferentErrorWriterClassesAreRejected() {
+    Map<String, SensorParserConfig> configs = new LinkedHashMap<>();
+    configs.put("bro", createConfig(null, ImmutableMap.of()));
+    configs.put("snort", createConfig("org.apache.metron.writer.NoopWriter", ImmutableMap.of()));
+    ParserTopologyBuilder.validateErrorWriterConfigs(configs);
+  }
+}
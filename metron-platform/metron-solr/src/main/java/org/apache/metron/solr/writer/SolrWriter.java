@@ -19,38 +19,68 @@ package org.apache.metron.solr.writer;
 
 import org.apache.storm.task.TopologyContext;
 import org.apache.storm.tuple.Tuple;
+import org.apache.metron.common.Constants;
 import org.apache.metron.common.configuration.Configurations;
 import org.apache.metron.common.configuration.EnrichmentConfigurations;
 import org.apache.metron.common.configuration.writer.WriterConfiguration;
-import org.apache.metron.common.writer.BulkMessageWriter;
+import org.apache.metron.common.writer.AsyncBulkMessageWriter;
 import org.apache.metron.common.writer.BulkWriterResponse;
 import org.apache.solr.client.solrj.SolrServerException;
-import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.apache.solr.client.solrj.impl.CloudSolrClient;
+import org.apache.solr.common.SolrException;
 import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
 import org.json.simple.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-public class SolrWriter implements BulkMessageWriter<JSONObject>, Serializable {
+public class SolrWriter implements AsyncBulkMessageWriter<JSONObject>, Serializable {
 
   public static final String DEFAULT_COLLECTION = "metron";
+  public static final int DEFAULT_WRITER_THREADS = 4;
 
   private static final Logger LOG = LoggerFactory
           .getLogger(SolrWriter.class);
 
   private boolean shouldCommit = false;
+  private int commitWithin = -1;
   private MetronSolrClient solr;
+  private int writerThreads = DEFAULT_WRITER_THREADS;
+  private transient ExecutorService executor;
 
   public SolrWriter withShouldCommit(boolean shouldCommit) {
     this.shouldCommit = shouldCommit;
     return this;
   }
 
+  /**
+   * Ask Solr to commit the documents of a batch within this many milliseconds, rather than committing explicitly.
+   */
+  public SolrWriter withCommitWithin(int commitWithin) {
+    this.commitWithin = commitWithin;
+    return this;
+  }
+
+  /**
+   * SolrJ blocks while a batch is written, so asynchronous writes are made from a pool of this many threads.
+   */
+  public SolrWriter withWriterThreads(int writerThreads) {
+    this.writerThreads = writerThreads;
+    return this;
+  }
+
   public SolrWriter withMetronSolrClient(MetronSolrClient solr) {
     this.solr = solr;
     return this;
@@ -63,30 +93,99 @@ public class SolrWriter implements BulkMessageWriter<JSONObject>, Serializable {
     String collection = getCollection(configurations);
     solr.createCollection(collection, (Integer) globalConfiguration.get("solr.numShards"), (Integer) globalConfiguration.get("solr.replicationFactor"));
     solr.setDefaultCollection(collection);
+    executor = Executors.newFixedThreadPool(writerThreads);
   }
 
   @Override
   public BulkWriterResponse write(String sourceType, WriterConfiguration configurations, Iterable<Tuple> tuples, List<JSONObject> messages) throws Exception {
+    String collection = getCollection(configurations);
+    List<SolrInputDocument> documents = new ArrayList<>(messages.size());
     for(JSONObject message: messages) {
-      SolrInputDocument document = new SolrInputDocument();
-      document.addField("id", getIdValue(message));
-      document.addField("sensorType", sourceType);
-      for(Object key: message.keySet()) {
-        Object value = message.get(key);
-        document.addField(getFieldName(key, value), value);
+      documents.add(toDocument(sourceType, message));
+    }
+    BulkWriterResponse response = new BulkWriterResponse();
+    try {
+      // CloudSolrClient splits the batch by shard and sends each part to its leader.
+      solr.add(collection, documents, commitWithin);
+      response.addAllSuccesses(tuples);
+    }
+    catch(SolrException e) {
+      if(getBadRequest(e) == null || documents.size() <= 1) {
+        throw e;
+      }
+      // Solr rejects the entire batch if any document is bad, so find the bad ones by adding them individually.
+      LOG.warn("Batch of " + documents.size() + " documents was rejected, retrying them one at a time", e);
+      Iterator<Tuple> tupleIt = tuples.iterator();
+      for(SolrInputDocument document : documents) {
+        Tuple tuple = tupleIt.hasNext() ? tupleIt.next() : null;
+        try {
+          solr.add(collection, document, commitWithin);
+          if(tuple != null) {
+            response.addSuccess(tuple);
+          }
+        }
+        catch(SolrException documentException) {
+          SolrException badRequest = getBadRequest(documentException);
+          if(badRequest == null) {
+            throw documentException;
+          }
+          if(tuple != null) {
+            response.addError(badRequest, tuple);
+          }
+        }
       }
-      UpdateResponse response = solr.add(document);
     }
     if (shouldCommit) {
-      solr.commit(getCollection(configurations));
+      solr.commit(collection);
     }
-
-    // Solr commits the entire batch or throws an exception for it.  There's no way to get partial failures.
-    BulkWriterResponse response = new BulkWriterResponse();
-    response.addAllSuccesses(tuples);
     return response;
   }
 
+  /**
+   * CloudSolrClient reports the failures of the shards as a RouteException with a server error code,
+   * so the error of each shard is checked for a bad document.
+   *
+   * @return The error of a document that Solr rejected, or null if the error was not caused by a bad document
+   */
+  static SolrException getBadRequest(SolrException e) {
+    if(e instanceof CloudSolrClient.RouteException) {
+      NamedList<Throwable> throwables = ((CloudSolrClient.RouteException) e).getThrowables();
+      for(int i = 0; throwables != null && i < throwables.size(); i++) {
+        Throwable shardException = throwables.getVal(i);
+        if(shardException instanceof SolrException) {
+          SolrException badRequest = getBadRequest((SolrException) shardException);
+          if(badRequest != null) {
+            return badRequest;
+          }
+        }
+      }
+      return null;
+    }
+    return e.code() == SolrException.ErrorCode.BAD_REQUEST.code ? e : null;
+  }
+
+  protected SolrInputDocument toDocument(String sourceType, JSONObject message) {
+    SolrInputDocument document = new SolrInputDocument();
+    document.addField("id", getIdValue(message));
+    document.addField("sensorType", sourceType);
+    for(Object key: message.keySet()) {
+      Object value = message.get(key);
+      document.addField(getFieldName(key, value), value);
+    }
+    return document;
+  }
+
+  @Override
+  public CompletableFuture<BulkWriterResponse> writeAsync(String sourceType, WriterConfiguration configurations, Iterable<Tuple> tuples, List<JSONObject> messages) {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return write(sourceType, configurations, tuples, messages);
+      } catch (Exception e) {
+        throw new CompletionException(e);
+      }
+    }, executor);
+  }
+
   @Override
   public String getName() {
     return "solr";
@@ -97,8 +196,9 @@ public class SolrWriter implements BulkMessageWriter<JSONObject>, Serializable {
     return collection != null ? collection : DEFAULT_COLLECTION;
   }
 
-  private int getIdValue(JSONObject message) {
-    return message.toJSONString().hashCode();
+  private String getIdValue(JSONObject message) {
+    Object guid = message.get(Constants.GUID);
+    return guid != null ? guid.toString() : UUID.randomUUID().toString();
   }
 
   protected String getFieldName(Object key, Object value) {
@@ -119,6 +219,9 @@ public class SolrWriter implements BulkMessageWriter<JSONObject>, Serializable {
 
   @Override
   public void close() throws Exception {
+    if(executor != null) {
+      executor.shutdown();
+    }
     solr.close();
   }
 }
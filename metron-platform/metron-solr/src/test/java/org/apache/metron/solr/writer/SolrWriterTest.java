@@ -20,22 +20,35 @@ package org.apache.metron.solr.writer;
 import org.apache.metron.common.configuration.EnrichmentConfigurations;
 import org.apache.metron.common.configuration.IndexingConfigurations;
 import org.apache.metron.common.configuration.writer.IndexingWriterConfiguration;
+import org.apache.metron.common.writer.BulkWriterResponse;
 import org.apache.metron.enrichment.integration.utils.SampleUtil;
+import org.apache.solr.client.solrj.impl.CloudSolrClient;
 import org.apache.solr.client.solrj.request.QueryRequest;
+import org.apache.solr.common.SolrException;
 import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.apache.storm.tuple.Tuple;
 import org.hamcrest.Description;
 import org.json.simple.JSONObject;
+import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.ArgumentMatcher;
 import org.mockito.Mockito;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.argThat;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 
 public class SolrWriterTest {
@@ -62,12 +75,12 @@ public class SolrWriterTest {
 
   static class SolrInputDocumentMatcher extends ArgumentMatcher<SolrInputDocument> {
 
-    private int expectedId;
+    private String expectedId;
     private String expectedSourceType;
     private int expectedInt;
     private double expectedDouble;
 
-    public SolrInputDocumentMatcher(int expectedId, String expectedSourceType, int expectedInt, double expectedDouble) {
+    public SolrInputDocumentMatcher(String expectedId, String expectedSourceType, int expectedInt, double expectedDouble) {
       this.expectedId = expectedId;
       this.expectedSourceType = expectedSourceType;
       this.expectedInt = expectedInt;
@@ -77,27 +90,59 @@ public class SolrWriterTest {
     @Override
     public boolean matches(Object o) {
       SolrInputDocument solrInputDocument = (SolrInputDocument) o;
-      int actualId = (Integer) solrInputDocument.get("id").getValue();
+      String actualId = (String) solrInputDocument.get("id").getValue();
       String actualName = (String) solrInputDocument.get("sensorType").getValue();
       int actualInt = (Integer) solrInputDocument.get("intField_i").getValue();
       double actualDouble = (Double) solrInputDocument.get("doubleField_d").getValue();
-      return expectedId == actualId && expectedSourceType.equals(actualName) && expectedInt == actualInt && expectedDouble == actualDouble;
+      return expectedId.equals(actualId) && expectedSourceType.equals(actualName) && expectedInt == actualInt && expectedDouble == actualDouble;
     }
 
     @Override
     public void describeTo(Description description) {
-      description.appendText(String.format("fields: [id=%d, doubleField_d=%f, name=%s, intField_i=%d]", expectedId, expectedDouble, expectedSourceType, expectedInt));
+      description.appendText(String.format("fields: [id=%s, doubleField_d=%f, name=%s, intField_i=%d]", expectedId, expectedDouble, expectedSourceType, expectedInt));
     }
 
   }
 
+  static class SolrInputDocumentsMatcher extends ArgumentMatcher<Collection<SolrInputDocument>> {
+
+    private List<SolrInputDocumentMatcher> matchers;
+
+    public SolrInputDocumentsMatcher(SolrInputDocumentMatcher... matchers) {
+      this.matchers = Arrays.asList(matchers);
+    }
+
+    @Override
+    public boolean matches(Object o) {
+      List<SolrInputDocument> documents = new ArrayList<>((Collection<SolrInputDocument>) o);
+      if(documents.size() != matchers.size()) {
+        return false;
+      }
+      for(int i = 0; i < documents.size(); i++) {
+        if(!matchers.get(i).matches(documents.get(i))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public void describeTo(Description description) {
+      for(SolrInputDocumentMatcher matcher : matchers) {
+        matcher.describeTo(description);
+      }
+    }
+  }
+
   @Test
   public void testWriter() throws Exception {
     IndexingConfigurations configurations = SampleUtil.getSampleIndexingConfigs();
     JSONObject message1 = new JSONObject();
+    message1.put("guid", "guid-1");
     message1.put("intField", 100);
     message1.put("doubleField", 100.0);
     JSONObject message2 = new JSONObject();
+    message2.put("guid", "guid-2");
     message2.put("intField", 200);
     message2.put("doubleField", 200.0);
     List<JSONObject> messages = new ArrayList<>();
@@ -125,16 +170,103 @@ public class SolrWriterTest {
     verify(solr, times(1)).setDefaultCollection(collection);
 
     writer.write("test", new IndexingWriterConfiguration("solr", configurations), new ArrayList<>(), messages);
-    verify(solr, times(1)).add(argThat(new SolrInputDocumentMatcher(message1.toJSONString().hashCode(), "test", 100, 100.0)));
-    verify(solr, times(1)).add(argThat(new SolrInputDocumentMatcher(message2.toJSONString().hashCode(), "test", 200, 200.0)));
+    verify(solr, times(1)).add(eq(collection), argThat(new SolrInputDocumentsMatcher(
+            new SolrInputDocumentMatcher("guid-1", "test", 100, 100.0),
+            new SolrInputDocumentMatcher("guid-2", "test", 200, 200.0))), eq(-1));
     verify(solr, times(0)).commit(collection);
 
-    writer = new SolrWriter().withMetronSolrClient(solr).withShouldCommit(true);
+    writer = new SolrWriter().withMetronSolrClient(solr).withShouldCommit(true).withCommitWithin(1000);
     writer.init(null, null, new IndexingWriterConfiguration("solr", configurations));
     writer.write("test", new IndexingWriterConfiguration("solr", configurations), new ArrayList<>(), messages);
-    verify(solr, times(2)).add(argThat(new SolrInputDocumentMatcher(message1.toJSONString().hashCode(), "test", 100, 100.0)));
-    verify(solr, times(2)).add(argThat(new SolrInputDocumentMatcher(message2.toJSONString().hashCode(), "test", 200, 200.0)));
+    verify(solr, times(1)).add(eq(collection), argThat(new SolrInputDocumentsMatcher(
+            new SolrInputDocumentMatcher("guid-1", "test", 100, 100.0),
+            new SolrInputDocumentMatcher("guid-2", "test", 200, 200.0))), eq(1000));
     verify(solr, times(1)).commit(collection);
 
   }
+
+  @Test
+  public void testRejectedDocumentsMapToTheirTuples() throws Exception {
+    IndexingConfigurations configurations = SampleUtil.getSampleIndexingConfigs();
+    JSONObject message1 = new JSONObject();
+    message1.put("guid", "guid-1");
+    message1.put("intField", 100);
+    message1.put("doubleField", 100.0);
+    JSONObject message2 = new JSONObject();
+    message2.put("guid", "guid-2");
+    message2.put("intField", 200);
+    message2.put("doubleField", 200.0);
+    Tuple tuple1 = Mockito.mock(Tuple.class);
+    Tuple tuple2 = Mockito.mock(Tuple.class);
+
+    MetronSolrClient solr = Mockito.mock(MetronSolrClient.class);
+    SolrException rejected = new SolrException(SolrException.ErrorCode.BAD_REQUEST, "bad document");
+    when(solr.add(eq("metron"), anyCollectionOf(SolrInputDocument.class), anyInt())).thenThrow(rejected);
+    when(solr.add(eq("metron"), argThat(new SolrInputDocumentMatcher("guid-2", "test", 200, 200.0)), anyInt())).thenThrow(rejected);
+    SolrWriter writer = new SolrWriter().withMetronSolrClient(solr);
+    writer.init(null, null, new IndexingWriterConfiguration("solr", configurations));
+    BulkWriterResponse response = writer.write("test", new IndexingWriterConfiguration("solr", configurations), Arrays.asList(tuple1, tuple2), Arrays.asList(message1, message2));
+
+    BulkWriterResponse expected = new BulkWriterResponse();
+    expected.addSuccess(tuple1);
+    expected.addError(rejected, tuple2);
+    Assert.assertEquals(expected, response);
+  }
+
+  @Test
+  public void testDocumentsRejectedByAShardMapToTheirTuples() throws Exception {
+    IndexingConfigurations configurations = SampleUtil.getSampleIndexingConfigs();
+    JSONObject message1 = new JSONObject();
+    message1.put("guid", "guid-1");
+    message1.put("intField", 100);
+    message1.put("doubleField", 100.0);
+    JSONObject message2 = new JSONObject();
+    message2.put("guid", "guid-2");
+    message2.put("intField", 200);
+    message2.put("doubleField", 200.0);
+    Tuple tuple1 = Mockito.mock(Tuple.class);
+    Tuple tuple2 = Mockito.mock(Tuple.class);
+
+    // CloudSolrClient wraps the error of each shard in a server error
+    SolrException rejected = new SolrException(SolrException.ErrorCode.BAD_REQUEST, "bad document");
+    NamedList<Throwable> throwables = new NamedList<>();
+    throwables.add("shard1", rejected);
+    SolrException routeException = new CloudSolrClient.RouteException(SolrException.ErrorCode.SERVER_ERROR, throwables, new HashMap<>());
+    MetronSolrClient solr = Mockito.mock(MetronSolrClient.class);
+    when(solr.add(eq("metron"), anyCollectionOf(SolrInputDocument.class), anyInt())).thenThrow(routeException);
+    when(solr.add(eq("metron"), argThat(new SolrInputDocumentMatcher("guid-2", "test", 200, 200.0)), anyInt())).thenThrow(routeException);
+    SolrWriter writer = new SolrWriter().withMetronSolrClient(solr);
+    writer.init(null, null, new IndexingWriterConfiguration("solr", configurations));
+    BulkWriterResponse response = writer.write("test", new IndexingWriterConfiguration("solr", configurations), Arrays.asList(tuple1, tuple2), Arrays.asList(message1, message2));
+
+    BulkWriterResponse expected = new BulkWriterResponse();
+    expected.addSuccess(tuple1);
+    expected.addError(rejected, tuple2);
+    Assert.assertEquals(expected, response);
+  }
+
+  @Test
+  public void testShardUnavailableFailsTheBatch() throws Exception {
+    IndexingConfigurations configurations = SampleUtil.getSampleIndexingConfigs();
+    JSONObject message1 = new JSONObject();
+    message1.put("guid", "guid-1");
+    JSONObject message2 = new JSONObject();
+    message2.put("guid", "guid-2");
+
+    NamedList<Throwable> throwables = new NamedList<>();
+    throwables.add("shard1", new SolrException(SolrException.ErrorCode.SERVICE_UNAVAILABLE, "no leader"));
+    SolrException routeException = new CloudSolrClient.RouteException(SolrException.ErrorCode.SERVER_ERROR, throwables, new HashMap<>());
+    MetronSolrClient solr = Mockito.mock(MetronSolrClient.class);
+    when(solr.add(eq("metron"), anyCollectionOf(SolrInputDocument.class), anyInt())).thenThrow(routeException);
+    SolrWriter writer = new SolrWriter().withMetronSolrClient(solr);
+    writer.init(null, null, new IndexingWriterConfiguration("solr", configurations));
+    try {
+      writer.write("test", new IndexingWriterConfiguration("solr", configurations), Arrays.asList(Mockito.mock(Tuple.class), Mockito.mock(Tuple.class)), Arrays.asList(message1, message2));
+      Assert.fail("The batch should fail when a shard is unavailable");
+    }
+    catch(SolrException e) {
+      Assert.assertSame(routeException, e);
+    }
+    verify(solr, times(1)).add(eq("metron"), anyCollectionOf(SolrInputDocument.class), anyInt());
+  }
 }
@@ -19,6 +19,7 @@
 package org.apache.metron.storm.kafka.flux;
 
 import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
 import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
@@ -64,6 +65,14 @@ public class SimpleStormKafkaBuilder<K, V> extends KafkaSpoutConfig.Builder<K, V
       this.fieldName = fieldName;
     }
 
+    /**
+     * The name of the field in the Storm tuple.
+     * @return
+     */
+    public String getFieldName() {
+      return fieldName;
+    }
+
     /**
      * Return a list of the enums
      * @param configs
@@ -152,7 +161,7 @@ public class SimpleStormKafkaBuilder<K, V> extends KafkaSpoutConfig.Builder<K, V
   /**
    * Create an object with the specified properties.  This will expose fields "key" and "value."
    * @param kafkaProps The special kafka properties
-   * @param topic The kafka topic. TODO: In the future, support multiple topics and regex patterns.
+   * @param topic The kafka topic or a comma separated list of topics. TODO: In the future, support regex patterns.
    * @param zkQuorum The zookeeper quorum.  We will use this to pull the brokers from this.
    */
   public SimpleStormKafkaBuilder( Map<String, Object> kafkaProps
@@ -166,7 +175,7 @@ public class SimpleStormKafkaBuilder<K, V> extends KafkaSpoutConfig.Builder<K, V
   /**
    * Create an object with the specified properties and exposing the specified fields.
    * @param kafkaProps The special kafka properties
-   * @param topic The kafka topic. TODO: In the future, support multiple topics and regex patterns.
+   * @param topic The kafka topic or a comma separated list of topics. TODO: In the future, support regex patterns.
    * @param zkQuorum The zookeeper quorum.  We will use this to pull the brokers from this.
    * @param fieldsConfiguration The fields to expose in the storm tuple emitted.
    */
@@ -179,7 +188,7 @@ public class SimpleStormKafkaBuilder<K, V> extends KafkaSpoutConfig.Builder<K, V
     super( getBootstrapServers(zkQuorum, kafkaProps)
          , createDeserializer(Optional.ofNullable((String)kafkaProps.get(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG)), DEFAULT_DESERIALIZER)
          , createDeserializer(Optional.ofNullable((String)kafkaProps.get(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG)), DEFAULT_DESERIALIZER)
-         , topic
+         , getTopics(topic)
     );
     setProp(kafkaProps);
     setRecordTranslator(new SpoutRecordTranslator<>(FieldsConfiguration.toList(fieldsConfiguration)));
@@ -197,6 +206,19 @@ public class SimpleStormKafkaBuilder<K, V> extends KafkaSpoutConfig.Builder<K, V
     }
   }
 
+  /**
+   * Split a comma separated list of topics.  Kafka topic names may not contain commas, so this is unambiguous.
+   * @param topic
+   * @return
+   */
+  public static List<String> getTopics(String topic) {
+    List<String> ret = new ArrayList<>();
+    for(String t : Splitter.on(',').omitEmptyStrings().trimResults().split(topic)) {
+      ret.add(t);
+    }
+    return ret;
+  }
+
   private static String getBootstrapServers(String zkQuorum, Map<String, Object> kafkaProps) {
     String brokers = (String)kafkaProps.get(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG);
     if(brokers == null) {
@@ -210,7 +232,7 @@ public class SimpleStormKafkaBuilder<K, V> extends KafkaSpoutConfig.Builder<K, V
   }
 
   /**
-   * Get the kafka topic.  TODO: In the future, support multiple topics and regex patterns.
+   * Get the kafka topic or the comma separated list of topics.  TODO: In the future, support regex patterns.
    * @return
    */
   public String getTopic() {
@@ -218,7 +240,7 @@ public class SimpleStormKafkaBuilder<K, V> extends KafkaSpoutConfig.Builder<K, V
   }
 
   /**
-   * Create a StormKafkaSpout from a given topic, zookeeper quorum and fields.  Also, configure the spout
+   * Create a StormKafkaSpout from a given topic (or comma separated list of topics), zookeeper quorum and fields.  Also, configure the spout
    * using a Map that configures both kafka as well as the spout (see the properties in SpoutConfiguration).
    * @param topic
    * @param zkQuorum
@@ -0,0 +1,71 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.metron.writer;
+
+import com.google.common.collect.Iterables;
+import org.apache.metron.common.configuration.writer.WriterConfiguration;
+import org.apache.metron.common.writer.AsyncBulkMessageWriter;
+import org.apache.metron.common.writer.AsyncMessageWriter;
+import org.apache.metron.common.writer.BulkWriterResponse;
+import org.apache.storm.tuple.Tuple;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Adapts an asynchronous message writer to a bulk writer.  As with {@link WriterToBulkWriter},
+ * batches hold exactly one message, but several of them may be in flight at once.
+ */
+public class AsyncWriterToBulkWriter<MESSAGE_T> extends WriterToBulkWriter<MESSAGE_T> implements AsyncBulkMessageWriter<MESSAGE_T> {
+
+  public AsyncWriterToBulkWriter(AsyncMessageWriter<MESSAGE_T> messageWriter) {
+    super(messageWriter);
+  }
+
+  @Override
+  public BulkWriterResponse write(String sensorType, WriterConfiguration configurations, Iterable<Tuple> tuples, List<MESSAGE_T> messages) throws Exception {
+    return super.write(sensorType, configurations, tuples, messages);
+  }
+
+  @Override
+  public CompletableFuture<BulkWriterResponse> writeAsync(String sensorType, WriterConfiguration configurations, Iterable<Tuple> tuples, List<MESSAGE_T> messages) {
+    BulkWriterResponse response = new BulkWriterResponse();
+    if(messages.size() > 1) {
+      response.addAllErrors(new IllegalStateException("AsyncWriterToBulkWriter expects a batch of exactly 1"), tuples);
+      return CompletableFuture.completedFuture(response);
+    }
+    CompletableFuture<Void> written;
+    try {
+      written = ((AsyncMessageWriter<MESSAGE_T>) messageWriter).writeAsync(sensorType, configurations, Iterables.getFirst(tuples, null), Iterables.getFirst(messages, null));
+    } catch(Exception e) {
+      response.addAllErrors(e, tuples);
+      return CompletableFuture.completedFuture(response);
+    }
+    return written.handle((v, e) -> {
+      if(e != null) {
+        response.addAllErrors(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e, tuples);
+      }
+      else {
+        response.addAllSuccesses(tuples);
+      }
+      return response;
+    });
+  }
+}
@@ -19,34 +19,120 @@
 package org.apache.metron.writer;
 
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import org.apache.metron.common.Constants;
 import org.apache.metron.common.configuration.writer.WriterConfiguration;
 import org.apache.metron.common.error.MetronError;
+import org.apache.metron.common.message.JSONMessageCodec;
 import org.apache.metron.common.message.MessageGetStrategy;
+import org.apache.metron.common.metrics.MultiHistogramMetric;
+import org.apache.metron.common.utils.ConversionUtils;
 import org.apache.metron.common.utils.ErrorUtils;
+import org.apache.metron.common.writer.AsyncBulkMessageWriter;
 import org.apache.metron.common.writer.BulkMessageWriter;
 import org.apache.metron.common.writer.BulkWriterResponse;
+import org.apache.storm.Config;
 import org.apache.storm.task.OutputCollector;
 import org.apache.storm.tuple.Tuple;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class BulkWriterComponent<MESSAGE_T> {
   public static final Logger LOG = LoggerFactory
             .getLogger(BulkWriterComponent.class);
+  /**
+   * Storm's default for topology.message.timeout.secs.
+   */
+  public static final int DEFAULT_MESSAGE_TIMEOUT_SECS = 30;
+  /**
+   * How often, in seconds, a bolt checks for batches that have timed out.
+   */
+  public static final int BATCH_TIMEOUT_TICK_SECS = 1;
+  /**
+   * The default maximum number of batches an asynchronous writer may have in flight.
+   */
+  public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+  /**
+   * The longest a bolt waits for its batches in flight to complete when it is cleaned up.
+   */
+  public static final int CLEANUP_DRAIN_SECS = 10;
+  /**
+   * The longest a bolt spends replaying spooled messages at a time, so that it keeps taking new tuples.
+   */
+  public static final long MAX_REPLAY_MILLIS = 500;
+  /**
+   * Notify a callback of the outcome of each batch of spooled messages which is replayed.
+   */
+  public BulkWriterComponent<MESSAGE_T> withReplayCallback(ReplayCallback replayCallback) {
+    this.replayCallback = replayCallback;
+    return this;
+  }
+
+  /**
+   * The number of times in a row the oldest spooled messages may fail to be written before they are sent to the
+   * error topic, by default.
+   */
+  public static final int DEFAULT_MAX_REPLAY_ATTEMPTS = 20;
+  /**
+   * The most replays skipped after a failed replay.  Replays are skipped for twice as long after each failure.
+   */
+  public static final int MAX_REPLAY_BACKOFF = 63;
+
+  /**
+   * Notified of the outcome of each batch of spooled messages which is replayed.
+   */
+  public interface ReplayCallback {
+    /**
+     * Called on the executor thread once a replayed batch has been handled.
+     *
+     * @param sensorType The sensor type of the messages
+     * @param written The number of messages written, which are removed from the spool
+     * @param errored The number of messages sent to the error topic, which are removed from the spool
+     * @param retried The number of messages left in the spool to be replayed again
+     */
+    void replayed(String sensorType, int written, int errored, int retried);
+  }
   private Map<String, Collection<Tuple>> sensorTupleMap = new HashMap<>();
   private Map<String, List<MESSAGE_T>> sensorMessageMap = new HashMap<>();
+  private Map<String, Long> sensorBatchStartMap = new HashMap<>();
+  private int defaultBatchTimeout = 0;
   private OutputCollector collector;
   private boolean handleCommit = true;
   private boolean handleError = true;
+  private MultiHistogramMetric batchMetrics;
+  private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+  private int inFlight = 0;
+  private BlockingQueue<InFlightBatch> completedBatches = new LinkedBlockingQueue<>();
+  private DiskSpool spool;
+  private int maxReplayAttempts = DEFAULT_MAX_REPLAY_ATTEMPTS;
+  private int replayAttempts = 0;
+  private int replaysToSkip = 0;
+  private SpooledBatch replaying;
+  private ReplayCallback replayCallback;
+  private Map<Tuple, SplitTuple> splitTuples = new HashMap<>();
   public BulkWriterComponent(OutputCollector collector) {
     this.collector = collector;
   }
@@ -57,7 +143,88 @@ public class BulkWriterComponent<MESSAGE_T> {
     this.handleError = handleError;
   }
 
+  /**
+   * @param defaultBatchTimeout The maximum age, in seconds, of a batch whose sensor does not configure a batch timeout.
+   *                            Batches of such sensors never time out if this is 0.
+   */
+  public BulkWriterComponent<MESSAGE_T> withDefaultBatchTimeout(int defaultBatchTimeout) {
+    this.defaultBatchTimeout = defaultBatchTimeout;
+    return this;
+  }
+
+  /**
+   * The default batch timeout of a topology, which is half of its message timeout so that batches
+   * are written before their tuples are replayed.
+   *
+   * @param stormConf The storm configuration
+   * @return The default batch timeout in seconds
+   */
+  public static int getDefaultBatchTimeout(Map stormConf) {
+    Integer messageTimeout = ConversionUtils.convert(stormConf.get(Config.TOPOLOGY_MESSAGE_TIMEOUT_SECS), Integer.class);
+    return Math.max(1, (messageTimeout == null ? DEFAULT_MESSAGE_TIMEOUT_SECS : messageTimeout) / 2);
+  }
+
+  /**
+   * Allow asynchronous writers to have up to this many batches in flight.  The bolt keeps accepting tuples
+   * while batches are written, and the batches are acked or failed on the executor thread once they complete.
+   * Writers which are not asynchronous, or components which do not handle both commits and errors, always
+   * write synchronously.
+   *
+   * @param maxInFlight The maximum number of batches in flight
+   */
+  public BulkWriterComponent<MESSAGE_T> withMaxInFlight(int maxInFlight) {
+    this.maxInFlight = Math.max(1, maxInFlight);
+    return this;
+  }
+
+  /**
+   * Spool the messages of batches which could not be written, because the writer failed or the destination
+   * rejected them as overloaded, rather than sending them to the error topic.  Their tuples are acked once
+   * they are spooled, and the spooled messages are written again, in order, by {@link #replaySpooled}.  Once
+   * the spool is full, failed batches are handled as if there was no spool.
+   *
+   * @param spool The spool of the messages, which must be JSON
+   */
+  public BulkWriterComponent<MESSAGE_T> withSpool(DiskSpool spool) {
+    this.spool = spool;
+    return this;
+  }
+
+  /**
+   * The number of times in a row the oldest spooled messages may fail to be written before they are sent to the
+   * error topic.  With replays on each tick of a second, the default of {@value #DEFAULT_MAX_REPLAY_ATTEMPTS}
+   * rides out an outage of about 15 minutes.
+   *
+   * @param maxReplayAttempts The maximum number of attempts
+   */
+  public BulkWriterComponent<MESSAGE_T> withMaxReplayAttempts(int maxReplayAttempts) {
+    this.maxReplayAttempts = Math.max(1, maxReplayAttempts);
+    return this;
+  }
+
+  /**
+   * Record the latency, in microseconds, and the size of each batch written, keyed by sensor type.
+   *
+   * @param batchMetrics The histograms to update
+   */
+  public BulkWriterComponent<MESSAGE_T> withBatchMetrics(MultiHistogramMetric batchMetrics) {
+    this.batchMetrics = batchMetrics;
+    return this;
+  }
+
+  /**
+   * @return The number of messages waiting to be written, keyed by sensor type
+   */
+  public Map<String, Integer> getPendingCounts() {
+    Map<String, Integer> ret = new HashMap<>();
+    for(Map.Entry<String, Collection<Tuple>> entry : sensorTupleMap.entrySet()) {
+      ret.put(entry.getKey(), entry.getValue().size());
+    }
+    return ret;
+  }
+
   public void commit(Iterable<Tuple> tuples) {
+    tuples = completeSplit(null, false, tuples);
     tuples.forEach(t -> collector.ack(t));
     if(LOG.isDebugEnabled()) {
       LOG.debug("Acking " + Iterables.size(tuples) + " tuples");
@@ -69,15 +236,26 @@ public class BulkWriterComponent<MESSAGE_T> {
   }
 
   public void error(String sensorType, Throwable e, Iterable<Tuple> tuples, MessageGetStrategy messageGetStrategy) {
+    Collection<Tuple> unsplit = completeSplit(e, false, tuples);
+    if(unsplit.isEmpty() && !Iterables.isEmpty(tuples)) {
+      return;
+    }
+    tuples = unsplit;
     tuples.forEach(t -> collector.ack(t));
+    if(!Iterables.isEmpty(tuples)) {
+      LOG.error("Failing " + Iterables.size(tuples) + " tuples", e);
+    }
+    List<Object> messages = new ArrayList<>();
+    tuples.forEach(t -> messages.add(messageGetStrategy.get(t)));
+    reportError(sensorType, e, messages);
+  }
+
+  private void reportError(String sensorType, Throwable e, Iterable<?> messages) {
     MetronError error = new MetronError()
             .withSensorType(sensorType)
             .withErrorType(Constants.ErrorType.INDEXING_ERROR)
             .withThrowable(e);
-    if(!Iterables.isEmpty(tuples)) {
-      LOG.error("Failing " + Iterables.size(tuples) + " tuples", e);
-    }
-    tuples.forEach(t -> error.addRawMessage(messageGetStrategy.get(t)));
+    messages.forEach(m -> error.addRawMessage(m));
     ErrorUtils.handleError(collector, error);
   }
 
@@ -86,6 +264,325 @@ public class BulkWriterComponent<MESSAGE_T> {
     for(Map.Entry<Throwable, Collection<Tuple>> entry : errorMap.entrySet()) {
       error(sensorType, entry.getKey(), entry.getValue(), messageGetStrategy);
     }
+    for(Map.Entry<Throwable, Collection<Tuple>> entry : errors.getRetryableErrors().entrySet()) {
+      Collection<Tuple> unsplit = completeSplit(entry.getKey(), true, entry.getValue());
+      Collection<Tuple> unspooled = spool(sensorType, unsplit, messageGetStrategy);
+      fail(entry.getKey(), unspooled);
+    }
+  }
+
+  /**
+   * Spool the messages of tuples which could not be written, then error the tuples which could not be spooled.
+   */
+  private void spoolOrError(String sensorType, Throwable e, Collection<Tuple> tuples, MessageGetStrategy messageGetStrategy) {
+    tuples = completeSplit(e, false, tuples);
+    Collection<Tuple> unspooled = spool(sensorType, tuples, messageGetStrategy);
+    if(unspooled.size() < tuples.size()) {
+      LOG.warn("Spooled " + (tuples.size() - unspooled.size()) + " messages after a failed write", e);
+    }
+    if(!unspooled.isEmpty()) {
+      error(sensorType, e, unspooled, messageGetStrategy);
+    }
+  }
+
+  /**
+   * Spool the messages of the tuples, force them to disk and then ack them.  If the spool cannot be forced, the
+   * tuples are not acked, but their messages remain in the spool and may be written twice.
+   *
+   * @return The tuples which could not be spooled
+   */
+  private Collection<Tuple> spool(String sensorType, Collection<Tuple> tuples, MessageGetStrategy messageGetStrategy) {
+    if(spool == null) {
+      return tuples;
+    }
+    List<Tuple> spooled = new ArrayList<>();
+    List<Tuple> unspooled = new ArrayList<>();
+    for(Tuple tuple : tuples) {
+      Object message = messageGetStrategy.get(tuple);
+      try {
+        if(unspooled.isEmpty() && message instanceof JSONObject
+                && spool.append(sensorType, ((JSONObject) message).toJSONString().getBytes(StandardCharsets.UTF_8))) {
+          spooled.add(tuple);
+          continue;
+        }
+      }
+      catch(IOException e) {
+        LOG.error("Unable to spool a message of " + sensorType, e);
+      }
+      //keep the spooled messages in order by not spooling any more of the batch
+      unspooled.add(tuple);
+    }
+    if(!spooled.isEmpty()) {
+      try {
+        spool.force();
+      }
+      catch(RuntimeException e) {
+        LOG.error("Unable to force " + spooled.size() + " spooled messages of " + sensorType + " to disk", e);
+        spooled.addAll(unspooled);
+        return spooled;
+      }
+      spooled.forEach(t -> collector.ack(t));
+    }
+    return unspooled;
+  }
+
+  /**
+   * Write the messages which have been spooled, in order, until the spool is empty, the writer fails again or
+   * {@value #MAX_REPLAY_MILLIS} ms have passed.  This is intended to be called periodically, e.g. on a tick tuple.
+   * An asynchronous writer has at most one batch of spooled messages in flight, whose response is handled by a
+   * later call, so the call does not wait on the writer.  A synchronous writer may block a call for as long as
+   * it takes to write one batch.
+   *
+   * After each failed attempt, replays back off by skipping up to {@value #MAX_REPLAY_BACKOFF} calls.  Once the
+   * oldest spooled messages have failed to be written that many times in a row, they are sent to the error topic.
+   * Errors reading or updating the spool are logged and reported, rather than thrown.  The outcome of each
+   * replayed batch is reported to the {@link ReplayCallback}, as the spooled messages have no tuples to ack.
+   */
+  public void replaySpooled(BulkMessageWriter<MESSAGE_T> bulkMessageWriter, WriterConfiguration configurations) {
+    if(spool == null) {
+      return;
+    }
+    try {
+      if(replaying != null) {
+        if(!replaying.future.isDone()) {
+          return;
+        }
+        SpooledBatch batch = replaying;
+        replaying = null;
+        if(!handleReplayed(batch)) {
+          return;
+        }
+      }
+      if(replaysToSkip > 0) {
+        replaysToSkip--;
+        return;
+      }
+      long deadline = System.currentTimeMillis() + MAX_REPLAY_MILLIS;
+      while(!spool.isEmpty() && System.currentTimeMillis() < deadline) {
+        SpooledBatch batch = readSpooled(configurations);
+        if(batch == null) {
+          continue;
+        }
+        batch.future = writeSpooled(bulkMessageWriter, configurations, batch);
+        if(!batch.future.isDone()) {
+          replaying = batch;
+          return;
+        }
+        if(!handleReplayed(batch)) {
+          return;
+        }
+      }
+    }
+    catch(IOException e) {
+      LOG.error("Unable to replay the spooled messages", e);
+      collector.reportError(e);
+    }
+  }
+
+  /**
+   * Read the oldest spooled messages, dropping those which cannot be read.
+   *
+   * @return The batch of messages, or null if none of them could be read
+   */
+  @SuppressWarnings("unchecked")
+  private SpooledBatch readSpooled(WriterConfiguration configurations) throws IOException {
+    String sensorType = spool.peek(1).get(0).getSensorType();
+    SpooledBatch batch = new SpooledBatch(sensorType);
+    List<DiskSpool.SpooledMessage> unreadable = new ArrayList<>();
+    for(DiskSpool.SpooledMessage message : spool.peek(Math.max(1, configurations.getBatchSize(sensorType)))) {
+      try {
+        JSONObject json = JSONMessageCodec.fromBytes(message.getMessage());
+        Tuple tuple = placeholder();
+        batch.spooled.put(tuple, message);
+        batch.messages.put(tuple, json);
+      } catch (ParseException e) {
+        LOG.error("Dropping a spooled message of " + sensorType + " which cannot be read", e);
+        unreadable.add(message);
+      }
+    }
+    spool.remove(unreadable);
+    return batch.messages.isEmpty() ? null : batch;
+  }
+
+  /**
+   * Creates a placeholder for a spooled message, by which the writer's response refers to it.  Writers only use
+   * the tuples of a batch to report the outcome of each message, so the placeholder is not bound to a topology
+   * and is never given to the collector.
+   */
+  private static Tuple placeholder() {
+    return (Tuple) Proxy.newProxyInstance(Tuple.class.getClassLoader(), new Class<?>[] { Tuple.class }, (proxy, method, args) -> {
+      switch(method.getName()) {
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "toString":
+          return "SpooledMessage@" + Integer.toHexString(System.identityHashCode(proxy));
+        default:
+          throw new UnsupportedOperationException("A spooled message has no " + method.getName());
+      }
+    });
+  }
+
+  @SuppressWarnings("unchecked")
+  private CompletableFuture<BulkWriterResponse> writeSpooled( BulkMessageWriter<MESSAGE_T> bulkMessageWriter
+                                                            , WriterConfiguration configurations
+                                                            , SpooledBatch batch
+                                                            )
+  {
+    List<Tuple> tuples = new ArrayList<>(batch.messages.keySet());
+    List<MESSAGE_T> messages = new ArrayList<>();
+    batch.messages.values().forEach(m -> messages.add((MESSAGE_T) m));
+    CompletableFuture<BulkWriterResponse> ret = new CompletableFuture<>();
+    try {
+      if(bulkMessageWriter instanceof AsyncBulkMessageWriter) {
+        return ((AsyncBulkMessageWriter<MESSAGE_T>) bulkMessageWriter).writeAsync(batch.sensorType, configurations, tuples, messages);
+      }
+      ret.complete(bulkMessageWriter.write(batch.sensorType, configurations, tuples, messages));
+    }
+    catch(Exception e) {
+      ret.completeExceptionally(e);
+    }
+    return ret;
+  }
+
+  /**
+   * Remove the replayed messages which were written, or which the destination rejected, from the spool.
+   *
+   * @return Whether the destination accepted the batch, so that the next one may be replayed
+   */
+  private boolean handleReplayed(SpooledBatch batch) throws IOException {
+    BulkWriterResponse response;
+    try {
+      response = batch.future.join();
+    }
+    catch(CompletionException | CancellationException e) {
+      Throwable cause = e.getCause() != null ? e.getCause() : e;
+      LOG.debug("Unable to replay spooled messages of {}: {}", batch.sensorType, cause.getMessage());
+      return replayFailed(batch, cause, batch.messages.keySet(), 0, 0);
+    }
+    updateMetrics(batch.sensorType, batch.startTime, batch.messages.size());
+    List<DiskSpool.SpooledMessage> written = new ArrayList<>();
+    for(Tuple tuple : response.getSuccesses()) {
+      written.add(batch.spooled.get(tuple));
+    }
+    for(Map.Entry<Throwable, Collection<Tuple>> entry : response.getErrors().entrySet()) {
+      List<Object> failed = new ArrayList<>();
+      for(Tuple tuple : entry.getValue()) {
+        written.add(batch.spooled.get(tuple));
+        failed.add(batch.messages.get(tuple));
+      }
+      reportError(batch.sensorType, entry.getKey(), failed);
+    }
+    spool.remove(written);
+    int errored = written.size() - response.getSuccesses().size();
+    if(!response.getRetryableErrors().isEmpty()) {
+      //the destination is still overloaded
+      Map.Entry<Throwable, Collection<Tuple>> retryable = response.getRetryableErrors().entrySet().iterator().next();
+      List<Tuple> remaining = new ArrayList<>();
+      response.getRetryableErrors().values().forEach(remaining::addAll);
+      return replayFailed(batch, retryable.getKey(), remaining, response.getSuccesses().size(), errored);
+    }
+    replayAttempts = 0;
+    replayed(batch.sensorType, response.getSuccesses().size(), errored, 0);
+    return true;
+  }
+
+  /**
+   * Back off from replaying after a failed attempt.  Once the oldest spooled messages have failed too many times in
+   * a row, send them to the error topic and remove them from the spool.
+   *
+   * @param tuples The tuples of the messages which were not written
+   * @param written The number of messages of the batch which were written
+   * @param errored The number of messages of the batch which the destination rejected
+   * @return false, as the next batch should not be replayed by this call
+   */
+  private boolean replayFailed(SpooledBatch batch, Throwable e, Collection<Tuple> tuples, int written, int errored) throws IOException {
+    replayAttempts++;
+    if(replayAttempts < maxReplayAttempts) {
+      replaysToSkip = (int) Math.min(MAX_REPLAY_BACKOFF, (1L << Math.min(replayAttempts - 1, 30)) - 1);
+      replayed(batch.sensorType, written, errored, tuples.size());
+      return false;
+    }
+    LOG.error("Giving up on " + tuples.size() + " spooled messages of " + batch.sensorType + " after "
+            + replayAttempts + " attempts to write them", e);
+    List<DiskSpool.SpooledMessage> failed = new ArrayList<>();
+    List<Object> messages = new ArrayList<>();
+    for(Tuple tuple : tuples) {
+      failed.add(batch.spooled.get(tuple));
+      messages.add(batch.messages.get(tuple));
+    }
+    reportError(batch.sensorType, e, messages);
+    spool.remove(failed);
+    replayAttempts = 0;
+    replaysToSkip = 0;
+    replayed(batch.sensorType, written, errored + tuples.size(), 0);
+    return false;
+  }
+
+  private void replayed(String sensorType, int written, int errored, int retried) {
+    if(replayCallback != null) {
+      replayCallback.replayed(sensorType, written, errored, retried);
+    }
+  }
+
+  /**
+   * Fail the tuples, so that they are replayed, rather than sending them to the error topic.  This is
+   * for transient errors, which a later attempt may not hit.
+   */
+  public void fail(Throwable e, Iterable<Tuple> tuples) {
+    tuples = completeSplit(e, true, tuples);
+    if(!Iterables.isEmpty(tuples)) {
+      LOG.warn("Failing " + Iterables.size(tuples) + " tuples for replay", e);
+    }
+    tuples.forEach(t -> collector.fail(t));
+  }
+
+  /**
+   * Record the outcome of a message of each of the tuples.  A tuple which produced several messages is acked
+   * or failed only once all of its messages are done, with the worst of their outcomes: reported as an error
+   * if any of them could not be written, otherwise failed for replay if any hit a transient error.  The
+   * messages of such tuples are not spooled, as a replay of the tuple would write all of them again.
+   *
+   * @param e The error the messages hit, or null if they were written
+   * @param retryable Whether the error is transient
+   * @return The tuples which produced a single message, which are handled as usual
+   */
+  private Collection<Tuple> completeSplit(Throwable e, boolean retryable, Iterable<Tuple> tuples) {
+    if(splitTuples.isEmpty()) {
+      return tuples instanceof Collection ? (Collection<Tuple>) tuples : Lists.newArrayList(tuples);
+    }
+    List<Tuple> unsplit = new ArrayList<>();
+    for(Tuple tuple : tuples) {
+      SplitTuple split = splitTuples.get(tuple);
+      if(split == null) {
+        unsplit.add(tuple);
+        continue;
+      }
+      if(e != null && retryable) {
+        split.retryableError = split.retryableError == null ? e : split.retryableError;
+      }
+      else if(e != null) {
+        split.error = split.error == null ? e : split.error;
+      }
+      if(--split.pending > 0) {
+        continue;
+      }
+      splitTuples.remove(tuple);
+      if(split.error != null) {
+        collector.ack(tuple);
+        LOG.error("Failing a tuple which produced several messages", split.error);
+        reportError(split.sensorType, split.error, Collections.singletonList(split.messageGetStrategy.get(tuple)));
+      }
+      else if(split.retryableError != null) {
+        LOG.warn("Failing a tuple which produced several messages for replay", split.retryableError);
+        collector.fail(tuple);
+      }
+      else {
+        collector.ack(tuple);
+      }
+    }
+    return unsplit;
   }
 
   protected Collection<Tuple> createTupleCollection() {
@@ -104,6 +601,27 @@ public class BulkWriterComponent<MESSAGE_T> {
     error(sensorType, e, tuples, messageGetStrategy);
     sensorTupleMap.remove(sensorType);
     sensorMessageMap.remove(sensorType);
+    sensorBatchStartMap.remove(sensorType);
+  }
+
+  /**
+   * Write all of the messages a tuple produced.  The tuple is acked or failed once, after every one of its
+   * messages has been written or has failed.
+   */
+  public void write( String sensorType
+                   , Tuple tuple
+                   , List<MESSAGE_T> messages
+                   , BulkMessageWriter<MESSAGE_T> bulkMessageWriter
+                   , WriterConfiguration configurations
+                   , MessageGetStrategy messageGetStrategy
+                   ) throws Exception
+  {
+    if(messages.size() > 1 && handleCommit && configurations.isEnabled(sensorType)) {
+      splitTuples.put(tuple, new SplitTuple(sensorType, messages.size(), messageGetStrategy));
+    }
+    for(MESSAGE_T message : messages) {
+      write(sensorType, tuple, message, bulkMessageWriter, configurations, messageGetStrategy);
+    }
   }
 
   public void write( String sensorType
@@ -114,6 +632,7 @@ public class BulkWriterComponent<MESSAGE_T> {
                    , MessageGetStrategy messageGetStrategy
                    ) throws Exception
   {
+    handleCompleted(false);
     if(!configurations.isEnabled(sensorType)) {
       return;
     }
@@ -121,47 +640,247 @@ public class BulkWriterComponent<MESSAGE_T> {
     Collection<Tuple> tupleList = sensorTupleMap.get(sensorType);
     if (tupleList == null) {
       tupleList = createTupleCollection();
+      sensorTupleMap.put(sensorType, tupleList);
+      sensorBatchStartMap.put(sensorType, System.nanoTime());
     }
     tupleList.add(tuple);
     List<MESSAGE_T> messageList = sensorMessageMap.get(sensorType);
     if (messageList == null) {
       messageList = new ArrayList<>();
+      sensorMessageMap.put(sensorType, messageList);
     }
     messageList.add(message);
 
-    if (tupleList.size() < batchSize) {
-      sensorTupleMap.put(sensorType, tupleList);
-      sensorMessageMap.put(sensorType, messageList);
-    } else {
-      long startTime = System.nanoTime();
-      try {
-        BulkWriterResponse response = bulkMessageWriter.write(sensorType, configurations, tupleList, messageList);
+    if (tupleList.size() >= batchSize) {
+      flush(sensorType, bulkMessageWriter, configurations, messageGetStrategy);
+    }
+  }
 
-        // Commit or error piecemeal.
-        if(handleCommit) {
-          commit(response);
-        }
+  /**
+   * Write the batches which are older than their batch timeout, regardless of their size.  This is
+   * intended to be called periodically, e.g. on a tick tuple.
+   */
+  public void flushTimedOut( BulkMessageWriter<MESSAGE_T> bulkMessageWriter
+                           , WriterConfiguration configurations
+                           , MessageGetStrategy messageGetStrategy
+                           ) throws Exception
+  {
+    handleCompleted(false);
+    long now = System.nanoTime();
+    for(String sensorType : new ArrayList<>(sensorBatchStartMap.keySet())) {
+      int batchTimeout = configurations.getBatchTimeout(sensorType);
+      if(batchTimeout <= 0) {
+        batchTimeout = defaultBatchTimeout;
+      }
+      if(batchTimeout > 0 && now - sensorBatchStartMap.get(sensorType) >= TimeUnit.SECONDS.toNanos(batchTimeout)) {
+        LOG.debug("Flushing the batch of {} after its timeout of {} seconds", sensorType, batchTimeout);
+        flush(sensorType, bulkMessageWriter, configurations, messageGetStrategy);
+      }
+    }
+  }
 
-        if(handleError) {
-          error(sensorType, response, messageGetStrategy);
-        } else if (response.hasErrors()) {
-          throw new IllegalStateException("Unhandled bulk errors in response: " + response.getErrors());
-        }
-      } catch (Throwable e) {
-        if(handleError) {
-          error(sensorType, e, tupleList, messageGetStrategy);
-        }
-        else {
-          throw e;
-        }
+  private void flush( String sensorType
+                    , BulkMessageWriter<MESSAGE_T> bulkMessageWriter
+                    , WriterConfiguration configurations
+                    , MessageGetStrategy messageGetStrategy
+                    ) throws Exception
+  {
+    Collection<Tuple> tupleList = sensorTupleMap.get(sensorType);
+    List<MESSAGE_T> messageList = sensorMessageMap.get(sensorType);
+    if(isAsync(bulkMessageWriter)) {
+      flushAsync(sensorType, (AsyncBulkMessageWriter<MESSAGE_T>) bulkMessageWriter, configurations, messageGetStrategy, tupleList, messageList);
+      return;
+    }
+    long startTime = System.nanoTime();
+    try {
+      BulkWriterResponse response = bulkMessageWriter.write(sensorType, configurations, tupleList, messageList);
+
+      // Commit or error piecemeal.
+      if(handleCommit) {
+        commit(response);
+      }
+
+      if(handleError) {
+        error(sensorType, response, messageGetStrategy);
+      } else if (response.hasErrors()) {
+        throw new IllegalStateException("Unhandled bulk errors in response: " + response.getErrors());
+      }
+    } catch (Throwable e) {
+      if(handleError) {
+        spoolOrError(sensorType, e, tupleList, messageGetStrategy);
+      }
+      else {
+        throw e;
       }
-      finally {
-        sensorTupleMap.remove(sensorType);
-        sensorMessageMap.remove(sensorType);
+    }
+    finally {
+      sensorTupleMap.remove(sensorType);
+      sensorMessageMap.remove(sensorType);
+      sensorBatchStartMap.remove(sensorType);
+    }
+    updateMetrics(sensorType, startTime, messageList.size());
+  }
+
+  private boolean isAsync(BulkMessageWriter<MESSAGE_T> bulkMessageWriter) {
+    return maxInFlight > 1 && handleCommit && handleError && bulkMessageWriter instanceof AsyncBulkMessageWriter;
+  }
+
+  private void flushAsync( String sensorType
+                         , AsyncBulkMessageWriter<MESSAGE_T> bulkMessageWriter
+                         , WriterConfiguration configurations
+                         , MessageGetStrategy messageGetStrategy
+                         , Collection<Tuple> tupleList
+                         , List<MESSAGE_T> messageList
+                         ) throws InterruptedException
+  {
+    sensorTupleMap.remove(sensorType);
+    sensorMessageMap.remove(sensorType);
+    sensorBatchStartMap.remove(sensorType);
+    //wait for a slot rather than queueing without bound
+    while(inFlight >= maxInFlight) {
+      handleCompleted(true);
+    }
+    InFlightBatch batch = new InFlightBatch(sensorType, tupleList, messageList.size(), messageGetStrategy);
+    inFlight++;
+    try {
+      bulkMessageWriter.writeAsync(sensorType, configurations, tupleList, messageList)
+                       .whenComplete((response, t) -> {
+                         batch.response = response;
+                         batch.throwable = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+                         completedBatches.add(batch);
+                       });
+    }
+    catch(Throwable e) {
+      batch.throwable = e;
+      completedBatches.add(batch);
+    }
+  }
+
+  /**
+   * Ack or fail the tuples of the asynchronous batches which have completed.  This must be called from the
+   * executor thread, as the output collector is not shared with the writer's threads.
+   *
+   * @param block Wait for at least one batch to complete if any are in flight
+   */
+  private void handleCompleted(boolean block) throws InterruptedException {
+    if(block && inFlight > 0) {
+      handleCompleted(completedBatches.take());
+    }
+    for(InFlightBatch batch = completedBatches.poll(); batch != null; batch = completedBatches.poll()) {
+      handleCompleted(batch);
+    }
+  }
+
+  private void handleCompleted(InFlightBatch batch) {
+    inFlight--;
+    if(batch.throwable != null) {
+      spoolOrError(batch.sensorType, batch.throwable, batch.tuples, batch.messageGetStrategy);
+    }
+    else {
+      commit(batch.response);
+      error(batch.sensorType, batch.response, batch.messageGetStrategy);
+    }
+    updateMetrics(batch.sensorType, batch.startTime, batch.size);
+  }
+
+  private void updateMetrics(String sensorType, long startTime, int size) {
+    long elapsed = System.nanoTime() - startTime;
+    if(batchMetrics != null) {
+      batchMetrics.update(sensorType + ".latency", elapsed / 1000);
+      batchMetrics.update(sensorType + ".size", size);
+    }
+    LOG.debug("Bulk batch completed in ~" + elapsed + " ns");
+  }
+
+  /**
+   * Wait for the asynchronous batches in flight, including a batch of spooled messages being replayed, to complete,
+   * and ack or fail their tuples.  This is intended to be called when the bolt is cleaned up, so that batches which
+   * were written are not replayed.
+   *
+   * @return Whether every batch completed within the timeout
+   */
+  public boolean drain(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    handleCompleted(false);
+    while(inFlight > 0) {
+      InFlightBatch batch = completedBatches.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+      if(batch == null) {
+        LOG.warn("Timed out waiting for " + inFlight + " batches in flight to complete");
+        return false;
+      }
+      handleCompleted(batch);
+    }
+    if(replaying != null) {
+      try {
+        replaying.future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+      }
+      catch(ExecutionException e) {
+        //handled along with the response
+      }
+      catch(TimeoutException e) {
+        LOG.warn("Timed out waiting for the replay of spooled messages of " + replaying.sensorType + " to complete");
+        return false;
       }
-      long endTime = System.nanoTime();
-      long elapsed = endTime - startTime;
-      LOG.debug("Bulk batch completed in ~" + elapsed + " ns");
+      SpooledBatch batch = replaying;
+      replaying = null;
+      try {
+        handleReplayed(batch);
+      }
+      catch(IOException e) {
+        LOG.error("Unable to replay the spooled messages", e);
+        collector.reportError(e);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return The number of asynchronous batches which have been written, but not yet acked or failed
+   */
+  public int getInFlight() {
+    return inFlight;
+  }
+
+  private static class SplitTuple {
+    final String sensorType;
+    final MessageGetStrategy messageGetStrategy;
+    int pending;
+    Throwable error;
+    Throwable retryableError;
+
+    SplitTuple(String sensorType, int pending, MessageGetStrategy messageGetStrategy) {
+      this.sensorType = sensorType;
+      this.pending = pending;
+      this.messageGetStrategy = messageGetStrategy;
+    }
+  }
+
+  private static class SpooledBatch {
+    final String sensorType;
+    final Map<Tuple, DiskSpool.SpooledMessage> spooled = new HashMap<>();
+    final Map<Tuple, JSONObject> messages = new LinkedHashMap<>();
+    final long startTime = System.nanoTime();
+    CompletableFuture<BulkWriterResponse> future;
+
+    SpooledBatch(String sensorType) {
+      this.sensorType = sensorType;
+    }
+  }
+
+  private static class InFlightBatch {
+    final String sensorType;
+    final Collection<Tuple> tuples;
+    final int size;
+    final MessageGetStrategy messageGetStrategy;
+    final long startTime = System.nanoTime();
+    volatile BulkWriterResponse response;
+    volatile Throwable throwable;
+
+    InFlightBatch(String sensorType, Collection<Tuple> tuples, int size, MessageGetStrategy messageGetStrategy) {
+      this.sensorType = sensorType;
+      this.tuples = tuples;
+      this.size = size;
+      this.messageGetStrategy = messageGetStrategy;
     }
   }
 }
@@ -0,0 +1,330 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.metron.writer;
+
+import org.apache.hadoop.io.nativeio.NativeIO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * An append only log of messages on local disk, which holds the messages that could not be written while the
+ * destination was unavailable until they can be written again.  The log is made of memory mapped segment files
+ * and its size on disk is capped.
+ *
+ * Each record is a state byte followed by the lengths of its sensor type and message and then the bytes of both.
+ * The state is written last, so a record is only visible once it is complete, and is overwritten once the
+ * message has been written to its destination, so the messages which are still pending are recovered when the
+ * spool is reopened.  Appended messages only survive a crash of the host once they have been forced to disk by
+ * {@link #force}.  A segment is unmapped and deleted once all of its messages have been written.
+ */
+public class DiskSpool implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(DiskSpool.class);
+  public static final long DEFAULT_SEGMENT_BYTES = 64*1024*1024;
+  private static final String SEGMENT_PREFIX = "spool-";
+  private static final String SEGMENT_SUFFIX = ".seg";
+  private static final byte END = 0;
+  private static final byte PENDING = 1;
+  private static final byte DONE = 2;
+  private static final int HEADER_BYTES = 1 + 4 + 4;
+
+  /**
+   * A pending message, along with its position in the spool.
+   */
+  public static class SpooledMessage {
+    private final String sensorType;
+    private final byte[] message;
+    private final Segment segment;
+    private final int position;
+
+    SpooledMessage(String sensorType, byte[] message, Segment segment, int position) {
+      this.sensorType = sensorType;
+      this.message = message;
+      this.segment = segment;
+      this.position = position;
+    }
+
+    public String getSensorType() {
+      return sensorType;
+    }
+
+    public byte[] getMessage() {
+      return message;
+    }
+  }
+
+  private static class Segment {
+    private final File file;
+    private final MappedByteBuffer buffer;
+    //the position of the next record to read, and of the end of the records written
+    private int readPosition = 0;
+    private int writePosition = 0;
+    //whether records have been appended since the segment was last forced
+    private boolean dirty = false;
+    private boolean unmapped = false;
+
+    Segment(File file, long size) throws IOException {
+      this.file = file;
+      try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+        this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+      }
+    }
+
+    int capacity() {
+      return buffer.capacity();
+    }
+  }
+
+  private final File directory;
+  private final long segmentBytes;
+  private final long maxBytes;
+  private final LinkedList<Segment> segments = new LinkedList<>();
+  private long sequence = 0;
+  private long diskBytes = 0;
+  private long pendingBytes = 0;
+  private int pendingCount = 0;
+
+  /**
+   * Opens the spool in a directory, recovering the messages which are pending in it.
+   *
+   * @param directory The directory of the segment files, which is created if need be
+   * @param segmentBytes The size of each segment file
+   * @param maxBytes The maximum size of all the segment files
+   */
+  public DiskSpool(File directory, long segmentBytes, long maxBytes) throws IOException {
+    this.directory = directory;
+    this.segmentBytes = segmentBytes;
+    this.maxBytes = maxBytes;
+    if(!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create the spool directory " + directory);
+    }
+    File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+    Arrays.sort(files);
+    for(File file : files) {
+      recover(file);
+    }
+    if(pendingCount > 0) {
+      LOG.info("Recovered {} spooled messages from {}", pendingCount, directory);
+    }
+  }
+
+  private void recover(File file) throws IOException {
+    String name = file.getName();
+    sequence = Math.max(sequence, Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())) + 1);
+    Segment segment = new Segment(file, file.length());
+    int readPosition = -1;
+    int position = 0;
+    while(position + HEADER_BYTES <= segment.capacity()) {
+      byte state = segment.buffer.get(position);
+      if(state == END) {
+        break;
+      }
+      int length = HEADER_BYTES + segment.buffer.getInt(position + 1) + segment.buffer.getInt(position + 5);
+      if(state == PENDING) {
+        if(readPosition < 0) {
+          readPosition = position;
+        }
+        pendingBytes += length;
+        pendingCount++;
+      }
+      position += length;
+    }
+    if(readPosition < 0) {
+      //every message of the segment has been written
+      delete(segment);
+      return;
+    }
+    segment.readPosition = readPosition;
+    segment.writePosition = position;
+    segments.add(segment);
+    diskBytes += segment.capacity();
+  }
+
+  /**
+   * Appends a message to the spool.
+   *
+   * @return False if the spool is full, in which case the message is not spooled
+   */
+  public synchronized boolean append(String sensorType, byte[] message) throws IOException {
+    byte[] sensor = sensorType.getBytes(StandardCharsets.UTF_8);
+    int length = HEADER_BYTES + sensor.length + message.length;
+    Segment segment = segments.peekLast();
+    //leave room for the end marker
+    if(segment == null || segment.writePosition + length + 1 > segment.capacity()) {
+      long size = Math.max(segmentBytes, length + 1);
+      if(diskBytes + size > maxBytes) {
+        return false;
+      }
+      segment = new Segment(new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX, sequence++, SEGMENT_SUFFIX)), size);
+      segments.add(segment);
+      diskBytes += size;
+    }
+    int position = segment.writePosition;
+    segment.buffer.putInt(position + 1, sensor.length);
+    segment.buffer.putInt(position + 5, message.length);
+    segment.buffer.position(position + HEADER_BYTES);
+    segment.buffer.put(sensor);
+    segment.buffer.put(message);
+    segment.buffer.put(position, PENDING);
+    segment.dirty = true;
+    segment.writePosition += length;
+    pendingBytes += length;
+    pendingCount++;
+    return true;
+  }
+
+  /**
+   * Forces the messages appended since the last call to disk, so that they survive a crash of the host.
+   */
+  public synchronized void force() {
+    for(Segment segment : segments) {
+      if(segment.dirty) {
+        segment.buffer.force();
+        segment.dirty = false;
+      }
+    }
+  }
+
+  /**
+   * Reads the oldest pending messages, without removing them from the spool.  The messages all have the same
+   * sensor type, so they can be written as a batch.
+   *
+   * @param max The maximum number of messages to read
+   */
+  public synchronized List<SpooledMessage> peek(int max) {
+    List<SpooledMessage> ret = new ArrayList<>();
+    String sensorType = null;
+    for(Segment segment : segments) {
+      int position = segment.readPosition;
+      while(position < segment.writePosition && ret.size() < max) {
+        int sensorLength = segment.buffer.getInt(position + 1);
+        int messageLength = segment.buffer.getInt(position + 5);
+        if(segment.buffer.get(position) == PENDING) {
+          byte[] sensor = new byte[sensorLength];
+          byte[] message = new byte[messageLength];
+          segment.buffer.position(position + HEADER_BYTES);
+          segment.buffer.get(sensor);
+          segment.buffer.get(message);
+          String type = new String(sensor, StandardCharsets.UTF_8);
+          if(sensorType != null && !sensorType.equals(type)) {
+            return ret;
+          }
+          sensorType = type;
+          ret.add(new SpooledMessage(type, message, segment, position));
+        }
+        position += HEADER_BYTES + sensorLength + messageLength;
+      }
+      if(ret.size() >= max) {
+        break;
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Removes messages which have been written from the spool.
+   */
+  public synchronized void remove(List<SpooledMessage> messages) throws IOException {
+    for(SpooledMessage message : messages) {
+      Segment segment = message.segment;
+      //the segment is gone once all of its messages have been removed
+      if(segment.unmapped || segment.buffer.get(message.position) != PENDING) {
+        continue;
+      }
+      segment.buffer.put(message.position, DONE);
+      pendingBytes -= HEADER_BYTES + message.sensorType.getBytes(StandardCharsets.UTF_8).length + message.message.length;
+      pendingCount--;
+    }
+    //advance past the written messages, deleting the segments which have been fully written
+    while(!segments.isEmpty()) {
+      Segment segment = segments.peekFirst();
+      while(segment.readPosition < segment.writePosition && segment.buffer.get(segment.readPosition) == DONE) {
+        segment.readPosition += HEADER_BYTES + segment.buffer.getInt(segment.readPosition + 1) + segment.buffer.getInt(segment.readPosition + 5);
+      }
+      if(segment.readPosition < segment.writePosition || segment == segments.peekLast()) {
+        break;
+      }
+      segments.removeFirst();
+      delete(segment);
+      diskBytes -= segment.capacity();
+    }
+  }
+
+  /**
+   * Unmaps and deletes a segment.  The disk used by a file which is still mapped is not freed until the mapping
+   * is garbage collected.
+   */
+  private void delete(Segment segment) throws IOException {
+    unmap(segment);
+    if(!segment.file.delete()) {
+      throw new IOException("Unable to delete the spool segment " + segment.file);
+    }
+  }
+
+  private static void unmap(Segment segment) {
+    segment.unmapped = true;
+    NativeIO.POSIX.munmap(segment.buffer);
+  }
+
+  /**
+   * @return The size of the segment files, in bytes
+   */
+  public synchronized long getDiskBytes() {
+    return diskBytes;
+  }
+
+  /**
+   * @return The number of messages pending
+   */
+  public synchronized int getPendingCount() {
+    return pendingCount;
+  }
+
+  /**
+   * @return The size of the messages pending, in bytes
+   */
+  public synchronized long getPendingBytes() {
+    return pendingBytes;
+  }
+
+  public synchronized boolean isEmpty() {
+    return pendingCount == 0;
+  }
+
+  @Override
+  public synchronized void close() {
+    for(Segment segment : segments) {
+      segment.buffer.force();
+      unmap(segment);
+    }
+    segments.clear();
+    diskBytes = 0;
+  }
+}
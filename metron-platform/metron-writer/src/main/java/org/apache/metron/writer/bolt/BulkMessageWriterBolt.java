@@ -23,31 +23,55 @@ import org.apache.metron.common.configuration.writer.IndexingWriterConfiguration
 import org.apache.metron.common.configuration.writer.WriterConfiguration;
 import org.apache.metron.common.message.MessageGetStrategy;
 import org.apache.metron.common.message.MessageGetters;
+import org.apache.metron.common.utils.ConversionUtils;
 import org.apache.metron.common.utils.MessageUtils;
+import org.apache.metron.common.writer.AsyncBulkMessageWriter;
+import org.apache.metron.common.writer.AsyncMessageWriter;
 import org.apache.metron.common.writer.BulkMessageWriter;
 import org.apache.metron.common.writer.MessageWriter;
+import org.apache.metron.writer.AsyncWriterToBulkWriter;
 import org.apache.metron.writer.BulkWriterComponent;
+import org.apache.metron.writer.DiskSpool;
 import org.apache.metron.writer.WriterToBulkWriter;
+import org.apache.storm.Config;
 import org.apache.storm.task.OutputCollector;
 import org.apache.storm.task.TopologyContext;
 import org.apache.storm.topology.OutputFieldsDeclarer;
 import org.apache.storm.tuple.Fields;
 import org.apache.storm.tuple.Tuple;
+import org.apache.storm.utils.TupleUtils;
 import org.json.simple.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 public class BulkMessageWriterBolt extends ConfiguredIndexingBolt {
 
   private static final Logger LOG = LoggerFactory
           .getLogger(BulkMessageWriterBolt.class);
+  /**
+   * The number of messages, and their size in bytes, waiting in the spool to be written, the size of the spool's
+   * files and the number of spooled messages written, sent to the error topic and left to retry since the last report.
+   */
+  public static final String SPOOL_METRIC = "writer.spool";
   private BulkMessageWriter<JSONObject> bulkMessageWriter;
   private BulkWriterComponent<JSONObject> writerComponent;
   private String messageGetStrategyType = MessageGetters.DEFAULT_JSON_FROM_FIELD.name();
   private String messageGetField;
+  private int maxInFlight = BulkWriterComponent.DEFAULT_MAX_IN_FLIGHT;
+  private String spoolDirectory;
+  private long spoolMaxBytes;
+  private long spoolSegmentBytes = DiskSpool.DEFAULT_SEGMENT_BYTES;
+  private transient DiskSpool spool;
+  private transient long replayedCount;
+  private transient long erroredCount;
+  private transient long retriedCount;
   private transient MessageGetStrategy messageGetStrategy;
   private transient OutputCollector collector;
   private transient Function<WriterConfiguration, WriterConfiguration> configurationTransformation;
@@ -60,8 +84,50 @@ public class BulkMessageWriterBolt extends ConfiguredIndexingBolt {
     return this;
   }
 
+  /**
+   * A message writer which can also write batches, such as the KafkaWriter, writes batches of the sensor's batch
+   * size.  Otherwise each batch holds a single message.
+   */
+  @SuppressWarnings("unchecked")
   public BulkMessageWriterBolt withMessageWriter(MessageWriter<JSONObject> messageWriter) {
-    this.bulkMessageWriter = new WriterToBulkWriter<>(messageWriter);
+    if(messageWriter instanceof AsyncBulkMessageWriter) {
+      this.bulkMessageWriter = (AsyncBulkMessageWriter<JSONObject>) messageWriter;
+    }
+    else if(messageWriter instanceof AsyncMessageWriter) {
+      this.bulkMessageWriter = new AsyncWriterToBulkWriter<>((AsyncMessageWriter<JSONObject>) messageWriter);
+    }
+    else {
+      this.bulkMessageWriter = new WriterToBulkWriter<>(messageWriter);
+    }
+    return this;
+  }
+
+  /**
+   * The maximum number of batches an asynchronous writer may have in flight at once.
+   */
+  public BulkMessageWriterBolt withMaxInFlight(int maxInFlight) {
+    this.maxInFlight = maxInFlight;
+    return this;
+  }
+
+  /**
+   * Spool the messages of batches which fail, e.g. while the destination is unavailable, to local disk and
+   * write them again once it is available.  Each task spools to its own subdirectory.
+   *
+   * @param directory The local directory to spool to, or empty to not spool
+   * @param maxBytes The maximum size of the spool of each task, in bytes
+   */
+  public BulkMessageWriterBolt withSpool(String directory, long maxBytes) {
+    this.spoolDirectory = directory;
+    this.spoolMaxBytes = maxBytes;
+    return this;
+  }
+
+  /**
+   * The size of each file of the spool, in bytes.
+   */
+  public BulkMessageWriterBolt withSpoolSegmentBytes(long spoolSegmentBytes) {
+    this.spoolSegmentBytes = spoolSegmentBytes;
     return this;
   }
 
@@ -75,9 +141,47 @@ public class BulkMessageWriterBolt extends ConfiguredIndexingBolt {
     return this;
   }
 
+  @Override
+  public Map<String, Object> getComponentConfiguration() {
+    //tick tuples flush the batches which have been waiting longer than their batch timeout
+    Config conf = new Config();
+    conf.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, BulkWriterComponent.BATCH_TIMEOUT_TICK_SECS);
+    return conf;
+  }
+
   @Override
   public void prepare(Map stormConf, TopologyContext context, OutputCollector collector) {
-    this.writerComponent = new BulkWriterComponent<>(collector);
+    this.writerComponent = new BulkWriterComponent<JSONObject>(collector)
+                               .withDefaultBatchTimeout(BulkWriterComponent.getDefaultBatchTimeout(stormConf))
+                               .withMaxInFlight(maxInFlight);
+    if(spoolDirectory != null && !spoolDirectory.isEmpty()) {
+      File directory = new File(spoolDirectory, context.getThisComponentId() + "-" + context.getThisTaskId());
+      try {
+        spool = new DiskSpool(directory, spoolSegmentBytes, spoolMaxBytes);
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to open the spool in " + directory, e);
+      }
+      writerComponent.withSpool(spool)
+                     .withReplayCallback((sensorType, written, errored, retried) -> {
+                       replayedCount += written;
+                       erroredCount += errored;
+                       retriedCount += retried;
+                     });
+      Integer bucketSize = ConversionUtils.convert(stormConf.get(Config.TOPOLOGY_BUILTIN_METRICS_BUCKET_SIZE_SECS), Integer.class);
+      context.registerMetric(SPOOL_METRIC, () -> {
+        Map<String, Object> depth = new HashMap<>();
+        depth.put("count", spool.getPendingCount());
+        depth.put("bytes", spool.getPendingBytes());
+        depth.put("diskBytes", spool.getDiskBytes());
+        depth.put("replayed", replayedCount);
+        depth.put("errored", erroredCount);
+        depth.put("retried", retriedCount);
+        replayedCount = 0;
+        erroredCount = 0;
+        retriedCount = 0;
+        return depth;
+      }, bucketSize == null ? 60 : bucketSize);
+    }
     this.collector = collector;
     super.prepare(stormConf, context, collector);
     if (messageGetField != null) {
@@ -105,6 +209,20 @@ public class BulkMessageWriterBolt extends ConfiguredIndexingBolt {
   @SuppressWarnings("unchecked")
   @Override
   public void execute(Tuple tuple) {
+    if(TupleUtils.isTick(tuple)) {
+      try {
+        WriterConfiguration writerConfiguration = configurationTransformation.apply(new IndexingWriterConfiguration(bulkMessageWriter.getName(), getConfigurations()));
+        writerComponent.flushTimedOut(bulkMessageWriter
+                                     , writerConfiguration
+                                     , messageGetStrategy
+                                     );
+        writerComponent.replaySpooled(bulkMessageWriter, writerConfiguration);
+      }
+      catch(Exception e) {
+        throw new RuntimeException("This should have been caught in the writerComponent.  If you see this, file a JIRA", e);
+      }
+      return;
+    }
     JSONObject message = (JSONObject) messageGetStrategy.get(tuple);
     String sensorType = MessageUtils.getSensorType(message);
     try
@@ -128,6 +246,21 @@ public class BulkMessageWriterBolt extends ConfiguredIndexingBolt {
     }
   }
 
+  @Override
+  public void cleanup() {
+    try {
+      if(writerComponent != null) {
+        writerComponent.drain(BulkWriterComponent.CLEANUP_DRAIN_SECS, TimeUnit.SECONDS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if(spool != null) {
+      spool.close();
+    }
+    super.cleanup();
+  }
+
   @Override
   public void declareOutputFields(OutputFieldsDeclarer declarer) {
     declarer.declareStream(Constants.ERROR_STREAM, new Fields("message"));
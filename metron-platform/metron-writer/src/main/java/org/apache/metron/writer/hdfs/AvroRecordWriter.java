@@ -0,0 +1,301 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.metron.writer.hdfs;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.metron.common.configuration.IndexingConfigurations;
+import org.apache.metron.common.utils.ConversionUtils;
+import org.apache.metron.common.utils.JSONUtils;
+import org.codehaus.jackson.node.NullNode;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Writes messages to an Avro container file.  The messages are buffered into blocks, which are compressed
+ * and written as a whole, so the files are much smaller than JSON text and can be read without parsing it.
+ *
+ * The schema is taken from the {@value IndexingConfigurations#OUTPUT_SCHEMA_CONF} key of the writer's
+ * indexing config.  If there is none, it is inferred from the first message written to the file: each field
+ * becomes a nullable column of the type of its value.  Field names which are not valid Avro names, like those
+ * with dots, are converted and the original name is kept in the {@value #FIELD_NAME_PROP} property of the field.
+ * The values which do not fit the schema, because the field is new or has a different type, are kept as JSON
+ * text in the {@value #EXTRA_FIELD} map, if the schema has one.
+ */
+public class AvroRecordWriter implements RecordWriter {
+  public static final String EXTRA_FIELD = "_extra";
+  public static final String FIELD_NAME_PROP = "metron.field";
+  public static final String BLOCK_SIZE_CONF = "outputBlockSize";
+  public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+  private static final int DEFAULT_DEFLATE_LEVEL = 6;
+  private static final String RECORD_NAME = "message";
+  private static final String RECORD_NAMESPACE = "org.apache.metron";
+
+  private static class FieldMapping {
+    int pos;
+    Schema.Type type;
+
+    FieldMapping(Schema.Field field) {
+      this.pos = field.pos();
+      this.type = getType(field.schema()).getType();
+    }
+
+    /**
+     * @return The value as the type of the field, or null if it can not be converted
+     */
+    Object convert(Object value) {
+      switch(type) {
+        case STRING:
+          return value instanceof String ? value : JSONValue.toJSONString(value);
+        case LONG:
+          return value instanceof Number ? ((Number) value).longValue() : null;
+        case INT:
+          return value instanceof Number ? ((Number) value).intValue() : null;
+        case DOUBLE:
+          return value instanceof Number ? ((Number) value).doubleValue() : null;
+        case FLOAT:
+          return value instanceof Number ? ((Number) value).floatValue() : null;
+        case BOOLEAN:
+          return value instanceof Boolean ? value : null;
+        default:
+          return value;
+      }
+    }
+  }
+
+  private final OutputStream out;
+  private final Schema suppliedSchema;
+  private final CodecFactory codec;
+  private final int blockSize;
+  private DataFileWriter<GenericRecord> writer;
+  private GenericDatumWriter<GenericRecord> datumWriter;
+  private final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+  private BinaryEncoder encoder;
+  private long bytesWritten;
+  private Schema schema;
+  private Map<String, FieldMapping> fields;
+  private int extraPos = -1;
+
+  public AvroRecordWriter(OutputStream out, Map<String, Object> sensorConfig) {
+    this.out = out;
+    this.suppliedSchema = getSchema(sensorConfig);
+    this.codec = getCodec(sensorConfig);
+    Integer blockSize = sensorConfig == null ? null : ConversionUtils.convert(sensorConfig.get(BLOCK_SIZE_CONF), Integer.class);
+    this.blockSize = blockSize == null ? DEFAULT_BLOCK_SIZE : blockSize;
+  }
+
+  @Override
+  public void write(JSONObject message) throws IOException {
+    if(writer == null) {
+      open(suppliedSchema == null ? inferSchema(message) : suppliedSchema);
+    }
+    GenericData.Record record = new GenericData.Record(schema);
+    Map<String, String> extra = null;
+    for(Object o : message.entrySet()) {
+      Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+      String name = String.valueOf(entry.getKey());
+      Object value = entry.getValue();
+      FieldMapping field = fields.get(name);
+      Object converted = field == null || value == null ? null : field.convert(value);
+      if(field != null && (value == null || converted != null)) {
+        record.put(field.pos, converted);
+      }
+      else if(extraPos >= 0) {
+        if(extra == null) {
+          extra = new HashMap<>();
+        }
+        extra.put(name, value instanceof String ? (String) value : JSONValue.toJSONString(value));
+      }
+    }
+    if(extra != null) {
+      record.put(extraPos, extra);
+    }
+    // the record is encoded here, as DataFileWriter.append would, so that its size is known
+    encoded.reset();
+    encoder = EncoderFactory.get().binaryEncoder(encoded, encoder);
+    datumWriter.write(record, encoder);
+    encoder.flush();
+    writer.appendEncoded(ByteBuffer.wrap(encoded.toByteArray()));
+    bytesWritten += encoded.size();
+  }
+
+  @Override
+  public long getBytesWritten() {
+    return bytesWritten;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    if(writer != null) {
+      writer.flush();
+    }
+    else {
+      out.flush();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if(writer != null) {
+      writer.close();
+    }
+    else {
+      out.close();
+    }
+  }
+
+  public Schema getSchema() {
+    return schema;
+  }
+
+  private void open(Schema schema) throws IOException {
+    this.schema = schema;
+    this.fields = new HashMap<>();
+    for(Schema.Field field : schema.getFields()) {
+      if(EXTRA_FIELD.equals(field.name())) {
+        extraPos = field.pos();
+        continue;
+      }
+      String name = field.getProp(FIELD_NAME_PROP);
+      fields.put(name == null ? field.name() : name, new FieldMapping(field));
+    }
+    datumWriter = new GenericDatumWriter<GenericRecord>(schema);
+    writer = new DataFileWriter<GenericRecord>(datumWriter);
+    writer.setCodec(codec);
+    writer.setSyncInterval(blockSize);
+    writer.create(schema, out);
+  }
+
+  /**
+   * Infers a schema with a nullable field for each field of the message, and a map for the values which do not fit.
+   */
+  public static Schema inferSchema(Map<?, ?> message) {
+    List<Schema.Field> fields = new ArrayList<>();
+    Set<String> names = new HashSet<>();
+    names.add(EXTRA_FIELD);
+    Map<String, Object> sorted = new TreeMap<>();
+    for(Map.Entry<?, ?> entry : message.entrySet()) {
+      sorted.put(String.valueOf(entry.getKey()), entry.getValue());
+    }
+    for(Map.Entry<String, Object> entry : sorted.entrySet()) {
+      String name = toAvroName(entry.getKey());
+      if(!names.add(name)) {
+        //colliding names are kept in the extra field
+        continue;
+      }
+      Schema.Field field = new Schema.Field(name, nullable(Schema.create(inferType(entry.getValue()))), null, NullNode.getInstance());
+      if(!name.equals(entry.getKey())) {
+        field.addProp(FIELD_NAME_PROP, entry.getKey());
+      }
+      fields.add(field);
+    }
+    fields.add(new Schema.Field(EXTRA_FIELD, nullable(Schema.createMap(Schema.create(Schema.Type.STRING))), null, NullNode.getInstance()));
+    Schema schema = Schema.createRecord(RECORD_NAME, null, RECORD_NAMESPACE, false);
+    schema.setFields(fields);
+    return schema;
+  }
+
+  private static Schema.Type inferType(Object value) {
+    if(value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      return Schema.Type.LONG;
+    }
+    if(value instanceof Double || value instanceof Float) {
+      return Schema.Type.DOUBLE;
+    }
+    if(value instanceof Boolean) {
+      return Schema.Type.BOOLEAN;
+    }
+    return Schema.Type.STRING;
+  }
+
+  private static Schema nullable(Schema schema) {
+    return Schema.createUnion(Arrays.asList(Schema.create(Schema.Type.NULL), schema));
+  }
+
+  private static Schema getType(Schema schema) {
+    if(schema.getType() == Schema.Type.UNION) {
+      for(Schema s : schema.getTypes()) {
+        if(s.getType() != Schema.Type.NULL) {
+          return s;
+        }
+      }
+    }
+    return schema;
+  }
+
+  static String toAvroName(String name) {
+    StringBuilder ret = new StringBuilder(name.length() + 1);
+    if(name.isEmpty() || !(Character.isLetter(name.charAt(0)) || name.charAt(0) == '_')) {
+      ret.append('_');
+    }
+    for(int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      ret.append((c < 128 && Character.isLetterOrDigit(c)) || c == '_' ? c : '_');
+    }
+    return ret.toString();
+  }
+
+  private static Schema getSchema(Map<String, Object> sensorConfig) {
+    Object schema = sensorConfig == null ? null : sensorConfig.get(IndexingConfigurations.OUTPUT_SCHEMA_CONF);
+    if(schema == null) {
+      return null;
+    }
+    try {
+      String json = schema instanceof String ? (String) schema : JSONUtils.INSTANCE.toJSON(schema, false);
+      return new Schema.Parser().parse(json);
+    } catch (Exception e) {
+      throw new IllegalArgumentException("Unable to parse the output schema " + schema, e);
+    }
+  }
+
+  private static CodecFactory getCodec(Map<String, Object> sensorConfig) {
+    Object compression = sensorConfig == null ? null : sensorConfig.get(IndexingConfigurations.OUTPUT_COMPRESSION_CONF);
+    String codec = compression == null ? "SNAPPY" : compression.toString().toUpperCase();
+    switch(codec) {
+      case "SNAPPY":
+        return CodecFactory.snappyCodec();
+      case "DEFLATE":
+      case "GZIP":
+        return CodecFactory.deflateCodec(DEFAULT_DEFLATE_LEVEL);
+      case "NONE":
+        return CodecFactory.nullCodec();
+      default:
+        throw new IllegalArgumentException("Unsupported Avro compression " + compression + ", expected one of SNAPPY, DEFLATE or NONE");
+    }
+  }
+}
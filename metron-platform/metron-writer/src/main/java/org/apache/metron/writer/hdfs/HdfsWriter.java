@@ -17,9 +17,11 @@
  */
 package org.apache.metron.writer.hdfs;
 
+import org.apache.log4j.Logger;
 import org.apache.metron.common.configuration.IndexingConfigurations;
 import org.apache.metron.common.dsl.Context;
 import org.apache.metron.common.dsl.MapVariableResolver;
+import org.apache.metron.common.dsl.ParseException;
 import org.apache.metron.common.dsl.StellarFunctions;
 import org.apache.metron.common.dsl.VariableResolver;
 import org.apache.metron.common.stellar.StellarCompiler;
@@ -43,13 +45,26 @@ import java.util.*;
 import java.util.function.Function;
 
 public class HdfsWriter implements BulkMessageWriter<JSONObject>, Serializable {
+  private static final Logger LOG = Logger.getLogger(HdfsWriter.class);
   List<RotationAction> rotationActions = new ArrayList<>();
   FileRotationPolicy rotationPolicy = new NoRotationPolicy();
   SyncPolicy syncPolicy;
   FileNameFormat fileNameFormat;
-  Map<SourceHandlerKey, SourceHandler> sourceHandlerMap = new HashMap<>();
   int maxOpenFiles = 500;
-  transient StellarProcessor stellarProcessor;
+  //the open handlers in least recently used order, the least recently used of which is closed when there are
+  //more than maxOpenFiles of them.
+  Map<SourceHandlerKey, SourceHandler> sourceHandlerMap = new LinkedHashMap<SourceHandlerKey, SourceHandler>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<SourceHandlerKey, SourceHandler> eldest) {
+      if(size() > maxOpenFiles) {
+        LOG.info("More than " + maxOpenFiles + " HDFS files open, closing " + eldest.getKey());
+        eldest.getValue().close();
+        return true;
+      }
+      return false;
+    }
+  };
+  transient Map<String, PathFunction> pathFunctions;
   transient Map stormConfig;
   transient SyncPolicyCreator syncPolicyCreator;
 
@@ -81,15 +96,19 @@ public class HdfsWriter implements BulkMessageWriter<JSONObject>, Serializable {
   @Override
   public void init(Map stormConfig, TopologyContext topologyContext, WriterConfiguration configurations) {
     this.stormConfig = stormConfig;
-    this.stellarProcessor = new StellarProcessor();
+    this.pathFunctions = new HashMap<>();
     this.fileNameFormat.prepare(stormConfig,topologyContext);
     if(syncPolicy != null) {
       //if the user has specified the sync policy, we don't want to override their wishes.
       syncPolicyCreator = new ClonedSyncPolicyCreator(syncPolicy);
     }
     else {
-      //if the user has not, then we want to have the sync policy depend on the batch size.
-      syncPolicyCreator = (source, config) -> new CountSyncPolicy(config == null?1:config.getBatchSize(source));
+      //if the user has not, then we want to sync on the interval configured for the sensor, if there is one,
+      //and otherwise have the sync policy depend on the batch size.
+      syncPolicyCreator = (source, config) -> {
+        SyncPolicy policy = IntervalSyncPolicy.create(config == null ? null : config.getSensorConfig(source));
+        return policy != null ? policy : new CountSyncPolicy(config == null?1:config.getBatchSize(source));
+      };
     }
   }
 
@@ -105,15 +124,17 @@ public class HdfsWriter implements BulkMessageWriter<JSONObject>, Serializable {
 
     // Currently treating all the messages in a group for pass/failure.
     try {
-      // Messages can all result in different HDFS paths, because of Stellar Expressions, so we'll need to iterate through
+      // Messages can all result in different HDFS paths, because of Stellar Expressions, so we group them by path
+      // and write each group through its handler in one go.
+      String function = (String)configurations.getSensorConfig(sourceType).getOrDefault(IndexingConfigurations.OUTPUT_PATH_FUNCTION_CONF, "");
+      Map<String, List<JSONObject>> messagesByPath = new LinkedHashMap<>();
       for(JSONObject message : messages) {
-        String path = getHdfsPathExtension(
-                sourceType,
-                (String)configurations.getSensorConfig(sourceType).getOrDefault(IndexingConfigurations.OUTPUT_PATH_FUNCTION_CONF, ""),
-                message
-        );
-        SourceHandler handler = getSourceHandler(sourceType, path, configurations);
-        handler.handle(message, sourceType, configurations, syncPolicyCreator);
+        String path = getHdfsPathExtension(sourceType, function, message);
+        messagesByPath.computeIfAbsent(path, k -> new ArrayList<>()).add(message);
+      }
+      for(Map.Entry<String, List<JSONObject>> kv : messagesByPath.entrySet()) {
+        SourceHandler handler = getSourceHandler(sourceType, kv.getKey(), configurations);
+        handler.handle(kv.getValue(), sourceType, configurations, syncPolicyCreator);
       }
     } catch (Exception e) {
       response.addAllErrors(e, tuples);
@@ -129,15 +150,31 @@ public class HdfsWriter implements BulkMessageWriter<JSONObject>, Serializable {
       return sourceType;
     }
 
-    //processor is a StellarProcessor();
     VariableResolver resolver = new MapVariableResolver(message);
-    Object objResult = stellarProcessor.parse(stellarFunction, resolver, StellarFunctions.FUNCTION_RESOLVER(), Context.EMPTY_CONTEXT());
+    Object objResult = getPathExpression(sourceType, stellarFunction)
+            .apply(new StellarCompiler.ExpressionState(Context.EMPTY_CONTEXT(), StellarFunctions.FUNCTION_RESOLVER(), resolver));
     if(objResult != null && !(objResult instanceof String)) {
       throw new IllegalArgumentException("Stellar Function <" + stellarFunction + "> did not return a String value. Returned: " + objResult);
     }
     return objResult == null ? "" : (String)objResult;
   }
 
+  /**
+   * The compiled output path function of a sensor, which is only recompiled when the function changes.
+   */
+  private StellarCompiler.Expression getPathExpression(String sourceType, String stellarFunction) {
+    PathFunction pathFunction = pathFunctions.get(sourceType);
+    if(pathFunction == null || !pathFunction.function.equals(stellarFunction)) {
+      try {
+        pathFunction = new PathFunction(stellarFunction, StellarProcessor.compile(stellarFunction));
+      } catch (RuntimeException e) {
+        throw new ParseException("Unable to parse: " + stellarFunction + " due to: " + e.getMessage(), e);
+      }
+      pathFunctions.put(sourceType, pathFunction);
+    }
+    return pathFunction.expression;
+  }
+
   @Override
   public String getName() {
     return "hdfs";
@@ -156,16 +193,31 @@ public class HdfsWriter implements BulkMessageWriter<JSONObject>, Serializable {
     SourceHandlerKey key = new SourceHandlerKey(sourceType, stellarResult);
     SourceHandler ret = sourceHandlerMap.get(key);
     if(ret == null) {
-      if(sourceHandlerMap.size() >= maxOpenFiles) {
-        throw new IllegalStateException("Too many HDFS files open!");
-      }
+      Map<String, Object> sensorConfig = config == null ? null : config.getSensorConfig(sourceType);
+      OutputFormats outputFormat = OutputFormats.get(sensorConfig);
       ret = new SourceHandler(rotationActions,
                               rotationPolicy,
                               syncPolicyCreator.create(sourceType, config),
-                              new PathExtensionFileNameFormat(key.getStellarResult(), fileNameFormat),
-                              new SourceHandlerCallback(sourceHandlerMap, key));
+                              new PathExtensionFileNameFormat(key.getStellarResult()
+                                                             , outputFormat.getExtension()
+                                                             , outputFormat.getSuffix(sensorConfig)
+                                                             , fileNameFormat
+                                                             ),
+                              new SourceHandlerCallback(sourceHandlerMap, key),
+                              outputFormat,
+                              sensorConfig);
       sourceHandlerMap.put(key, ret);
     }
     return ret;
   }
+
+  private static class PathFunction {
+    private final String function;
+    private final StellarCompiler.Expression expression;
+
+    PathFunction(String function, StellarCompiler.Expression expression) {
+      this.function = function;
+      this.expression = expression;
+    }
+  }
 }
@@ -0,0 +1,90 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.metron.writer.hdfs;
+
+import org.apache.metron.common.utils.ConversionUtils;
+import org.apache.storm.hdfs.bolt.sync.SyncPolicy;
+import org.apache.storm.tuple.Tuple;
+
+import java.util.Map;
+
+/**
+ * Syncs once a number of bytes have been written or an interval has passed since the last sync, whichever
+ * comes first, independently of the batch size.  The policy is only consulted as messages are written.
+ */
+public class IntervalSyncPolicy implements SyncPolicy {
+  public static final String SYNC_BYTES_CONF = "syncBytes";
+  public static final String SYNC_INTERVAL_MS_CONF = "syncIntervalMs";
+
+  private final long bytes;
+  private final long intervalMs;
+  private long written = 0;
+  private long lastOffset = -1;
+  private long lastSync = System.currentTimeMillis();
+
+  /**
+   * @param bytes The bytes to write between syncs, or a non-positive value for no limit
+   * @param intervalMs The milliseconds between syncs, or a non-positive value for no limit
+   */
+  public IntervalSyncPolicy(long bytes, long intervalMs) {
+    this.bytes = bytes;
+    this.intervalMs = intervalMs;
+  }
+
+  /**
+   * @return The policy configured by {@value #SYNC_BYTES_CONF} and {@value #SYNC_INTERVAL_MS_CONF}, or null
+   * if neither is set
+   */
+  public static IntervalSyncPolicy create(Map<String, Object> sensorConfig) {
+    if(sensorConfig == null) {
+      return null;
+    }
+    Long bytes = ConversionUtils.convert(sensorConfig.get(SYNC_BYTES_CONF), Long.class);
+    Long intervalMs = ConversionUtils.convert(sensorConfig.get(SYNC_INTERVAL_MS_CONF), Long.class);
+    if(bytes == null && intervalMs == null) {
+      return null;
+    }
+    return new IntervalSyncPolicy(bytes == null ? 0 : bytes, intervalMs == null ? 0 : intervalMs);
+  }
+
+  @Override
+  public boolean mark(Tuple tuple, long offset) {
+    if(lastOffset >= 0) {
+      //the offset starts again from 0 when the file is rotated
+      written += offset >= lastOffset ? offset - lastOffset : offset;
+    }
+    lastOffset = offset;
+    return (bytes > 0 && written >= bytes)
+        || (intervalMs > 0 && System.currentTimeMillis() - lastSync >= intervalMs);
+  }
+
+  @Override
+  public void reset() {
+    written = 0;
+    lastSync = System.currentTimeMillis();
+  }
+
+  @Override
+  public String toString() {
+    return "IntervalSyncPolicy{" +
+            "bytes=" + bytes +
+            ", intervalMs=" + intervalMs +
+            '}';
+  }
+}
@@ -0,0 +1,173 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.metron.writer.hdfs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.compress.BZip2Codec;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionOutputStream;
+import org.apache.hadoop.io.compress.Compressor;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.metron.common.configuration.IndexingConfigurations;
+import org.apache.metron.common.message.StreamingJSONSerializer;
+import org.apache.metron.common.utils.ConversionUtils;
+import org.json.simple.JSONObject;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * Writes messages as newline delimited JSON, optionally compressed by a Hadoop compression codec.
+ */
+public class JSONRecordWriter implements RecordWriter {
+  public static final String BUFFER_SIZE_CONF = "outputBufferSize";
+  public static final int DEFAULT_BUFFER_SIZE = 256*1024;
+
+  private OutputStream out;
+  private final OutputStream buffered;
+  private final StreamingJSONSerializer serializer = new StreamingJSONSerializer();
+  private final CompressionCodec codec;
+  private Compressor compressor;
+  private CompressionOutputStream compressed;
+  private boolean finished;
+  private long bytesWritten;
+
+  public JSONRecordWriter(OutputStream out) {
+    this(out, null);
+  }
+
+  public JSONRecordWriter(OutputStream out, Map<String, Object> sensorConfig) {
+    Integer bufferSize = sensorConfig == null ? null : ConversionUtils.convert(sensorConfig.get(BUFFER_SIZE_CONF), Integer.class);
+    this.buffered = new BufferedOutputStream(out, bufferSize == null ? DEFAULT_BUFFER_SIZE : bufferSize);
+    this.codec = getCodec(sensorConfig);
+    if(codec == null) {
+      this.out = buffered;
+    }
+    else {
+      try {
+        this.compressor = CodecPool.getCompressor(codec);
+        this.compressed = codec.createOutputStream(buffered, compressor);
+        this.out = compressed;
+      } catch (IOException e) {
+        CodecPool.returnCompressor(compressor);
+        throw new IllegalStateException("Unable to create a " + codec.getClass().getSimpleName() + " stream: " + e.getMessage(), e);
+      }
+    }
+  }
+
+  @Override
+  public void write(JSONObject message) throws IOException {
+    if(finished) {
+      // a new compressed stream, with its own header, follows the one finished when the messages were synced
+      if(compressor != null) {
+        compressor.reset();
+      }
+      compressed = codec.createOutputStream(buffered, compressor);
+      out = compressed;
+      finished = false;
+    }
+    serializer.reset();
+    serializer.append(message);
+    serializer.append((byte) '\n');
+    serializer.writeTo(out);
+    bytesWritten += serializer.size();
+  }
+
+  /**
+   * Flushes the buffered messages to the underlying stream.  A compressor would otherwise hold back its
+   * partial block, so a compressed stream is finished and the next message starts a new one; the file is
+   * then a concatenation of compressed streams, which the Hadoop codecs and gzip read as one.  Hadoop 2.7
+   * cannot read concatenated bzip2 streams, so a bzip2 stream only flushes its completed blocks and the
+   * remainder is written when the file is closed.
+   */
+  @Override
+  public void flush() throws IOException {
+    if(compressed != null && !finished && !(codec instanceof BZip2Codec)) {
+      compressed.finish();
+      finished = true;
+    }
+    out.flush();
+  }
+
+  @Override
+  public long getBytesWritten() {
+    return bytesWritten;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      out.close();
+    }
+    finally {
+      if(compressor != null) {
+        CodecPool.returnCompressor(compressor);
+        compressor = null;
+      }
+    }
+  }
+
+  /**
+   * The codec configured by {@value IndexingConfigurations#OUTPUT_COMPRESSION_CONF}: one of NONE (the default),
+   * GZIP, DEFLATE, BZIP2, SNAPPY, LZ4 or ZSTD, or the class name of a {@link CompressionCodec}.
+   *
+   * @return The codec, or null if the output is not compressed
+   */
+  public static CompressionCodec getCodec(Map<String, Object> sensorConfig) {
+    Object compression = sensorConfig == null ? null : sensorConfig.get(IndexingConfigurations.OUTPUT_COMPRESSION_CONF);
+    if(compression == null) {
+      return null;
+    }
+    String className;
+    switch(compression.toString().toUpperCase()) {
+      case "NONE":
+        return null;
+      case "GZIP":
+        className = "org.apache.hadoop.io.compress.GzipCodec";
+        break;
+      case "DEFLATE":
+        className = "org.apache.hadoop.io.compress.DefaultCodec";
+        break;
+      case "BZIP2":
+        className = "org.apache.hadoop.io.compress.BZip2Codec";
+        break;
+      case "SNAPPY":
+        className = "org.apache.hadoop.io.compress.SnappyCodec";
+        break;
+      case "LZ4":
+        className = "org.apache.hadoop.io.compress.Lz4Codec";
+        break;
+      case "ZSTD":
+        //only shipped from Hadoop 2.9 onwards
+        className = "org.apache.hadoop.io.compress.ZStandardCodec";
+        break;
+      default:
+        className = compression.toString();
+    }
+    try {
+      Class<? extends CompressionCodec> clazz = Class.forName(className).asSubclass(CompressionCodec.class);
+      return ReflectionUtils.newInstance(clazz, new Configuration());
+    } catch (ClassNotFoundException | ClassCastException e) {
+      throw new IllegalArgumentException("Unsupported compression " + compression + ", " + className + " is not an available compression codec", e);
+    }
+  }
+}
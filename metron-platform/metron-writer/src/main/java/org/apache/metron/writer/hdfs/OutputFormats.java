@@ -0,0 +1,87 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.metron.writer.hdfs;
+
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.metron.common.configuration.IndexingConfigurations;
+
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * The formats of the files written by the HDFS writer, selected per sensor by the
+ * {@value IndexingConfigurations#OUTPUT_FORMAT_CONF} key of the writer's indexing config.
+ */
+public enum OutputFormats {
+  /**
+   * Newline delimited JSON text, the default.  The files keep the extension of the file name format, followed by
+   * that of the compression codec, if any.
+   */
+  JSON(null) {
+    @Override
+    public RecordWriter create(OutputStream out, Map<String, Object> sensorConfig) {
+      return new JSONRecordWriter(out, sensorConfig);
+    }
+
+    @Override
+    public String getSuffix(Map<String, Object> sensorConfig) {
+      CompressionCodec codec = JSONRecordWriter.getCodec(sensorConfig);
+      return codec == null ? null : codec.getDefaultExtension();
+    }
+  },
+  /**
+   * Block compressed Avro container files, with a schema which is either supplied or inferred from the messages.
+   */
+  AVRO(".avro") {
+    @Override
+    public RecordWriter create(OutputStream out, Map<String, Object> sensorConfig) {
+      return new AvroRecordWriter(out, sensorConfig);
+    }
+  };
+
+  private String extension;
+
+  OutputFormats(String extension) {
+    this.extension = extension;
+  }
+
+  /**
+   * @return The extension of the files written, or null to keep that of the file name format
+   */
+  public String getExtension() {
+    return extension;
+  }
+
+  /**
+   * @return A suffix appended to the names of the files written, or null for none
+   */
+  public String getSuffix(Map<String, Object> sensorConfig) {
+    return null;
+  }
+
+  public abstract RecordWriter create(OutputStream out, Map<String, Object> sensorConfig);
+
+  public static OutputFormats get(Map<String, Object> sensorConfig) {
+    Object format = sensorConfig == null ? null : sensorConfig.get(IndexingConfigurations.OUTPUT_FORMAT_CONF);
+    if(format == null) {
+      return JSON;
+    }
+    return OutputFormats.valueOf(format.toString().toUpperCase());
+  }
+}
@@ -26,9 +26,21 @@ import java.util.Map;
 public class PathExtensionFileNameFormat implements FileNameFormat {
   FileNameFormat delegate;
   String pathExtension;
+  String fileExtension;
+  String fileSuffix;
   public PathExtensionFileNameFormat(String pathExtension, FileNameFormat delegate) {
+    this(pathExtension, null, null, delegate);
+  }
+
+  /**
+   * @param fileExtension Replaces the extension of the delegate's file names, if not null
+   * @param fileSuffix Is appended to the delegate's file names, if not null
+   */
+  public PathExtensionFileNameFormat(String pathExtension, String fileExtension, String fileSuffix, FileNameFormat delegate) {
     this.delegate = delegate;
     this.pathExtension = pathExtension;
+    this.fileExtension = fileExtension;
+    this.fileSuffix = fileSuffix;
   }
 
   @Override
@@ -38,7 +50,15 @@ public class PathExtensionFileNameFormat implements FileNameFormat {
 
   @Override
   public String getName(long rotation, long l1) {
-    return delegate.getName(rotation, l1);
+    String name = delegate.getName(rotation, l1);
+    if(fileExtension != null) {
+      int idx = name.lastIndexOf('.');
+      name = (idx < 0 ? name : name.substring(0, idx)) + fileExtension;
+    }
+    if(fileSuffix != null) {
+      name = name + fileSuffix;
+    }
+    return name;
   }
 
   @Override
@@ -0,0 +1,44 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.metron.writer.hdfs;
+
+import org.json.simple.JSONObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Writes messages to an HDFS output file in a particular format.
+ */
+public interface RecordWriter extends Closeable {
+
+  void write(JSONObject message) throws IOException;
+
+  /**
+   * Writes any buffered messages to the underlying stream so that they may be synced.
+   */
+  void flush() throws IOException;
+
+  /**
+   * @return The number of bytes of the messages written, before any compression, including those that are still
+   *         buffered.  The sync and rotation policies are given this rather than the position of the output
+   *         stream, which only moves as the buffers are written.
+   */
+  long getBytesWritten();
+}
@@ -47,7 +47,10 @@ public class SourceHandler {
   SourceHandlerCallback cleanupCallback;
   private long offset = 0;
   private int rotation = 0;
+  OutputFormats outputFormat;
+  Map<String, Object> sensorConfig;
   private transient FSDataOutputStream out;
+  private transient RecordWriter recordWriter;
   private transient final Object writeLock = new Object();
   protected transient Timer rotationTimer; // only used for TimedRotationPolicy
   protected transient FileSystem fs;
@@ -57,21 +60,43 @@ public class SourceHandler {
                       , SyncPolicy syncPolicy
                       , FileNameFormat fileNameFormat
                       , SourceHandlerCallback cleanupCallback) throws IOException {
+    this(rotationActions, rotationPolicy, syncPolicy, fileNameFormat, cleanupCallback, OutputFormats.JSON, null);
+  }
+
+  public SourceHandler(List<RotationAction> rotationActions
+                      , FileRotationPolicy rotationPolicy
+                      , SyncPolicy syncPolicy
+                      , FileNameFormat fileNameFormat
+                      , SourceHandlerCallback cleanupCallback
+                      , OutputFormats outputFormat
+                      , Map<String, Object> sensorConfig) throws IOException {
     this.rotationActions = rotationActions;
     this.rotationPolicy = rotationPolicy;
     this.syncPolicy = syncPolicy;
     this.fileNameFormat = fileNameFormat;
+    this.cleanupCallback = cleanupCallback;
+    this.outputFormat = outputFormat;
+    this.sensorConfig = sensorConfig;
     initialize();
   }
 
 
+  protected void handle(List<JSONObject> messages, String sensor, WriterConfiguration config, SyncPolicyCreator syncPolicyCreator) throws IOException {
+    synchronized (this.writeLock) {
+      for(JSONObject message : messages) {
+        handle(message, sensor, config, syncPolicyCreator);
+      }
+    }
+  }
+
   protected void handle(JSONObject message, String sensor, WriterConfiguration config, SyncPolicyCreator syncPolicyCreator) throws IOException {
-    byte[] bytes = (message.toJSONString() + "\n").getBytes();
     synchronized (this.writeLock) {
-      out.write(bytes);
-      this.offset += bytes.length;
+      recordWriter.write(message);
+      // the position of the stream lags behind the messages buffered or compressed by the record writer
+      this.offset = recordWriter.getBytesWritten();
 
       if (this.syncPolicy.mark(null, this.offset)) {
+        recordWriter.flush();
         if (this.out instanceof HdfsDataOutputStream) {
           ((HdfsDataOutputStream) this.out).hsync(EnumSet.of(HdfsDataOutputStream.SyncFlag.UPDATE_LENGTH));
         } else {
@@ -115,8 +140,7 @@ public class SourceHandler {
     long start = System.currentTimeMillis();
     synchronized (this.writeLock) {
       closeOutputFile();
-      // Want to use the callback to make sure we have an accurate count of open files.
-      cleanupCallback();
+      // The handler stays open on its new file, so it keeps its place among the writer's open handlers.
       this.rotation++;
 
       Path newFile = createOutputFile();
@@ -140,18 +164,18 @@ public class SourceHandler {
     else {
       this.out = this.fs.create(path);
     }
+    this.recordWriter = outputFormat.create(out, sensorConfig);
     return path;
   }
 
   private void closeOutputFile() throws IOException {
-    this.out.close();
-  }
-
-  private void cleanupCallback() {
-    this.cleanupCallback.removeKey();
+    this.recordWriter.close();
   }
 
   public void close() {
+    if(this.rotationTimer != null) {
+      this.rotationTimer.cancel();
+    }
     try {
       closeOutputFile();
       // Don't call cleanup, to avoid HashMap's ConcurrentModificationException while iterating
@@ -167,6 +191,7 @@ public class SourceHandler {
             ", rotationPolicy=" + rotationPolicy +
             ", syncPolicy=" + syncPolicy +
             ", fileNameFormat=" + fileNameFormat +
+            ", outputFormat=" + outputFormat +
             ", offset=" + offset +
             ", rotation=" + rotation +
             ", out=" + out +
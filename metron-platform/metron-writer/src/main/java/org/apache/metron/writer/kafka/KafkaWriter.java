@@ -17,13 +17,24 @@
  */
 package org.apache.metron.writer.kafka;
 
+import org.apache.storm.task.TopologyContext;
 import org.apache.storm.tuple.Tuple;
 import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import org.apache.kafka.clients.producer.Callback;
 import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.errors.RetriableException;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.metron.common.Constants;
 import org.apache.metron.common.configuration.writer.WriterConfiguration;
-import org.apache.metron.common.writer.MessageWriter;
+import org.apache.metron.common.message.JSONMessageSerializer;
+import org.apache.metron.common.message.StreamingJSONSerializer;
+import org.apache.metron.common.writer.AsyncBulkMessageWriter;
+import org.apache.metron.common.writer.AsyncMessageWriter;
+import org.apache.metron.common.writer.BulkWriterResponse;
 import org.apache.metron.common.utils.ConversionUtils;
 import org.apache.metron.common.utils.KafkaUtils;
 import org.apache.metron.common.utils.StringUtils;
@@ -32,10 +43,13 @@ import org.json.simple.JSONObject;
 
 import java.io.Serializable;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class KafkaWriter extends AbstractWriter implements MessageWriter<JSONObject>, Serializable {
+public class KafkaWriter extends AbstractWriter implements AsyncMessageWriter<JSONObject>, AsyncBulkMessageWriter<JSONObject>, Serializable {
   public enum Configurations {
      BROKER("kafka.brokerUrl")
     ,KEY_SERIALIZER("kafka.keySerializer")
@@ -43,6 +57,9 @@ public class KafkaWriter extends AbstractWriter implements MessageWriter<JSONObj
     ,VALUE_SERIALIZER("kafka.valueSerializer")
     ,REQUIRED_ACKS("kafka.requiredAcks")
     ,TOPIC("kafka.topic")
+    ,COMPRESSION_TYPE("kafka.compressionType")
+    ,LINGER_MS("kafka.lingerMs")
+    ,BATCH_SIZE("kafka.batchSize")
     ,PRODUCER_CONFIGS("kafka.producerConfigs");
     ;
     String key;
@@ -64,8 +81,13 @@ public class KafkaWriter extends AbstractWriter implements MessageWriter<JSONObj
   private String keySerializer = "org.apache.kafka.common.serialization.StringSerializer";
   private String valueSerializer = "org.apache.kafka.common.serialization.StringSerializer";
   private int requiredAcks = 1;
+  private String compressionType = null;
+  private Integer lingerMs = null;
+  private Integer batchSize = null;
   private String kafkaTopic = Constants.ENRICHMENT_TOPIC;
-  private KafkaProducer kafkaProducer;
+  private transient Producer kafkaProducer;
+  private boolean writeMessages = false;
+  private transient StreamingJSONSerializer serializer;
   private String configPrefix = null;
   private String zkQuorum = null;
   private Map<String, Object> producerConfigs = new HashMap<>();
@@ -95,6 +117,30 @@ public class KafkaWriter extends AbstractWriter implements MessageWriter<JSONObj
     return this;
   }
 
+  /**
+   * The codec the producer compresses its batches of records with, e.g. snappy, lz4 or gzip.
+   */
+  public KafkaWriter withCompressionType(String compressionType) {
+    this.compressionType = compressionType;
+    return this;
+  }
+
+  /**
+   * The milliseconds the producer waits for more records to fill a batch before sending it.
+   */
+  public KafkaWriter withLingerMs(Integer lingerMs) {
+    this.lingerMs = lingerMs;
+    return this;
+  }
+
+  /**
+   * The maximum bytes of records the producer sends to a partition in one batch.
+   */
+  public KafkaWriter withBatchSize(Integer batchSize) {
+    this.batchSize = batchSize;
+    return this;
+  }
+
   public KafkaWriter withTopic(String topic) {
     this.kafkaTopic= topic;
     return this;
@@ -114,6 +160,19 @@ public class KafkaWriter extends AbstractWriter implements MessageWriter<JSONObj
     return this;
   }
 
+  KafkaWriter withProducer(Producer producer) {
+    this.kafkaProducer = producer;
+    return this;
+  }
+
+  public String getKafkaTopic() {
+    return kafkaTopic;
+  }
+
+  public String getZkQuorum() {
+    return zkQuorum;
+  }
+
   public Optional<String> getConfigPrefix() {
     return Optional.ofNullable(configPrefix);
   }
@@ -135,12 +194,24 @@ public class KafkaWriter extends AbstractWriter implements MessageWriter<JSONObj
     }
     String valueSerializer = Configurations.VALUE_SERIALIZER.getAndConvert(getConfigPrefix(), configMap, String.class);
     if(valueSerializer != null) {
-      withValueSerializer(keySerializer);
+      withValueSerializer(valueSerializer);
     }
     Integer requiredAcks = Configurations.REQUIRED_ACKS.getAndConvert(getConfigPrefix(), configMap, Integer.class);
     if(requiredAcks!= null) {
       withRequiredAcks(requiredAcks);
     }
+    String compressionType = Configurations.COMPRESSION_TYPE.getAndConvert(getConfigPrefix(), configMap, String.class);
+    if(compressionType != null) {
+      withCompressionType(compressionType);
+    }
+    Integer lingerMs = Configurations.LINGER_MS.getAndConvert(getConfigPrefix(), configMap, Integer.class);
+    if(lingerMs != null) {
+      withLingerMs(lingerMs);
+    }
+    Integer batchSize = Configurations.BATCH_SIZE.getAndConvert(getConfigPrefix(), configMap, Integer.class);
+    if(batchSize != null) {
+      withBatchSize(batchSize);
+    }
     String topic = Configurations.TOPIC.getAndConvert(getConfigPrefix(), configMap, String.class);
     if(topic != null) {
       withTopic(topic);
@@ -153,10 +224,20 @@ public class KafkaWriter extends AbstractWriter implements MessageWriter<JSONObj
 
   public Map<String, Object> createProducerConfigs() {
     Map<String, Object> producerConfig = new HashMap<>();
-    producerConfig.put("bootstrap.servers", brokerUrl);
-    producerConfig.put("key.serializer", keySerializer);
-    producerConfig.put("value.serializer", valueSerializer);
+    producerConfig.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, brokerUrl);
+    producerConfig.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, keySerializer);
+    producerConfig.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, valueSerializer);
     producerConfig.put("request.required.acks", requiredAcks);
+    producerConfig.put(ProducerConfig.ACKS_CONFIG, Integer.toString(requiredAcks));
+    if(compressionType != null) {
+      producerConfig.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, compressionType);
+    }
+    if(lingerMs != null) {
+      producerConfig.put(ProducerConfig.LINGER_MS_CONFIG, lingerMs);
+    }
+    if(batchSize != null) {
+      producerConfig.put(ProducerConfig.BATCH_SIZE_CONFIG, batchSize);
+    }
     producerConfig.putAll(producerConfigs == null?new HashMap<>():producerConfigs);
     return producerConfig;
   }
@@ -170,13 +251,108 @@ public class KafkaWriter extends AbstractWriter implements MessageWriter<JSONObj
         throw new IllegalStateException("Cannot read kafka brokers from zookeeper and you didn't specify them, giving up!", e);
       }
     }
-    this.kafkaProducer = new KafkaProducer<>(createProducerConfigs());
+    if(this.kafkaProducer == null) {
+      this.kafkaProducer = new KafkaProducer<>(createProducerConfigs());
+    }
+    //the binary message serializer encodes the message itself rather than its JSON text
+    this.writeMessages = JSONMessageSerializer.class.getName().equals(valueSerializer);
+    //byte array values are serialized without building the JSON string first
+    if(ByteArraySerializer.class.getName().equals(valueSerializer)) {
+      this.serializer = new StreamingJSONSerializer();
+    }
+  }
+
+  @Override
+  public void init(Map stormConf, TopologyContext topologyContext, WriterConfiguration config) throws Exception {
+    init();
   }
 
   @SuppressWarnings("unchecked")
   @Override
   public void write(String sourceType, WriterConfiguration configurations, Tuple tuple, JSONObject message) throws Exception {
-    kafkaProducer.send(new ProducerRecord<String, String>(kafkaTopic, message.toJSONString()));
+    kafkaProducer.send(createRecord(message));
+  }
+
+  /**
+   * Sends the message, completing the future when the broker acknowledges it rather than when it is handed
+   * to the producer.
+   */
+  @SuppressWarnings("unchecked")
+  @Override
+  public CompletableFuture<Void> writeAsync(String sourceType, WriterConfiguration configurations, Tuple tuple, JSONObject message) {
+    CompletableFuture<Void> ret = new CompletableFuture<>();
+    kafkaProducer.send(createRecord(message), (metadata, e) -> {
+      if(e != null) {
+        ret.completeExceptionally(e);
+      }
+      else {
+        ret.complete(null);
+      }
+    });
+    return ret;
+  }
+
+  /**
+   * Sends the batch, completing the future once the broker has acknowledged or rejected every message.  Only
+   * the tuples of the messages which could not be sent are reported as errors, as retryable errors if a
+   * later attempt may succeed.  There must be a tuple for each message, in the same order, so a tuple which
+   * produced several messages is reported once for each of them.
+   */
+  @SuppressWarnings("unchecked")
+  @Override
+  public CompletableFuture<BulkWriterResponse> writeAsync(String sensorType, WriterConfiguration configurations, Iterable<Tuple> tuples, List<JSONObject> messages) {
+    BulkWriterResponse response = new BulkWriterResponse();
+    CompletableFuture<BulkWriterResponse> ret = new CompletableFuture<>();
+    List<Tuple> tupleList = tuples instanceof List ? (List<Tuple>) tuples : Lists.newArrayList(tuples);
+    if(tupleList.size() != messages.size()) {
+      ret.completeExceptionally(new IllegalArgumentException("Expected a tuple for each of the " + messages.size()
+              + " messages, but got " + tupleList.size() + " tuples"));
+      return ret;
+    }
+    AtomicInteger pending = new AtomicInteger(messages.size());
+    if(messages.isEmpty()) {
+      ret.complete(response);
+      return ret;
+    }
+    for(int i = 0; i < messages.size(); i++) {
+      JSONObject message = messages.get(i);
+      Tuple tuple = tupleList.get(i);
+      Callback callback = (metadata, e) -> {
+        synchronized (response) {
+          if(e == null) {
+            response.addSuccess(tuple);
+          }
+          else if(e instanceof RetriableException) {
+            response.addRetryableError(e, tuple);
+          }
+          else {
+            response.addError(e, tuple);
+          }
+        }
+        if(pending.decrementAndGet() == 0) {
+          ret.complete(response);
+        }
+      };
+      try {
+        kafkaProducer.send(createRecord(message), callback);
+      }
+      catch(Exception e) {
+        callback.onCompletion(null, e);
+      }
+    }
+    return ret;
+  }
+
+  private ProducerRecord createRecord(JSONObject message) {
+    if(writeMessages) {
+      return new ProducerRecord<String, Object>(kafkaTopic, message);
+    }
+    if(serializer != null) {
+      serializer.reset();
+      serializer.append(message);
+      return new ProducerRecord<String, byte[]>(kafkaTopic, serializer.toByteArray());
+    }
+    return new ProducerRecord<String, String>(kafkaTopic, message.toJSONString());
   }
 
   @Override
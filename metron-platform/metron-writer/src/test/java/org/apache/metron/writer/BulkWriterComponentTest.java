@@ -17,33 +17,45 @@
  */
 package org.apache.metron.writer;
 
+import com.google.common.collect.ImmutableMap;
 import org.apache.metron.common.Constants;
 import org.apache.metron.common.configuration.writer.WriterConfiguration;
 import org.apache.metron.common.error.MetronError;
 import org.apache.metron.common.message.MessageGetStrategy;
 import org.apache.metron.common.message.MessageGetters;
 import org.apache.metron.common.utils.ErrorUtils;
+import org.apache.metron.common.writer.AsyncBulkMessageWriter;
 import org.apache.metron.common.writer.BulkMessageWriter;
 import org.apache.metron.common.writer.BulkWriterResponse;
+import org.apache.storm.Config;
 import org.apache.storm.task.OutputCollector;
 import org.apache.storm.tuple.Tuple;
 import org.json.simple.JSONObject;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -57,12 +69,18 @@ public class BulkWriterComponentTest {
   @Rule
   public final ExpectedException exception = ExpectedException.none();
 
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
   @Mock
   private OutputCollector collector;
 
   @Mock
   private BulkMessageWriter<JSONObject> bulkMessageWriter;
 
+  @Mock
+  private AsyncBulkMessageWriter<JSONObject> asyncBulkMessageWriter;
+
   @Mock
   private WriterConfiguration configurations;
 
@@ -72,6 +90,9 @@ public class BulkWriterComponentTest {
   @Mock
   private Tuple tuple2;
 
+  @Mock
+  private Tuple tuple3;
+
   @Mock
   private MessageGetStrategy messageGetStrategy;
 
@@ -95,6 +116,151 @@ public class BulkWriterComponentTest {
     when(messageGetStrategy.get(tuple2)).thenReturn(message2);
   }
 
+  @Test
+  public void flushTimedOutShouldWriteBatchesOlderThanTheirTimeout() throws Exception {
+    BulkWriterResponse response = new BulkWriterResponse();
+    response.addSuccess(tuple1);
+    when(configurations.getBatchTimeout(sensorType)).thenReturn(1);
+    when(bulkMessageWriter.write(sensorType, configurations, Collections.singletonList(tuple1), Collections.singletonList(message1))).thenReturn(response);
+
+    BulkWriterComponent<JSONObject> bulkWriterComponent = new BulkWriterComponent<>(collector);
+    bulkWriterComponent.write(sensorType, tuple1, message1, bulkMessageWriter, configurations, messageGetStrategy);
+    bulkWriterComponent.flushTimedOut(bulkMessageWriter, configurations, messageGetStrategy);
+    verify(collector, times(0)).ack(tuple1);
+    Assert.assertEquals(1, (int) bulkWriterComponent.getPendingCounts().get(sensorType));
+
+    Thread.sleep(1100);
+    bulkWriterComponent.flushTimedOut(bulkMessageWriter, configurations, messageGetStrategy);
+    verify(collector, times(1)).ack(tuple1);
+    Assert.assertTrue(bulkWriterComponent.getPendingCounts().isEmpty());
+  }
+
+  @Test
+  public void flushTimedOutShouldUseTheDefaultTimeout() throws Exception {
+    when(configurations.getBatchTimeout(sensorType)).thenReturn(0);
+
+    BulkWriterComponent<JSONObject> bulkWriterComponent = new BulkWriterComponent<>(collector);
+    bulkWriterComponent.write(sensorType, tuple1, message1, bulkMessageWriter, configurations, messageGetStrategy);
+    Thread.sleep(1100);
+    //without a default, batches never time out
+    bulkWriterComponent.flushTimedOut(bulkMessageWriter, configurations, messageGetStrategy);
+    Assert.assertEquals(1, (int) bulkWriterComponent.getPendingCounts().get(sensorType));
+
+    bulkWriterComponent.withDefaultBatchTimeout(1);
+    bulkWriterComponent.flushTimedOut(bulkMessageWriter, configurations, messageGetStrategy);
+    verify(bulkMessageWriter, times(1)).write(sensorType, configurations, Collections.singletonList(tuple1), Collections.singletonList(message1));
+    Assert.assertTrue(bulkWriterComponent.getPendingCounts().isEmpty());
+  }
+
+  @Test
+  public void defaultBatchTimeoutShouldBeHalfTheMessageTimeout() {
+    Assert.assertEquals(15, BulkWriterComponent.getDefaultBatchTimeout(new HashMap<>()));
+    Assert.assertEquals(60, BulkWriterComponent.getDefaultBatchTimeout(ImmutableMap.of(Config.TOPOLOGY_MESSAGE_TIMEOUT_SECS, 120)));
+    Assert.assertEquals(1, BulkWriterComponent.getDefaultBatchTimeout(ImmutableMap.of(Config.TOPOLOGY_MESSAGE_TIMEOUT_SECS, 1)));
+  }
+
+  @Test
+  public void asyncWritesShouldOverlapAndBeHandledOnCompletion() throws Exception {
+    Throwable e = new Exception("test exception");
+    MetronError error = new MetronError()
+            .withSensorType(sensorType)
+            .withErrorType(Constants.ErrorType.INDEXING_ERROR).withThrowable(e).withRawMessages(Collections.singletonList(message2));
+    CompletableFuture<BulkWriterResponse> future1 = new CompletableFuture<>();
+    CompletableFuture<BulkWriterResponse> future2 = new CompletableFuture<>();
+    when(configurations.getBatchSize(any())).thenReturn(1);
+    when(asyncBulkMessageWriter.writeAsync(sensorType, configurations, Collections.singletonList(tuple1), Collections.singletonList(message1))).thenReturn(future1);
+    when(asyncBulkMessageWriter.writeAsync(sensorType, configurations, Collections.singletonList(tuple2), Collections.singletonList(message2))).thenReturn(future2);
+
+    BulkWriterComponent<JSONObject> bulkWriterComponent = new BulkWriterComponent<JSONObject>(collector).withMaxInFlight(2);
+    bulkWriterComponent.write(sensorType, tuple1, message1, asyncBulkMessageWriter, configurations, messageGetStrategy);
+    bulkWriterComponent.write(sensorType, tuple2, message2, asyncBulkMessageWriter, configurations, messageGetStrategy);
+    Assert.assertEquals(2, bulkWriterComponent.getInFlight());
+    verify(collector, times(0)).ack(any());
+
+    BulkWriterResponse response = new BulkWriterResponse();
+    response.addSuccess(tuple1);
+    future1.complete(response);
+    future2.completeExceptionally(e);
+    bulkWriterComponent.flushTimedOut(asyncBulkMessageWriter, configurations, messageGetStrategy);
+    Assert.assertEquals(0, bulkWriterComponent.getInFlight());
+    verify(collector, times(1)).ack(tuple1);
+    verify(collector, times(1)).ack(tuple2);
+    verify(asyncBulkMessageWriter, times(0)).write(any(), any(), any(), any());
+    verifyStatic(times(1));
+    ErrorUtils.handleError(collector, error);
+  }
+
+  @Test
+  public void asyncWritesShouldWaitWhenTooManyBatchesAreInFlight() throws Exception {
+    CompletableFuture<BulkWriterResponse> future1 = new CompletableFuture<>();
+    when(configurations.getBatchSize(any())).thenReturn(1);
+    when(asyncBulkMessageWriter.writeAsync(sensorType, configurations, Collections.singletonList(tuple1), Collections.singletonList(message1))).thenReturn(future1);
+    when(asyncBulkMessageWriter.writeAsync(sensorType, configurations, Collections.singletonList(tuple2), Collections.singletonList(message2))).thenReturn(new CompletableFuture<>());
+    when(asyncBulkMessageWriter.writeAsync(sensorType, configurations, Collections.singletonList(tuple3), Collections.singletonList(message1))).thenReturn(new CompletableFuture<>());
+
+    BulkWriterComponent<JSONObject> bulkWriterComponent = new BulkWriterComponent<JSONObject>(collector).withMaxInFlight(2);
+    bulkWriterComponent.write(sensorType, tuple1, message1, asyncBulkMessageWriter, configurations, messageGetStrategy);
+    bulkWriterComponent.write(sensorType, tuple2, message2, asyncBulkMessageWriter, configurations, messageGetStrategy);
+    new Thread(() -> {
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      BulkWriterResponse response = new BulkWriterResponse();
+      response.addSuccess(tuple1);
+      future1.complete(response);
+    }).start();
+    //blocks until the first batch completes
+    bulkWriterComponent.write(sensorType, tuple3, message1, asyncBulkMessageWriter, configurations, messageGetStrategy);
+    verify(collector, times(1)).ack(tuple1);
+    Assert.assertEquals(2, bulkWriterComponent.getInFlight());
+  }
+
+  @Test
+  public void drainShouldWaitForBatchesInFlight() throws Exception {
+    CompletableFuture<BulkWriterResponse> future1 = new CompletableFuture<>();
+    CompletableFuture<BulkWriterResponse> future2 = new CompletableFuture<>();
+    when(configurations.getBatchSize(any())).thenReturn(1);
+    when(asyncBulkMessageWriter.writeAsync(sensorType, configurations, Collections.singletonList(tuple1), Collections.singletonList(message1))).thenReturn(future1);
+    when(asyncBulkMessageWriter.writeAsync(sensorType, configurations, Collections.singletonList(tuple2), Collections.singletonList(message2))).thenReturn(future2);
+
+    BulkWriterComponent<JSONObject> bulkWriterComponent = new BulkWriterComponent<JSONObject>(collector).withMaxInFlight(2);
+    bulkWriterComponent.write(sensorType, tuple1, message1, asyncBulkMessageWriter, configurations, messageGetStrategy);
+    bulkWriterComponent.write(sensorType, tuple2, message2, asyncBulkMessageWriter, configurations, messageGetStrategy);
+    BulkWriterResponse response1 = new BulkWriterResponse();
+    response1.addSuccess(tuple1);
+    future1.complete(response1);
+    new Thread(() -> {
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      BulkWriterResponse response2 = new BulkWriterResponse();
+      response2.addSuccess(tuple2);
+      future2.complete(response2);
+    }).start();
+
+    //blocks until the second batch completes
+    Assert.assertTrue(bulkWriterComponent.drain(10, TimeUnit.SECONDS));
+    Assert.assertEquals(0, bulkWriterComponent.getInFlight());
+    verify(collector, times(1)).ack(tuple1);
+    verify(collector, times(1)).ack(tuple2);
+  }
+
+  @Test
+  public void drainShouldGiveUpAfterTheTimeout() throws Exception {
+    when(configurations.getBatchSize(any())).thenReturn(1);
+    when(asyncBulkMessageWriter.writeAsync(sensorType, configurations, Collections.singletonList(tuple1), Collections.singletonList(message1))).thenReturn(new CompletableFuture<>());
+
+    BulkWriterComponent<JSONObject> bulkWriterComponent = new BulkWriterComponent<JSONObject>(collector).withMaxInFlight(2);
+    bulkWriterComponent.write(sensorType, tuple1, message1, asyncBulkMessageWriter, configurations, messageGetStrategy);
+    Assert.assertFalse(bulkWriterComponent.drain(100, TimeUnit.MILLISECONDS));
+    Assert.assertEquals(1, bulkWriterComponent.getInFlight());
+    verify(collector, times(0)).ack(any());
+  }
+
   @Test
   public void writeShouldProperlyAckTuplesInBatch() throws Exception {
     BulkWriterResponse response = new BulkWriterResponse();
@@ -136,6 +302,161 @@ public class BulkWriterComponentTest {
     ErrorUtils.handleError(collector, error);
   }
 
+  @Test
+  public void writeShouldFailTuplesWithRetryableErrors() throws Exception {
+    Throwable e = new Exception("test exception");
+    Throwable retryable = new Exception("retryable exception");
+    MetronError error = new MetronError()
+            .withSensorType(sensorType)
+            .withErrorType(Constants.ErrorType.INDEXING_ERROR).withThrowable(e).withRawMessages(Collections.singletonList(message1));
+    BulkWriterResponse response = new BulkWriterResponse();
+    response.addError(e, tuple1);
+    response.addRetryableError(retryable, tuple2);
+
+    when(bulkMessageWriter.write(sensorType, configurations, Arrays.asList(tuple1, tuple2), Arrays.asList(message1, message2))).thenReturn(response);
+
+    BulkWriterComponent<JSONObject> bulkWriterComponent = new BulkWriterComponent<>(collector);
+    bulkWriterComponent.write(sensorType, tuple1, message1, bulkMessageWriter, configurations, messageGetStrategy);
+    bulkWriterComponent.write(sensorType, tuple2, message2, bulkMessageWriter, configurations, messageGetStrategy);
+
+    verify(collector, times(1)).ack(tuple1);
+    verify(collector, times(0)).ack(tuple2);
+    verify(collector, times(1)).fail(tuple2);
+    verifyStatic(times(1));
+    ErrorUtils.handleError(collector, error);
+  }
+
+  @Test
+  public void failedBatchesShouldBeSpooledAndReplayed() throws Exception {
+    Throwable e = new Exception("test exception");
+    when(bulkMessageWriter.write(sensorType, configurations, Arrays.asList(tuple1, tuple2), Arrays.asList(message1, message2))).thenThrow(e);
+    DiskSpool spool = new DiskSpool(tempFolder.getRoot(), 1024, 4096);
+    List<String> outcomes = new ArrayList<>();
+
+    BulkWriterComponent<JSONObject> bulkWriterComponent = new BulkWriterComponent<JSONObject>(collector)
+            .withSpool(spool)
+            .withReplayCallback(replayCallback(outcomes));
+    bulkWriterComponent.write(sensorType, tuple1, message1, bulkMessageWriter, configurations, messageGetStrategy);
+    bulkWriterComponent.write(sensorType, tuple2, message2, bulkMessageWriter, configurations, messageGetStrategy);
+    //the spooled tuples are acked rather than errored
+    verify(collector, times(1)).ack(tuple1);
+    verify(collector, times(1)).ack(tuple2);
+    verifyStatic(times(0));
+    ErrorUtils.handleError(eq(collector), any(MetronError.class));
+    Assert.assertEquals(2, spool.getPendingCount());
+
+    //the destination is still down
+    when(bulkMessageWriter.write(eq(sensorType), eq(configurations), any(), any())).thenThrow(e);
+    bulkWriterComponent.replaySpooled(bulkMessageWriter, configurations);
+    Assert.assertEquals(2, spool.getPendingCount());
+    Assert.assertEquals(Collections.singletonList("testSensor:0:0:2"), outcomes);
+
+    List<List<JSONObject>> written = new ArrayList<>();
+    when(bulkMessageWriter.write(eq(sensorType), eq(configurations), any(), any())).thenAnswer(invocation -> {
+      written.add(new ArrayList<>((List<JSONObject>) invocation.getArguments()[3]));
+      BulkWriterResponse response = new BulkWriterResponse();
+      response.addAllSuccesses((Iterable<Tuple>) invocation.getArguments()[2]);
+      return response;
+    });
+    bulkWriterComponent.replaySpooled(bulkMessageWriter, configurations);
+    Assert.assertEquals(Collections.singletonList(Arrays.asList(message1, message2)), written);
+    Assert.assertTrue(spool.isEmpty());
+    Assert.assertEquals(Arrays.asList("testSensor:0:0:2", "testSensor:2:0:0"), outcomes);
+    //the replayed messages have no tuples to ack or fail
+    verify(collector, times(2)).ack(any());
+    verify(collector, times(0)).fail(any());
+    spool.close();
+  }
+
+  /**
+   * Records the outcomes of replayed batches.  An anonymous class rather than a lambda, which powermock can
+   * not find the method of.
+   */
+  private BulkWriterComponent.ReplayCallback replayCallback(List<String> outcomes) {
+    return new BulkWriterComponent.ReplayCallback() {
+      @Override
+      public void replayed(String sensorType, int written, int errored, int retried) {
+        outcomes.add(sensorType + ":" + written + ":" + errored + ":" + retried);
+      }
+    };
+  }
+
+  @Test
+  public void spooledMessagesShouldBeSentToTheErrorTopicAfterRepeatedFailures() throws Exception {
+    Throwable e = new Exception("test exception");
+    when(bulkMessageWriter.write(eq(sensorType), eq(configurations), any(), any())).thenThrow(e);
+    DiskSpool spool = new DiskSpool(tempFolder.getRoot(), 1024, 4096);
+    spool.append(sensorType, message1.toJSONString().getBytes());
+    List<String> outcomes = new ArrayList<>();
+    BulkWriterComponent<JSONObject> bulkWriterComponent = new BulkWriterComponent<JSONObject>(collector)
+            .withSpool(spool)
+            .withMaxReplayAttempts(3)
+            .withReplayCallback(replayCallback(outcomes));
+
+    //the second failure skips the next replay
+    bulkWriterComponent.replaySpooled(bulkMessageWriter, configurations);
+    bulkWriterComponent.replaySpooled(bulkMessageWriter, configurations);
+    bulkWriterComponent.replaySpooled(bulkMessageWriter, configurations);
+    verify(bulkMessageWriter, times(2)).write(eq(sensorType), eq(configurations), any(), any());
+    Assert.assertEquals(1, spool.getPendingCount());
+    verifyStatic(times(0));
+    ErrorUtils.handleError(eq(collector), any(MetronError.class));
+
+    //the third failure gives up on the message
+    bulkWriterComponent.replaySpooled(bulkMessageWriter, configurations);
+    verify(bulkMessageWriter, times(3)).write(eq(sensorType), eq(configurations), any(), any());
+    Assert.assertTrue(spool.isEmpty());
+    MetronError error = new MetronError()
+            .withErrorType(Constants.ErrorType.INDEXING_ERROR)
+            .withThrowable(e)
+            .withSensorType(sensorType)
+            .addRawMessage(message1);
+    verifyStatic(times(1));
+    ErrorUtils.handleError(collector, error);
+    Assert.assertEquals(Arrays.asList("testSensor:0:0:1", "testSensor:0:0:1", "testSensor:0:1:0"), outcomes);
+    spool.close();
+  }
+
+  @Test
+  public void spoolErrorsShouldBeReportedRatherThanThrown() throws Exception {
+    IOException e = new IOException("disk failure");
+    DiskSpool spool = mock(DiskSpool.class);
+    when(spool.isEmpty()).thenReturn(false);
+    when(spool.peek(any(Integer.class))).thenReturn(Collections.singletonList(
+            new DiskSpool.SpooledMessage(sensorType, message1.toJSONString().getBytes(), null, 0)));
+    doThrow(e).when(spool).remove(any());
+    BulkWriterComponent<JSONObject> bulkWriterComponent = new BulkWriterComponent<JSONObject>(collector).withSpool(spool);
+
+    bulkWriterComponent.replaySpooled(bulkMessageWriter, configurations);
+    verify(collector, times(1)).reportError(e);
+  }
+
+  @Test
+  public void replayShouldNotWaitForAnAsynchronousWriter() throws Exception {
+    DiskSpool spool = new DiskSpool(tempFolder.getRoot(), 1024, 4096);
+    spool.append(sensorType, message1.toJSONString().getBytes());
+    CompletableFuture<BulkWriterResponse> future = new CompletableFuture<>();
+    List<Tuple> replayed = new ArrayList<>();
+    when(asyncBulkMessageWriter.writeAsync(eq(sensorType), eq(configurations), any(), any())).thenAnswer(invocation -> {
+      replayed.addAll((List<Tuple>) invocation.getArguments()[2]);
+      return future;
+    });
+    BulkWriterComponent<JSONObject> bulkWriterComponent = new BulkWriterComponent<JSONObject>(collector).withSpool(spool);
+
+    //the batch is still in flight, so it is neither removed nor written again
+    bulkWriterComponent.replaySpooled(asyncBulkMessageWriter, configurations);
+    bulkWriterComponent.replaySpooled(asyncBulkMessageWriter, configurations);
+    verify(asyncBulkMessageWriter, times(1)).writeAsync(eq(sensorType), eq(configurations), any(), any());
+    Assert.assertEquals(1, spool.getPendingCount());
+
+    BulkWriterResponse response = new BulkWriterResponse();
+    response.addAllSuccesses(replayed);
+    future.complete(response);
+    bulkWriterComponent.replaySpooled(asyncBulkMessageWriter, configurations);
+    Assert.assertTrue(spool.isEmpty());
+    spool.close();
+  }
+
   @Test
   public void writeShouldThrowExceptionWhenHandleErrorIsFalse() throws Exception {
     exception.expect(IllegalStateException.class);
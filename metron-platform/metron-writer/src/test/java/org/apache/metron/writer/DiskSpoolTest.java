@@ -0,0 +1,155 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.writer;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public class DiskSpoolTest {
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static String string(byte[] b) {
+    return new String(b, StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testPeekReturnsMessagesInOrderBySensor() throws Exception {
+    DiskSpool spool = new DiskSpool(tempFolder.getRoot(), 64, 1024);
+    Assert.assertTrue(spool.isEmpty());
+    Assert.assertTrue(spool.append("bro", bytes("message1")));
+    Assert.assertTrue(spool.append("bro", bytes("message2")));
+    Assert.assertTrue(spool.append("snort", bytes("message3")));
+    Assert.assertEquals(3, spool.getPendingCount());
+
+    //a batch never mixes sensors
+    List<DiskSpool.SpooledMessage> messages = spool.peek(10);
+    Assert.assertEquals(2, messages.size());
+    Assert.assertEquals("bro", messages.get(0).getSensorType());
+    Assert.assertEquals("message1", string(messages.get(0).getMessage()));
+    Assert.assertEquals("message2", string(messages.get(1).getMessage()));
+    Assert.assertEquals(1, spool.peek(1).size());
+
+    spool.remove(messages);
+    Assert.assertEquals(1, spool.getPendingCount());
+    messages = spool.peek(10);
+    Assert.assertEquals(1, messages.size());
+    Assert.assertEquals("snort", messages.get(0).getSensorType());
+    Assert.assertEquals("message3", string(messages.get(0).getMessage()));
+
+    spool.remove(messages);
+    Assert.assertTrue(spool.isEmpty());
+    Assert.assertEquals(0, spool.getPendingBytes());
+    Assert.assertTrue(spool.peek(10).isEmpty());
+    spool.close();
+  }
+
+  @Test
+  public void testWrittenSegmentsAreDeleted() throws Exception {
+    File dir = tempFolder.getRoot();
+    DiskSpool spool = new DiskSpool(dir, 64, 1024);
+    for(int i = 0;i < 10;++i) {
+      Assert.assertTrue(spool.append("bro", bytes("message" + i)));
+    }
+    Assert.assertTrue(dir.listFiles().length > 1);
+    while(!spool.isEmpty()) {
+      spool.remove(spool.peek(3));
+    }
+    //the segment being appended to is kept
+    Assert.assertEquals(1, dir.listFiles().length);
+    spool.close();
+  }
+
+  @Test
+  public void testDiskBytesAreThoseOfTheSegmentFiles() throws Exception {
+    File dir = tempFolder.getRoot();
+    DiskSpool spool = new DiskSpool(dir, 64, 1024);
+    for(int i = 0;i < 10;++i) {
+      Assert.assertTrue(spool.append("bro", bytes("message" + i)));
+    }
+    spool.force();
+    Assert.assertEquals(diskBytes(dir), spool.getDiskBytes());
+
+    //the deleted segments are unmapped, so a message removed twice does not touch them
+    List<DiskSpool.SpooledMessage> messages = spool.peek(8);
+    spool.remove(messages);
+    spool.remove(messages);
+    Assert.assertEquals(2, spool.getPendingCount());
+    Assert.assertEquals(diskBytes(dir), spool.getDiskBytes());
+    spool.close();
+  }
+
+  private static long diskBytes(File dir) {
+    long ret = 0;
+    for(File file : dir.listFiles()) {
+      ret += file.length();
+    }
+    return ret;
+  }
+
+  @Test
+  public void testAppendFailsWhenFull() throws Exception {
+    DiskSpool spool = new DiskSpool(tempFolder.getRoot(), 64, 128);
+    int appended = 0;
+    while(spool.append("bro", bytes("message" + appended))) {
+      appended++;
+    }
+    Assert.assertTrue(appended > 0);
+    Assert.assertEquals(appended, spool.getPendingCount());
+    //room is made as messages are written
+    spool.remove(spool.peek(appended));
+    Assert.assertTrue(spool.append("bro", bytes("message")));
+    spool.close();
+  }
+
+  @Test
+  public void testPendingMessagesAreRecovered() throws Exception {
+    File dir = tempFolder.getRoot();
+    DiskSpool spool = new DiskSpool(dir, 64, 1024);
+    for(int i = 0;i < 5;++i) {
+      spool.append("bro", bytes("message" + i));
+    }
+    spool.remove(spool.peek(2));
+    spool.close();
+
+    spool = new DiskSpool(dir, 64, 1024);
+    Assert.assertEquals(3, spool.getPendingCount());
+    List<DiskSpool.SpooledMessage> messages = spool.peek(10);
+    Assert.assertEquals(3, messages.size());
+    Assert.assertEquals("message2", string(messages.get(0).getMessage()));
+    Assert.assertEquals("message4", string(messages.get(2).getMessage()));
+    //appends go to a new segment after the recovered ones
+    spool.append("bro", bytes("message5"));
+    spool.remove(messages);
+    messages = spool.peek(10);
+    Assert.assertEquals(1, messages.size());
+    Assert.assertEquals("message5", string(messages.get(0).getMessage()));
+    spool.close();
+  }
+}
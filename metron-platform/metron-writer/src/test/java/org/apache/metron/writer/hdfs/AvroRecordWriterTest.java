@@ -0,0 +1,130 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.metron.writer.hdfs;
+
+import org.adrianwalker.multilinestring.Multiline;
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.metron.common.configuration.IndexingConfigurations;
+import org.json.simple.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class AvroRecordWriterTest {
+
+  private List<GenericRecord> read(byte[] data) throws Exception {
+    List<GenericRecord> ret = new ArrayList<>();
+    try(DataFileStream<GenericRecord> reader = new DataFileStream<>(new ByteArrayInputStream(data), new GenericDatumReader<>())) {
+      for(GenericRecord record : reader) {
+        ret.add(record);
+      }
+    }
+    return ret;
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void shouldInferTheSchemaFromTheFirstMessage() throws Exception {
+    JSONObject message1 = new JSONObject();
+    message1.put("ip_src_addr", "10.0.0.1");
+    message1.put("ip_src_port", 80L);
+    message1.put("enrichments.geo.city", "Raleigh");
+    JSONObject message2 = new JSONObject();
+    message2.put("ip_src_addr", "10.0.0.2");
+    message2.put("ip_src_port", "not a port");
+    message2.put("new_field", true);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Map<String, Object> config = new HashMap<>();
+    config.put(IndexingConfigurations.OUTPUT_COMPRESSION_CONF, "DEFLATE");
+    AvroRecordWriter writer = new AvroRecordWriter(out, config);
+    writer.write(message1);
+    writer.write(message2);
+    writer.close();
+
+    Schema.Field dotted = writer.getSchema().getField("enrichments_geo_city");
+    Assert.assertEquals("enrichments.geo.city", dotted.getProp(AvroRecordWriter.FIELD_NAME_PROP));
+    List<GenericRecord> records = read(out.toByteArray());
+    Assert.assertEquals(2, records.size());
+    Assert.assertEquals("10.0.0.1", records.get(0).get("ip_src_addr").toString());
+    Assert.assertEquals(80L, records.get(0).get("ip_src_port"));
+    Assert.assertEquals("Raleigh", records.get(0).get("enrichments_geo_city").toString());
+    Assert.assertNull(records.get(0).get(AvroRecordWriter.EXTRA_FIELD));
+    //values which do not fit the schema are kept as JSON
+    Assert.assertNull(records.get(1).get("ip_src_port"));
+    Map<Object, Object> extra = (Map<Object, Object>) records.get(1).get(AvroRecordWriter.EXTRA_FIELD);
+    Assert.assertEquals(2, extra.size());
+    for(Map.Entry<Object, Object> entry : extra.entrySet()) {
+      String key = entry.getKey().toString();
+      if(key.equals("ip_src_port")) {
+        Assert.assertEquals("not a port", entry.getValue().toString());
+      }
+      else {
+        Assert.assertEquals("new_field", key);
+        Assert.assertEquals("true", entry.getValue().toString());
+      }
+    }
+  }
+
+  /**
+   {
+    "type" : "record",
+    "name" : "bro",
+    "fields" : [
+      { "name" : "ip_src_addr", "type" : "string" },
+      { "name" : "duration", "type" : [ "null", "double" ], "default" : null },
+      { "name" : "geo_city", "type" : [ "null", "string" ], "default" : null, "metron.field" : "enrichments.geo.city" }
+    ]
+   }
+   */
+  @Multiline
+  public static String schema;
+
+  @Test
+  public void shouldUseTheSuppliedSchema() throws Exception {
+    JSONObject message = new JSONObject();
+    message.put("ip_src_addr", "10.0.0.1");
+    message.put("duration", 2L);
+    message.put("enrichments.geo.city", "Raleigh");
+    message.put("dropped", "not in the schema");
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Map<String, Object> config = new HashMap<>();
+    config.put(IndexingConfigurations.OUTPUT_SCHEMA_CONF, schema);
+    AvroRecordWriter writer = new AvroRecordWriter(out, config);
+    writer.write(message);
+    writer.close();
+
+    List<GenericRecord> records = read(out.toByteArray());
+    Assert.assertEquals(1, records.size());
+    Assert.assertEquals(3, records.get(0).getSchema().getFields().size());
+    Assert.assertEquals("10.0.0.1", records.get(0).get("ip_src_addr").toString());
+    Assert.assertEquals(2.0, records.get(0).get("duration"));
+    Assert.assertEquals("Raleigh", records.get(0).get("geo_city").toString());
+  }
+}
@@ -18,6 +18,9 @@
 
 package org.apache.metron.writer.hdfs;
 
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
 import org.apache.metron.common.configuration.IndexingConfigurations;
 import org.apache.metron.common.configuration.writer.IndexingWriterConfiguration;
 import org.apache.metron.common.configuration.writer.WriterConfiguration;
@@ -32,10 +35,14 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.util.*;
+import java.util.zip.GZIPInputStream;
 
 // Suppress ConstantConditions to avoid NPE warnings that only would occur on test failure anyway
 @SuppressWarnings("ConstantConditions")
@@ -213,7 +220,7 @@ public class HdfsWriterTest {
     }
   }
 
-  @Test(expected=IllegalStateException.class)
+  @Test
   public void testGetSourceHandlerOpenFilesOverMax() throws IOException {
     int maxFiles = 2;
     IndexingConfigurations indexingConfig = new IndexingConfigurations();
@@ -222,9 +229,15 @@ public class HdfsWriterTest {
                                         .withMaxOpenFiles(maxFiles);
     writer.init(new HashMap<String, String>(), createTopologyContext(),  config);
 
-    for(int i = 0; i < maxFiles+1; i++) {
-      writer.getSourceHandler(SENSOR_NAME, Integer.toString(i), null);
-    }
+    SourceHandler first = writer.getSourceHandler(SENSOR_NAME, "0", null);
+    SourceHandler second = writer.getSourceHandler(SENSOR_NAME, "1", null);
+    //the first handler is now the most recently used, so the second is closed to make room for the third
+    Assert.assertSame(first, writer.getSourceHandler(SENSOR_NAME, "0", null));
+    writer.getSourceHandler(SENSOR_NAME, "2", null);
+    Assert.assertEquals(maxFiles, writer.sourceHandlerMap.size());
+    Assert.assertSame(first, writer.getSourceHandler(SENSOR_NAME, "0", null));
+    Assert.assertNotSame(second, writer.getSourceHandler(SENSOR_NAME, "1", null));
+    writer.close();
   }
 
   @Test
@@ -410,6 +423,114 @@ public class HdfsWriterTest {
     }
   }
 
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testWriteAvro() throws Exception {
+    IndexingConfigurations indexingConfig = new IndexingConfigurations();
+    Map<String, Object> sensorIndexingConfig = new HashMap<>();
+    Map<String, Object> writerIndexingConfig = new HashMap<>();
+    writerIndexingConfig.put(IndexingConfigurations.OUTPUT_FORMAT_CONF, "avro");
+    sensorIndexingConfig.put(WRITER_NAME, writerIndexingConfig);
+    indexingConfig.updateSensorIndexingConfig(SENSOR_NAME, sensorIndexingConfig);
+    WriterConfiguration config = new IndexingWriterConfiguration(WRITER_NAME, indexingConfig);
+    HdfsWriter writer = new HdfsWriter().withFileNameFormat(testFormat);
+    writer.init(new HashMap<String, String>(), createTopologyContext(), config);
+
+    JSONObject message = new JSONObject();
+    message.put("test.key", "test.value");
+    message.put("count", 1L);
+    writer.write(SENSOR_NAME, config, new ArrayList<>(), Collections.singletonList(message));
+    writer.close();
+
+    File outputFolder = new File(folder.getAbsolutePath() + "/" + SENSOR_NAME);
+    Assert.assertEquals(1, outputFolder.listFiles().length);
+    File file = outputFolder.listFiles()[0];
+    Assert.assertTrue(file.getName().endsWith(".avro"));
+    try(DataFileReader<GenericRecord> reader = new DataFileReader<>(file, new GenericDatumReader<>())) {
+      GenericRecord record = reader.next();
+      Assert.assertEquals("test.value", record.get("test_key").toString());
+      Assert.assertEquals(1L, record.get("count"));
+      Assert.assertFalse(reader.hasNext());
+    }
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testWriteCompressed() throws Exception {
+    IndexingConfigurations indexingConfig = new IndexingConfigurations();
+    Map<String, Object> sensorIndexingConfig = new HashMap<>();
+    Map<String, Object> writerIndexingConfig = new HashMap<>();
+    writerIndexingConfig.put(IndexingConfigurations.OUTPUT_COMPRESSION_CONF, "gzip");
+    writerIndexingConfig.put(IntervalSyncPolicy.SYNC_BYTES_CONF, 1);
+    sensorIndexingConfig.put(WRITER_NAME, writerIndexingConfig);
+    indexingConfig.updateSensorIndexingConfig(SENSOR_NAME, sensorIndexingConfig);
+    WriterConfiguration config = new IndexingWriterConfiguration(WRITER_NAME, indexingConfig);
+    HdfsWriter writer = new HdfsWriter().withFileNameFormat(testFormat);
+    writer.init(new HashMap<String, String>(), createTopologyContext(), config);
+
+    JSONObject message = new JSONObject();
+    message.put("test.key", "test.value");
+    List<JSONObject> messages = new ArrayList<>();
+    messages.add(message);
+    messages.add(message);
+    writer.write(SENSOR_NAME, config, new ArrayList<>(), messages);
+    writer.close();
+
+    File outputFolder = new File(folder.getAbsolutePath() + "/" + SENSOR_NAME);
+    Assert.assertEquals(1, outputFolder.listFiles().length);
+    File file = outputFolder.listFiles()[0];
+    Assert.assertTrue(file.getName().endsWith(".json.gz"));
+    try(BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file))))) {
+      Assert.assertEquals(message.toJSONString(), reader.readLine());
+      Assert.assertEquals(message.toJSONString(), reader.readLine());
+      Assert.assertNull(reader.readLine());
+    }
+  }
+
+  /**
+   * Messages that have been synced should be readable before the file is closed, although they are still
+   * buffered and compressed below the position that the output stream reports.
+   */
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testSyncedCompressedMessagesAreReadable() throws Exception {
+    IndexingConfigurations indexingConfig = new IndexingConfigurations();
+    Map<String, Object> sensorIndexingConfig = new HashMap<>();
+    Map<String, Object> writerIndexingConfig = new HashMap<>();
+    writerIndexingConfig.put(IndexingConfigurations.OUTPUT_COMPRESSION_CONF, "gzip");
+    writerIndexingConfig.put(IntervalSyncPolicy.SYNC_BYTES_CONF, 1);
+    sensorIndexingConfig.put(WRITER_NAME, writerIndexingConfig);
+    indexingConfig.updateSensorIndexingConfig(SENSOR_NAME, sensorIndexingConfig);
+    WriterConfiguration config = new IndexingWriterConfiguration(WRITER_NAME, indexingConfig);
+    HdfsWriter writer = new HdfsWriter().withFileNameFormat(testFormat);
+    writer.init(new HashMap<String, String>(), createTopologyContext(), config);
+
+    JSONObject message = new JSONObject();
+    message.put("test.key", "test.value");
+    List<JSONObject> messages = new ArrayList<>();
+    messages.add(message);
+    messages.add(message);
+    writer.write(SENSOR_NAME, config, new ArrayList<>(), messages);
+
+    File outputFolder = new File(folder.getAbsolutePath() + "/" + SENSOR_NAME);
+    File file = outputFolder.listFiles()[0];
+    try(BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file))))) {
+      Assert.assertEquals(message.toJSONString(), reader.readLine());
+      Assert.assertEquals(message.toJSONString(), reader.readLine());
+      Assert.assertNull(reader.readLine());
+    }
+
+    // the file continues with another compressed stream after the sync
+    writer.write(SENSOR_NAME, config, new ArrayList<>(), messages);
+    writer.close();
+    try(BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file))))) {
+      for(int i = 0; i < 4; i++) {
+        Assert.assertEquals(message.toJSONString(), reader.readLine());
+      }
+      Assert.assertNull(reader.readLine());
+    }
+  }
+
   protected WriterConfiguration buildWriterConfiguration(String function) {
     IndexingConfigurations indexingConfig = new IndexingConfigurations();
     Map<String, Object> sensorIndexingConfig = new HashMap<>();
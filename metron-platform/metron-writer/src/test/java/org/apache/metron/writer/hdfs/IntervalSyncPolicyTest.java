@@ -0,0 +1,58 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.metron.writer.hdfs;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+
+public class IntervalSyncPolicyTest {
+
+  @Test
+  public void testSyncsAfterBytesWritten() {
+    IntervalSyncPolicy policy = new IntervalSyncPolicy(100, 0);
+    Assert.assertFalse(policy.mark(null, 60));
+    Assert.assertFalse(policy.mark(null, 120));
+    Assert.assertTrue(policy.mark(null, 200));
+    policy.reset();
+    Assert.assertFalse(policy.mark(null, 250));
+    //the file was rotated
+    Assert.assertFalse(policy.mark(null, 40));
+    Assert.assertTrue(policy.mark(null, 60));
+  }
+
+  @Test
+  public void testSyncsAfterInterval() throws Exception {
+    IntervalSyncPolicy policy = new IntervalSyncPolicy(0, 50);
+    Assert.assertFalse(policy.mark(null, 1L << 40));
+    Thread.sleep(60);
+    Assert.assertTrue(policy.mark(null, 1L << 40));
+  }
+
+  @Test
+  public void testCreate() {
+    Assert.assertNull(IntervalSyncPolicy.create(null));
+    Assert.assertNull(IntervalSyncPolicy.create(new HashMap<>()));
+    IntervalSyncPolicy policy = IntervalSyncPolicy.create(ImmutableMap.of(IntervalSyncPolicy.SYNC_BYTES_CONF, "10"));
+    Assert.assertFalse(policy.mark(null, 0));
+    Assert.assertTrue(policy.mark(null, 10));
+  }
+}
@@ -0,0 +1,83 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.writer.hdfs;
+
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.metron.common.configuration.IndexingConfigurations;
+import org.json.simple.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+public class JSONRecordWriterTest {
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testBytesWrittenIncludesBufferedMessages() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    JSONObject message = new JSONObject();
+    message.put("key", "value");
+    try(JSONRecordWriter writer = new JSONRecordWriter(out)) {
+      writer.write(message);
+      writer.write(message);
+      Assert.assertEquals(0, out.size());
+      Assert.assertEquals(2 * (message.toJSONString().length() + 1), writer.getBytesWritten());
+    }
+  }
+
+  @Test
+  public void testFlushedDeflateStreamsAreReadAsOne() throws Exception {
+    assertFlushedStreamsAreReadAsOne("DEFLATE");
+  }
+
+  @Test
+  public void testFlushedBZip2IsReadable() throws Exception {
+    assertFlushedStreamsAreReadAsOne("BZIP2");
+  }
+
+  @SuppressWarnings("unchecked")
+  private void assertFlushedStreamsAreReadAsOne(String compression) throws Exception {
+    Map<String, Object> sensorConfig = new HashMap<>();
+    sensorConfig.put(IndexingConfigurations.OUTPUT_COMPRESSION_CONF, compression);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try(JSONRecordWriter writer = new JSONRecordWriter(out, sensorConfig)) {
+      for(int i = 0; i < 4; i++) {
+        JSONObject message = new JSONObject();
+        message.put("count", i);
+        writer.write(message);
+        writer.flush();
+      }
+    }
+
+    CompressionCodec codec = JSONRecordWriter.getCodec(sensorConfig);
+    try(BufferedReader reader = new BufferedReader(new InputStreamReader(
+            codec.createInputStream(new ByteArrayInputStream(out.toByteArray())), StandardCharsets.UTF_8))) {
+      for(int i = 0; i < 4; i++) {
+        Assert.assertEquals("{\"count\":" + i + "}", reader.readLine());
+      }
+      Assert.assertNull(reader.readLine());
+    }
+  }
+}
@@ -18,16 +18,29 @@
 
 package org.apache.metron.writer.kafka;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.common.errors.RecordTooLargeException;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.serialization.StringSerializer;
 import org.apache.metron.common.configuration.ParserConfigurations;
 import org.apache.metron.common.configuration.SensorParserConfig;
 import org.apache.metron.common.configuration.writer.ParserWriterConfiguration;
 import org.apache.metron.common.configuration.writer.WriterConfiguration;
+import org.apache.metron.common.message.JSONMessageSerializer;
+import org.apache.metron.common.writer.BulkWriterResponse;
+import org.apache.storm.tuple.Tuple;
+import org.json.simple.JSONObject;
 import org.junit.Assert;
 import org.junit.Test;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.mockito.Mockito.mock;
 
 public class KafkaWriterTest {
 
@@ -85,4 +98,113 @@ public class KafkaWriterTest {
     Assert.assertEquals(producerConfigs.get("key1"), 1);
     Assert.assertEquals(producerConfigs.get("key2"), "value2");
   }
+
+  @Test
+  public void testValueSerializer() throws Exception {
+    KafkaWriter writer = new KafkaWriter();
+    WriterConfiguration configuration = createConfiguration(
+            new HashMap<String, Object>() {{
+              put("kafka.brokerUrl" , "localhost:6667");
+              put("kafka.topic" , SENSOR_TYPE);
+              put("kafka.valueSerializer" , JSONMessageSerializer.class.getName());
+            }}
+    );
+
+    writer.configure(SENSOR_TYPE, configuration);
+    Map<String, Object> producerConfigs = writer.createProducerConfigs();
+    Assert.assertEquals(producerConfigs.get("key.serializer"), "org.apache.kafka.common.serialization.StringSerializer");
+    Assert.assertEquals(producerConfigs.get("value.serializer"), JSONMessageSerializer.class.getName());
+  }
+
+  @Test
+  public void testLingerAndCompression() throws Exception {
+    KafkaWriter writer = new KafkaWriter();
+    WriterConfiguration configuration = createConfiguration(
+            new HashMap<String, Object>() {{
+              put("kafka.brokerUrl" , "localhost:6667");
+              put("kafka.compressionType" , "snappy");
+              put("kafka.lingerMs" , "5");
+            }}
+    );
+
+    writer.configure(SENSOR_TYPE, configuration);
+    Map<String, Object> producerConfigs = writer.createProducerConfigs();
+    Assert.assertEquals("snappy", producerConfigs.get("compression.type"));
+    Assert.assertEquals(5, producerConfigs.get("linger.ms"));
+    Assert.assertEquals("1", producerConfigs.get("acks"));
+    Assert.assertFalse(producerConfigs.containsKey("batch.size"));
+  }
+
+  @Test
+  public void testBulkWriteReportsOnlyFailedSends() throws Exception {
+    MockProducer<String, String> producer = new MockProducer<>(false, new StringSerializer(), new StringSerializer());
+    KafkaWriter writer = new KafkaWriter("localhost:6667").withTopic(SENSOR_TYPE).withProducer(producer);
+    writer.init();
+    Tuple tuple1 = mock(Tuple.class);
+    Tuple tuple2 = mock(Tuple.class);
+    Tuple tuple3 = mock(Tuple.class);
+    JSONObject message = new JSONObject(ImmutableMap.of("value", "message"));
+
+    CompletableFuture<BulkWriterResponse> future = writer.writeAsync( SENSOR_TYPE
+                                                                    , createConfiguration(new HashMap<>())
+                                                                    , ImmutableList.of(tuple1, tuple2, tuple3)
+                                                                    , ImmutableList.of(message, message, message)
+                                                                    );
+    Assert.assertEquals(3, producer.history().size());
+    Assert.assertEquals(message.toJSONString(), producer.history().get(0).value());
+    producer.completeNext();
+    Assert.assertFalse(future.isDone());
+    RuntimeException fatal = new RecordTooLargeException("too large");
+    RuntimeException retryable = new TimeoutException("timed out");
+    producer.errorNext(fatal);
+    producer.errorNext(retryable);
+
+    BulkWriterResponse expected = new BulkWriterResponse();
+    expected.addSuccess(tuple1);
+    expected.addError(fatal, tuple2);
+    expected.addRetryableError(retryable, tuple3);
+    Assert.assertEquals(expected, future.get());
+  }
+
+  @Test
+  public void testBulkWriteReportsATupleForEachOfItsMessages() throws Exception {
+    MockProducer<String, String> producer = new MockProducer<>(false, new StringSerializer(), new StringSerializer());
+    KafkaWriter writer = new KafkaWriter("localhost:6667").withTopic(SENSOR_TYPE).withProducer(producer);
+    writer.init();
+    Tuple tuple1 = mock(Tuple.class);
+    Tuple tuple2 = mock(Tuple.class);
+    JSONObject message = new JSONObject(ImmutableMap.of("value", "message"));
+
+    CompletableFuture<BulkWriterResponse> future = writer.writeAsync( SENSOR_TYPE
+                                                                    , createConfiguration(new HashMap<>())
+                                                                    , ImmutableList.of(tuple1, tuple1, tuple2)
+                                                                    , ImmutableList.of(message, message, message)
+                                                                    );
+    RuntimeException fatal = new RecordTooLargeException("too large");
+    producer.completeNext();
+    producer.errorNext(fatal);
+    producer.completeNext();
+
+    BulkWriterResponse expected = new BulkWriterResponse();
+    expected.addSuccess(tuple1);
+    expected.addError(fatal, tuple1);
+    expected.addSuccess(tuple2);
+    Assert.assertEquals(expected, future.get());
+  }
+
+  @Test(expected = ExecutionException.class)
+  public void testBulkWriteRejectsMessagesWithoutTuples() throws Exception {
+    MockProducer<String, String> producer = new MockProducer<>(false, new StringSerializer(), new StringSerializer());
+    KafkaWriter writer = new KafkaWriter("localhost:6667").withTopic(SENSOR_TYPE).withProducer(producer);
+    writer.init();
+    JSONObject message = new JSONObject(ImmutableMap.of("value", "message"));
+
+    CompletableFuture<BulkWriterResponse> future = writer.writeAsync( SENSOR_TYPE
+                                                                    , createConfiguration(new HashMap<>())
+                                                                    , ImmutableList.of(mock(Tuple.class))
+                                                                    , ImmutableList.of(message, message)
+                                                                    );
+    Assert.assertTrue(producer.history().isEmpty());
+    future.get();
+  }
 }